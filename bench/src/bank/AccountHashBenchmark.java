@@ -0,0 +1,70 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Cost of Account.hashCode() and Account.equals(), which every
+ * Hashtable lookup of the accounts goes through.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=AccountHash
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountHashBenchmark {
+
+	/** Number of accounts compared, a power of two */
+	private static final int SIZE = 1024;
+
+	private Account[] accounts;
+	private Account[] copies;
+	private int next;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		accounts = new Account[SIZE];
+		copies = new Account[SIZE];
+		for(int i = 0; i < SIZE; i++) {
+			String id = Banks.id(random.nextInt(1000000000));
+			accounts[i] = new Account();
+			accounts[i].accountID = id;
+			copies[i] = new Account();
+			copies[i].accountID = new String(id);
+		}
+	}
+
+	@Benchmark
+	public int hash() {
+		return accounts[next++ & (SIZE - 1)].hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsSameID() {
+		int i = next++ & (SIZE - 1);
+		return accounts[i].equals(copies[i]);
+	}
+
+	@Benchmark
+	public boolean equalsOtherID() {
+		int i = next++ & (SIZE - 1);
+		return accounts[i].equals(copies[(i + 1) & (SIZE - 1)]);
+	}
+
+	@Benchmark
+	public void hashAndEquals(Blackhole hole) {
+		int i = next++ & (SIZE - 1);
+		hole.consume(copies[i].hashCode());
+		hole.consume(accounts[i].equals(copies[i]));
+	}
+}
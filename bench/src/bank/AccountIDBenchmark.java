@@ -0,0 +1,114 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of account ID validation, hash codes and equality, next to the versions
+ * they replaced: checkID() matching a regular expression, a DJB hash computed
+ * on every call, and equals() comparing the strings.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=AccountIDBenchmark
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountIDBenchmark {
+
+	/** Number of IDs, a power of two */
+	private static final int SIZE = 1024;
+
+	private String[] ids;
+	private Account[] accounts;
+	private Account[] copies;
+	private int next;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		ids = new String[SIZE];
+		accounts = new Account[SIZE];
+		copies = new Account[SIZE];
+		for(int i = 0; i < SIZE; i++) {
+			ids[i] = Long.toString(100000000000L + (random.nextLong() & Long.MAX_VALUE) % 900000000000L);
+			accounts[i] = new Account();
+			accounts[i].accountID = ids[i];
+			copies[i] = new Account();
+			copies[i].accountID = new String(ids[i]);
+		}
+	}
+
+	/** Account.checkID() before: compiles the pattern on every call */
+	private static void regexCheckID(String accountID) throws IllegalIDException {
+		if(!accountID.matches("\\d+"))
+			throw new IllegalIDException("AccountID can only contain digits.");
+		if(accountID.length() < 2)
+			throw new IllegalIDException("AccountID must contain at least 2 digits.");
+		if(accountID.length() > AccountIndex.MAX_ID_DIGITS)
+			throw new IllegalIDException("AccountID must contain at most " + AccountIndex.MAX_ID_DIGITS + " digits.");
+	}
+
+	/** Account.hashCode() before */
+	private static int djbHash(Account acc) {
+		int hash = 5381;
+		for(int i = 0; i < acc.accountID.length(); i++)
+			hash = ((hash << 5) + hash) + acc.accountID.toString().charAt(i);
+		return hash;
+	}
+
+	/** Account.equals() before */
+	private static boolean stringEquals(Account acc, Object obj) {
+		if(obj.getClass() != acc.getClass())
+			return false;
+		return ((Account)obj).accountID.equals(acc.accountID);
+	}
+
+	@Benchmark
+	public String checkIDRegex() throws IllegalIDException {
+		String id = ids[next++ & (SIZE - 1)];
+		regexCheckID(id);
+		return id;
+	}
+
+	@Benchmark
+	public String checkID() throws IllegalIDException {
+		String id = ids[next++ & (SIZE - 1)];
+		Account.checkID(id);
+		return id;
+	}
+
+	@Benchmark
+	public long parseKey() {
+		return AccountIndex.key(ids[next++ & (SIZE - 1)]);
+	}
+
+	@Benchmark
+	public int hashDJB() {
+		return djbHash(accounts[next++ & (SIZE - 1)]);
+	}
+
+	@Benchmark
+	public int hashCached() {
+		return accounts[next++ & (SIZE - 1)].hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsStrings() {
+		int i = next++ & (SIZE - 1);
+		return stringEquals(accounts[i], copies[i]);
+	}
+
+	@Benchmark
+	public boolean equalsKeys() {
+		int i = next++ & (SIZE - 1);
+		return accounts[i].equals(copies[i]);
+	}
+}
@@ -0,0 +1,68 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of looking an account up by ID: through Bank.findAccount(),
+ * directly in the AccountIndex, and through the legacy Hashtable lookup
+ * with a probe Account as the key.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=AccountLookup
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AccountLookupBenchmark {
+
+	@Param({"10000", "100000", "1000000", "10000000"})
+	public int accounts;
+
+	private Bank bank;
+	private AccountIndex index;
+	private String[] probes;
+	private long[] keys;
+	private int next;
+
+	@Setup
+	public void setup() {
+		bank = Banks.usdBank(accounts, 1);
+		index = new AccountIndex(accounts);
+		for(Account acc : bank.accounts.keySet())
+			index.put(acc);
+		probes = Banks.probes(accounts, new Random(42));
+		keys = new long[probes.length];
+		for(int i = 0; i < probes.length; i++)
+			keys[i] = AccountIndex.key(probes[i]);
+	}
+
+	@Benchmark
+	public Account findAccount() {
+		return bank.findAccount(probes[next++ & (Banks.PROBES - 1)]);
+	}
+
+	@Benchmark
+	public Account indexByKey() {
+		return index.get(keys[next++ & (Banks.PROBES - 1)]);
+	}
+
+	@Benchmark
+	public Account indexByID() {
+		return index.get(probes[next++ & (Banks.PROBES - 1)]);
+	}
+
+	@Benchmark
+	public Account hashtable() {
+		Account probe = new Account();
+		probe.accountID = probes[next++ & (Banks.PROBES - 1)];
+		return bank.accounts.get(probe);
+	}
+}
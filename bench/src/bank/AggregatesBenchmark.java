@@ -0,0 +1,82 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** What the running Aggregates cost and save: a deposit and a transfer with and
+ * without the totals to maintain, and the totals per currency read from them
+ * next to scanning every account.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=Aggregates
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AggregatesBenchmark {
+
+	@Param({"10000", "1000000"})
+	public int accounts;
+
+	private Bank plain;
+	private Bank counted;
+	private Aggregates aggregates;
+	private String[] probes;
+	private int next;
+
+	@Setup
+	public void setup() {
+		plain = Banks.randomBank(accounts, new Random(42));
+		counted = Banks.randomBank(accounts, new Random(42));
+		aggregates = counted.enableAggregates();
+		probes = Banks.probes(accounts, new Random(7));
+	}
+
+	private String probe() {
+		return probes[next++ & (Banks.PROBES - 1)];
+	}
+
+	@Benchmark
+	public TransactionResult depositPlain() {
+		return plain.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult depositCounted() {
+		return counted.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult transferPlain() {
+		return plain.transfer(probe(), probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult transferCounted() {
+		return counted.transfer(probe(), probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public Aggregates.Totals totalsRead() {
+		return aggregates.read();
+	}
+
+	@Benchmark
+	public long[] totalsScan() {
+		long[] sums = new long[Account.CURRENCIES];
+		for(Account acc : plain.accounts.values())
+			synchronized(acc) {
+				for(int c = 0; c < Account.CURRENCIES; c++)
+					sums[c] += acc.amounts[c];
+			}
+		return sums;
+	}
+}
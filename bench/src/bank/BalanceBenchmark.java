@@ -0,0 +1,156 @@
+package bank;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/** Benchmark that compares the balance representation of an Account
+ * with the list of Balance objects holding a boxed Double it replaced:
+ * time and heap bytes allocated per deposit or withdrawal.
+ *
+ * Both sides apply the same random operations to the same accounts,
+ * each holding balances in half of the currencies.
+ *
+ * Usage: gradle :bench:harness -Pharness=BalanceBenchmark [-PharnessArgs=accounts]
+ * Defaults to 100k accounts.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class BalanceBenchmark {
+
+	/** Number of operations per round */
+	private static final int OPERATIONS = 10000000;
+
+	/** Number of measured rounds per representation */
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		Random random = new Random(42);
+		Currency[] currencies = Currency.values();
+
+		Account[] accounts = new Account[size];
+		LegacyAccount[] legacy = new LegacyAccount[size];
+		for(int i = 0; i < size; i++) {
+			accounts[i] = new Account();
+			legacy[i] = new LegacyAccount();
+			for(int c = i % 2; c < currencies.length; c += 2) {
+				accounts[i].openBalance(currencies[c], 100000);
+				legacy[i].balances.add(new LegacyBalance(currencies[c], 1000.0));
+			}
+		}
+
+		//Operations: account, currency and signed amount, drawn once for both sides
+		int[] targets = new int[OPERATIONS];
+		Currency[] opCurrencies = new Currency[OPERATIONS];
+		int[] amounts = new int[OPERATIONS];
+		for(int i = 0; i < OPERATIONS; i++) {
+			targets[i] = random.nextInt(size);
+			opCurrencies[i] = currencies[(targets[i] % 2) + 2 * random.nextInt(currencies.length / 2)];
+			amounts[i] = random.nextBoolean() ? 1 + random.nextInt(100) : -1 - random.nextInt(100);
+		}
+
+		System.out.println(size + " accounts, " + OPERATIONS + " operations per round");
+		System.out.println("representation\tns/op\tbytes/op");
+		for(int warmup = 0; warmup < 2; warmup++) {
+			runPrimitive(accounts, targets, opCurrencies, amounts);
+			runLegacy(legacy, targets, opCurrencies, amounts);
+		}
+
+		long time = 0, bytes = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			runLegacy(legacy, targets, opCurrencies, amounts);
+			time += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocated;
+		}
+		print("List<Balance>", time, bytes);
+
+		time = bytes = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			runPrimitive(accounts, targets, opCurrencies, amounts);
+			time += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocated;
+		}
+		print("long[]", time, bytes);
+	}
+
+	/** Applies the operations to the primitive balances, as Bank does
+	 * @return long number of operations refused for lack of funds
+	 */
+	private static long runPrimitive(Account[] accounts, int[] targets, Currency[] currencies, int[] amounts) {
+		long refused = 0;
+		for(int i = 0; i < targets.length; i++) {
+			Account acc = accounts[targets[i]];
+			if(!acc.containsBalanceWithCurrency(currencies[i]))
+				continue;
+			int c = currencies[i].ordinal();
+			long amount = amounts[i];
+			if(amount < 0 && -amount > acc.amounts[c])
+				refused++;
+			else
+				acc.amounts[c] += amount;
+		}
+		return refused;
+	}
+
+	/** Applies the operations to the list of boxed balances, as Bank used to
+	 * @return long number of operations refused for lack of funds
+	 */
+	private static long runLegacy(LegacyAccount[] accounts, int[] targets, Currency[] currencies, int[] amounts) {
+		long refused = 0;
+		for(int i = 0; i < targets.length; i++) {
+			LegacyBalance b = accounts[targets[i]].balanceWithCurrency(currencies[i]);
+			if(b == null)
+				continue;
+			double amount = amounts[i] / 100.0;
+			if(amount < 0 && -amount > b.value)
+				refused++;
+			else
+				b.value += amount;
+		}
+		return refused;
+	}
+
+	/** Heap bytes allocated so far by the current thread, -1 if the JVM cannot tell
+	 * @return long
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void print(String name, long nanos, long bytes) {
+		long operations = (long)ROUNDS * OPERATIONS;
+		System.out.printf("%s\t%.2f\t%.2f%n", name, (double)nanos / operations, (double)bytes / operations);
+	}
+
+	/** Balance as it used to be: a currency and a boxed value */
+	private static class LegacyBalance {
+		final Currency currency;
+		Double value;
+
+		LegacyBalance(Currency currency, Double value) {
+			this.currency = currency;
+			this.value = value;
+		}
+	}
+
+	/** Account as it used to be: a list of balances scanned for a currency */
+	private static class LegacyAccount {
+		final List<LegacyBalance> balances = new ArrayList<LegacyBalance>();
+
+		LegacyBalance balanceWithCurrency(Currency c) {
+			for(LegacyBalance b : balances)
+				if(b.currency == c)
+					return b;
+			return null;
+		}
+	}
+}
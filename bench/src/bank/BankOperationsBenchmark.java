@@ -0,0 +1,64 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Single-threaded cost of the money operations of a Bank without a journal:
+ * deposit, withdraw, transfer between two random accounts and balance inquiry.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=BankOperations
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BankOperationsBenchmark {
+
+	/** Opening balance of every account, never exhausted by the withdrawals */
+	static final long OPENING = Long.MAX_VALUE / 4;
+
+	@Param({"10000", "1000000"})
+	public int accounts;
+
+	private Bank bank;
+	private String[] probes;
+	private int next;
+
+	@Setup
+	public void setup() {
+		bank = Banks.usdBank(accounts, OPENING);
+		probes = Banks.probes(accounts, new Random(42));
+	}
+
+	private String probe() {
+		return probes[next++ & (Banks.PROBES - 1)];
+	}
+
+	@Benchmark
+	public TransactionResult deposit() {
+		return bank.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult withdraw() {
+		return bank.withdraw(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult transfer() {
+		return bank.transfer(probe(), probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult balanceInquiry() {
+		return bank.balanceInquiry(probe(), Currency.USD);
+	}
+}
@@ -0,0 +1,69 @@
+package bank;
+
+import java.util.*;
+
+/** Banks and account IDs shared by the benchmarks
+ *
+ * @author JosephKalash
+ *
+ */
+
+final class Banks {
+
+	/** Number of pre-generated IDs probed by the benchmarks, a power of two */
+	static final int PROBES = 1 << 16;
+
+	private Banks() {
+	}
+
+	/** ID of the i-th account of a generated bank
+	 * @param i
+	 * @return String
+	 * */
+	static String id(int i) {
+		return Integer.toString(100 + i);
+	}
+
+	/** Creates a bank of the given size with 1 to 6 balances per account
+	 * @param size
+	 * @param random
+	 * @return Bank
+	 * */
+	static Bank randomBank(int size, Random random) {
+		Bank bank = new Bank(size);
+		Currency[] currencies = Currency.values();
+		for(int i = 0; i < size; i++) {
+			List<Balance> balances = new ArrayList<Balance>();
+			int count = 1 + random.nextInt(currencies.length);
+			for(int c = 0; c < count; c++)
+				balances.add(new Balance(currencies[(i + c) % currencies.length], random.nextInt(100000000)));
+			bank.createAccount(id(i), "First" + random.nextInt(10000), "Last" + random.nextInt(100000), balances);
+		}
+		return bank;
+	}
+
+	/** Creates a bank of the given size where every account holds
+	 * the same opening balance in USD, large enough never to run out
+	 * @param size
+	 * @param opening
+	 * @return Bank
+	 * */
+	static Bank usdBank(int size, long opening) {
+		Bank bank = new Bank(size);
+		for(int i = 0; i < size; i++)
+			bank.createAccount(id(i), "First", "Last", Collections.singletonList(new Balance(Currency.USD, opening)));
+		return bank;
+	}
+
+	/** Random IDs of existing accounts, created up front so only the operation is measured
+	 * @param size
+	 * @param random
+	 * @return String[]
+	 * */
+	static String[] probes(int size, Random random) {
+		String[] probes = new String[PROBES];
+		for(int i = 0; i < PROBES; i++)
+			probes[i] = id(random.nextInt(size));
+		return probes;
+	}
+}
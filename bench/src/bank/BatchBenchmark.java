@@ -0,0 +1,89 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+
+/** Benchmark that measures BatchIngester throughput in records per second,
+ * for the same random deposits, withdrawals and transfers written as CSV and as binary,
+ * applied to a journaled bank.
+ *
+ * Usage: gradle :bench:harness -Pharness=BatchBenchmark [-PharnessArgs='records accounts policy']
+ * Defaults to 1M records over 10k accounts with the GROUP policy.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class BatchBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		Journal.SyncPolicy policy = Journal.SyncPolicy.valueOf(args.length > 2 ? args[2] : "GROUP");
+
+		File directory = File.createTempFile("bank", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			File csv = new File(directory, "batch.csv");
+			File binary = new File(directory, "batch.bin");
+			writeBatches(records, accounts, new Random(42), csv, binary);
+
+			System.out.println(records + " records over " + accounts + " accounts, " + policy + " journal");
+			System.out.println("format\tbytes\t\trecords/s");
+			for(File input : new File[] {csv, binary}) {
+				for(File f : directory.listFiles())
+					if(f.getName().startsWith("journal-") || f.getName().equals(BankStore.SNAPSHOT))
+						f.delete();
+				BankStore store = new BankStore(directory, policy, 10, 0);
+				createAccounts(store.bank, accounts);
+				BatchIngester.Report report = new BatchIngester(store.bank).ingest(input, new File(directory, "batch.results"));
+				store.close();
+				System.out.printf("%s\t%d\t%.0f%n", input == csv ? "CSV" : "binary", input.length(), report.recordsPerSecond());
+			}
+		}
+		finally {
+			for(File f : directory.listFiles())
+				f.delete();
+			directory.delete();
+		}
+	}
+
+	/** Writes the same random records to a CSV and a binary batch file */
+	private static void writeBatches(int records, int accounts, Random random, File csv, File binary) throws IOException {
+		PrintWriter text = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv), "UTF-8"), 1 << 16));
+		BatchIngester.BinaryWriter bin = new BatchIngester.BinaryWriter(new FileOutputStream(binary));
+		try {
+			for(int i = 0; i < records; i++) {
+				String id = Integer.toString(100 + random.nextInt(accounts));
+				long amount = 1 + random.nextInt(10000);
+				int kind = random.nextInt(3);
+				if(kind == 0) {
+					text.println("DEPOSIT," + id + ",,USD," + Money.format(amount, Currency.USD));
+					bin.write(Transaction.deposit(id, Currency.USD, amount));
+				}
+				else if(kind == 1) {
+					text.println("WITHDRAW," + id + ",,USD," + Money.format(amount, Currency.USD));
+					bin.write(Transaction.withdraw(id, Currency.USD, amount));
+				}
+				else {
+					String to = Integer.toString(100 + random.nextInt(accounts));
+					text.println("TRANSFER," + id + "," + to + ",USD," + Money.format(amount, Currency.USD));
+					bin.write(Transaction.transfer(id, to, Currency.USD, amount));
+				}
+			}
+		}
+		finally {
+			text.close();
+			bin.close();
+		}
+	}
+
+	private static void createAccounts(Bank bank, int accounts) {
+		for(int i = 0; i < accounts; i++) {
+			List<Balance> balances = new ArrayList<Balance>();
+			balances.add(new Balance(Currency.USD, 1000000));
+			bank.createAccount(Integer.toString(100 + i), "First" + i, "Last" + i, balances);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Online checkpoint benchmark: time and size of a delta for a growing number
+ * of changed accounts, next to a full snapshot of the same bank, while a client
+ * thread keeps depositing to random accounts. The worst latency the client saw
+ * during each write tells how long operations were held up by it.
+ * The client only reads balances until the write starts, so the delta holds
+ * exactly the accounts changed before it.
+ *
+ * Usage: gradle :bench:harness -Pharness=CheckpointBenchmark [-PharnessArgs='accounts']
+ * Defaults to 1M accounts.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class CheckpointBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		final Bank bank = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+		bank.trackChanges();
+		File file = File.createTempFile("bank", ".checkpoint");
+		try {
+			System.out.println(accounts + " accounts");
+			System.out.println("written\t\tchanged\tms\tbytes\t\tclient ops\tclient max ms");
+			for(int changed = 1000; changed < accounts; changed *= 10) {
+				//Start from a clean epoch, then change the given number of accounts
+				write(bank, file, true);
+				for(int i = 0; i < changed; i++)
+					bank.deposit(Banks.id((int)((long)i * accounts / changed)), Currency.USD, 1);
+				report("delta", changed, bank, file, false);
+			}
+			for(int i = 0; i < 3; i++)
+				report("snapshot", accounts, bank, file, true);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/** Writes a checkpoint while a client runs, and prints how it went */
+	private static void report(String name, int changed, final Bank bank, File file, boolean full) throws Exception {
+		final int accounts = bank.accounts.size();
+		final AtomicBoolean writing = new AtomicBoolean();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final LatencyHistogram latency = new LatencyHistogram();
+		Thread client = new Thread(new Runnable() {
+			public void run() {
+				Random random = new Random(7);
+				while(!stop.get()) {
+					String id = Banks.id(random.nextInt(accounts));
+					if(!writing.get()) {
+						bank.balanceInquiry(id, Currency.USD);
+						continue;
+					}
+					long start = System.nanoTime();
+					bank.deposit(id, Currency.USD, 1);
+					latency.record(System.nanoTime() - start);
+				}
+			}
+		});
+		client.start();
+		//Let the client warm up before writing
+		Thread.sleep(200);
+		writing.set(true);
+		long start = System.nanoTime();
+		write(bank, file, full);
+		long elapsed = System.nanoTime() - start;
+		stop.set(true);
+		client.join();
+		System.out.printf("%s\t%d\t%.1f\t%d\t%d\t\t%.2f%n", name, changed, elapsed / 1e6, file.length(),
+				latency.count(), latency.max() / 1e6);
+	}
+
+	/** Writes a snapshot or a delta to a file */
+	private static void write(Bank bank, File file, boolean full) throws IOException {
+		FileOutputStream f_out = new FileOutputStream(file);
+		try {
+			if(full)
+				bank.writeSnapshot(f_out.getChannel());
+			else
+				bank.writeDelta(f_out.getChannel());
+		}
+		finally {
+			f_out.close();
+		}
+	}
+}
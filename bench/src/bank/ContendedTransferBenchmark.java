@@ -0,0 +1,58 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Throughput of concurrent transfers between random accounts.
+ * With few accounts most transfers wait on the same account locks,
+ * with many they mostly share only the bank's read lock.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs='ContendedTransfer -t 8'
+ *
+ * @author JosephKalash
+ *
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+public class ContendedTransferBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		@Param({"16", "10000", "1000000"})
+		public int accounts;
+
+		Bank bank;
+
+		@Setup
+		public void setup() {
+			bank = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Worker {
+
+		String[] probes;
+		int next;
+
+		@Setup
+		public void setup(Shared shared) {
+			probes = Banks.probes(shared.accounts, new Random(Thread.currentThread().getId()));
+		}
+	}
+
+	@Benchmark
+	public TransactionResult transfer(Shared shared, Worker worker) {
+		String from = worker.probes[worker.next++ & (Banks.PROBES - 1)];
+		String to = worker.probes[worker.next++ & (Banks.PROBES - 1)];
+		return shared.bank.transfer(from, to, Currency.USD, 100);
+	}
+}
@@ -0,0 +1,87 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Throughput of cross-currency transfers between random accounts,
+ * alone and while another thread keeps updating the exchange rates.
+ * Updates copy the rate table and never block the transfers.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=ExchangeTransfer
+ *
+ * @author JosephKalash
+ *
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExchangeTransferBenchmark {
+
+	@State(Scope.Group)
+	public static class Shared {
+
+		@Param({"10000", "1000000"})
+		public int accounts;
+
+		Bank bank;
+
+		@Setup
+		public void setup() {
+			bank = new Bank(accounts);
+			for(int i = 0; i < accounts; i++) {
+				List<Balance> balances = new ArrayList<Balance>();
+				balances.add(new Balance(Currency.USD, BankOperationsBenchmark.OPENING));
+				balances.add(new Balance(Currency.EUR, BankOperationsBenchmark.OPENING));
+				bank.createAccount(Banks.id(i), "First", "Last", balances);
+			}
+			bank.exchangeRates().setRate(Currency.USD, Currency.EUR, ExchangeRates.parseRate("0.92"));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Worker {
+
+		String[] probes;
+		int next;
+		long rate = ExchangeRates.parseRate("0.92");
+
+		@Setup
+		public void setup(Shared shared) {
+			probes = Banks.probes(shared.accounts, new Random(Thread.currentThread().getId()));
+		}
+	}
+
+	private static TransactionResult transfer(Shared shared, Worker worker) {
+		String from = worker.probes[worker.next++ & (Banks.PROBES - 1)];
+		String to = worker.probes[worker.next++ & (Banks.PROBES - 1)];
+		return shared.bank.exchangeTransfer(from, to, Currency.USD, Currency.EUR, 100);
+	}
+
+	@Benchmark
+	@Group("stableRates")
+	@GroupThreads(7)
+	public TransactionResult stableTransfer(Shared shared, Worker worker) {
+		return transfer(shared, worker);
+	}
+
+	@Benchmark
+	@Group("updatedRates")
+	@GroupThreads(7)
+	public TransactionResult updatedTransfer(Shared shared, Worker worker) {
+		return transfer(shared, worker);
+	}
+
+	/** Moves the rate up and down by one step on every call */
+	@Benchmark
+	@Group("updatedRates")
+	@GroupThreads(1)
+	public long updateRate(Shared shared, Worker worker) {
+		worker.rate += (worker.next++ & 1) == 0 ? 1 : -1;
+		return shared.bank.exchangeRates().setRate(Currency.USD, Currency.EUR, worker.rate);
+	}
+}
@@ -0,0 +1,93 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of recording the History of every operation, and of reading it back:
+ * a deposit with and without history, the newest page of an account, held
+ * in memory, and a page a hundred entries back, read from the spilled records.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=History
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HistoryBenchmark {
+
+	/** Entries kept in memory per account */
+	private static final int PER_ACCOUNT = 16;
+
+	/** Entries per page */
+	private static final int PAGE = 10;
+
+	@Param({"10000", "1000000"})
+	public int accounts;
+
+	private Bank plain;
+	private Bank recorded;
+	private History history;
+	private File directory;
+	private String[] probes;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = File.createTempFile("history", "");
+		directory.delete();
+		directory.mkdir();
+		history = History.open(directory, PER_ACCOUNT);
+
+		plain = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+		recorded = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+		recorded.setHistory(history);
+		probes = Banks.probes(accounts, new Random(42));
+
+		//Enough entries per probed account for the deep pages
+		for(int i = 0; i < 128; i++)
+			for(int p = 0; p < 1024; p++)
+				recorded.deposit(probes[p], Currency.USD, 1);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		history.close();
+		for(File f : directory.listFiles())
+			f.delete();
+		directory.delete();
+	}
+
+	private String probe() {
+		return probes[next++ & (Banks.PROBES - 1)];
+	}
+
+	@Benchmark
+	public TransactionResult depositPlain() {
+		return plain.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult depositRecorded() {
+		return recorded.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public History.Page newestPage() throws IOException {
+		return history.page(probes[next++ & 1023], Long.MIN_VALUE, Long.MAX_VALUE, PAGE);
+	}
+
+	@Benchmark
+	public History.Page spilledPage() throws IOException {
+		History.Page page = history.page(probes[next++ & 1023], Long.MIN_VALUE, Long.MAX_VALUE, 100);
+		return history.next(page, PAGE);
+	}
+}
@@ -0,0 +1,73 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Throughput of concurrent transfers when nine in ten touch a few hot accounts:
+ * half pay out of a payroll account, half pay into a merchant account, the rest
+ * move money between random accounts. The hot accounts either lock as any other
+ * (cells = 0) or are split into cells by Bank.setHot().
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs='HotAccount -t 8'
+ *
+ * @author JosephKalash
+ *
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+public class HotAccountBenchmark {
+
+	static final int ACCOUNTS = 100000;
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		@Param({"0", "8"})
+		public int cells;
+
+		@Param({"1", "4"})
+		public int hot;
+
+		Bank bank;
+
+		@Setup
+		public void setup() {
+			bank = Banks.usdBank(ACCOUNTS, 1000000000000L);
+			if(cells > 0)
+				for(int i = 0; i < hot; i++)
+					bank.setHot(Banks.id(i), cells);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Worker {
+
+		String[] from = new String[Banks.PROBES], to = new String[Banks.PROBES];
+		int next;
+
+		@Setup
+		public void setup(Shared shared) {
+			Random random = new Random(Thread.currentThread().getId());
+			String[] probes = Banks.probes(ACCOUNTS, random);
+			for(int i = 0; i < Banks.PROBES; i++) {
+				String hot = Banks.id(random.nextInt(shared.hot));
+				int kind = random.nextInt(20);
+				from[i] = kind < 9 ? hot : probes[i];
+				to[i] = kind >= 9 && kind < 18 ? hot : probes[(i + 1) & (Banks.PROBES - 1)];
+			}
+		}
+	}
+
+	@Benchmark
+	public TransactionResult transfer(Shared shared, Worker worker) {
+		int i = worker.next++ & (Banks.PROBES - 1);
+		return shared.bank.transfer(worker.from[i], worker.to[i], Currency.USD, 100);
+	}
+}
@@ -0,0 +1,149 @@
+package bank;
+
+import java.time.*;
+import java.util.*;
+
+/** Memory and time cost of the IdempotencyCache at a steady rate of new keys per hour:
+ * the clock moves forward by one key interval per key, so once the first time to live has passed
+ * every new key evicts an expired one and the cache holds rate x ttl keys.
+ *
+ * For each rate it reports the heap taken per key held, the time to add a key
+ * (begin() and complete() of a new transaction), to answer a retry and to check a key never seen
+ * once held keys expire, then the cost of a keyed deposit next to a plain one on a Bank.
+ *
+ * Usage: gradle :bench:harness -Pharness=IdempotencyBenchmark [-PharnessArgs='ttlHours keysPerHour...']
+ * Defaults to a one hour time to live at 1M, 4M and 16M keys per hour.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class IdempotencyBenchmark {
+
+	/** Retries timed per rate */
+	private static final int LOOKUPS = 2000000;
+
+	/** Time of the keys added, in milliseconds */
+	private static double now;
+
+	private static final Clock CLOCK = new Clock() {
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+		public Instant instant() {
+			return Instant.ofEpochMilli((long)now);
+		}
+	};
+
+	public static void main(String[] args) {
+		double ttlHours = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+		List<Long> rates = new ArrayList<Long>();
+		for(int i = 1; i < args.length; i++)
+			rates.add(Long.parseLong(args[i]));
+		if(rates.isEmpty())
+			rates.addAll(Arrays.asList(1000000L, 4000000L, 16000000L));
+
+		long ttl = (long)(ttlHours * 3600000);
+		System.out.println("time to live " + ttlHours + " h");
+		System.out.println("keys/hour\tkeys held\tbytes/key\tadd ns\tretry ns\tmiss ns");
+		for(long rate : rates) {
+			int held = (int)Math.min(Integer.MAX_VALUE - 8, rate * ttlHours);
+			run(rate, held, ttl);
+		}
+		compareBank();
+	}
+
+	/** Fills a cache to its steady state at the given rate, then times it */
+	private static void run(long rate, int held, long ttl) {
+		double interval = 3600000.0 / rate;
+		Transaction request = Transaction.deposit("123456", Currency.USD, 100);
+		TransactionResult result = new TransactionResult(TransactionResult.Status.OK, "123456", Currency.USD, 100, 100000);
+		now = 0;
+
+		long before = usedMemory();
+		IdempotencyCache cache = new IdempotencyCache(held + held / 8, ttl, CLOCK);
+		long key = 1;
+		//Up to the first keys expiring
+		for(int i = 0; i < held; i++, key++) {
+			add(cache, request.withKey(key), result);
+			now += interval;
+		}
+		long bytes = usedMemory() - before;
+		int size = cache.size();
+
+		//Steady state: every key added evicts an expired one
+		long start = System.nanoTime();
+		int added = held;
+		for(int i = 0; i < added; i++, key++) {
+			add(cache, request.withKey(key), result);
+			now += interval;
+		}
+		double addNanos = (System.nanoTime() - start) / (double)added;
+
+		//Retries of the newest half of the keys, in random order, so none expires meanwhile
+		Random random = new Random(42);
+		long oldest = key - cache.size() / 2;
+		long found = 0;
+		start = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++) {
+			Transaction t = request.withKey(oldest + (long)(random.nextDouble() * (key - oldest)));
+			if(cache.begin(t) != null)
+				found++;
+			else
+				cache.abandon(t);
+		}
+		double retryNanos = (System.nanoTime() - start) / (double)LOOKUPS;
+		if(found != LOOKUPS)
+			throw new IllegalStateException("Retries found " + found + " of " + LOOKUPS + " keys.");
+
+		//Keys never seen: added, then abandoned
+		start = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++) {
+			Transaction t = request.withKey(-1 - i);
+			cache.begin(t);
+			cache.abandon(t);
+		}
+		double missNanos = (System.nanoTime() - start) / (double)LOOKUPS;
+
+		System.out.printf("%d\t\t%d\t\t%.1f\t\t%.0f\t%.0f\t\t%.0f%n", rate, size, bytes / (double)size, addNanos, retryNanos, missNanos);
+	}
+
+	/** Adds a new key as Bank.apply() does */
+	private static void add(IdempotencyCache cache, Transaction t, TransactionResult result) {
+		if(cache.begin(t) != null)
+			throw new IllegalStateException("Key " + t.key + " added twice.");
+		cache.record(t, result, 0);
+		cache.complete(t, result);
+	}
+
+	/** Times deposits on a Bank with and without a new key each */
+	private static void compareBank() {
+		int accounts = 100000;
+		Bank bank = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+		String[] probes = Banks.probes(accounts, new Random(42));
+		long key = 1;
+		for(int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for(int i = 0; i < LOOKUPS; i++)
+				bank.apply(Transaction.deposit(probes[i & (Banks.PROBES - 1)], Currency.USD, 1));
+			double plain = (System.nanoTime() - start) / (double)LOOKUPS;
+			start = System.nanoTime();
+			for(int i = 0; i < LOOKUPS; i++)
+				bank.apply(Transaction.deposit(probes[i & (Banks.PROBES - 1)], Currency.USD, 1).withKey(key++));
+			double keyed = (System.nanoTime() - start) / (double)LOOKUPS;
+			if(round == 2)
+				System.out.printf("Bank deposit: %.0f ns plain, %.0f ns with a new key%n", plain, keyed);
+		}
+	}
+
+	/** Returns the heap in use after a garbage collection */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
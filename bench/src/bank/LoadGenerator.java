@@ -0,0 +1,150 @@
+package bank;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Load generator for BankServer: many sessions over loopback, each sending
+ * deposits, withdrawals, transfers and balance inquiries on random accounts
+ * one request at a time, and waiting for the response before the next.
+ * Prints the throughput and the client side latency percentiles.
+ *
+ * Usage: gradle :bench:harness -Pharness=LoadGenerator [-PharnessArgs='sessions seconds accounts [host:port]']
+ * Defaults to 200 sessions for 10 seconds over 10k accounts, against a server
+ * started in the same JVM on an in-memory bank when no host is given.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class LoadGenerator {
+
+	/** Opening USD balance of every account, large enough for the run */
+	private static final String OPENING = "1000000";
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+		BankServer server = null;
+		final String host;
+		final int port;
+		if(args.length > 3) {
+			int colon = args[3].lastIndexOf(':');
+			host = args[3].substring(0, colon);
+			port = Integer.parseInt(args[3].substring(colon + 1));
+		}
+		else {
+			server = new BankServer(new Bank(), 0, sessions + 1);
+			server.start();
+			host = "localhost";
+			port = server.port();
+		}
+
+		Session setup = new Session(host, port);
+		for(int i = 0; i < accounts; i++)
+			setup.send("CREATE " + Banks.id(i) + " Load Generator USD=" + OPENING);
+		setup.send("QUIT");
+		setup.close();
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong errors = new AtomicLong();
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		final CountDownLatch ready = new CountDownLatch(sessions);
+		final CountDownLatch go = new CountDownLatch(1);
+		ExecutorService clients = Executors.newFixedThreadPool(sessions);
+		List<Future<Long>> done = new ArrayList<Future<Long>>();
+		for(int s = 0; s < sessions; s++) {
+			final long seed = s;
+			done.add(clients.submit(new Callable<Long>() {
+				public Long call() throws Exception {
+					Random random = new Random(seed);
+					Session session = new Session(host, port);
+					ready.countDown();
+					go.await();
+					long requests = 0;
+					try {
+						while(System.nanoTime() < end) {
+							String request = request(random, accounts);
+							long start = System.nanoTime();
+							String response = session.send(request);
+							latency.record(System.nanoTime() - start);
+							if(response == null)
+								throw new EOFException("Server closed the session");
+							if(response.startsWith("ERR"))
+								errors.incrementAndGet();
+							requests++;
+						}
+						session.send("QUIT");
+					}
+					finally {
+						session.close();
+					}
+					return requests;
+				}
+			}));
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		long requests = 0;
+		for(Future<Long> f : done)
+			requests += f.get();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		clients.shutdown();
+
+		System.out.println(sessions + " sessions, " + accounts + " accounts, " + seconds + " s"
+				+ (server != null ? ", in-process server" + (BankServer.virtualThreads() ? " on virtual threads" : " on platform threads") : ""));
+		System.out.printf("%d requests, %.0f requests/s, %d errors%n", requests, requests / elapsed, errors.get());
+		System.out.println("client latency: " + latency);
+		if(server != null) {
+			for(BankServer.Command c : BankServer.Command.values())
+				if(server.latency(c).count() > 0)
+					System.out.println("server " + c + ": " + server.latency(c));
+			server.close();
+		}
+	}
+
+	/** Returns a random request: 40% deposits, 30% transfers, 20% withdrawals, 10% inquiries */
+	private static String request(Random random, int accounts) {
+		String id = Banks.id(random.nextInt(accounts));
+		String amount = (1 + random.nextInt(100)) + "." + (10 + random.nextInt(90));
+		int kind = random.nextInt(10);
+		if(kind < 4)
+			return "DEPOSIT " + id + " USD " + amount;
+		if(kind < 7)
+			return "TRANSFER " + id + " " + Banks.id(random.nextInt(accounts)) + " USD " + amount;
+		if(kind < 9)
+			return "WITHDRAW " + id + " USD " + amount;
+		return "BALANCE " + id + " USD";
+	}
+
+	/** Client side of a session */
+	private static class Session implements Closeable {
+		private final Socket socket;
+		private final BufferedReader in;
+		private final Writer out;
+
+		Session(String host, int port) throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+		}
+
+		String send(String request) throws IOException {
+			out.write(request);
+			out.write('\n');
+			out.flush();
+			return in.readLine();
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+}
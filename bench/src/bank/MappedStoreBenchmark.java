@@ -0,0 +1,75 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+
+/** Benchmark that measures how long opening a mapped mode BankStore takes
+ * and how long the first lookups take, for growing numbers of accounts.
+ *
+ * Usage: gradle :bench:harness -Pharness=MappedStoreBenchmark [-PharnessArgs='size ...']
+ * Defaults to 10k, 100k and 1M accounts.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class MappedStoreBenchmark {
+
+	/** Number of accounts looked up after opening */
+	private static final int LOOKUPS = 1000;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = {10000, 100000, 1000000};
+		if(args.length > 0) {
+			sizes = new int[args.length];
+			for(int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("accounts\topen ms\tus/first lookup");
+		for(int size : sizes) {
+			File directory = File.createTempFile("bank", "");
+			directory.delete();
+			directory.mkdir();
+			try {
+				run(directory, size);
+			}
+			finally {
+				for(File f : directory.listFiles())
+					f.delete();
+				directory.delete();
+			}
+		}
+	}
+
+	/** Fills a store with the given number of accounts, then reopens it
+	 * @param directory
+	 * @param size
+	 * @throws IOException
+	 * */
+	private static void run(File directory, int size) throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.NONE, 10, 0, true);
+		for(int i = 0; i < size; i++) {
+			List<Balance> balances = new ArrayList<Balance>();
+			balances.add(new Balance(Currency.USD, i));
+			store.bank.createAccount(Integer.toString(100 + i), "First" + i, "Last" + i, balances);
+			if(i % BankStore.MAX_LOADED == BankStore.MAX_LOADED - 1)
+				store.snapshot();
+		}
+		store.close();
+
+		long start = System.nanoTime();
+		store = new BankStore(directory, Journal.SyncPolicy.NONE, 10, 0, true);
+		long open = System.nanoTime() - start;
+
+		Random random = new Random(42);
+		start = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++)
+			if(store.bank.findAccount(Integer.toString(100 + random.nextInt(size))) == null)
+				throw new IllegalStateException("Lookup missed an existing account.");
+		long lookups = System.nanoTime() - start;
+		store.close();
+
+		System.out.println(size + "\t\t" + open / 1000000 + "\t" + lookups / LOOKUPS / 1000);
+	}
+}
@@ -0,0 +1,75 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of Metrics on the money operations of a Bank without a journal,
+ * on one thread and on every core: without metrics (sampleEvery 0),
+ * timing every operation (1), and timing one in 16 as a BankStore does.
+ * The difference with the first is what keeping metrics enabled costs.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=MetricsBenchmark
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MetricsBenchmark {
+
+	@Param({"0", "1", "16"})
+	public int sampleEvery;
+
+	@Param({"100000"})
+	public int accounts;
+
+	private Bank bank;
+	private String[] probes;
+
+	/** Position of every thread in the probes */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next = new Random().nextInt(Banks.PROBES);
+	}
+
+	@Setup
+	public void setup() {
+		bank = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+		probes = Banks.probes(accounts, new Random(42));
+		if(sampleEvery > 0)
+			bank.setMetrics(new Metrics(sampleEvery));
+	}
+
+	private String probe(Cursor cursor) {
+		return probes[cursor.next++ & (Banks.PROBES - 1)];
+	}
+
+	@Benchmark
+	public TransactionResult deposit(Cursor cursor) {
+		return bank.deposit(probe(cursor), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult transfer(Cursor cursor) {
+		return bank.transfer(probe(cursor), probe(cursor), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult balanceInquiry(Cursor cursor) {
+		return bank.balanceInquiry(probe(cursor), Currency.USD);
+	}
+
+	/** Every core depositing, so they all record in the same histogram */
+	@Benchmark
+	@Threads(Threads.MAX)
+	public TransactionResult contendedDeposit(Cursor cursor) {
+		return bank.deposit(probe(cursor), Currency.USD, 100);
+	}
+}
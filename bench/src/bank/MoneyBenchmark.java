@@ -0,0 +1,130 @@
+package bank;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.*;
+
+/** Benchmark that compares keeping balances as Money minor units (long)
+ * with double and BigDecimal: time and heap bytes allocated per deposit or withdrawal,
+ * and the error left once the same operations were applied.
+ *
+ * Every representation applies the same random amounts, given in cents,
+ * to the same number of balances.
+ *
+ * Usage: gradle :bench:harness -Pharness=MoneyBenchmark [-PharnessArgs=balances]
+ * Defaults to 10k balances.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class MoneyBenchmark {
+
+	/** Number of operations per round */
+	private static final int OPERATIONS = 10000000;
+
+	/** Number of measured rounds per representation */
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		Random random = new Random(42);
+
+		int[] targets = new int[OPERATIONS];
+		long[] cents = new long[OPERATIONS];
+		double[] units = new double[OPERATIONS];
+		BigDecimal[] decimals = new BigDecimal[OPERATIONS];
+		for(int i = 0; i < OPERATIONS; i++) {
+			targets[i] = random.nextInt(size);
+			cents[i] = (random.nextBoolean() ? 1 : -1) * (1 + random.nextInt(100000));
+			units[i] = cents[i] / 100.0;
+			decimals[i] = BigDecimal.valueOf(cents[i], 2);
+		}
+
+		long[] money = new long[size];
+		double[] doubles = new double[size];
+		BigDecimal[] bigs = new BigDecimal[size];
+		Arrays.fill(bigs, BigDecimal.ZERO.setScale(2));
+
+		System.out.println(size + " balances, " + OPERATIONS + " operations per round");
+		System.out.println("representation\tns/op\tbytes/op");
+		for(int warmup = 0; warmup < 2; warmup++) {
+			runMoney(money, targets, cents);
+			runDouble(doubles, targets, units);
+			runBigDecimal(bigs, targets, decimals);
+		}
+		Arrays.fill(money, 0);
+		Arrays.fill(doubles, 0);
+		Arrays.fill(bigs, BigDecimal.ZERO.setScale(2));
+
+		long time = 0, bytes = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			runMoney(money, targets, cents);
+			time += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocated;
+		}
+		print("Money (long)", time, bytes);
+
+		time = bytes = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			runDouble(doubles, targets, units);
+			time += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocated;
+		}
+		print("double\t", time, bytes);
+
+		time = bytes = 0;
+		for(int round = 0; round < ROUNDS; round++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			runBigDecimal(bigs, targets, decimals);
+			time += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocated;
+		}
+		print("BigDecimal", time, bytes);
+
+		//Money and BigDecimal are exact, so they agree; count the balances double got wrong
+		int drifted = 0;
+		for(int i = 0; i < size; i++) {
+			if(bigs[i].unscaledValue().longValue() != money[i])
+				throw new AssertionError("Money and BigDecimal disagree on balance " + i);
+			if(Math.round(doubles[i] * 100) != money[i] || doubles[i] * 100 != money[i])
+				drifted++;
+		}
+		System.out.println("double balances not exact in cents: " + drifted + " of " + size);
+	}
+
+	private static void runMoney(long[] balances, int[] targets, long[] amounts) {
+		for(int i = 0; i < targets.length; i++)
+			balances[targets[i]] = Money.add(balances[targets[i]], amounts[i]);
+	}
+
+	private static void runDouble(double[] balances, int[] targets, double[] amounts) {
+		for(int i = 0; i < targets.length; i++)
+			balances[targets[i]] += amounts[i];
+	}
+
+	private static void runBigDecimal(BigDecimal[] balances, int[] targets, BigDecimal[] amounts) {
+		for(int i = 0; i < targets.length; i++)
+			balances[targets[i]] = balances[targets[i]].add(amounts[i]);
+	}
+
+	/** Heap bytes allocated so far by the current thread, -1 if the JVM cannot tell
+	 * @return long
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void print(String name, long nanos, long bytes) {
+		long operations = (long)ROUNDS * OPERATIONS;
+		System.out.printf("%s\t%.2f\t%.2f%n", name, (double)nanos / operations, (double)bytes / operations);
+	}
+}
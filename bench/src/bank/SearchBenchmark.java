@@ -0,0 +1,100 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** What the secondary indexes of AccountSearch cost and save: a deposit
+ * with and without the indexes to maintain, and the same queries answered
+ * by the indexes and by scanning every account.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=Search
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SearchBenchmark {
+
+	@Param({"10000", "1000000"})
+	public int accounts;
+
+	private Bank plain;
+	private Bank indexed;
+	private AccountSearch search;
+	private String[] probes;
+	private int next;
+
+	@Setup
+	public void setup() {
+		plain = Banks.randomBank(accounts, new Random(42));
+		indexed = Banks.randomBank(accounts, new Random(42));
+		search = indexed.enableSearch();
+		probes = Banks.probes(accounts, new Random(7));
+	}
+
+	private String probe() {
+		return probes[next++ & (Banks.PROBES - 1)];
+	}
+
+	/** Lower bound of a range of 1000 units, a thousandth of the random balances of 0 to 1M units */
+	private long from() {
+		return (next++ & 1023) * 100000L;
+	}
+
+	@Benchmark
+	public TransactionResult depositPlain() {
+		return plain.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public TransactionResult depositIndexed() {
+		return indexed.deposit(probe(), Currency.USD, 100);
+	}
+
+	@Benchmark
+	public List<String> lastNameIndexed() {
+		return search.byLastName(lastName());
+	}
+
+	@Benchmark
+	public List<String> lastNameScan() {
+		String lastName = lastName();
+		List<String> ids = new ArrayList<String>();
+		for(Account acc : plain.accounts.values())
+			if(acc.lastName.equalsIgnoreCase(lastName))
+				ids.add(acc.accountID);
+		return ids;
+	}
+
+	@Benchmark
+	public List<String> balanceRangeIndexed() {
+		long min = from();
+		return search.byBalance(Currency.USD, min, min + 100000, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public List<String> balanceRangeScan() {
+		long min = from();
+		List<String> ids = new ArrayList<String>();
+		for(Account acc : plain.accounts.values())
+			synchronized(acc) {
+				if(acc.containsBalanceWithCurrency(Currency.USD) && acc.amounts[Currency.USD.ordinal()] >= min
+						&& acc.amounts[Currency.USD.ordinal()] <= min + 100000)
+					ids.add(acc.accountID);
+			}
+		return ids;
+	}
+
+	/** Last names of Banks.randomBank() are Last0 to Last99999 */
+	private String lastName() {
+		return "Last" + (next++ % 100000);
+	}
+}
@@ -0,0 +1,128 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/** Scaling benchmark of ShardedBank: throughput of a mix of deposits, withdrawals
+ * and transfers between random accounts, most of them across shards, for 1, 2, 4...
+ * shards up to the number of cores, next to a Bank driven by as many threads.
+ *
+ * Every client thread keeps WINDOW operations in flight, so the workers never wait for work.
+ *
+ * Usage: gradle :bench:harness -Pharness=ShardedBenchmark [-PharnessArgs='seconds accounts maxShards']
+ * Defaults to 5 seconds per run over 1M accounts, up to one shard per core.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class ShardedBenchmark {
+
+	/** Operations each client keeps in flight */
+	private static final int WINDOW = 1024;
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		int maxShards = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		System.out.println(accounts + " accounts, " + seconds + " s per run, " + Runtime.getRuntime().availableProcessors() + " cores");
+		System.out.println("shards\tsharded ops/s\tspeedup\tBank threads\tBank ops/s");
+		double first = 0;
+		for(int shards = 1; shards <= maxShards; shards *= 2) {
+			ShardedBank sharded = new ShardedBank(shards);
+			List<Balance> opening = Collections.singletonList(new Balance(Currency.USD, BankOperationsBenchmark.OPENING));
+			List<CompletableFuture<TransactionResult>> created = new ArrayList<CompletableFuture<TransactionResult>>();
+			for(int i = 0; i < accounts; i++)
+				created.add(sharded.submit(Transaction.createAccount(Banks.id(i), "First", "Last", opening)));
+			for(CompletableFuture<TransactionResult> c : created)
+				c.join();
+			created = null;
+			double shardedRate = runSharded(sharded, shards, accounts, seconds);
+			sharded.close();
+
+			Bank bank = Banks.usdBank(accounts, BankOperationsBenchmark.OPENING);
+			double bankRate = runBank(bank, shards, accounts, seconds);
+
+			if(shards == 1)
+				first = shardedRate;
+			System.out.printf("%d\t%.0f\t%.2f\t%d\t\t%.0f%n", shards, shardedRate, shardedRate / first, shards, bankRate);
+		}
+	}
+
+	/** Returns a random operation: 50% transfers, 25% deposits, 25% withdrawals */
+	private static Transaction operation(Random random, int accounts) {
+		String id = Banks.id(random.nextInt(accounts));
+		int kind = random.nextInt(4);
+		if(kind < 2)
+			return Transaction.transfer(id, Banks.id(random.nextInt(accounts)), Currency.USD, 100);
+		if(kind == 2)
+			return Transaction.deposit(id, Currency.USD, 100);
+		return Transaction.withdraw(id, Currency.USD, 100);
+	}
+
+	/** Runs one client per shard, each keeping WINDOW operations in flight
+	 * @return double operations per second
+	 */
+	private static double runSharded(final ShardedBank bank, int clients, final int accounts, int seconds) throws Exception {
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		List<Future<Long>> done = new ArrayList<Future<Long>>();
+		long start = System.nanoTime();
+		for(int t = 0; t < clients; t++) {
+			final Random random = new Random(t);
+			done.add(executor.submit(new Callable<Long>() {
+				public Long call() throws InterruptedException {
+					final Semaphore window = new Semaphore(WINDOW);
+					BiConsumer<TransactionResult, Throwable> release = new BiConsumer<TransactionResult, Throwable>() {
+						public void accept(TransactionResult r, Throwable e) {
+							window.release();
+						}
+					};
+					long operations = 0;
+					while(System.nanoTime() < end) {
+						window.acquire();
+						bank.submit(operation(random, accounts)).whenComplete(release);
+						operations++;
+					}
+					window.acquire(WINDOW);
+					return operations;
+				}
+			}));
+		}
+		long operations = 0;
+		for(Future<Long> f : done)
+			operations += f.get();
+		executor.shutdown();
+		return operations / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/** Runs threads calling the Bank directly
+	 * @return double operations per second
+	 */
+	private static double runBank(final Bank bank, int threads, final int accounts, int seconds) throws Exception {
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> done = new ArrayList<Future<Long>>();
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			done.add(executor.submit(new Callable<Long>() {
+				public Long call() {
+					long operations = 0;
+					while(System.nanoTime() < end) {
+						bank.apply(operation(random, accounts));
+						operations++;
+					}
+					return operations;
+				}
+			}));
+		}
+		long operations = 0;
+		for(Future<Long> f : done)
+			operations += f.get();
+		executor.shutdown();
+		return operations / ((System.nanoTime() - start) / 1e9);
+	}
+}
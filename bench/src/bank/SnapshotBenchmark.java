@@ -0,0 +1,92 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Time to save and to load a bank with Java serialization
+ * (the old bank.data) and with SnapshotFormat. The file sizes
+ * are printed once per trial.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs=Snapshot
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotBenchmark {
+
+	@Param({"10000", "1000000"})
+	public int accounts;
+
+	private Bank bank;
+	private File serialized;
+	private File snapshot;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		bank = Banks.randomBank(accounts, new Random(42));
+		serialized = File.createTempFile("bank", ".data");
+		snapshot = File.createTempFile("bank", ".snapshot");
+		serializedSave(bank, serialized);
+		snapshotSave(bank, snapshot);
+		System.out.println();
+		System.out.println("serialization " + serialized.length() + " bytes, snapshot " + snapshot.length() + " bytes");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		serialized.delete();
+		snapshot.delete();
+	}
+
+	@Benchmark
+	public File saveSerialized() throws IOException {
+		serializedSave(bank, serialized);
+		return serialized;
+	}
+
+	@Benchmark
+	public Bank loadSerialized() throws IOException, ClassNotFoundException {
+		return check(SnapshotFormat.readSerialized(serialized));
+	}
+
+	@Benchmark
+	public File saveSnapshot() throws IOException {
+		snapshotSave(bank, snapshot);
+		return snapshot;
+	}
+
+	@Benchmark
+	public Bank loadSnapshot() throws IOException {
+		return check(SnapshotFormat.readFile(snapshot));
+	}
+
+	/** Old bank.data path: the whole object graph through ObjectOutputStream */
+	private static void serializedSave(Bank bank, File file) throws IOException {
+		ObjectOutputStream obj_out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		obj_out.writeObject(bank);
+		obj_out.close();
+	}
+
+	/** New path: SnapshotFormat over a FileChannel */
+	private static void snapshotSave(Bank bank, File file) throws IOException {
+		FileOutputStream f_out = new FileOutputStream(file);
+		bank.writeSnapshot(f_out.getChannel());
+		f_out.close();
+	}
+
+	private Bank check(Bank loaded) {
+		if(loaded.accounts.size() != accounts)
+			throw new IllegalStateException("Loaded " + loaded.accounts.size() + " accounts instead of " + accounts + ".");
+		return loaded;
+	}
+}
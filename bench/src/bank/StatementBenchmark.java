@@ -0,0 +1,80 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Statements written per second for a bank of 100k accounts: StatementWriter
+ * with 1 and 4 threads against one PrintWriter receipt per account, as
+ * Simulator.balanceInquiry() writes them. With -prof gc, the allocation
+ * is reported per statement.
+ *
+ * Usage: gradle :bench:jmh -PjmhArgs='Statement -prof gc'
+ *
+ * @author JosephKalash
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@OperationsPerInvocation(StatementBenchmark.ACCOUNTS)
+public class StatementBenchmark {
+
+	/** Number of accounts, each benchmark call writes all of their statements */
+	static final int ACCOUNTS = 100000;
+
+	private Bank bank;
+	private File directory;
+
+	@Setup
+	public void setup() throws IOException {
+		bank = Banks.randomBank(ACCOUNTS, new Random(42));
+		directory = File.createTempFile("statements", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for(File f : directory.listFiles())
+			f.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public long writer1() throws IOException {
+		return new StatementWriter(bank).write(directory, "2026-10", 1).bytes;
+	}
+
+	@Benchmark
+	public long writer4() throws IOException {
+		return new StatementWriter(bank).write(directory, "2026-10", 4).bytes;
+	}
+
+	/** One receipt file per account, strings built by concatenation */
+	@Benchmark
+	public long receipts() throws IOException {
+		long written = 0;
+		for(Account acc : bank.accounts.values()) {
+			String printInquiry = "";
+			for(Balance b : acc.balances())
+				printInquiry += b.currency + "=" + Money.format(b.value, b.currency) + " ";
+			File file = new File(directory, "Account_" + acc.accountID + "_Info.txt");
+			PrintWriter writer = new PrintWriter(file, "UTF-8");
+			writer.println(file.getName());
+			writer.println("Account ID: " + acc.accountID);
+			writer.println("First Name: " + acc.firstName + "\t\tLast Name: " + acc.lastName);
+			writer.println("Your balance:");
+			writer.println(printInquiry);
+			writer.close();
+			written += printInquiry.length();
+		}
+		return written;
+	}
+}
@@ -0,0 +1,103 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Scaling benchmark of the end-of-day Sweep: accounts adjusted per second by the daily
+ * interest and fees, with 1, 2, 4... fork-join threads up to the number of cores,
+ * on a bank without journal and on a BankStore journaling every adjustment.
+ * A client thread keeps transferring between random accounts during every sweep,
+ * its throughput shows what the sweep leaves to live operations.
+ *
+ * Usage: gradle :bench:harness -Pharness=SweepBenchmark [-PharnessArgs='accounts maxThreads']
+ * Defaults to 1M accounts with 1 to 6 balances each, up to one thread per core.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class SweepBenchmark {
+
+	/** Sweeps timed per run, after one warm-up */
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		Map<Currency, Long> rates = new EnumMap<Currency, Long>(Currency.class);
+		Map<Currency, Long> fees = new EnumMap<Currency, Long>(Currency.class);
+		for(Currency c : Currency.values()) {
+			rates.put(c, ExchangeRates.parseRate("0.02"));
+			fees.put(c, c.minorUnits / 10);
+		}
+		Sweep.Function function = Sweep.interestAndFees(rates, fees);
+
+		System.out.println(accounts + " accounts, " + Runtime.getRuntime().availableProcessors() + " cores");
+		System.out.println("threads\tjournal\taccounts/s\tspeedup\ttransfers/s meanwhile");
+		Bank bank = Banks.randomBank(accounts, new Random(42));
+		run(bank, accounts, maxThreads, function, "none");
+		bank = null;
+
+		File directory = File.createTempFile("sweep", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			BankStore store = new BankStore(directory, Journal.SyncPolicy.GROUP, 5, 0);
+			Random random = new Random(42);
+			Currency[] currencies = Currency.values();
+			for(int i = 0; i < accounts; i++) {
+				List<Balance> balances = new ArrayList<Balance>();
+				int count = 1 + random.nextInt(currencies.length);
+				for(int c = 0; c < count; c++)
+					balances.add(new Balance(currencies[(i + c) % currencies.length], random.nextInt(100000000)));
+				store.bank.apply(Transaction.createAccount(Banks.id(i), "First", "Last", balances), false);
+			}
+			store.bank.awaitDurable(store.bank.journalSequence());
+			run(store.bank, accounts, maxThreads, function, "group");
+		}
+		finally {
+			for(File f : directory.listFiles())
+				f.delete();
+			directory.delete();
+		}
+	}
+
+	/** Times sweeps of a bank for every number of threads */
+	private static void run(final Bank bank, final int accounts, int maxThreads, Sweep.Function function, String journal) throws InterruptedException {
+		double first = 0;
+		for(int threads = 1; threads <= maxThreads; threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			Sweep sweep = new Sweep(bank, pool);
+			sweep.run(function);
+
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final AtomicLong transfers = new AtomicLong();
+			Thread client = new Thread(new Runnable() {
+				public void run() {
+					Random random = new Random(7);
+					long count = 0;
+					while(running.get()) {
+						bank.apply(Transaction.transfer(Banks.id(random.nextInt(accounts)), Banks.id(random.nextInt(accounts)), Currency.USD, 1), false);
+						count++;
+					}
+					transfers.set(count);
+				}
+			});
+			client.start();
+			long nanos = 0;
+			for(int i = 0; i < ROUNDS; i++)
+				nanos += sweep.run(function).nanos;
+			running.set(false);
+			client.join();
+			pool.shutdown();
+
+			double rate = accounts * 1e9 * ROUNDS / nanos;
+			if(threads == 1)
+				first = rate;
+			System.out.printf("%d\t%s\t%.0f\t%.2f\t%.0f%n", threads, journal, rate, rate / first, transfers.get() * 1e9 / nanos);
+		}
+	}
+}
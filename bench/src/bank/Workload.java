@@ -0,0 +1,593 @@
+package bank;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+/** Workload class drives a synthetic load on a Bank, in process, and measures it.
+ *
+ * Everything it generates follows from the seed of its Config, so a run can be replayed:
+ *
+ * 		1. populate() creates the accounts, each with a home currency drawn by CURRENCY_MIX
+ * 		   and sometimes a second one, holding a random opening balance,
+ * 		   and sets exchange rates between every pair of currencies
+ * 		2. Every worker thread draws its own stream of requests from the seed and its index:
+ * 		   deposits, withdrawals, transfers and inquiries in the ratios of the mix,
+ * 		   on accounts picked with a Zipf distribution, so a few hot accounts take most of them.
+ * 		   A transfer to an account without the sender's currency is an exchange transfer
+ * 		3. With a target rate, each worker sends its requests on a fixed schedule and the latency
+ * 		   of a request counts from when it was due, so a stalled bank shows in the percentiles
+ * 		   instead of slowing the load down. Without one, workers send as fast as the bank answers
+ *
+ * With one thread and no rate the final balances are the same on every run with the same seed.
+ * With more threads the requests are the same, their interleaving is not.
+ *
+ * The Report gives the throughput, the latency percentiles and the outcomes of every kind of request,
+ * and how many times the workers blocked entering a monitor. That counts every monitor, not only
+ * the account locks, and it is measured by the JVM's thread contention monitoring, turned on
+ * for the run only.
+ *
+ * Usage: gradle :bench:harness -Pharness=Workload [-PharnessArgs='accounts=100000 operations=1000000 threads=4 ...']
+ * with any of the Config fields as name=value.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class Workload {
+
+	/** Kinds of requests */
+	public enum Kind { DEPOSIT, WITHDRAW, TRANSFER, INQUIRY }
+
+	/** Share of the accounts holding every currency as their home one, indexed by Currency.ordinal() */
+	static final double[] CURRENCY_MIX = {0.12, 0.25, 0.40, 0.10, 0.05, 0.08};
+
+	/** Value of one unit of every currency in US dollars, indexed by Currency.ordinal() */
+	static final double[] USD_PER_UNIT = {1.0 / 89500, 1.08, 1, 0.73, 0.0067, 0.14};
+
+	/** Largest amount of a request, in US cents */
+	private static final double MAX_AMOUNT_CENTS = 100000;
+
+	/** Largest opening balance, in US cents */
+	private static final double MAX_OPENING_CENTS = 10000000;
+
+	/** Settings of a workload, each one has a default */
+	public static final class Config {
+
+		/** Seed every account and request is drawn from */
+		public long seed = 42;
+
+		/** Number of accounts */
+		public int accounts = 100000;
+
+		/** Number of requests of the run, split between the threads */
+		public long operations = 1000000;
+
+		/** Number of worker threads */
+		public int threads = 4;
+
+		/** Requests per second of all threads together, 0 to send as fast as the bank answers */
+		public double rate = 0;
+
+		/** Exponent of the Zipf distribution of the accounts picked, 0 for uniform.
+		 * Around 1 the hottest account takes a few percent of the requests */
+		public double skew = 0.99;
+
+		/** Shares of the requests in Kind order, not necessarily adding up to 1 */
+		public double[] mix = {0.30, 0.20, 0.40, 0.10};
+
+		/** Share of the accounts holding a second currency */
+		public double secondCurrency = 0.3;
+
+		/** Reads a configuration from name=value arguments, such as skew=1.2 or mix=4,3,2,1
+		 * @param args
+		 * @return Config
+		 * @throws IllegalArgumentException for an unknown name or an invalid value
+		 */
+		public static Config parse(String[] args) {
+			Config config = new Config();
+			for(String arg : args) {
+				int equals = arg.indexOf('=');
+				if(equals < 0)
+					throw new IllegalArgumentException("Expected name=value: " + arg);
+				String name = arg.substring(0, equals), value = arg.substring(equals + 1);
+				try {
+					if(name.equals("seed")) config.seed = Long.parseLong(value);
+					else if(name.equals("accounts")) config.accounts = Integer.parseInt(value);
+					else if(name.equals("operations")) config.operations = Long.parseLong(value);
+					else if(name.equals("threads")) config.threads = Integer.parseInt(value);
+					else if(name.equals("rate")) config.rate = Double.parseDouble(value);
+					else if(name.equals("skew")) config.skew = Double.parseDouble(value);
+					else if(name.equals("secondCurrency")) config.secondCurrency = Double.parseDouble(value);
+					else if(name.equals("mix")) {
+						String[] shares = value.split(",");
+						if(shares.length != Kind.values().length)
+							throw new IllegalArgumentException("Expected " + Kind.values().length + " shares: " + value);
+						for(int i = 0; i < shares.length; i++)
+							config.mix[i] = Double.parseDouble(shares[i]);
+					}
+					else
+						throw new IllegalArgumentException("Unknown setting " + name);
+				}
+				catch(NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid " + name + ": " + value);
+				}
+			}
+			return config;
+		}
+
+		/** Prints the settings as parse() reads them
+		 * @return String
+		 */
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append("seed=").append(seed).append(" accounts=").append(accounts).append(" operations=").append(operations)
+				.append(" threads=").append(threads).append(" rate=").append(rate).append(" skew=").append(skew)
+				.append(" secondCurrency=").append(secondCurrency).append(" mix=");
+			for(int i = 0; i < mix.length; i++)
+				s.append(i == 0 ? "" : ",").append(mix[i]);
+			return s.toString();
+		}
+	}
+
+	/** One request of a worker */
+	public static final class Request {
+
+		public final Kind kind;
+
+		/** Account of the request, the sender of a transfer */
+		public final String accountID;
+
+		/** Receiver of a transfer, null otherwise */
+		public final String toID;
+
+		public final Currency currency;
+
+		/** Currency the receiver of a transfer is paid in, null otherwise */
+		public final Currency toCurrency;
+
+		/** Amount in minor units of currency, 0 for an inquiry */
+		public final long amount;
+
+		Request(Kind kind, String accountID, String toID, Currency currency, Currency toCurrency, long amount) {
+			this.kind = kind;
+			this.accountID = accountID;
+			this.toID = toID;
+			this.currency = currency;
+			this.toCurrency = toCurrency;
+			this.amount = amount;
+		}
+
+		/** Prints the request
+		 * @return String
+		 */
+		@Override
+		public String toString() {
+			if(kind == Kind.TRANSFER)
+				return kind + " " + accountID + " -> " + toID + " " + currency + "=" + Money.format(amount, currency) + " -> " + toCurrency;
+			return kind + " " + accountID + " " + currency + (kind == Kind.INQUIRY ? "" : "=" + Money.format(amount, currency));
+		}
+	}
+
+	/** Stream of requests of one worker */
+	public final class Generator {
+
+		private final Random random;
+
+		Generator(int worker) {
+			random = new Random(config.seed * 1000003 + worker);
+		}
+
+		/** Returns the next request
+		 * @return Request
+		 */
+		public Request next() {
+			Kind kind = KINDS[pick(kinds, random)];
+			int from = account();
+			Currency currency = second[from] != null && random.nextBoolean() ? second[from] : home[from];
+			switch(kind) {
+				case TRANSFER:
+					int to = account();
+					Currency toCurrency = home[to] == currency || second[to] == currency ? currency : home[to];
+					return new Request(kind, ids[from], ids[to], currency, toCurrency, amount(currency, MAX_AMOUNT_CENTS, random));
+				case INQUIRY:
+					return new Request(kind, ids[from], null, currency, null, 0);
+				default:
+					return new Request(kind, ids[from], null, currency, null, amount(currency, MAX_AMOUNT_CENTS, random));
+			}
+		}
+
+		/** Returns the index of an account, drawn by the Zipf distribution */
+		private int account() {
+			if(ranks == null)
+				return random.nextInt(ids.length);
+			//Rank i takes [ranks[i - 1], ranks[i])
+			int rank = Arrays.binarySearch(ranks, random.nextDouble());
+			return byRank[rank < 0 ? -rank - 1 : rank + 1];
+		}
+	}
+
+	/** Outcome of a run */
+	public static final class Report {
+
+		/** Requests sent */
+		public final long operations;
+
+		/** Time taken by the run */
+		public final long nanos;
+
+		/** Number of requests of every kind and status, indexed by Kind.ordinal() * statuses + Status.ordinal() */
+		private final long[] outcomes;
+
+		/** Latency of every kind of request in nanoseconds, indexed by Kind.ordinal() */
+		private final LatencyHistogram[] latencies;
+
+		/** Latency of all requests in nanoseconds */
+		public final LatencyHistogram latency;
+
+		/** Times a worker blocked entering a monitor held by another thread: account locks,
+		 * and any other monitor the bank or the JVM takes, see ThreadInfo.getBlockedCount() */
+		public final long monitorBlocks;
+
+		/** Time the workers spent blocked entering monitors in milliseconds, -1 if the JVM does not measure it */
+		public final long blockedMillis;
+
+		Report(long operations, long nanos, long[] outcomes, LatencyHistogram[] latencies, long monitorBlocks, long blockedMillis) {
+			this.operations = operations;
+			this.nanos = nanos;
+			this.outcomes = outcomes;
+			this.latencies = latencies;
+			this.monitorBlocks = monitorBlocks;
+			this.blockedMillis = blockedMillis;
+			latency = new LatencyHistogram();
+			for(LatencyHistogram h : latencies)
+				latency.add(h);
+		}
+
+		/** Returns the requests per second
+		 * @return double
+		 */
+		public double throughput() {
+			return nanos == 0 ? 0 : operations * 1e9 / nanos;
+		}
+
+		/** Returns the number of requests of a kind with a given outcome
+		 * @param kind
+		 * @param status
+		 * @return long
+		 */
+		public long count(Kind kind, TransactionResult.Status status) {
+			return outcomes[kind.ordinal() * STATUSES.length + status.ordinal()];
+		}
+
+		/** Returns the latency of a kind of request in nanoseconds
+		 * @param kind
+		 * @return LatencyHistogram
+		 */
+		public LatencyHistogram latency(Kind kind) {
+			return latencies[kind.ordinal()];
+		}
+
+		/** Returns the number of monitor blocks per request
+		 * @return double
+		 */
+		public double monitorBlockRate() {
+			return operations == 0 ? 0 : (double)monitorBlocks / operations;
+		}
+
+		/** Prints the throughput, monitor blocks, then the latency and failures of every kind of request
+		 * @return String
+		 */
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(String.format("%d requests in %.2f s: %.0f requests/s%n", operations, nanos / 1e9, throughput()));
+			s.append(String.format("monitor blocks: %d (%.3f per 100 requests)", monitorBlocks, 100 * monitorBlockRate()));
+			if(blockedMillis >= 0)
+				s.append(", blocked ").append(blockedMillis).append(" ms");
+			s.append(String.format("%nall: %s p99.9=%.1fus%n", latency, latency.percentile(0.999) / 1e3));
+			for(Kind k : KINDS) {
+				LatencyHistogram h = latency(k);
+				if(h.count() == 0)
+					continue;
+				s.append(String.format("%s: %s p99.9=%.1fus", k, h, h.percentile(0.999) / 1e3));
+				for(TransactionResult.Status status : STATUSES)
+					if(status != TransactionResult.Status.OK && count(k, status) > 0)
+						s.append(' ').append(status).append('=').append(count(k, status));
+				s.append(String.format("%n"));
+			}
+			return s.toString();
+		}
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final TransactionResult.Status[] STATUSES = TransactionResult.Status.values();
+	private static final Currency[] CURRENCIES = Currency.values();
+
+	/** Settings of the workload */
+	private final Config config;
+
+	/** IDs of the accounts */
+	private final String[] ids;
+
+	/** Home currency of every account */
+	private final Currency[] home;
+
+	/** Second currency of every account, null if none */
+	private final Currency[] second;
+
+	/** Opening balance of every account in its home currency, then in its second one */
+	private final long[] opening;
+
+	/** Cumulative probability of every rank of the Zipf distribution, null if uniform */
+	private final double[] ranks;
+
+	/** Account of every rank, a seeded shuffle so the hot accounts are spread over the IDs */
+	private final int[] byRank;
+
+	/** Cumulative shares of the kinds of requests */
+	private final double[] kinds;
+
+	/** Constructor that draws the accounts of a configuration
+	 * @param config
+	 * @throws IllegalArgumentException if the configuration is invalid
+	 */
+	public Workload(Config config) {
+		if(config.accounts <= 0 || config.threads <= 0 || config.operations < 0 || config.rate < 0 || config.skew < 0)
+			throw new IllegalArgumentException("Invalid workload: " + config);
+		this.config = config;
+		kinds = cumulative(config.mix);
+
+		int n = config.accounts;
+		ids = new String[n];
+		home = new Currency[n];
+		second = new Currency[n];
+		opening = new long[2 * n];
+		double[] currencies = cumulative(CURRENCY_MIX);
+		Random random = new Random(config.seed);
+		for(int i = 0; i < n; i++) {
+			ids[i] = Integer.toString(100 + i);
+			home[i] = CURRENCIES[pick(currencies, random)];
+			opening[2 * i] = amount(home[i], MAX_OPENING_CENTS, random);
+			if(random.nextDouble() < config.secondCurrency) {
+				Currency c = CURRENCIES[pick(currencies, random)];
+				if(c != home[i]) {
+					second[i] = c;
+					opening[2 * i + 1] = amount(c, MAX_OPENING_CENTS, random);
+				}
+			}
+		}
+
+		if(config.skew == 0) {
+			ranks = null;
+			byRank = null;
+		}
+		else {
+			double[] weights = new double[n];
+			for(int k = 0; k < n; k++)
+				weights[k] = 1 / StrictMath.pow(k + 1, config.skew);
+			ranks = cumulative(weights);
+			byRank = new int[n];
+			for(int i = 0; i < n; i++)
+				byRank[i] = i;
+			for(int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = byRank[i];
+				byRank[i] = byRank[j];
+				byRank[j] = swap;
+			}
+		}
+	}
+
+	/** Returns the ID of an account
+	 * @param index from 0 to the number of accounts
+	 * @return String
+	 */
+	public String id(int index) {
+		return ids[index];
+	}
+
+	/** Returns the ID of the account drawn most often
+	 * @return String
+	 */
+	public String hottest() {
+		return ids[byRank == null ? 0 : byRank[0]];
+	}
+
+	/** Returns the stream of requests of a worker, the same for the same seed and worker
+	 * @param worker
+	 * @return Generator
+	 */
+	public Generator generator(int worker) {
+		return new Generator(worker);
+	}
+
+	/** Creates the accounts of the workload in a bank and sets the exchange rates between their currencies
+	 * @param bank
+	 * @throws IllegalStateException if an account could not be created
+	 */
+	public void populate(Bank bank) {
+		for(Currency from : CURRENCIES)
+			for(Currency to : CURRENCIES)
+				if(from != to)
+					bank.exchangeRates().setRate(from, to, Math.round(USD_PER_UNIT[from.ordinal()] / USD_PER_UNIT[to.ordinal()] * ExchangeRates.RATE_SCALE));
+		for(int i = 0; i < ids.length; i++) {
+			List<Balance> balances = new ArrayList<Balance>(2);
+			balances.add(new Balance(home[i], opening[2 * i]));
+			if(second[i] != null)
+				balances.add(new Balance(second[i], opening[2 * i + 1]));
+			TransactionResult result = bank.createAccount(ids[i], "Workload", "Account", balances);
+			if(!result.isSuccess())
+				throw new IllegalStateException(result.toString());
+		}
+	}
+
+	/** Sends the requests of every worker to a bank populated by populate(), and measures them
+	 * @param bank
+	 * @return Report
+	 * @throws InterruptedException
+	 */
+	public Report run(final Bank bank) throws InterruptedException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean timed = threads.isThreadContentionMonitoringSupported();
+		//Turned on for the run only: it adds a cost to every contended monitor of the JVM
+		boolean enable = timed && !threads.isThreadContentionMonitoringEnabled();
+		if(enable)
+			threads.setThreadContentionMonitoringEnabled(true);
+		try {
+			return run(bank, threads, timed);
+		}
+		finally {
+			if(enable)
+				threads.setThreadContentionMonitoringEnabled(false);
+		}
+	}
+
+	/** Runs the workers once contention monitoring is set up
+	 * @param bank
+	 * @param threads
+	 * @param timed true if the JVM measures the time blocked
+	 * @return Report
+	 * @throws InterruptedException
+	 */
+	private Report run(final Bank bank, final ThreadMXBean threads, boolean timed) throws InterruptedException {
+
+		final int workers = config.threads;
+		final long[] outcomes = new long[KINDS.length * STATUSES.length];
+		final long[] blocked = new long[2];
+		final LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+		for(int k = 0; k < latencies.length; k++)
+			latencies[k] = new LatencyHistogram();
+		//Time between two requests of a worker, 0 to send at once
+		final double interval = config.rate == 0 ? 0 : workers * 1e9 / config.rate;
+		final CountDownLatch ready = new CountDownLatch(workers);
+		final CountDownLatch go = new CountDownLatch(1);
+		final long[] start = new long[1];
+
+		Thread[] running = new Thread[workers];
+		for(int w = 0; w < workers; w++) {
+			final Generator generator = generator(w);
+			final long count = config.operations / workers + (w < config.operations % workers ? 1 : 0);
+			running[w] = new Thread(new Runnable() {
+				public void run() {
+					long[] local = new long[outcomes.length];
+					ThreadInfo before = threads.getThreadInfo(Thread.currentThread().getId());
+					ready.countDown();
+					try {
+						go.await();
+					}
+					catch(InterruptedException e) {
+						return;
+					}
+					for(long i = 0; i < count; i++) {
+						Request r = generator.next();
+						long begin;
+						if(interval == 0)
+							begin = System.nanoTime();
+						else {
+							//Due time of the request, however late the previous ones were
+							begin = start[0] + (long)(i * interval);
+							for(long wait = begin - System.nanoTime(); wait > 0; wait = begin - System.nanoTime())
+								LockSupport.parkNanos(wait);
+						}
+						TransactionResult result = apply(bank, r);
+						latencies[r.kind.ordinal()].record(System.nanoTime() - begin);
+						local[r.kind.ordinal() * STATUSES.length + result.status.ordinal()]++;
+					}
+					ThreadInfo after = threads.getThreadInfo(Thread.currentThread().getId());
+					synchronized(outcomes) {
+						for(int i = 0; i < local.length; i++)
+							outcomes[i] += local[i];
+						blocked[0] += after.getBlockedCount() - before.getBlockedCount();
+						blocked[1] += after.getBlockedTime() - before.getBlockedTime();
+					}
+				}
+			}, "workload-" + w);
+			running[w].start();
+		}
+		ready.await();
+		start[0] = System.nanoTime();
+		go.countDown();
+		for(Thread t : running)
+			t.join();
+		long nanos = System.nanoTime() - start[0];
+		synchronized(outcomes) {
+			return new Report(config.operations, nanos, outcomes, latencies, blocked[0], timed ? blocked[1] : -1);
+		}
+	}
+
+	/** Sends a request to a bank
+	 * @param bank
+	 * @param r
+	 * @return TransactionResult
+	 */
+	static TransactionResult apply(Bank bank, Request r) {
+		switch(r.kind) {
+			case DEPOSIT: return bank.deposit(r.accountID, r.currency, r.amount);
+			case WITHDRAW: return bank.withdraw(r.accountID, r.currency, r.amount);
+			case INQUIRY: return bank.balanceInquiry(r.accountID, r.currency);
+			default:
+				if(r.toCurrency == r.currency)
+					return bank.transfer(r.accountID, r.toID, r.currency, r.amount);
+				return bank.exchangeTransfer(r.accountID, r.toID, r.currency, r.toCurrency, r.amount);
+		}
+	}
+
+	/** Returns a random amount in minor units of a currency, log-uniform from one cent to a maximum in US cents
+	 * @param currency
+	 * @param maxCents
+	 * @param random
+	 * @return long at least 1
+	 */
+	private static long amount(Currency currency, double maxCents, Random random) {
+		double cents = StrictMath.exp(random.nextDouble() * StrictMath.log(maxCents));
+		return Math.max(1, Math.round(cents / 100 / USD_PER_UNIT[currency.ordinal()] * currency.minorUnits));
+	}
+
+	/** Returns the cumulative shares of weights, the last one exactly 1
+	 * @param weights
+	 * @return double[]
+	 */
+	private static double[] cumulative(double[] weights) {
+		double total = 0;
+		for(double w : weights) {
+			if(w < 0)
+				throw new IllegalArgumentException("Negative share " + w);
+			total += w;
+		}
+		if(total <= 0)
+			throw new IllegalArgumentException("Shares add up to " + total);
+		double[] cumulative = new double[weights.length];
+		double sum = 0;
+		for(int i = 0; i < weights.length; i++)
+			cumulative[i] = (sum += weights[i]) / total;
+		cumulative[weights.length - 1] = 1;
+		return cumulative;
+	}
+
+	/** Returns the index drawn from cumulative shares, skipping empty ones
+	 * @param cumulative
+	 * @param random
+	 * @return int
+	 */
+	private static int pick(double[] cumulative, Random random) {
+		double x = random.nextDouble();
+		int i = 0;
+		while(cumulative[i] <= x)
+			i++;
+		return i;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Config config = Config.parse(args);
+		Workload workload = new Workload(config);
+		Bank bank = new Bank(config.accounts);
+		long start = System.nanoTime();
+		workload.populate(bank);
+		System.out.println(config);
+		System.out.printf("%d accounts created in %.2f s, hottest %s%n", config.accounts, (System.nanoTime() - start) / 1e9, workload.hottest());
+		System.out.print(workload.run(bank));
+	}
+}
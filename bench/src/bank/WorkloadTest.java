@@ -0,0 +1,140 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import java.util.*;
+
+/** Tests the Workload generator: seeded requests, Zipf skew, and replaying a run to the same balances
+ * @author JosephKalash
+ *
+ */
+
+public class WorkloadTest {
+
+	private static Workload.Config config(long seed) {
+		Workload.Config config = new Workload.Config();
+		config.seed = seed;
+		config.accounts = 1000;
+		config.operations = 20000;
+		config.threads = 1;
+		return config;
+	}
+
+	/** Returns the balances of every account of a workload */
+	private static List<String> balances(Bank bank, Workload workload, int accounts) {
+		List<String> balances = new ArrayList<String>();
+		for(int i = 0; i < accounts; i++)
+			balances.add(bank.findAccount(workload.id(i)).balances().toString());
+		return balances;
+	}
+
+	@Test
+	public void testSeeded() {
+		Workload a = new Workload(config(1));
+		Workload b = new Workload(config(1));
+		Workload c = new Workload(config(2));
+		List<String> first = new ArrayList<String>(), same = new ArrayList<String>(), other = new ArrayList<String>();
+		Workload.Generator ga = a.generator(0), gb = b.generator(0), gc = c.generator(0), next = a.generator(1);
+		for(int i = 0; i < 1000; i++) {
+			first.add(ga.next().toString());
+			same.add(gb.next().toString());
+			other.add(gc.next().toString());
+		}
+		assertEquals(first, same);
+		assertFalse(first.equals(other));
+		assertFalse(first.get(0).equals(next.next().toString()) && first.get(1).equals(next.next().toString()));
+	}
+
+	@Test
+	public void testMixAndSkew() {
+		Workload.Config config = config(3);
+		config.skew = 1.2;
+		config.mix = new double[] {1, 0, 1, 0};
+		Workload workload = new Workload(config);
+		Workload.Generator g = workload.generator(0);
+		int hot = 0, transfers = 0, exchanges = 0;
+		for(int i = 0; i < 10000; i++) {
+			Workload.Request r = g.next();
+			assertTrue(r.kind == Workload.Kind.DEPOSIT || r.kind == Workload.Kind.TRANSFER);
+			assertTrue(r.amount > 0);
+			if(r.accountID.equals(workload.hottest()))
+				hot++;
+			if(r.kind == Workload.Kind.TRANSFER) {
+				transfers++;
+				if(r.toCurrency != r.currency)
+					exchanges++;
+			}
+		}
+		//1 / H(1000, 1.2) is about 0.2, uniform would be 0.001
+		assertTrue("hottest account drawn " + hot + " times", hot > 1500 && hot < 2500);
+		assertTrue(transfers > 4500 && transfers < 5500);
+		assertTrue(exchanges > 0 && exchanges < transfers);
+
+		config.skew = 0;
+		g = new Workload(config).generator(0);
+		hot = 0;
+		for(int i = 0; i < 10000; i++)
+			if(g.next().accountID.equals(workload.id(0)))
+				hot++;
+		assertTrue("first account drawn " + hot + " times", hot < 40);
+	}
+
+	/** One thread without a rate replays to the same balances */
+	@Test
+	public void testReplay() throws InterruptedException {
+		List<String> previous = null;
+		for(int run = 0; run < 2; run++) {
+			Workload workload = new Workload(config(4));
+			Bank bank = new Bank();
+			workload.populate(bank);
+			Workload.Report report = workload.run(bank);
+			assertEquals(20000, report.operations);
+			assertEquals(20000, report.latency.count());
+			assertEquals(0, report.monitorBlocks);
+			long ok = 0;
+			for(Workload.Kind k : Workload.Kind.values())
+				ok += report.count(k, TransactionResult.Status.OK);
+			assertTrue(ok > 15000);
+			assertEquals(0, report.count(Workload.Kind.TRANSFER, TransactionResult.Status.NO_RATE));
+			assertEquals(0, report.count(Workload.Kind.TRANSFER, TransactionResult.Status.MISSING_CURRENCY));
+
+			List<String> balances = balances(bank, workload, 1000);
+			if(previous != null)
+				assertEquals(previous, balances);
+			previous = balances;
+		}
+	}
+
+	/** Several threads at a target rate send every request */
+	@Test
+	public void testRate() throws InterruptedException {
+		Workload.Config config = config(5);
+		config.threads = 4;
+		config.operations = 2000;
+		config.rate = 10000;
+		Workload workload = new Workload(config);
+		Bank bank = new Bank();
+		workload.populate(bank);
+		Workload.Report report = workload.run(bank);
+		assertEquals(2000, report.latency.count());
+		//2000 requests at 10000 per second take 0.2 s
+		assertTrue(report.nanos > 150000000L);
+		assertTrue(report.toString().contains("requests/s"));
+	}
+
+	@Test
+	public void testParse() {
+		Workload.Config config = Workload.Config.parse(new String[] {"seed=7", "accounts=50", "skew=1.5", "mix=1,2,3,4"});
+		assertEquals(7, config.seed);
+		assertEquals(50, config.accounts);
+		assertEquals(1.5, config.skew, 0);
+		assertEquals(4, config.mix[3], 0);
+		assertEquals(config.toString(), Workload.Config.parse(config.toString().split(" ")).toString());
+		try {
+			Workload.Config.parse(new String[] {"speed=3"});
+			fail();
+		}
+		catch(IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package bank;
+
+import java.io.*;
+import java.util.*;
+
+/** Account class defines 
+ * an account's unique ID, user's first and last name 
+ * as well as its balances.
+ * 
+ * Balances are kept as primitive minor units in a fixed array indexed by Currency.ordinal(),
+ * with a bitmask telling which currencies the account has a balance in,
+ * so reading or updating a balance neither scans nor allocates.
+ * Serialization still uses the original list of Balance objects.
+ * 
+ * Helper methods provided to make bank implementation easier
+ *  
+ * @author JosephKalash
+ *
+ */
+
+public class Account implements Serializable {
+	/**
+	 * 
+	 */
+	
+	/**Serialization */
+	private static final long serialVersionUID = 384756348728L;
+	
+	/**Serialized fields: the balances are written as the List of Balance objects they used to be */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("accountID", String.class),
+		new ObjectStreamField("firstName", String.class),
+		new ObjectStreamField("lastName", String.class),
+		new ObjectStreamField("balances", List.class)
+	};
+	
+	/** Number of currencies, the length of the amounts array */
+	static final int CURRENCIES = Currency.values().length;
+	
+	/**Unique ID that defines an account */
+	public String accountID;
+	
+	/** First name of the account holder */
+	public String firstName;
+	
+	/** Last name for the account holder */
+	public String lastName;
+	
+	/** Balance in minor units for every currency, indexed by Currency.ordinal(), 0 when absent */
+	public long[] amounts;
+	
+	/** Bit i is set when the account has a balance in Currency.values()[i] */
+	public int currencyMask;
+	
+	/** Checkpoint epoch of the bank in which the account last changed, see Bank.markDirty(). Guarded by the account's lock */
+	transient long changed;
+	
+	/** Last checkpoint epoch whose copy of the account was taken, Long.MAX_VALUE once deleted. Guarded by the account's lock */
+	transient long saved;
+	
+	/** Amounts taken from every balance by transfers to another shard not settled yet,
+	 * indexed by Currency.ordinal(), null if there never were any. Only used by ShardedBank */
+	transient long[] sending;
+	
+	/** Cells the balances are split into while the account is hot, null otherwise, see Bank.setHot().
+	 * Set under the bank's write lock */
+	transient HotBalances hot;
+	
+	/** Key and hash code of accountID, recomputed when accountID is changed */
+	private transient Key cached;
+	
+	/** Key and hash code of an account ID, immutable so it can be shared between threads without lock */
+	private static final class Key {
+		final String accountID;
+		final long key;
+		final int hash;
+		
+		Key(String accountID) {
+			this.accountID = accountID;
+			this.key = AccountIndex.key(accountID);
+			//Invalid IDs are never in the bank, but still need a hash code consistent with equals()
+			this.hash = key >= 0 ? AccountIndex.hash(key) : accountID.hashCode();
+		}
+	}
+	
+	/** Default Constructor */
+	Account() {
+		accountID = "0";
+		firstName = lastName = "";
+		amounts = new long[CURRENCIES];
+	}
+	
+	/** Checks if the AccountID property is valid by making sure:
+	 * 1. It only contains digits
+	 * 2. It is greater than 99 
+	 * 3. It fits in an AccountIndex key
+	 * @throws IllegalIDException
+	 * */
+	public void checkID() throws IllegalIDException {
+		checkID(accountID);
+	}
+	
+	/** Checks that an account ID is valid, see checkID()
+	 * @param accountID
+	 * @throws IllegalIDException
+	 * */
+	public static void checkID(String accountID) throws IllegalIDException {
+		
+		//Single pass without allocation, the reason is only looked for once invalid
+		if(isValidID(accountID))
+			return;
+		
+		if(accountID.isEmpty())
+			throw new IllegalIDException("AccountID can only contain digits.");
+		for(int i = 0; i < accountID.length(); i++)
+			if(accountID.charAt(i) < '0' || accountID.charAt(i) > '9')
+				throw new IllegalIDException("AccountID can only contain digits.");
+		
+		if(accountID.length() < 2)
+			throw new IllegalIDException("AccountID must contain at least 2 digits.");
+		
+		throw new IllegalIDException("AccountID must contain at most " + AccountIndex.MAX_ID_DIGITS + " digits.");
+	}
+	
+	/** Returns true if an account ID is valid, see checkID()
+	 * @param accountID
+	 * @return boolean
+	 * */
+	public static boolean isValidID(String accountID) {
+		return AccountIndex.key(accountID) >= AccountIndex.MIN_KEY;
+	}
+	
+	/** Returns the AccountIndex key of the account ID, computed once per ID
+	 * @return long -1 if the ID is not made of digits
+	 * */
+	public long key() {
+		return cachedKey().key;
+	}
+	
+	/** Returns the cached key of accountID, computing it if the ID changed since
+	 * @return Key
+	 * */
+	private Key cachedKey() {
+		Key k = cached;
+		if(k == null || k.accountID != accountID)
+			cached = k = new Key(accountID);
+		return k;
+	}
+	
+	/** Method that returns true if the account has a balance with the given currency, false for null
+	 * @param c
+	 * @return boolean
+	 * */
+	public boolean containsBalanceWithCurrency(Currency c) {
+		return c != null && (currencyMask & (1 << c.ordinal())) != 0;
+	}
+	
+	/** Returns the balance in minor units with the given currency, 0 if none exists
+	 * @param c
+	 * @return long
+	 * */
+	public long balance(Currency c) {
+		return amounts[c.ordinal()];
+	}
+	
+	/** Opens a balance with the given currency, or sets it if it already exists
+	 * @param c
+	 * @param value in minor units
+	 * */
+	public void openBalance(Currency c, long value) {
+		currencyMask |= 1 << c.ordinal();
+		amounts[c.ordinal()] = value;
+	}
+	
+	/** Closes the balance with the given currency
+	 * @param c
+	 * */
+	public void closeBalance(Currency c) {
+		currencyMask &= ~(1 << c.ordinal());
+		amounts[c.ordinal()] = 0;
+	}
+	
+	/** Returns the number of balances the account has
+	 * @return int
+	 * */
+	public int balanceCount() {
+		return Integer.bitCount(currencyMask);
+	}
+	
+	/** Returns a copy of the account holding the same ID, names and balances.
+	 * Callers must hold the account's lock
+	 * @return Account
+	 * */
+	Account copy() {
+		Account acc = new Account();
+		acc.accountID = accountID;
+		acc.firstName = firstName;
+		acc.lastName = lastName;
+		acc.amounts = amounts.clone();
+		acc.currencyMask = currencyMask;
+		return acc;
+	}
+	
+	/** Returns a copy of the balances as Balance objects, in currency order
+	 * @return List<Balance>
+	 * */
+	public List<Balance> balances() {
+		List<Balance> list = new ArrayList<Balance>(balanceCount());
+		for(Currency c : Currency.values())
+			if(containsBalanceWithCurrency(c))
+				list.add(new Balance(c, amounts[c.ordinal()]));
+		return list;
+	}
+	
+	/** Custom Serialization, reads the balances from the list of Balance objects
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 * @param aInputStream
+	 * */
+	private void readObject(ObjectInputStream aInputStream) throws ClassNotFoundException, IOException {
+		ObjectInputStream.GetField fields = aInputStream.readFields();
+		accountID = (String)fields.get("accountID", null);
+		firstName = (String)fields.get("firstName", null);
+		lastName = (String)fields.get("lastName", null);
+		amounts = new long[CURRENCIES];
+		
+		@SuppressWarnings("unchecked")
+		List<Balance> list = (List<Balance>)fields.get("balances", null);
+		if(list != null)
+			for(Balance b : list)
+				if(b.currency != null && !containsBalanceWithCurrency(b.currency))
+					openBalance(b.currency, b.value);
+	}
+	
+	/** Custom Serialization, writes the balances as a list of Balance objects
+	 * @throws IOException
+	 * @param aOutputStream
+	 * */
+	private void writeObject(ObjectOutputStream aOutputStream) throws IOException {
+		ObjectOutputStream.PutField fields = aOutputStream.putFields();
+		fields.put("accountID", accountID);
+		fields.put("firstName", firstName);
+		fields.put("lastName", lastName);
+		fields.put("balances", balances());
+		aOutputStream.writeFields();
+	}
+
+	/** Returns true only if the two accounts possess the same Account ID,
+	 * comparing their keys rather than the strings
+	 * @param obj
+	 * @return boolean 
+	 * */
+	@Override
+	public boolean equals(Object obj) {
+		if(obj == this)
+			return true;
+		if(obj == null || obj.getClass() != getClass())
+			return false;
+		Account other = (Account)obj;
+		long key = key(), otherKey = other.key();
+		//Every digit-only ID has its own key
+		if(key >= 0 || otherKey >= 0)
+			return key == otherKey;
+		return other.accountID.equals(accountID);
+	}
+	
+	/** Hash of the key of the Account ID, computed once per ID
+	 * @return int
+	 */
+	@Override
+	public int hashCode() {
+		return cachedKey().hash;
+	}
+
+	/** Prints all account Details 
+	 * @return String
+	 * */
+	@Override
+	public String toString() {
+		StringBuilder acc = new StringBuilder();
+		acc.append("Account ID: ").append(accountID).append('\n');
+		acc.append("First Name: ").append(firstName).append('\n');
+		acc.append("Last Name: ").append(lastName).append('\n');
+		for(Balance b: balances())
+			acc.append(b).append('\n');
+		return acc.toString();
+	}
+	
+}
@@ -0,0 +1,256 @@
+package bank;
+
+import java.util.*;
+
+/** AccountIndex class maps account IDs to their Account
+ * using a primitive long key.
+ *
+ * Account IDs only contain digits (see Account.checkID()), so every ID
+ * can be packed into a long. A leading 1 is prepended to the digits
+ * so that IDs such as "07" and "007" keep distinct keys.
+ *
+ * The table uses open addressing with linear probing over two parallel
+ * arrays, so a lookup never allocates and never compares strings.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class AccountIndex {
+
+	/** Maximum number of digits an account ID can have to fit in a key */
+	public static final int MAX_ID_DIGITS = 18;
+
+	/** Smallest key of a valid account ID, that of "00": IDs have at least 2 digits */
+	public static final long MIN_KEY = 100L;
+
+	/** Key value marking an empty slot. Valid keys are always >= MIN_KEY */
+	private static final long EMPTY = 0L;
+
+	/** Keys of the table, EMPTY for a free slot */
+	private long[] keys;
+
+	/** Accounts of the table, parallel to keys */
+	private Account[] values;
+
+	/** Number of accounts in the table */
+	private int size;
+
+	/** Number of accounts above which the table grows */
+	private int threshold;
+
+	/** Default Constructor */
+	AccountIndex() {
+		this(16);
+	}
+
+	/** Constructor that sizes the table for an expected number of accounts
+	 * @param expected
+	 * */
+	AccountIndex(int expected) {
+		int capacity = 16;
+		while(capacity * 3 / 4 < expected)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/** Returns the key of a given account ID, or -1 if the ID
+	 * is not made of 1 to MAX_ID_DIGITS digits.
+	 * Validates and parses in a single pass, without allocating
+	 * @param accountID
+	 * @return long
+	 * */
+	public static long key(CharSequence accountID) {
+		if(accountID == null)
+			return -1;
+
+		int length = accountID.length();
+		if(length == 0 || length > MAX_ID_DIGITS)
+			return -1;
+
+		long key = 1;
+		for(int i = 0; i < length; i++) {
+			int digit = accountID.charAt(i) - '0';
+			if(digit < 0 || digit > 9)
+				return -1;
+			key = key * 10 + digit;
+		}
+		return key;
+	}
+
+	/** Returns a hash code of a key, well spread in every bit
+	 * @param key
+	 * @return int
+	 * */
+	public static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/** Returns the account ID of a key: its digits after the leading 1
+	 * @param key
+	 * @return String
+	 * */
+	public static String id(long key) {
+		return Long.toString(key).substring(1);
+	}
+
+	/** Returns the account with the given key, or null if none exists
+	 * @param key
+	 * @return Account
+	 * */
+	public Account get(long key) {
+		if(key <= EMPTY)
+			return null;
+
+		int mask = keys.length - 1;
+		for(int i = slot(key, mask); ; i = (i + 1) & mask) {
+			long k = keys[i];
+			if(k == key)
+				return values[i];
+			if(k == EMPTY)
+				return null;
+		}
+	}
+
+	/** Returns the account with the given ID, or null if none exists
+	 * @param accountID
+	 * @return Account
+	 * */
+	public Account get(String accountID) {
+		return get(key(accountID));
+	}
+
+	/** Adds an account to the index, replacing any account with the same ID
+	 * @param acc
+	 * @return Account the replaced account, or null
+	 * */
+	public Account put(Account acc) {
+		long key = acc.key();
+		if(key <= EMPTY)
+			throw new IllegalArgumentException("Account ID " + acc.accountID + " cannot be indexed.");
+
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(keys[i] != EMPTY) {
+			if(keys[i] == key) {
+				Account old = values[i];
+				values[i] = acc;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+
+		keys[i] = key;
+		values[i] = acc;
+		if(++size > threshold)
+			rehash(keys.length << 1);
+		return null;
+	}
+
+	/** Removes the account with the given key from the index
+	 * @param key
+	 * @return Account the removed account, or null
+	 * */
+	public Account remove(long key) {
+		if(key <= EMPTY)
+			return null;
+
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(keys[i] != key) {
+			if(keys[i] == EMPTY)
+				return null;
+			i = (i + 1) & mask;
+		}
+
+		Account old = values[i];
+
+		//Shift back the following entries of the probe chain instead of leaving a tombstone
+		int gap = i;
+		for(int j = (gap + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if(((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		keys[gap] = EMPTY;
+		values[gap] = null;
+		size--;
+		return old;
+	}
+
+	/** Removes the account with the given ID from the index
+	 * @param accountID
+	 * @return Account the removed account, or null
+	 * */
+	public Account remove(String accountID) {
+		return remove(key(accountID));
+	}
+
+	/** Number of indexed accounts
+	 * @return int
+	 * */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the accounts of the index, in no particular order
+	 * @return List<Account> a copy
+	 * */
+	public List<Account> accounts() {
+		List<Account> list = new ArrayList<Account>(size);
+		for(int i = 0; i < keys.length; i++)
+			if(keys[i] != EMPTY)
+				list.add(values[i]);
+		return list;
+	}
+
+	/** Removes all accounts from the index */
+	public void clear() {
+		allocate(16);
+	}
+
+	/** Allocates empty arrays of the given capacity
+	 * @param capacity
+	 * */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Account[capacity];
+		threshold = capacity * 3 / 4;
+		size = 0;
+	}
+
+	/** Moves every account into arrays of the given capacity
+	 * @param capacity
+	 * */
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Account[] oldValues = values;
+		int oldSize = size;
+
+		allocate(capacity);
+		int mask = capacity - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldKeys[j] == EMPTY)
+				continue;
+			int i = slot(oldKeys[j], mask);
+			while(keys[i] != EMPTY)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+		size = oldSize;
+	}
+
+	/** Home slot of a key: the key is mixed so that sequential IDs spread over the table
+	 * @param key
+	 * @param mask
+	 * @return int
+	 * */
+	private static int slot(long key, int mask) {
+		return hash(key) & mask;
+	}
+}
@@ -0,0 +1,240 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** AccountSearch class holds the secondary indexes of a Bank:
+ * accounts by first name, by last name, and by balance in every currency.
+ *
+ * The Bank updates the indexes along with every operation, while it holds
+ * the lock of the account changed, so the indexes never need a scan.
+ * Accounts are identified by their AccountIndex key and queries return
+ * account IDs, sorted by ID for names and by balance for balance ranges.
+ *
+ * Queries do not lock: one running during an operation may or may not see it,
+ * and may miss an account whose balance is being moved from one value to another.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class AccountSearch {
+
+	/** Account keys by lower case first name */
+	private final ConcurrentHashMap<String, Set<Long>> firstNames = new ConcurrentHashMap<String, Set<Long>>();
+
+	/** Account keys by lower case last name */
+	private final ConcurrentHashMap<String, Set<Long>> lastNames = new ConcurrentHashMap<String, Set<Long>>();
+
+	/** Balances of every currency sorted by amount, then by account key, indexed by Currency.ordinal() */
+	private final List<ConcurrentSkipListSet<Entry>> balances = new ArrayList<ConcurrentSkipListSet<Entry>>(Account.CURRENCIES);
+
+	/** One balance of one account, ordered by amount then account key */
+	private static final class Entry implements Comparable<Entry> {
+		final long amount;
+		final long key;
+
+		Entry(long amount, long key) {
+			this.amount = amount;
+			this.key = key;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if(amount != other.amount)
+				return amount < other.amount ? -1 : 1;
+			return key < other.key ? -1 : (key == other.key ? 0 : 1);
+		}
+	}
+
+	/** Constructor of empty indexes, see Bank.enableSearch() */
+	AccountSearch() {
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			balances.add(new ConcurrentSkipListSet<Entry>());
+	}
+
+	/** Returns the IDs of the accounts with the given first name, ignoring case
+	 * @param firstName
+	 * @return List<String>
+	 * */
+	public List<String> byFirstName(String firstName) {
+		return ids(firstNames.get(normalize(firstName)));
+	}
+
+	/** Returns the IDs of the accounts with the given last name, ignoring case
+	 * @param lastName
+	 * @return List<String>
+	 * */
+	public List<String> byLastName(String lastName) {
+		return ids(lastNames.get(normalize(lastName)));
+	}
+
+	/** Returns the IDs of the accounts with both the given first and last names, ignoring case
+	 * @param firstName
+	 * @param lastName
+	 * @return List<String>
+	 * */
+	public List<String> byName(String firstName, String lastName) {
+		Set<Long> first = firstNames.get(normalize(firstName));
+		Set<Long> last = lastNames.get(normalize(lastName));
+		if(first == null || last == null)
+			return Collections.emptyList();
+		//Go through the smaller set
+		if(first.size() > last.size()) {
+			Set<Long> swap = first;
+			first = last;
+			last = swap;
+		}
+		Set<Long> both = new HashSet<Long>();
+		for(Long key : first)
+			if(last.contains(key))
+				both.add(key);
+		return ids(both);
+	}
+
+	/** Returns the IDs of the accounts holding a balance in the given currency
+	 * between min and max inclusive, lowest balance first
+	 * @param currency
+	 * @param min in minor units
+	 * @param max in minor units
+	 * @param limit maximum number of IDs returned
+	 * @return List<String>
+	 * */
+	public List<String> byBalance(Currency currency, long min, long max, int limit) {
+		List<String> ids = new ArrayList<String>();
+		if(min > max)
+			return ids;
+		NavigableSet<Entry> range = balances.get(currency.ordinal())
+				.subSet(new Entry(min, Long.MIN_VALUE), true, new Entry(max, Long.MAX_VALUE), true);
+		for(Entry e : range) {
+			if(ids.size() >= limit)
+				break;
+			ids.add(AccountIndex.id(e.key));
+		}
+		return ids;
+	}
+
+	/** Returns the number of accounts holding a balance in the given currency between min and max inclusive
+	 * @param currency
+	 * @param min in minor units
+	 * @param max in minor units
+	 * @return int
+	 * */
+	public int countByBalance(Currency currency, long min, long max) {
+		if(min > max)
+			return 0;
+		return balances.get(currency.ordinal())
+				.subSet(new Entry(min, Long.MIN_VALUE), true, new Entry(max, Long.MAX_VALUE), true).size();
+	}
+
+	/** Indexes a new account with its balances. Callers hold the account's lock or the Bank's write lock
+	 * @param acc
+	 * @return void
+	 * */
+	void add(Account acc) {
+		long key = acc.key();
+		keys(firstNames, acc.firstName).add(key);
+		keys(lastNames, acc.lastName).add(key);
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			if((acc.currencyMask & (1 << c)) != 0)
+				balances.get(c).add(new Entry(acc.amounts[c], key));
+	}
+
+	/** Drops a deleted account from the indexes. Callers hold the Bank's write lock
+	 * @param acc
+	 * @return void
+	 * */
+	void remove(Account acc) {
+		long key = acc.key();
+		removeKey(firstNames, acc.firstName, key);
+		removeKey(lastNames, acc.lastName, key);
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			if((acc.currencyMask & (1 << c)) != 0)
+				balances.get(c).remove(new Entry(acc.amounts[c], key));
+	}
+
+	/** Moves a balance to its new amount. Callers hold the account's lock
+	 * @param acc
+	 * @param currency
+	 * @param before amount the index holds
+	 * @return void
+	 * */
+	void balanceChanged(Account acc, Currency currency, long before) {
+		int c = currency.ordinal();
+		long after = acc.amounts[c];
+		if(after == before)
+			return;
+		long key = acc.key();
+		balances.get(c).remove(new Entry(before, key));
+		balances.get(c).add(new Entry(after, key));
+	}
+
+	/** Drops a closed balance. Callers hold the account's lock
+	 * @param acc
+	 * @param currency
+	 * @param before amount the balance held
+	 * @return void
+	 * */
+	void balanceClosed(Account acc, Currency currency, long before) {
+		balances.get(currency.ordinal()).remove(new Entry(before, acc.key()));
+	}
+
+	/** Returns the set of keys of a name, creating it if needed
+	 * @param index
+	 * @param name
+	 * @return Set<Long>
+	 * */
+	private static Set<Long> keys(ConcurrentHashMap<String, Set<Long>> index, String name) {
+		String normalized = normalize(name);
+		Set<Long> keys = index.get(normalized);
+		if(keys == null) {
+			Set<Long> created = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+			keys = index.putIfAbsent(normalized, created);
+			if(keys == null)
+				keys = created;
+		}
+		return keys;
+	}
+
+	/** Removes a key from the set of a name, dropping the set once empty
+	 * @param index
+	 * @param name
+	 * @param key
+	 * @return void
+	 * */
+	private static void removeKey(ConcurrentHashMap<String, Set<Long>> index, String name, long key) {
+		String normalized = normalize(name);
+		Set<Long> keys = index.get(normalized);
+		if(keys != null && keys.remove(key) && keys.isEmpty())
+			index.remove(normalized, keys);
+	}
+
+	/** Names are compared ignoring case and surrounding spaces
+	 * @param name
+	 * @return String
+	 * */
+	private static String normalize(String name) {
+		return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/** Returns the sorted IDs of a set of keys
+	 * @param keys may be null
+	 * @return List<String>
+	 * */
+	private static List<String> ids(Set<Long> keys) {
+		if(keys == null)
+			return Collections.emptyList();
+		long[] sorted = new long[keys.size()];
+		int n = 0;
+		for(Long key : keys) {
+			if(n == sorted.length)
+				sorted = Arrays.copyOf(sorted, n * 2 + 1);
+			sorted[n++] = key;
+		}
+		Arrays.sort(sorted, 0, n);
+		List<String> ids = new ArrayList<String>(n);
+		for(int i = 0; i < n; i++)
+			ids.add(AccountIndex.id(sorted[i]));
+		return ids;
+	}
+}
@@ -0,0 +1,83 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import java.util.*;
+
+/** Tests that the secondary indexes follow every operation of the Bank
+ * @author JosephKalash
+ *
+ */
+
+public class AccountSearchTest {
+
+	private Bank b;
+	private AccountSearch search;
+
+	/** 123 John Doe holds 100 USD, 456 Jane Doe 10 USD and 50 EUR, 789 John Roe 500 USD */
+	@Before
+	public void setUp() {
+		b = new Bank();
+		b.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 10000)));
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 1000));
+		balances.add(new Balance(Currency.EUR, 5000));
+		b.createAccount("456", "Jane", "Doe", balances);
+		search = b.enableSearch();
+		b.createAccount("789", "John", "Roe", Collections.singletonList(new Balance(Currency.USD, 50000)));
+	}
+
+	@Test
+	public void testNames() {
+		assertEquals(Arrays.asList("123", "456"), search.byLastName("Doe"));
+		assertEquals(Arrays.asList("123", "789"), search.byFirstName(" john"));
+		assertEquals(Arrays.asList("123"), search.byName("JOHN", "doe"));
+		assertTrue(search.byLastName("Smith").isEmpty());
+
+		assertTrue(b.deleteAccountID("123").isSuccess());
+		assertEquals(Arrays.asList("456"), search.byLastName("Doe"));
+		assertTrue(search.byName("John", "Doe").isEmpty());
+	}
+
+	@Test
+	public void testBalancesFollowOperations() {
+		assertEquals(Arrays.asList("456", "123", "789"), search.byBalance(Currency.USD, 0, Long.MAX_VALUE, 10));
+		assertEquals(Arrays.asList("123", "789"), search.byBalance(Currency.USD, 10000, Long.MAX_VALUE, 10));
+
+		assertTrue(b.withdraw("789", Currency.USD, 45000).isSuccess());
+		assertTrue(b.deposit("456", Currency.USD, 20000).isSuccess());
+		assertTrue(b.transfer("123", "456", Currency.USD, 500).isSuccess());
+		assertEquals(Arrays.asList("789", "123", "456"), search.byBalance(Currency.USD, 0, Long.MAX_VALUE, 10));
+		assertEquals(Arrays.asList("123"), search.byBalance(Currency.USD, 9500, 9500, 10));
+		assertEquals(Arrays.asList("789"), search.byBalance(Currency.USD, 0, Long.MAX_VALUE, 1));
+
+		//To the same balance: it stays where it is
+		assertTrue(b.transfer("123", "123", Currency.USD, 100).isSuccess());
+		assertEquals(1, search.countByBalance(Currency.USD, 9500, 9500));
+
+		assertEquals(1, search.countByBalance(Currency.EUR, 0, Long.MAX_VALUE));
+		assertTrue(b.deleteAccountBalance("456", Currency.EUR).isSuccess());
+		assertEquals(0, search.countByBalance(Currency.EUR, 0, Long.MAX_VALUE));
+		assertEquals(3, search.countByBalance(Currency.USD, 0, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testExchangeTransfer() {
+		b.exchangeRates().setRate(Currency.USD, Currency.EUR, ExchangeRates.parseRate("0.5"));
+		assertTrue(b.exchangeTransfer("789", "456", Currency.USD, Currency.EUR, 10000).isSuccess());
+		assertEquals(Arrays.asList("789"), search.byBalance(Currency.USD, 40000, 40000, 10));
+		assertEquals(Arrays.asList("456"), search.byBalance(Currency.EUR, 10000, 10000, 10));
+	}
+
+	@Test
+	public void testSearchNeedsAccountsInMemory() {
+		b = new Bank();
+		b.enableSearch();
+		try {
+			b.setStore(null, 0);
+			fail("A store was attached to a bank with search indexes");
+		}
+		catch(IllegalStateException e) {
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import java.util.*;
+
+/** Tests account ID validation, keys, hash codes and equality
+ * @author JosephKalash
+ *
+ */
+
+public class AccountTest {
+
+	private static Account account(String accountID) {
+		Account acc = new Account();
+		acc.accountID = accountID;
+		return acc;
+	}
+
+	/** Same messages as the regular expression check it replaced */
+	@Test
+	public void testCheckID() {
+		String[][] cases = {
+			{"", "AccountID can only contain digits."},
+			{"12a", "AccountID can only contain digits."},
+			{"-12", "AccountID can only contain digits."},
+			{" 12", "AccountID can only contain digits."},
+			{"١٢", "AccountID can only contain digits."},
+			{"5", "AccountID must contain at least 2 digits."},
+			{"1234567890123456789", "AccountID must contain at most 18 digits."},
+		};
+		for(String[] c : cases) {
+			try {
+				Account.checkID(c[0]);
+				fail(c[0]);
+			}
+			catch(IllegalIDException e) {
+				assertEquals(c[1], e.getMessage());
+			}
+			assertFalse(Account.isValidID(c[0]));
+		}
+		for(String valid : new String[] {"00", "123", "007", "123456789012345678"}) {
+			assertTrue(Account.isValidID(valid));
+			try {
+				Account.checkID(valid);
+			}
+			catch(IllegalIDException e) {
+				fail(valid);
+			}
+		}
+	}
+
+	@Test
+	public void testKey() {
+		assertEquals(1123, account("123").key());
+		assertEquals(AccountIndex.MIN_KEY, account("00").key());
+		assertEquals(-1, account("12a").key());
+		assertEquals("007", AccountIndex.id(account("007").key()));
+
+		//The cached key follows the ID
+		Account acc = account("123");
+		acc.key();
+		acc.accountID = "456";
+		assertEquals(1456, acc.key());
+	}
+
+	@Test
+	public void testEqualsAndHashCode() {
+		Account a = account("123");
+		Account b = account(new String("123"));
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertNotEquals(account("0123"), a);
+		assertNotEquals(account("12a"), a);
+		assertEquals(account("12a"), account("12a"));
+		assertEquals(account("12a").hashCode(), account("12a").hashCode());
+		assertFalse(a.equals(null));
+
+		//Hash tables keyed by accounts still find them
+		Set<Account> set = new HashSet<Account>();
+		for(int i = 0; i < 1000; i++)
+			set.add(account(Integer.toString(100 + i)));
+		for(int i = 0; i < 1000; i++)
+			assertTrue(set.contains(account(Integer.toString(100 + i))));
+		assertFalse(set.contains(account("1100")));
+	}
+}
@@ -0,0 +1,240 @@
+package bank;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Aggregates class keeps running totals of a Bank: the number of accounts and, for every currency,
+ * the number of balances, their sum and their distribution in buckets of powers of two.
+ *
+ * The Bank updates them along with every operation, while it holds the lock of the account changed,
+ * so reading them never scans the accounts. Every counter is a LongAdder: operations on different
+ * accounts add to different cells instead of contending on one, and a read sums a few cells.
+ *
+ * read() does not lock, so it may see one side of a transfer running meanwhile, and so does
+ * Bank.totals(). Bank.checkpointTotals() are as they were when the last snapshot or delta started,
+ * with no operation running, matching the accounts it holds.
+ *
+ * Only bounds of the smallest and largest balances are known, Totals.minBound() and maxBound():
+ * those of the lowest and highest buckets holding one. Exact ones would need the balances sorted,
+ * see AccountSearch.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class Aggregates {
+
+	/** Buckets of a currency: 0 for empty balances, then i for balances in [2^(i-1), 2^i) */
+	public static final int BUCKETS = 64;
+
+	/** Number of accounts */
+	private final LongAdder accounts = new LongAdder();
+
+	/** Number of balances of every currency, indexed by Currency.ordinal() */
+	private final LongAdder[] counts = new LongAdder[Account.CURRENCIES];
+
+	/** Sum of the balances of every currency in minor units, indexed by Currency.ordinal() */
+	private final LongAdder[] sums = new LongAdder[Account.CURRENCIES];
+
+	/** Number of balances in every bucket of every currency, indexed by Currency.ordinal() * BUCKETS + bucket */
+	private final LongAdder[] buckets = new LongAdder[Account.CURRENCIES * BUCKETS];
+
+	/** Totals read at once */
+	public static final class Totals {
+
+		/** Number of accounts */
+		public final long accounts;
+
+		private final long[] counts;
+		private final long[] sums;
+		private final long[] buckets;
+
+		Totals(long accounts, long[] counts, long[] sums, long[] buckets) {
+			this.accounts = accounts;
+			this.counts = counts;
+			this.sums = sums;
+			this.buckets = buckets;
+		}
+
+		/** Returns the number of balances in a currency
+		 * @param currency
+		 * @return long
+		 */
+		public long count(Currency currency) {
+			return counts[currency.ordinal()];
+		}
+
+		/** Returns the sum of the balances in a currency
+		 * @param currency
+		 * @return long in minor units
+		 */
+		public long sum(Currency currency) {
+			return sums[currency.ordinal()];
+		}
+
+		/** Returns the mean balance in a currency
+		 * @param currency
+		 * @return double in minor units, 0 if there is none
+		 */
+		public double mean(Currency currency) {
+			long n = count(currency);
+			return n == 0 ? 0 : (double)sum(currency) / n;
+		}
+
+		/** Returns the number of balances of a currency in a bucket
+		 * @param currency
+		 * @param bucket from 0 to BUCKETS - 1
+		 * @return long
+		 */
+		public long bucket(Currency currency, int bucket) {
+			return buckets[currency.ordinal() * BUCKETS + bucket];
+		}
+
+		/** Returns a bound no larger than the smallest balance in a currency: the lowest balance
+		 * of its power-of-two bucket, so up to half of it, not the smallest balance itself
+		 * @param currency
+		 * @return long 0 if there is none
+		 */
+		public long minBound(Currency currency) {
+			for(int b = 0; b < BUCKETS; b++)
+				if(bucket(currency, b) > 0)
+					return lowest(b);
+			return 0;
+		}
+
+		/** Returns a bound no smaller than the largest balance in a currency: the highest balance
+		 * of its power-of-two bucket, so up to about twice it, not the largest balance itself
+		 * @param currency
+		 * @return long 0 if there is none
+		 */
+		public long maxBound(Currency currency) {
+			for(int b = BUCKETS - 1; b >= 0; b--)
+				if(bucket(currency, b) > 0)
+					return highest(b);
+			return 0;
+		}
+
+		/** Prints the number of accounts, then the count, sum and bounds of every currency held
+		 * @return String
+		 */
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder("accounts=").append(accounts);
+			for(Currency c : Currency.values())
+				if(count(c) > 0)
+					s.append(' ').append(c).append(":count=").append(count(c)).append(",sum=").append(Money.format(sum(c), c))
+						.append(",minBound=").append(Money.format(minBound(c), c)).append(",maxBound=").append(Money.format(maxBound(c), c));
+			return s.toString();
+		}
+	}
+
+	/** Constructor of empty aggregates, see Bank.enableAggregates() */
+	Aggregates() {
+		for(int c = 0; c < Account.CURRENCIES; c++) {
+			counts[c] = new LongAdder();
+			sums[c] = new LongAdder();
+		}
+		for(int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	/** Reads the totals without locking: operations running meanwhile may be seen in part
+	 * @return Totals
+	 */
+	public Totals read() {
+		long[] c = new long[counts.length];
+		long[] s = new long[sums.length];
+		long[] b = new long[buckets.length];
+		for(int i = 0; i < c.length; i++) {
+			c[i] = counts[i].sum();
+			s[i] = sums[i].sum();
+		}
+		for(int i = 0; i < b.length; i++)
+			b[i] = buckets[i].sum();
+		return new Totals(accounts.sum(), c, s, b);
+	}
+
+	/** Counts a new account with its balances. Callers hold the account's lock or the Bank's write lock
+	 * @param acc
+	 * @return void
+	 */
+	void add(Account acc) {
+		accounts.increment();
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			if((acc.currencyMask & (1 << c)) != 0)
+				balanceOpened(c, acc.amounts[c]);
+	}
+
+	/** Drops a deleted account with its balances. Callers hold the Bank's write lock
+	 * @param acc
+	 * @return void
+	 */
+	void remove(Account acc) {
+		accounts.decrement();
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			if((acc.currencyMask & (1 << c)) != 0)
+				balanceClosed(c, acc.amounts[c]);
+	}
+
+	/** Moves a balance to its new amount. Callers hold the account's lock
+	 * @param currency
+	 * @param before
+	 * @param after
+	 * @return void
+	 */
+	void balanceChanged(Currency currency, long before, long after) {
+		if(after == before)
+			return;
+		int c = currency.ordinal();
+		sums[c].add(after - before);
+		int from = bucket(before), to = bucket(after);
+		if(from != to) {
+			buckets[c * BUCKETS + from].decrement();
+			buckets[c * BUCKETS + to].increment();
+		}
+	}
+
+	/** Drops a closed balance. Callers hold the account's lock
+	 * @param currency
+	 * @param before amount the balance held
+	 * @return void
+	 */
+	void balanceClosed(Currency currency, long before) {
+		balanceClosed(currency.ordinal(), before);
+	}
+
+	private void balanceOpened(int c, long amount) {
+		counts[c].increment();
+		sums[c].add(amount);
+		buckets[c * BUCKETS + bucket(amount)].increment();
+	}
+
+	private void balanceClosed(int c, long amount) {
+		counts[c].decrement();
+		sums[c].add(-amount);
+		buckets[c * BUCKETS + bucket(amount)].decrement();
+	}
+
+	/** Returns the bucket of a balance
+	 * @param amount
+	 * @return int
+	 */
+	static int bucket(long amount) {
+		return amount <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(amount);
+	}
+
+	/** Returns the lowest balance of a bucket
+	 * @param bucket
+	 * @return long
+	 */
+	static long lowest(int bucket) {
+		return bucket == 0 ? 0 : 1L << (bucket - 1);
+	}
+
+	/** Returns the highest balance of a bucket
+	 * @param bucket
+	 * @return long
+	 */
+	static long highest(int bucket) {
+		return bucket == 0 ? 0 : (1L << (bucket - 1)) + ((1L << (bucket - 1)) - 1);
+	}
+}
@@ -0,0 +1,158 @@
+package bank;
+
+import static org.junit.Assert.*;
+import static bank.TestBanks.id;
+import org.junit.*;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Tests the running Aggregates of a Bank against a scan of its accounts
+ * @author JosephKalash
+ *
+ */
+
+public class AggregatesTest {
+
+	private static final int ACCOUNTS = 2000;
+
+	/** Checks the totals against a scan of the accounts */
+	private static void assertTotals(Bank bank, Aggregates.Totals totals) {
+		long[] counts = new long[Account.CURRENCIES];
+		long[] sums = new long[Account.CURRENCIES];
+		long[] buckets = new long[Account.CURRENCIES * Aggregates.BUCKETS];
+		long[] mins = new long[Account.CURRENCIES];
+		long[] maxs = new long[Account.CURRENCIES];
+		Arrays.fill(mins, Long.MAX_VALUE);
+		for(Account acc : bank.accounts.values())
+			for(int c = 0; c < Account.CURRENCIES; c++)
+				if(acc.containsBalanceWithCurrency(Currency.values()[c])) {
+					counts[c]++;
+					sums[c] += acc.amounts[c];
+					buckets[c * Aggregates.BUCKETS + Aggregates.bucket(acc.amounts[c])]++;
+					mins[c] = Math.min(mins[c], acc.amounts[c]);
+					maxs[c] = Math.max(maxs[c], acc.amounts[c]);
+				}
+		assertEquals(bank.accounts.size(), totals.accounts);
+		for(Currency c : Currency.values()) {
+			assertEquals(counts[c.ordinal()], totals.count(c));
+			assertEquals(sums[c.ordinal()], totals.sum(c));
+			for(int b = 0; b < Aggregates.BUCKETS; b++)
+				assertEquals(buckets[c.ordinal() * Aggregates.BUCKETS + b], totals.bucket(c, b));
+			if(counts[c.ordinal()] > 0) {
+				assertTrue(totals.minBound(c) <= mins[c.ordinal()]);
+				assertTrue(mins[c.ordinal()] / 2 <= totals.minBound(c));
+				assertTrue(totals.maxBound(c) >= maxs[c.ordinal()]);
+				assertTrue(totals.maxBound(c) / 2 <= maxs[c.ordinal()]);
+			}
+		}
+	}
+
+	@Test
+	public void testBuckets() {
+		assertEquals(0, Aggregates.bucket(0));
+		assertEquals(1, Aggregates.bucket(1));
+		assertEquals(2, Aggregates.bucket(2));
+		assertEquals(2, Aggregates.bucket(3));
+		assertEquals(11, Aggregates.bucket(1024));
+		assertEquals(63, Aggregates.bucket(Long.MAX_VALUE));
+		for(int b = 1; b < Aggregates.BUCKETS; b++) {
+			assertEquals(b, Aggregates.bucket(Aggregates.lowest(b)));
+			assertEquals(b, Aggregates.bucket(Aggregates.highest(b)));
+		}
+	}
+
+	/** Every kind of operation keeps the totals equal to a scan */
+	@Test
+	public void testOperations() {
+		Bank bank = new Bank();
+		Random random = new Random(42);
+		for(int i = 0; i < ACCOUNTS / 2; i++)
+			bank.createAccount(id(i), "First", "Last", Arrays.asList(new Balance(Currency.USD, random.nextInt(1000000)),
+					new Balance(Currency.values()[random.nextInt(Account.CURRENCIES)], random.nextInt(1000))));
+		Aggregates aggregates = bank.enableAggregates();
+		assertTotals(bank, aggregates.read());
+
+		for(int i = ACCOUNTS / 2; i < ACCOUNTS; i++)
+			bank.createAccount(id(i), "First", "Last", Collections.singletonList(new Balance(Currency.EUR, random.nextInt(1000000))));
+		for(int i = 0; i < 20000; i++) {
+			String id = id(random.nextInt(ACCOUNTS));
+			switch(random.nextInt(6)) {
+				case 0: bank.deposit(id, Currency.USD, 1 + random.nextInt(100000)); break;
+				case 1: bank.withdraw(id, Currency.EUR, 1 + random.nextInt(100000)); break;
+				case 2: bank.transfer(id, id(random.nextInt(ACCOUNTS)), Currency.USD, 1 + random.nextInt(100000)); break;
+				case 3: bank.exchangeTransfer(id, id(random.nextInt(ACCOUNTS)), Currency.EUR, Currency.USD, 1 + random.nextInt(100000)); break;
+				case 4: bank.deleteAccountBalance(id, Currency.values()[random.nextInt(Account.CURRENCIES)]); break;
+				default:
+					if(random.nextInt(20) == 0)
+						bank.deleteAccountID(id);
+			}
+		}
+		new Sweep(bank).run(new Sweep.Function() {
+			public long adjust(String accountID, Currency currency, long balance) {
+				return 3;
+			}
+		});
+		Aggregates.Totals totals = bank.totals();
+		assertTotals(bank, totals);
+		assertTrue(totals.accounts < ACCOUNTS);
+		assertTrue(totals.minBound(Currency.USD) <= totals.maxBound(Currency.USD));
+	}
+
+	/** Totals read during transfers are approximate, but never miss an account nor a balance,
+	 * and are exact once the transfers stop */
+	@Test
+	public void testTotalsDuringTransfers() throws Exception {
+		final Bank bank = new Bank();
+		for(int i = 0; i < ACCOUNTS; i++)
+			bank.createAccount(id(i), "First", "Last", Collections.singletonList(new Balance(Currency.USD, 1000000)));
+		bank.enableAggregates();
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					while(running.get())
+						bank.transfer(id(random.nextInt(ACCOUNTS)), id(random.nextInt(ACCOUNTS)), Currency.USD, 1 + random.nextInt(1000));
+				}
+			});
+			threads[t].start();
+		}
+		for(int i = 0; i < 2000; i++) {
+			Aggregates.Totals totals = bank.totals();
+			assertEquals(ACCOUNTS, totals.accounts);
+			assertEquals(ACCOUNTS, totals.count(Currency.USD));
+		}
+		running.set(false);
+		for(Thread t : threads)
+			t.join();
+		assertTotals(bank, bank.totals());
+		assertEquals(ACCOUNTS * 1000000L, bank.totals().sum(Currency.USD));
+	}
+
+	/** The checkpoint totals are those of the accounts in the snapshot, not of later operations */
+	@Test
+	public void testCheckpointTotals() throws IOException {
+		Bank bank = new Bank();
+		for(int i = 0; i < ACCOUNTS; i++)
+			bank.createAccount(id(i), "First", "Last", Collections.singletonList(new Balance(Currency.CAD, i)));
+		bank.enableAggregates();
+		assertNull(bank.checkpointTotals());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bank.writeSnapshot(Channels.newChannel(out));
+		bank.deposit(id(0), Currency.CAD, 5);
+		bank.deleteAccountID(id(1));
+
+		Bank loaded = SnapshotFormat.read(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+		loaded.enableAggregates();
+		Aggregates.Totals checkpoint = bank.checkpointTotals();
+		assertTotals(loaded, checkpoint);
+		assertEquals(ACCOUNTS, checkpoint.accounts);
+		assertEquals(ACCOUNTS - 1, bank.totals().accounts);
+		assertEquals(checkpoint.sum(Currency.CAD) + 5 - 1, bank.totals().sum(Currency.CAD));
+	}
+}
@@ -0,0 +1,95 @@
+package bank;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/** AtomicFile class replaces files so that a crash at any point leaves
+ * either the whole old file or the whole new one, never a mix of both:
+ *
+ * 		1. The new content is written to a temporary file next to the file (name.tmp)
+ * 		2. The temporary file is forced to the disk
+ * 		3. It is renamed over the file in a single step
+ * 		4. The directory is forced, so the rename itself survives a crash
+ *
+ * A temporary file left by a crash is ignored, and overwritten by the next replacement.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class AtomicFile {
+
+	/** Writes the content of a file */
+	public interface Content<T> {
+		/** Writes the whole content to the channel, and returns what the caller needs back
+		 * @param channel
+		 * @return T
+		 * @throws IOException
+		 */
+		T write(FileChannel channel) throws IOException;
+	}
+
+	/** Replaces a file with the given content
+	 * @param file
+	 * @param content
+	 * @return T what content returned
+	 * @throws IOException if it cannot be written, the file is then unchanged
+	 */
+	public static <T> T write(File file, Content<T> content) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		T result;
+		FileOutputStream f_out = new FileOutputStream(tmp);
+		try {
+			result = content.write(f_out.getChannel());
+			f_out.getChannel().force(true);
+		}
+		finally {
+			f_out.close();
+		}
+		rename(tmp, file);
+		return result;
+	}
+
+	/** Renames a file over another one in a single step and forces the directory
+	 * @param from
+	 * @param to
+	 * @return void
+	 * @throws IOException
+	 */
+	public static void rename(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(AtomicMoveNotSupportedException e) {
+			throw new IOException("Unable to replace " + to + " in a single step.", e);
+		}
+		syncDirectory(to.getAbsoluteFile().getParentFile());
+	}
+
+	/** Forces the entries of a directory to the disk, so files created,
+	 * renamed or deleted in it survive a crash
+	 * @param directory
+	 * @return void
+	 * @throws IOException
+	 */
+	public static void syncDirectory(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		}
+		catch(IOException e) {
+			//Some systems cannot open a directory, and make its entries durable on their own
+			return;
+		}
+		try {
+			channel.force(true);
+		}
+		catch(IOException e) {
+			//Same, for those that open it but refuse to force it
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package bank;
+
+import java.io.*;
+
+/** Balance class defines 
+ * the currency type and value associated to it.
+ * Values are counted in minor units of the currency, see Money,
+ * serialization still writes the value in units as a Double
+ * @author JosephKalash
+ *
+ */
+
+/**Currency enumerator */
+enum Currency { 
+	LBP(2),
+	EUR(2),
+	USD(2),
+	CAD(2),
+	JPY(0),
+	CNY(2);
+	
+	/** Number of decimal digits of the minor unit, 0 if the currency has none */
+	final int scale;
+	
+	/** Number of minor units in one unit: 10 to the power of scale */
+	final long minorUnits;
+	
+	/** Constructor that takes the number of decimal digits of the minor unit
+	 * @param scale
+	 * */
+	Currency(int scale) {
+		this.scale = scale;
+		long units = 1;
+		for(int i = 0; i < scale; i++)
+			units *= 10;
+		this.minorUnits = units;
+	}
+	
+	/** Returns the currency for a menu option, from 1 (LBP) to 6 (CNY), or null
+	 * @param option
+	 * @return Currency
+	 * */
+	static Currency fromOption(int option) {
+		Currency[] all = values();
+		if(option < 1 || option > all.length)
+			return null;
+		return all[option - 1];
+	}
+};
+
+public class Balance implements Serializable {
+	
+	/**Serialization */
+	private static final long serialVersionUID = 32495874369L;
+	
+	/**Serialized fields: the value is written in units as a Double, as it used to be */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("currency", Currency.class),
+		new ObjectStreamField("value", Double.class)
+	};
+	
+	/** Currency of the balance */
+	public Currency currency;
+	
+	/** Value of the balance in minor units */
+	public long value;
+   
+	/**Constructor that takes a native currency enumerator and a value parameter 
+	 * @param currency
+	 * @param value in minor units
+	 * */
+	public Balance(Currency currency, long value) { 
+    this.currency = currency; 
+    this.value = value; 
+  } 
+  
+  
+  /**Constructor that takes a currency ordinal
+   * @param currency
+   */
+  public Balance(Integer currency) {
+	  this.value = 0;
+	  switch (currency) {
+	  	case 1: this.currency = Currency.LBP; break;
+	  	case 2: this.currency = Currency.EUR; break;
+	  	case 3: this.currency = Currency.USD; break;
+	  	case 4: this.currency = Currency.CAD; break;
+	  	case 5: this.currency = Currency.JPY; break;
+	  	case 6: this.currency = Currency.CNY; break;
+	  }
+  }
+  
+  
+  /** Return this balance's currency name 
+   * @return String
+   * */
+  public String currencyString() {
+	  
+	  switch(this.currency) {
+	  case LBP:return "1. Lebanese Lira (LBP)";
+	  case EUR:return "2. Euro (EUR)";
+	  case USD:return "3. US Dollar (USD)"; 
+	  case CAD:return "4. Canadian Dollar (CAD)";
+	  case JPY:return "5. Japanese Yen (JPY)"; 
+	  case CNY:return "6. Chinese Yuan (CNY)";
+	  default:return "";
+	  }
+  }
+  
+  /** Returns name of currency of a given Currency's ordinal value 
+   * @param i
+   * @return String
+   * */
+  public String currencyForInt(Integer i) {
+	  switch (i) {
+		  case 1:return "LBP";
+		  case 2:return "EUR";
+		  case 3:return "USD"; 
+		  case 4:return "CAD";
+		  case 5:return "JPY"; 
+		  case 6:return "CNY";
+		  default:return "";
+	  }
+  }
+  
+  /** Custom Serialization, reads the value in units
+   * @throws ClassNotFoundException
+   * @throws IOException
+   * @param aInputStream
+   * */
+  private void readObject(ObjectInputStream aInputStream) throws ClassNotFoundException, IOException {
+	  ObjectInputStream.GetField fields = aInputStream.readFields();
+	  currency = (Currency)fields.get("currency", null);
+	  Double units = (Double)fields.get("value", null);
+	  value = units == null || currency == null ? 0 : Money.fromUnits(units, currency);
+  }
+  
+  /** Custom Serialization, writes the value in units
+   * @throws IOException
+   * @param aOutputStream
+   * */
+  private void writeObject(ObjectOutputStream aOutputStream) throws IOException {
+	  ObjectOutputStream.PutField fields = aOutputStream.putFields();
+	  fields.put("currency", currency);
+	  fields.put("value", Double.valueOf(currency == null ? 0 : Money.toUnits(value, currency)));
+	  aOutputStream.writeFields();
+  }
+  
+  /** Prints the currency and balance value
+   * @return String
+   */
+  @Override
+  public String toString() {
+	 
+	  String currencyString;
+	  
+	  switch(this.currency) {
+		  case LBP:currencyString = "LBP";break;
+		  case EUR:currencyString = "EUR";break;
+		  case USD:currencyString = "USD";break; 
+		  case CAD:currencyString = "CAD";break;
+		  case JPY:currencyString = "JPY";break; 
+		  case CNY:currencyString = "CNY";break;
+		  default:currencyString = "";break;
+	  }
+	  return currencyString+"="+Money.format(value, currency); 
+  }
+
+} 
@@ -0,0 +1,1742 @@
+package bank;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.io.*;
+import java.nio.channels.WritableByteChannel;
+
+/** Bank Class 
+ * Contains a hash table of all bank accounts
+ * Implements all required functionalities
+ * without any console I/O, see Simulator for the console client
+ * 
+ * All operations are thread safe:
+ * 		1. Creating and deleting accounts changes the set of accounts and takes the write lock
+ * 		2. Every other operation takes the read lock, so they all run concurrently,
+ * 		   and then locks the accounts it touches (the Account object monitor)
+ * 		3. A transfer locks its two accounts in increasing AccountIndex key order,
+ * 		   so two transfers can never wait on each other
+ * 
+ * When a Journal is attached, every applied operation is appended to it
+ * while its accounts are still locked, and the caller waits for it to be
+ * durable once every lock is released
+ * 
+ * When Metrics are attached, every public operation is counted by outcome and timed
+ * 
+ * A transaction carrying an idempotency key is applied once however many times it is retried,
+ * its result is kept in the IdempotencyCache
+ * 
+ * Once enableAggregates() is called, the number of accounts and the count, sum and distribution
+ * of the balances of every currency are kept up to date along with the secondary indexes,
+ * so reading them never scans the accounts, see Aggregates
+ * 
+ * setHot() splits the balances of an account most operations touch into cells, see HotBalances:
+ * 		1. Deposits, withdrawals and transfers change the cell of their thread without locking the account,
+ * 		   a withdrawal or a transfer falls back to the account lock when its cell does not hold enough,
+ * 		   and then refills the cell from the account
+ * 		2. Every other operation locks the account and folds the cells into it first,
+ * 		   so it sees and changes the exact balance, as does every checkpoint
+ * 		3. Locks are taken accounts first, by key, then cells, those of one account lowest index first:
+ * 		   a thread holding a cell never waits for an account
+ * 
+ * A Sweep adjusts every balance of every account, for instance with the end-of-day interest and fees,
+ * in parallel and while operations keep running: each account is adjusted under its own lock
+ * and every change is journaled as an ADJUST transaction
+ * 
+ * When a MappedAccountStore is attached, accounts are loaded from it the first time
+ * they are used, and the changed ones are written back by checkpoint().
+ * The accounts hash table then only holds the accounts created since the last checkpoint
+ * 
+ * Otherwise snapshots and deltas are written online, without stopping the operations:
+ * 		1. Starting a checkpoint takes the write lock just long enough to rotate the journal,
+ * 		   close the current epoch and pick the accounts it covers (every account for
+ * 		   writeSnapshot(), the ones changed in the epoch for writeDelta())
+ * 		2. The checkpoint then copies those accounts one at a time under their own lock,
+ * 		   while operations keep running
+ * 		3. An operation about to change an account the checkpoint has not copied yet
+ * 		   copies it first (copy-on-write), so the checkpoint sees it as it was when it started
+ * 		4. The copies are written once every covered account was copied, along with
+ * 		   the idempotency keys of the operations the checkpoint contains
+ * @author JosephKalash
+ *
+ */
+
+public class Bank implements Serializable{
+	
+	/**Serialization */
+	private static final long serialVersionUID = 5996474295623716947L;
+	
+	/** Currencies, in ordinal order */
+	private static final Currency[] CURRENCIES = Currency.values();
+	
+	/** Hash Table containing the bank accounts */
+	public Hashtable<Account, Account> accounts;
+	
+	/** Index of the bank accounts by account ID, rebuilt after de-serialization */
+	private transient AccountIndex index;
+	
+	/** Guards the set of accounts: read lock for operations on existing accounts,
+	 * write lock for adding or removing accounts and for serialization */
+	private transient ReentrantReadWriteLock lock;
+	
+	/** Write-ahead log of the applied operations, null if none */
+	private transient Journal journal;
+	
+	/** Sequence number of the last journaled operation contained in this bank */
+	long sequence;
+	
+	/** Accounts kept on disk and loaded when first used, null if every account is in memory */
+	private transient MappedAccountStore store;
+	
+	/** Accounts loaded from the store since they were last dropped from memory */
+	private transient ConcurrentHashMap<Long, Account> loaded;
+	
+	/** Keys of the accounts deleted since the last checkpoint, guarded by the write lock */
+	private transient Set<Long> deleted;
+	
+	/** Accounts changed since the last checkpoint, null unless changes are tracked */
+	private transient ConcurrentLinkedQueue<Account> dirty;
+	
+	/** Current checkpoint epoch: it ends when the next checkpoint starts. Guarded by the write lock */
+	private transient long epoch;
+	
+	/** Checkpoint being copied, null if none */
+	private transient volatile Checkpoint checkpoint;
+	
+	/** Number of accounts in memory above which a checkpoint drops them */
+	private transient int maxLoaded;
+	
+	/** Exchange rates of the cross-currency operations */
+	private transient ExchangeRates rates;
+	
+	/** Secondary indexes of the accounts, null until enableSearch() */
+	private transient volatile AccountSearch search;
+	
+	/** Running totals of the accounts, null until enableAggregates() */
+	private transient volatile Aggregates aggregates;
+	
+	/** Totals when the last snapshot or delta started, null if none since enableAggregates() */
+	private transient volatile Aggregates.Totals checkpointTotals;
+	
+	/** History of the operations on every account, null if none */
+	private transient volatile History history;
+	
+	/** Counters and latencies of the operations, null if none */
+	private transient volatile Metrics metrics;
+	
+	/** Results of the transactions with an idempotency key */
+	private transient volatile IdempotencyCache idempotency;
+	
+	/** Accounts split into cells by setHot(), guarded by the write lock */
+	private transient List<Account> hotAccounts;
+	
+	/** Default Constructor */
+	Bank() {
+		this(0);
+	}
+	
+	/** Constructor that sizes the bank for an expected number of accounts
+	 * @param expected
+	 * */
+	Bank(int expected) {
+		accounts = new Hashtable<Account, Account>(Math.max(11, expected * 4 / 3 + 1));
+		index = new AccountIndex(expected);
+		lock = new ReentrantReadWriteLock();
+		rates = new ExchangeRates();
+		idempotency = new IdempotencyCache();
+		hotAccounts = new ArrayList<Account>();
+		epoch = 1;
+	}
+	
+	/** Custom Serialization 
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 * @param aInputStream
+	 * @return void
+	 * */
+	private void readObject(ObjectInputStream aInputStream) throws ClassNotFoundException, IOException {
+		     //Perform the default de-serialization first
+		     aInputStream.defaultReadObject();
+		     
+		     //Rebuild the account index
+		     index = new AccountIndex(accounts.size());
+		     for(Account acc : accounts.values())
+		    	 index.put(acc);
+		     lock = new ReentrantReadWriteLock();
+		     rates = new ExchangeRates();
+		     idempotency = new IdempotencyCache();
+		     hotAccounts = new ArrayList<Account>();
+		     epoch = 1;
+	}
+	
+	private void writeObject(ObjectOutputStream aOutputStream) throws IOException {
+		//No operation may run while the accounts are written, so the copy is consistent
+		lock.writeLock().lock();
+		try {
+			//Journaled operations up to here are part of the copy, later ones go to a new segment
+			if(journal != null)
+				sequence = journal.rotate();
+			foldHot();
+			
+			//Perform the default serialization for all non-transient, non-static fields
+			aOutputStream.defaultWriteObject();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	} 
+
+	/** Writes a binary snapshot of the bank, see SnapshotFormat.
+	 * Operations keep running while it is written, the snapshot holds every account
+	 * as it was when it started. Starting it copies the list of accounts under the write lock,
+	 * and every account is copied before being written
+	 * @param channel
+	 * @return long sequence number of the last journaled operation in the snapshot
+	 * @throws IOException
+	 * */
+	public long writeSnapshot(WritableByteChannel channel) throws IOException {
+		return writeCheckpoint(channel, true);
+	}
+	
+	/** Writes a delta of the accounts changed and deleted since the last snapshot or delta,
+	 * see SnapshotFormat. Operations keep running while it is written, and it costs
+	 * in proportion to the number of changed accounts only
+	 * @param channel
+	 * @return long sequence number of the last journaled operation in the delta
+	 * @throws IOException
+	 * @throws IllegalStateException if changes are not tracked, see trackChanges()
+	 * */
+	public long writeDelta(WritableByteChannel channel) throws IOException {
+		return writeCheckpoint(channel, false);
+	}
+	
+	/** Starts tracking the accounts changed and deleted, so writeDelta() can write only those.
+	 * Changes made before are only covered by a snapshot
+	 * @return void
+	 * */
+	public void trackChanges() {
+		lock.writeLock().lock();
+		try {
+			if(dirty == null) {
+				dirty = new ConcurrentLinkedQueue<Account>();
+				deleted = new HashSet<Long>();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/** Writes a snapshot or a delta online, see the class comment
+	 * @param channel
+	 * @param full true for a snapshot of every account, false for a delta
+	 * @return long sequence number of the last journaled operation written
+	 * @throws IOException
+	 * */
+	private long writeCheckpoint(WritableByteChannel channel, boolean full) throws IOException {
+		Checkpoint c;
+		Collection<Account> covered;
+		Collection<Long> gone = Collections.emptyList();
+		long after, covers;
+		lock.writeLock().lock();
+		try {
+			if(store != null)
+				throw new IllegalStateException("Accounts kept in a store are written by checkpoint().");
+			if(checkpoint != null)
+				throw new IllegalStateException("A checkpoint is already being written.");
+			if(!full && dirty == null)
+				throw new IllegalStateException("Changes are not tracked.");
+			
+			//Journaled operations up to here are part of the checkpoint, later ones go to a new segment
+			after = full ? 0 : sequence;
+			if(journal != null)
+				sequence = journal.rotate();
+			covers = sequence;
+			
+			//The copies are taken from the accounts alone
+			foldHot();
+			c = new Checkpoint(epoch++, full);
+			if(aggregates != null)
+				checkpointTotals = aggregates.read();
+			covered = full ? Arrays.asList(accounts.values().toArray(new Account[0])) : dirty;
+			if(dirty != null) {
+				dirty = new ConcurrentLinkedQueue<Account>();
+				gone = deleted;
+				deleted = new HashSet<Long>();
+			}
+			checkpoint = c;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		
+		List<Account> copies = new ArrayList<Account>();
+		try {
+			for(Account acc : covered) {
+				synchronized(acc) {
+					//Skips the accounts copied by an operation, or deleted
+					if(acc.saved < c.epoch) {
+						copies.add(acc.copy());
+						acc.saved = c.epoch;
+					}
+				}
+			}
+		}
+		finally {
+			checkpoint = null;
+		}
+		//Every covered account is copied, operations can no longer add to these
+		copies.addAll(c.copies);
+		//Operations record their key as they journal, so those up to covers all did
+		IdempotencyCache.Entries keys = idempotency.entries(after, covers);
+		
+		if(full)
+			SnapshotFormat.write(copies, keys, covers, channel);
+		else
+			SnapshotFormat.writeDelta(copies, gone, keys, covers, channel);
+		return covers;
+	}
+
+	/** Compare two banks by checking if their corresponding Accounts hash are identical
+	 * @param obj
+	 * @return boolean
+	 */
+	@Override 
+	public boolean equals(Object obj) {
+		Bank otherBank = (Bank)obj;
+		
+		Collection<Account> accs = this.accounts.values();
+		Collection<Account> otherAccs = otherBank.accounts.values();
+		return accs.equals(otherAccs);
+	}
+	
+	/**Attaches the journal every applied operation is appended to
+	 * @param journal
+	 * @return void
+	 * */
+	public void setJournal(Journal journal) {
+		lock.writeLock().lock();
+		try {
+			this.journal = journal;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Attaches the history every operation on a balance is recorded to
+	 * @param history null to stop recording
+	 * @return void
+	 * */
+	public void setHistory(History history) {
+		lock.writeLock().lock();
+		try {
+			this.history = history;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Attaches the metrics every public operation is counted and timed in
+	 * @param metrics null to stop measuring
+	 * @return void
+	 * */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**Returns the metrics of the operations
+	 * @return Metrics null if none are attached
+	 * */
+	public Metrics metrics() {
+		return metrics;
+	}
+	
+	/**Replaces the cache of the idempotency keys, along with the keys it holds.
+	 * Must be called before any keyed transaction is applied
+	 * @param idempotency
+	 * @return void
+	 * */
+	public void setIdempotency(IdempotencyCache idempotency) {
+		lock.writeLock().lock();
+		try {
+			idempotency.restore(this.idempotency.entries(-1, Long.MAX_VALUE));
+			this.idempotency = idempotency;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Returns the cache of the idempotency keys
+	 * @return IdempotencyCache
+	 * */
+	public IdempotencyCache idempotency() {
+		return idempotency;
+	}
+	
+	/**Returns the sequence number of the last operation appended to the journal
+	 * @return long 0 without journal
+	 * */
+	public long journalSequence() {
+		Journal j = journal;
+		return j == null ? 0 : j.lastSequence();
+	}
+	
+	/**Waits until the operations journaled up to the given sequence number are durable,
+	 * see apply(Transaction, boolean)
+	 * @param sequence
+	 * @return void
+	 * */
+	public void awaitDurable(long sequence) {
+		Journal j = journal;
+		if(sequence != 0 && j != null)
+			j.awaitDurable(sequence);
+	}
+	
+	/**Returns the exchange rates used by exchangeTransfer() and exchangeDeposit()
+	 * @return ExchangeRates
+	 * */
+	public ExchangeRates exchangeRates() {
+		return rates;
+	}
+	
+	/**Builds the secondary indexes of the accounts, kept up to date by every later operation
+	 * @return AccountSearch
+	 * @throws IllegalStateException if accounts are kept in a store, as the indexes need all of them in memory
+	 * */
+	public AccountSearch enableSearch() {
+		lock.writeLock().lock();
+		try {
+			if(store != null)
+				throw new IllegalStateException("Search needs every account in memory.");
+			if(!hotAccounts.isEmpty())
+				throw new IllegalStateException("Search reads every balance from its account, not from hot cells.");
+			if(search == null) {
+				AccountSearch s = new AccountSearch();
+				for(Account acc : accounts.values())
+					s.add(acc);
+				search = s;
+			}
+			return search;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Returns the secondary indexes of the accounts
+	 * @return AccountSearch null until enableSearch()
+	 * */
+	public AccountSearch search() {
+		return search;
+	}
+	
+	/**Counts the accounts and their balances, kept up to date by every later operation
+	 * @return Aggregates
+	 * @throws IllegalStateException if accounts are kept in a store, as counting needs all of them in memory
+	 * */
+	public Aggregates enableAggregates() {
+		lock.writeLock().lock();
+		try {
+			if(store != null)
+				throw new IllegalStateException("Aggregates need every account in memory.");
+			if(!hotAccounts.isEmpty())
+				throw new IllegalStateException("Aggregates read every balance from its account, not from hot cells.");
+			if(aggregates == null) {
+				Aggregates a = new Aggregates();
+				for(Account acc : accounts.values())
+					a.add(acc);
+				aggregates = a;
+			}
+			return aggregates;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Returns the running totals of the accounts, read without locking by Aggregates.read()
+	 * @return Aggregates null until enableAggregates()
+	 * */
+	public Aggregates aggregates() {
+		return aggregates;
+	}
+	
+	/**Reads the running totals without waiting for nor stopping any operation. They are approximate
+	 * while operations run, one side of a transfer may be seen without the other, and exact once they stop.
+	 * checkpointTotals() are a consistent cut, taken when the last checkpoint started
+	 * @return Aggregates.Totals null until enableAggregates()
+	 * */
+	public Aggregates.Totals totals() {
+		Aggregates a = aggregates;
+		return a == null ? null : a.read();
+	}
+	
+	/**Returns the totals of the accounts held by the last snapshot or delta written
+	 * @return Aggregates.Totals null if none was written since enableAggregates()
+	 * */
+	public Aggregates.Totals checkpointTotals() {
+		return checkpointTotals;
+	}
+	
+	/**Splits the balances of an account into cells, so concurrent operations on it do not all wait
+	 * for its lock, see HotBalances. Meant for the few accounts taking part in a large share
+	 * of the operations, such as a payroll source or a big merchant
+	 * @param accountID
+	 * @param cells number of cells, rounded up to a power of two, 0 to join them back into the account
+	 * @return boolean false if the account does not exist
+	 * @throws IllegalStateException with a store, search or aggregates, which read every balance from its account
+	 * */
+	public boolean setHot(String accountID, int cells) {
+		lock.writeLock().lock();
+		try {
+			if(store != null)
+				throw new IllegalStateException("Hot accounts need every account in memory.");
+			if(search != null || aggregates != null)
+				throw new IllegalStateException("Search and aggregates read every balance from its account, not from hot cells.");
+			Account acc = account(accountID);
+			if(acc == null)
+				return false;
+			synchronized(acc) {
+				fold(acc);
+				acc.hot = cells > 0 ? new HotBalances(cells) : null;
+			}
+			hotAccounts.remove(acc);
+			if(acc.hot != null)
+				hotAccounts.add(acc);
+			return true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Attaches the store accounts are loaded from. Must be called before any account is used
+	 * @param store
+	 * @param maxLoaded number of accounts in memory above which a checkpoint drops them
+	 * @return void
+	 * */
+	public void setStore(MappedAccountStore store, int maxLoaded) {
+		lock.writeLock().lock();
+		try {
+			if(search != null)
+				throw new IllegalStateException("Search needs every account in memory.");
+			if(aggregates != null)
+				throw new IllegalStateException("Aggregates need every account in memory.");
+			if(!hotAccounts.isEmpty())
+				throw new IllegalStateException("Hot accounts need every account in memory.");
+			this.store = store;
+			this.maxLoaded = maxLoaded;
+			loaded = new ConcurrentHashMap<Long, Account>();
+			deleted = new HashSet<Long>();
+			dirty = new ConcurrentLinkedQueue<Account>();
+			sequence = store.sequence();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Writes the accounts changed since the last checkpoint to the store,
+	 * and drops the accounts in memory once there are more than maxLoaded
+	 * @return long sequence number of the last journaled operation in the store
+	 * @throws IOException
+	 * */
+	public long checkpoint() throws IOException {
+		lock.writeLock().lock();
+		try {
+			//Journaled operations up to here are part of the checkpoint, later ones go to a new segment
+			if(journal != null)
+				sequence = journal.rotate();
+			
+			epoch++;
+			List<Account> changed = new ArrayList<Account>();
+			for(Account acc = dirty.poll(); acc != null; acc = dirty.poll()) {
+				//Skip accounts deleted since they changed
+				if(account(acc.accountID) == acc)
+					changed.add(acc);
+			}
+			store.checkpoint(changed, deleted, sequence);
+			deleted.clear();
+			
+			if(loaded.size() + index.size() > maxLoaded) {
+				loaded.clear();
+				index.clear();
+				accounts.clear();
+			}
+			return sequence;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Applies a transaction, as read back from the journal
+	 * @param t
+	 * @return TransactionResult
+	 * */
+	public TransactionResult apply(Transaction t) {
+		return apply(t, true);
+	}
+	
+	/**Applies a transaction. Without wait, the caller gets the result before
+	 * the transaction is durable and must call awaitDurable(journalSequence()) before relying on it.
+	 * A transaction with an idempotency key is applied once: a retry gets the result of the first
+	 * attempt, waiting for it if it still runs, see IdempotencyCache
+	 * @param t
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	public TransactionResult apply(Transaction t, boolean wait) {
+		long start = start();
+		if(t.key == 0)
+			return measured(Metrics.of(t.type), start, applyUnmeasured(t, wait));
+		
+		IdempotencyCache keys = idempotency;
+		TransactionResult result = keys.begin(t);
+		if(result != null) {
+			//Applied before, maybe not durable yet
+			if(wait && result.status != TransactionResult.Status.KEY_REUSED)
+				awaitDurable(journalSequence());
+			return measured(Metrics.of(t.type), start, result);
+		}
+		try {
+			result = applyUnmeasured(t, wait);
+		}
+		finally {
+			if(result == null)
+				keys.abandon(t);
+			else
+				keys.complete(t, result);
+		}
+		return measured(Metrics.of(t.type), start, result);
+	}
+	
+	/**Applies a transaction read back from the journal with the given sequence number,
+	 * even if its idempotency key is known: the journal only holds transactions to apply
+	 * @param t
+	 * @param sequence
+	 * @return TransactionResult
+	 * */
+	TransactionResult replay(Transaction t, long sequence) {
+		long start = start();
+		TransactionResult result = applyUnmeasured(t, true);
+		if(t.key != 0)
+			idempotency.record(t, result, sequence);
+		return measured(Metrics.of(t.type), start, result);
+	}
+	
+	/**Same as apply(), without metrics
+	 * @param t
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult applyUnmeasured(Transaction t, boolean wait) {
+		switch(t.type) {
+			case CREATE_ACCOUNT: return createAccount(t.accountID, t.firstName, t.lastName, t.balances, t.key, wait);
+			case DELETE_BALANCE: return deleteAccountBalance(t.accountID, t.currency, t.key, wait);
+			case DELETE_ACCOUNT: return deleteAccountID(t.accountID, t.key, wait);
+			case WITHDRAW: return withdraw(t.accountID, t.currency, t.amount, t.key, wait);
+			case DEPOSIT: return deposit(t.accountID, t.currency, t.amount, t.key, wait);
+			case TRANSFER: return transfer(t.accountID, t.toID, t.currency, t.amount, t.key, wait);
+			case EXCHANGE_TRANSFER: return transfer(t.accountID, t.toID, t.currency, t.amount, t.toCurrency, t.toAmount, t.key, wait);
+			case ADJUST: return adjust(t.accountID, t.currency, t.amount, t.key, wait);
+			default: throw new IllegalArgumentException("Unknown transaction type " + t.type);
+		}
+	}
+	
+	/**Returns the account with the given ID, or null if it does not exist
+	 * @param accountID
+	 * @return Account
+	 * */
+	public Account findAccount(String accountID) {
+		lock.readLock().lock();
+		try {
+			return account(accountID);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**Adds an account to the bank
+	 * @param acc
+	 * @return void
+	 * */
+	public void addAccount(Account acc) {
+		lock.writeLock().lock();
+		try {
+			Account previous = index.put(acc);
+			accounts.put(acc, acc);
+			if(search != null) {
+				if(previous != null)
+					search.remove(previous);
+				search.add(acc);
+			}
+			if(aggregates != null) {
+				if(previous != null)
+					aggregates.remove(previous);
+				aggregates.add(acc);
+			}
+			if(previous != null)
+				hotAccounts.remove(previous);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**Removes an account from the bank
+	 * @param acc
+	 * @return void
+	 * */
+	public void removeAccount(Account acc) {
+		lock.writeLock().lock();
+		try {
+			Account removed = index.remove(acc.accountID);
+			accounts.remove(acc);
+			if(removed != null && search != null)
+				search.remove(removed);
+			if(removed != null && aggregates != null)
+				aggregates.remove(removed);
+			if(removed != null)
+				hotAccounts.remove(removed);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/** Headless operations on the bank. None of them read from or print to the console:
+	 * 1. Creating new account
+	 * 2. Deleting account balance
+	 * 3. Deleting account ID
+	 * 4. Balance inquiry
+	 * 5. Withdrawal
+	 * 6. Deposit
+	 * 7. Transfer
+	 */
+	
+	/**1. Creating new account with the given opening balances
+	 * @param accountID
+	 * @param firstName
+	 * @param lastName
+	 * @param balances
+	 * @return TransactionResult
+	 * */
+	public TransactionResult createAccount(String accountID, String firstName, String lastName, List<Balance> balances) {
+		long start = start();
+		return measured(Metrics.Operation.CREATE_ACCOUNT, start, createAccount(accountID, firstName, lastName, balances, 0, true));
+	}
+	
+	/**Same as createAccount(), waiting for the journal only if wait is set
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult createAccount(String accountID, String firstName, String lastName, List<Balance> balances, long key, boolean wait) {
+		
+		Account _acc = new Account();
+		_acc.accountID = accountID;
+		
+		//Check ID validity
+		try {
+			_acc.checkID();
+		}
+		catch(IllegalIDException e) {
+			return new TransactionResult(TransactionResult.Status.INVALID_ID, accountID, null);
+		}
+		
+		for(Balance b: balances)
+			if(b.currency == null || b.value < 0)
+				return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, b.currency, b.value, 0);
+		
+		_acc.firstName = firstName;
+		_acc.lastName = lastName;
+		for(Balance b: balances)
+			if(!_acc.containsBalanceWithCurrency(b.currency))
+				_acc.openBalance(b.currency, b.value);
+		
+		long sequence;
+		TransactionResult result;
+		lock.writeLock().lock();
+		try {
+			//Make sure the Account ID is unique
+			if(account(accountID) != null)
+				return new TransactionResult(TransactionResult.Status.ACCOUNT_EXISTS, accountID, null);
+			
+			index.put(_acc);
+			accounts.put(_acc, _acc);
+			if(search != null)
+				search.add(_acc);
+			if(aggregates != null)
+				aggregates.add(_acc);
+			if(history != null)
+				for(int c = 0; c < Account.CURRENCIES; c++)
+					if((_acc.currencyMask & (1 << c)) != 0)
+						history.record(_acc, Transaction.Type.CREATE_ACCOUNT, Currency.values()[c], _acc.amounts[c], _acc.amounts[c], null);
+			if(deleted != null)
+				deleted.remove(_acc.key());
+			changed(_acc);
+			result = new TransactionResult(TransactionResult.Status.OK, accountID, null);
+			sequence = log(Transaction.createAccount(accountID, firstName, lastName, _acc.balances()).withKey(key), result);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**2. Deleting the balance in a given currency of an account
+	 * @param accountID
+	 * @param currency
+	 * @return TransactionResult
+	 * */
+	public TransactionResult deleteAccountBalance(String accountID, Currency currency) {
+		long start = start();
+		return measured(Metrics.Operation.DELETE_BALANCE, start, deleteAccountBalance(accountID, currency, 0, true));
+	}
+	
+	/**Same as deleteAccountBalance(), waiting for the journal only if wait is set
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult deleteAccountBalance(String accountID, Currency currency, long key, boolean wait) {
+		
+		long sequence;
+		TransactionResult result;
+		lock.readLock().lock();
+		try {
+			Account _acc = account(accountID);
+			if(_acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			
+			synchronized(_acc) {
+				if(!_acc.containsBalanceWithCurrency(currency))
+					return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+				
+				fold(_acc);
+				long value = _acc.balance(currency);
+				markDirty(_acc);
+				_acc.closeBalance(currency);
+				//Credits made to a cell meanwhile, later ones see the balance closed
+				if(_acc.hot != null)
+					value = Money.add(value, _acc.hot.drain(currency));
+				if(search != null)
+					search.balanceClosed(_acc, currency, value);
+				if(aggregates != null)
+					aggregates.balanceClosed(currency, value);
+				if(history != null)
+					history.record(_acc, Transaction.Type.DELETE_BALANCE, currency, -value, 0, null);
+				result = new TransactionResult(TransactionResult.Status.OK, accountID, currency, 0, value);
+				sequence = log(Transaction.deleteBalance(accountID, currency).withKey(key), result);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**3. Deleting account ID
+	 * @param accountID
+	 * @return TransactionResult
+	 * */
+	public TransactionResult deleteAccountID(String accountID) {
+		long start = start();
+		return measured(Metrics.Operation.DELETE_ACCOUNT, start, deleteAccountID(accountID, 0, true));
+	}
+	
+	/**Same as deleteAccountID(), waiting for the journal only if wait is set
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult deleteAccountID(String accountID, long key, boolean wait) {
+		
+		long sequence;
+		TransactionResult result;
+		lock.writeLock().lock();
+		try {
+			Account _acc = account(accountID);
+			if(_acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, null);
+			
+			index.remove(accountID);
+			accounts.remove(_acc);
+			if(search != null)
+				search.remove(_acc);
+			if(aggregates != null)
+				aggregates.remove(_acc);
+			if(history != null)
+				history.remove(accountID);
+			if(_acc.hot != null)
+				hotAccounts.remove(_acc);
+			synchronized(_acc) {
+				markDirty(_acc);
+				_acc.saved = Long.MAX_VALUE;
+			}
+			if(store != null)
+				loaded.remove(_acc.key());
+			if(deleted != null)
+				deleted.add(_acc.key());
+			result = new TransactionResult(TransactionResult.Status.OK, accountID, null);
+			sequence = log(Transaction.deleteAccount(accountID).withKey(key), result);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**4. Balance inquiry
+	 * @param accountID
+	 * @param currency
+	 * @return TransactionResult
+	 * */
+	public TransactionResult balanceInquiry(String accountID, Currency currency) {
+		long start = start();
+		return measured(Metrics.Operation.BALANCE_INQUIRY, start, inquiry(accountID, currency));
+	}
+	
+	/**Same as balanceInquiry(), without metrics
+	 * @param accountID
+	 * @param currency
+	 * @return TransactionResult
+	 * */
+	private TransactionResult inquiry(String accountID, Currency currency) {
+		
+		lock.readLock().lock();
+		try {
+			Account _acc = account(accountID);
+			if(_acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			
+			synchronized(_acc) {
+				if(!_acc.containsBalanceWithCurrency(currency))
+					return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+				
+				fold(_acc);
+				return new TransactionResult(TransactionResult.Status.OK, accountID, currency, 0, _acc.balance(currency));
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**5. Withdrawal
+	 * @param accountID
+	 * @param currency
+	 * @param amount in minor units
+	 * @return TransactionResult
+	 * */
+	public TransactionResult withdraw(String accountID, Currency currency, long amount) {
+		long start = start();
+		return measured(Metrics.Operation.WITHDRAW, start, withdraw(accountID, currency, amount, 0, true));
+	}
+	
+	/**Same as withdraw(), waiting for the journal only if wait is set
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult withdraw(String accountID, Currency currency, long amount, long key, boolean wait) {
+		
+		if(!isValidAmount(amount))
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, currency, amount, 0);
+		
+		long sequence = 0;
+		TransactionResult result = null;
+		lock.readLock().lock();
+		try {
+			Account _acc = account(accountID);
+			if(_acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			
+			HotBalances cells = _acc.hot;
+			if(cells != null) {
+				touch(_acc);
+				long[] cell = cells.cell();
+				synchronized(cell) {
+					if(!_acc.containsBalanceWithCurrency(currency))
+						return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+					
+					//Otherwise the account lock gathers every cell
+					int s = HotBalances.slot(currency);
+					if(amount <= cell[s]) {
+						cell[s] -= amount;
+						recordHistory(_acc, Transaction.Type.WITHDRAW, currency, -amount, null);
+						result = new TransactionResult(TransactionResult.Status.OK, accountID, currency, amount, balance(_acc, currency));
+						sequence = log(Transaction.withdraw(accountID, currency, amount).withKey(key), result);
+					}
+				}
+			}
+			if(result == null) {
+				synchronized(_acc) {
+					if(!_acc.containsBalanceWithCurrency(currency))
+						return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+				
+					fold(_acc);
+					int c = currency.ordinal();
+					if(amount > _acc.amounts[c])
+						return new TransactionResult(TransactionResult.Status.INSUFFICIENT_FUNDS, accountID, currency, amount, _acc.amounts[c]);
+				
+					long before = _acc.amounts[c];
+					markDirty(_acc);
+					_acc.amounts[c] = Money.subtract(before, amount);
+					indexBalance(_acc, currency, before);
+					if(_acc.hot != null)
+						_acc.hot.refill(_acc, currency);
+					recordHistory(_acc, Transaction.Type.WITHDRAW, currency, -amount, null);
+					result = new TransactionResult(TransactionResult.Status.OK, accountID, currency, amount, balance(_acc, currency));
+					sequence = log(Transaction.withdraw(accountID, currency, amount).withKey(key), result);
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**6. Deposit
+	 * @param accountID
+	 * @param currency
+	 * @param amount in minor units
+	 * @return TransactionResult
+	 * */
+	public TransactionResult deposit(String accountID, Currency currency, long amount) {
+		long start = start();
+		return measured(Metrics.Operation.DEPOSIT, start, deposit(accountID, currency, amount, 0, true));
+	}
+	
+	/**Same as deposit(), waiting for the journal only if wait is set
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult deposit(String accountID, Currency currency, long amount, long key, boolean wait) {
+		
+		if(!isValidAmount(amount))
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, currency, amount, 0);
+		
+		long sequence = 0;
+		TransactionResult result = null;
+		lock.readLock().lock();
+		try {
+			Account _acc = account(accountID);
+			if(_acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			
+			HotBalances cells = _acc.hot;
+			if(cells != null) {
+				touch(_acc);
+				long[] cell = cells.cell();
+				synchronized(cell) {
+					if(!_acc.containsBalanceWithCurrency(currency))
+						return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+					
+					//Otherwise the account lock checks the exact balance
+					if(cells.fits(_acc, currency, amount)) {
+						int s = HotBalances.slot(currency);
+						cell[s] += amount;
+						recordHistory(_acc, Transaction.Type.DEPOSIT, currency, amount, null);
+						result = new TransactionResult(TransactionResult.Status.OK, accountID, currency, amount, balance(_acc, currency));
+						sequence = log(Transaction.deposit(accountID, currency, amount).withKey(key), result);
+					}
+				}
+			}
+			if(result == null) {
+				synchronized(_acc) {
+					if(!_acc.containsBalanceWithCurrency(currency))
+						return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+				
+					fold(_acc);
+					int c = currency.ordinal();
+					long balance;
+					try {
+						balance = Money.add(_acc.amounts[c], amount);
+					}
+					catch(ArithmeticException e) {
+						return new TransactionResult(TransactionResult.Status.OVERFLOW, accountID, currency, amount, _acc.amounts[c]);
+					}
+					long before = _acc.amounts[c];
+					markDirty(_acc);
+					_acc.amounts[c] = balance;
+					indexBalance(_acc, currency, before);
+					recordHistory(_acc, Transaction.Type.DEPOSIT, currency, amount, null);
+					result = new TransactionResult(TransactionResult.Status.OK, accountID, currency, amount, _acc.amounts[c]);
+					sequence = log(Transaction.deposit(accountID, currency, amount).withKey(key), result);
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**Adjusts a balance by a signed amount, see Transaction.adjust(): how a Sweep change is applied again
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult adjust(String accountID, Currency currency, long amount, long key, boolean wait) {
+		
+		if(amount == 0)
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, currency, amount, 0);
+		
+		long sequence;
+		TransactionResult result;
+		lock.readLock().lock();
+		try {
+			Account _acc = account(accountID);
+			if(_acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			
+			synchronized(_acc) {
+				fold(_acc);
+				result = adjustLocked(_acc, currency, amount);
+				if(!result.isSuccess())
+					return result;
+				sequence = log(Transaction.adjust(accountID, currency, amount).withKey(key), result);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**Checks and applies an adjustment once the account is locked.
+	 * It may not overflow the balance nor leave it negative
+	 * @param acc
+	 * @param currency
+	 * @param amount added to the balance, negative to take from it
+	 * @return TransactionResult
+	 * */
+	private TransactionResult adjustLocked(Account acc, Currency currency, long amount) {
+		if(!acc.containsBalanceWithCurrency(currency))
+			return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, acc.accountID, currency);
+		
+		int c = currency.ordinal();
+		long before = acc.amounts[c];
+		long balance;
+		try {
+			balance = Money.add(before, amount);
+		}
+		catch(ArithmeticException e) {
+			return new TransactionResult(TransactionResult.Status.OVERFLOW, acc.accountID, currency, amount, before);
+		}
+		if(balance < 0)
+			return new TransactionResult(TransactionResult.Status.INSUFFICIENT_FUNDS, acc.accountID, currency, amount, before);
+		
+		markDirty(acc);
+		acc.amounts[c] = balance;
+		indexBalance(acc, currency, before);
+		recordHistory(acc, Transaction.Type.ADJUST, currency, amount, null);
+		return new TransactionResult(TransactionResult.Status.OK, acc.accountID, currency, amount, balance);
+	}
+	
+	/**Copies the balances of an account as they are at one moment, the cells of a hot account included
+	 * @param acc
+	 * @param amounts receives the balances, indexed by Currency.ordinal()
+	 * @return int currency mask of the balances held
+	 * */
+	int copyBalances(Account acc, long[] amounts) {
+		lock.readLock().lock();
+		try {
+			synchronized(acc) {
+				//A deleted account no longer changes, its cells are summed instead
+				if(acc.saved != Long.MAX_VALUE)
+					fold(acc);
+				for(int c = 0; c < amounts.length; c++)
+					amounts[c] = balance(acc, CURRENCIES[c]);
+				return acc.currencyMask;
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**Returns the accounts a Sweep goes through: those in the bank when it starts
+	 * @return Account[]
+	 * @throws IllegalStateException if accounts are kept in a store, as they are not all in memory
+	 * */
+	Account[] sweepAccounts() {
+		lock.readLock().lock();
+		try {
+			if(store != null)
+				throw new IllegalStateException("Cannot sweep accounts kept in a store.");
+			return accounts.values().toArray(new Account[0]);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**Adjusts every balance of an account by the amount a Sweep function returns for it,
+	 * journaling each change without waiting for it. Nothing happens to an account deleted meanwhile.
+	 * Adjustments that would overflow a balance or leave it negative are rejected
+	 * @param acc
+	 * @param function
+	 * @param tally number of balances adjusted in [0], rejected in [1], added to
+	 * @return long sequence number of the last change journaled, 0 if none
+	 * */
+	long sweep(Account acc, Sweep.Function function, long[] tally) {
+		long sequence = 0;
+		lock.readLock().lock();
+		try {
+			synchronized(acc) {
+				if(acc.saved == Long.MAX_VALUE)
+					return 0;
+				fold(acc);
+				for(int mask = acc.currencyMask; mask != 0; mask &= mask - 1) {
+					Currency currency = CURRENCIES[Integer.numberOfTrailingZeros(mask)];
+					long amount = function.adjust(acc.accountID, currency, acc.amounts[currency.ordinal()]);
+					if(amount == 0)
+						continue;
+					long start = start();
+					TransactionResult result = adjustLocked(acc, currency, amount);
+					if(result.isSuccess()) {
+						sequence = log(Transaction.adjust(acc.accountID, currency, amount), result);
+						tally[0]++;
+					}
+					else
+						tally[1]++;
+					measured(Metrics.Operation.ADJUST, start, result);
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return sequence;
+	}
+	
+	/**7. Transfer between the balances in a given currency of two accounts.
+	 * The result describes the sender's balance, or the receiver for receiver-side failures.
+	 * @param fromID
+	 * @param toID
+	 * @param currency
+	 * @param amount in minor units
+	 * @return TransactionResult
+	 * */
+	public TransactionResult transfer(String fromID, String toID, Currency currency, long amount) {
+		long start = start();
+		return measured(Metrics.Operation.TRANSFER, start, transfer(fromID, toID, currency, amount, 0, true));
+	}
+	
+	/**Same as transfer(), waiting for the journal only if wait is set
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult transfer(String fromID, String toID, Currency currency, long amount, long key, boolean wait) {
+		return transfer(fromID, toID, currency, amount, currency, amount, key, wait);
+	}
+	
+	/**Transfer from the balance in a currency of an account to the balance
+	 * in another currency of another account, converted at the current exchange rates.
+	 * The result describes the sender's balance, or the receiver for receiver-side failures.
+	 * @param fromID
+	 * @param toID
+	 * @param currency paid by the sender
+	 * @param toCurrency received by the receiver
+	 * @param amount in minor units of currency
+	 * @return TransactionResult
+	 * */
+	public TransactionResult exchangeTransfer(String fromID, String toID, Currency currency, Currency toCurrency, long amount) {
+		return exchangeTransfer(fromID, toID, currency, toCurrency, amount, rates.current());
+	}
+	
+	/**Same as exchangeTransfer(), converting at the rates of the given table,
+	 * usually taken from exchangeRates().current() when the operation started
+	 * @param table
+	 * @return TransactionResult
+	 * */
+	public TransactionResult exchangeTransfer(String fromID, String toID, Currency currency, Currency toCurrency, long amount, ExchangeRates.Table table) {
+		long start = start();
+		return measured(Metrics.Operation.EXCHANGE_TRANSFER, start, exchangeTransfer(fromID, toID, currency, toCurrency, amount, table, true));
+	}
+	
+	/**Same as exchangeTransfer(), without metrics
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult exchangeTransfer(String fromID, String toID, Currency currency, Currency toCurrency, long amount, ExchangeRates.Table table, boolean wait) {
+		
+		if(!isValidAmount(amount))
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, fromID, currency, amount, 0);
+		
+		long toAmount;
+		try {
+			toAmount = table.convert(amount, currency, toCurrency);
+		}
+		catch(ArithmeticException e) {
+			return new TransactionResult(TransactionResult.Status.OVERFLOW, toID, toCurrency, amount, 0);
+		}
+		if(toAmount < 0)
+			return new TransactionResult(TransactionResult.Status.NO_RATE, fromID, toCurrency);
+		//Too small to buy a single minor unit
+		if(toAmount == 0)
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, fromID, currency, amount, 0);
+		
+		return transfer(fromID, toID, currency, amount, toCurrency, toAmount, 0, wait);
+	}
+	
+	/**Deposit of an amount paid in a currency to the balance in another currency, converted at the current exchange rates
+	 * @param accountID
+	 * @param currency paid
+	 * @param toCurrency of the balance credited
+	 * @param amount in minor units of currency
+	 * @return TransactionResult describing the balance in toCurrency
+	 * */
+	public TransactionResult exchangeDeposit(String accountID, Currency currency, Currency toCurrency, long amount) {
+		long start = start();
+		return measured(Metrics.Operation.EXCHANGE_DEPOSIT, start, exchangeDeposit(accountID, currency, toCurrency, amount, true));
+	}
+	
+	/**Same as exchangeDeposit(), without metrics
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult exchangeDeposit(String accountID, Currency currency, Currency toCurrency, long amount, boolean wait) {
+		
+		if(!isValidAmount(amount))
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, currency, amount, 0);
+		
+		long toAmount;
+		try {
+			toAmount = rates.current().convert(amount, currency, toCurrency);
+		}
+		catch(ArithmeticException e) {
+			return new TransactionResult(TransactionResult.Status.OVERFLOW, accountID, toCurrency, amount, 0);
+		}
+		if(toAmount < 0)
+			return new TransactionResult(TransactionResult.Status.NO_RATE, accountID, toCurrency);
+		
+		//Journaled as the deposit of the converted amount, replayed without the rates
+		return deposit(accountID, toCurrency, toAmount, 0, wait);
+	}
+	
+	/**Moves amount of currency from the sender and toAmount of toCurrency to the receiver,
+	 * waiting for the journal only if wait is set. Both currencies are the same for a plain transfer
+	 * @param fromID
+	 * @param toID
+	 * @param currency
+	 * @param amount in minor units of currency
+	 * @param toCurrency
+	 * @param toAmount in minor units of toCurrency
+	 * @param key idempotency key, 0 if none
+	 * @param wait
+	 * @return TransactionResult
+	 * */
+	private TransactionResult transfer(String fromID, String toID, Currency currency, long amount, Currency toCurrency, long toAmount, long key, boolean wait) {
+		
+		if(!isValidAmount(amount) || !isValidAmount(toAmount))
+			return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, fromID, currency, amount, 0);
+		
+		long sequence = 0;
+		TransactionResult result = null;
+		lock.readLock().lock();
+		try {
+			Account aFrom = account(fromID);
+			if(aFrom == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, fromID, currency);
+			
+			Account aTo = account(toID);
+			Transaction t = (currency == toCurrency && amount == toAmount
+					? Transaction.transfer(fromID, toID, currency, amount)
+					: Transaction.exchangeTransfer(fromID, toID, currency, amount, toCurrency, toAmount)).withKey(key);
+			
+			HotBalances fromCells = aFrom.hot, toCells = aTo == null ? null : aTo.hot;
+			if(aTo != null && (fromCells != null || toCells != null)) {
+				if(fromCells != null)
+					touch(aFrom);
+				if(toCells != null)
+					touch(aTo);
+				long[] fromCell = fromCells == null ? null : fromCells.cell();
+				long[] toCell = toCells == null ? null : toCells.cell();
+				
+				//An account before a cell, otherwise lowest key first
+				Object first = fromCell != null ? fromCell : aFrom, second = toCell != null ? toCell : aTo;
+				if(toCell == null ? fromCell != null : fromCell != null && aTo.key() < aFrom.key()) {
+					first = second;
+					second = fromCell;
+				}
+				synchronized(first) {
+					synchronized(second) {
+						result = transferCells(aFrom, fromCell, aTo, toCell, currency, amount, toCurrency, toAmount);
+						if(result != null && result.isSuccess())
+							sequence = log(t, result);
+					}
+				}
+			}
+			if(result == null) {
+				//Lock both accounts, lowest key first
+				Account first = aFrom, second = aTo;
+				if(aTo != null && aTo.key() < aFrom.key()) {
+					first = aTo;
+					second = aFrom;
+				}
+				synchronized(first) {
+					synchronized(second != null ? second : first) {
+						fold(aFrom);
+						if(aTo != null)
+							fold(aTo);
+						result = transferLocked(aFrom, aTo, toID, currency, amount, toCurrency, toAmount);
+						if(result.isSuccess())
+							sequence = log(t, result);
+					}
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return durable(result, sequence, wait);
+	}
+	
+	/**Checks and applies a transfer once both accounts are locked
+	 * @param aFrom
+	 * @param aTo null if the receiver does not exist
+	 * @param toID
+	 * @param currency
+	 * @param amount in minor units of currency
+	 * @param toCurrency
+	 * @param toAmount in minor units of toCurrency
+	 * @return TransactionResult
+	 * */
+	private TransactionResult transferLocked(Account aFrom, Account aTo, String toID, Currency currency, long amount, Currency toCurrency, long toAmount) {
+		
+		//Issue 1: not enough money to withdraw
+		if(!aFrom.containsBalanceWithCurrency(currency))
+			return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, aFrom.accountID, currency);
+		int c = currency.ordinal();
+		if(aFrom.amounts[c] < amount)
+			return new TransactionResult(TransactionResult.Status.INSUFFICIENT_FUNDS, aFrom.accountID, currency, amount, aFrom.amounts[c]);
+		
+		//Issue 2: Receiver account ID non existent
+		if(aTo == null)
+			return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, toID, currency);
+		
+		//Issue 3 : Receiver does not have a balance with corresponding currency
+		if(!aTo.containsBalanceWithCurrency(toCurrency))
+			return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, toID, toCurrency);
+		
+		//Issue 4: Receiver balance cannot hold the amount
+		int tc = toCurrency.ordinal();
+		try {
+			Money.add(aTo.amounts[tc], toAmount);
+		}
+		catch(ArithmeticException e) {
+			return new TransactionResult(TransactionResult.Status.OVERFLOW, toID, toCurrency, toAmount, aTo.amounts[tc]);
+		}
+		
+		//No issues, initiate transfer (both may be the same account)
+		long fromBefore = aFrom.amounts[c];
+		long toBefore = aTo.amounts[tc];
+		markDirty(aFrom);
+		markDirty(aTo);
+		aFrom.amounts[c] = Money.subtract(aFrom.amounts[c], amount);
+		aTo.amounts[tc] = Money.add(aTo.amounts[tc], toAmount);
+		indexBalance(aFrom, currency, fromBefore);
+		//Unchanged if both are the same balance, the first call moved it
+		if(aTo != aFrom || tc != c)
+			indexBalance(aTo, toCurrency, toBefore);
+		if(aFrom.hot != null)
+			aFrom.hot.refill(aFrom, currency);
+		Transaction.Type type = tc == c && toAmount == amount ? Transaction.Type.TRANSFER : Transaction.Type.EXCHANGE_TRANSFER;
+		recordHistory(aFrom, type, currency, -amount, aTo.accountID);
+		recordHistory(aTo, type, toCurrency, toAmount, aFrom.accountID);
+		return new TransactionResult(TransactionResult.Status.OK, aFrom.accountID, currency, amount, balance(aFrom, currency));
+	}
+	
+	/**Checks and applies a transfer to or from a hot account once its cell, and the other account
+	 * or its cell, are locked. Gives up when the sender's cell does not hold enough, or when
+	 * the receiver's cell may not take the amount, see HotBalances.fits()
+	 * @param aFrom
+	 * @param fromCell cell of the sender, null if it is not hot and locked
+	 * @param aTo
+	 * @param toCell cell of the receiver, null if it is not hot and locked
+	 * @param currency
+	 * @param amount in minor units of currency
+	 * @param toCurrency
+	 * @param toAmount in minor units of toCurrency
+	 * @return TransactionResult null to transfer under the locks of both accounts instead
+	 * */
+	private TransactionResult transferCells(Account aFrom, long[] fromCell, Account aTo, long[] toCell, Currency currency, long amount, Currency toCurrency, long toAmount) {
+		
+		if(!aFrom.containsBalanceWithCurrency(currency))
+			return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, aFrom.accountID, currency);
+		int c = currency.ordinal(), s = HotBalances.slot(currency);
+		long available = fromCell != null ? fromCell[s] : aFrom.amounts[c];
+		if(available < amount)
+			return fromCell != null ? null : new TransactionResult(TransactionResult.Status.INSUFFICIENT_FUNDS, aFrom.accountID, currency, amount, available);
+		
+		if(!aTo.containsBalanceWithCurrency(toCurrency))
+			return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, aTo.accountID, toCurrency);
+		int tc = toCurrency.ordinal(), ts = HotBalances.slot(toCurrency);
+		if(toCell != null) {
+			if(!aTo.hot.fits(aTo, toCurrency, toAmount))
+				return null;
+		}
+		else {
+			try {
+				Money.add(aTo.amounts[tc], toAmount);
+			}
+			catch(ArithmeticException e) {
+				return new TransactionResult(TransactionResult.Status.OVERFLOW, aTo.accountID, toCurrency, toAmount, aTo.amounts[tc]);
+			}
+		}
+		
+		//Taken before given, both may be the same cell
+		long fromBefore = aFrom.amounts[c];
+		long toBefore = aTo.amounts[tc];
+		if(fromCell != null)
+			fromCell[s] -= amount;
+		else {
+			markDirty(aFrom);
+			aFrom.amounts[c] -= amount;
+			indexBalance(aFrom, currency, fromBefore);
+		}
+		if(toCell != null)
+			toCell[ts] += toAmount;
+		else {
+			markDirty(aTo);
+			aTo.amounts[tc] += toAmount;
+			indexBalance(aTo, toCurrency, toBefore);
+		}
+		Transaction.Type type = tc == c && toAmount == amount ? Transaction.Type.TRANSFER : Transaction.Type.EXCHANGE_TRANSFER;
+		recordHistory(aFrom, type, currency, -amount, aTo.accountID);
+		recordHistory(aTo, type, toCurrency, toAmount, aFrom.accountID);
+		return new TransactionResult(TransactionResult.Status.OK, aFrom.accountID, currency, amount, balance(aFrom, currency));
+	}
+	
+	/**Returns the account with the given ID, loading it from the store if needed.
+	 * Callers must hold the read or the write lock
+	 * @param accountID
+	 * @return Account null if it does not exist
+	 * */
+	private Account account(String accountID) {
+		Account acc = index.get(accountID);
+		if(acc != null || store == null)
+			return acc;
+		
+		long key = AccountIndex.key(accountID);
+		if(key < 0 || deleted.contains(key))
+			return null;
+		
+		acc = loaded.get(key);
+		if(acc == null) {
+			Account read = store.read(key);
+			if(read == null)
+				return null;
+			//Another thread may have loaded it meanwhile, keep a single copy
+			acc = loaded.putIfAbsent(key, read);
+			if(acc == null)
+				acc = read;
+		}
+		return acc;
+	}
+	
+	/**Remembers that an account must be written by the next checkpoint, the first time
+	 * it changes in the epoch. If the checkpoint being copied still needs the account,
+	 * it first gets a copy of it as it is now.
+	 * Callers must hold the account's lock, and call it before changing the account
+	 * @param acc
+	 * @return void
+	 * */
+	private void markDirty(Account acc) {
+		if(acc.changed == epoch)
+			return;
+		Checkpoint c = checkpoint;
+		if(c != null)
+			c.preserve(acc);
+		changed(acc);
+	}
+	
+	/**Marks a hot account dirty before an operation changes one of its cells, see markDirty().
+	 * The epoch cannot end meanwhile: callers hold the read lock
+	 * @param acc
+	 * @return void
+	 * */
+	private void touch(Account acc) {
+		if(acc.changed != epoch)
+			synchronized(acc) {
+				markDirty(acc);
+			}
+	}
+	
+	/**Moves the cells of a hot account into its balances, so they can be read or changed
+	 * under the account's lock alone. Callers must hold the account's lock
+	 * @param acc
+	 * @return void
+	 * */
+	private void fold(Account acc) {
+		HotBalances h = acc.hot;
+		if(h != null) {
+			markDirty(acc);
+			h.fold(acc);
+		}
+	}
+	
+	/**Folds every hot account, with no operation running.
+	 * Callers must hold the write lock
+	 * @return void
+	 * */
+	private void foldHot() {
+		for(Account acc : hotAccounts)
+			synchronized(acc) {
+				fold(acc);
+			}
+	}
+	
+	/**Returns a balance an operation left, summing the cells of a hot account, see HotBalances.sum().
+	 * Callers must hold the account's lock or one of its cells
+	 * @param acc
+	 * @param currency
+	 * @return long
+	 * */
+	private static long balance(Account acc, Currency currency) {
+		HotBalances h = acc.hot;
+		return h == null ? acc.amounts[currency.ordinal()] : h.sum(acc, currency);
+	}
+	
+	/**Remembers that an account changed in the current epoch, or was created in it.
+	 * Callers must hold the account's lock or the write lock
+	 * @param acc
+	 * @return void
+	 * */
+	private void changed(Account acc) {
+		acc.changed = epoch;
+		if(dirty != null)
+			dirty.add(acc);
+	}
+	
+	/**Moves a changed balance in the secondary indexes and the aggregates, if any.
+	 * Callers must hold the account's lock
+	 * @param acc
+	 * @param currency
+	 * @param before amount of the balance before the operation
+	 * @return void
+	 * */
+	private void indexBalance(Account acc, Currency currency, long before) {
+		AccountSearch s = search;
+		if(s != null)
+			s.balanceChanged(acc, currency, before);
+		Aggregates a = aggregates;
+		if(a != null)
+			a.balanceChanged(currency, before, acc.amounts[currency.ordinal()]);
+	}
+	
+	/**Records an operation on a balance in the history, if any, with the balance it left.
+	 * Callers must hold the account's lock or, for a hot account, one of its cells, see History.record()
+	 * @param acc
+	 * @param type
+	 * @param currency
+	 * @param amount added to the balance, negative if taken from it
+	 * @param counterpartyID other account of a transfer, null otherwise
+	 * @return void
+	 * */
+	private void recordHistory(Account acc, Transaction.Type type, Currency currency, long amount, String counterpartyID) {
+		History h = history;
+		if(h != null)
+			h.record(acc, type, currency, amount, balance(acc, currency), counterpartyID);
+	}
+	
+	/**Returns the start time of an operation if metrics are attached, see Metrics.start()
+	 * @return long 0 without metrics
+	 * */
+	private long start() {
+		Metrics m = metrics;
+		return m == null ? 0 : m.start();
+	}
+	
+	/**Records an operation in the metrics, if any and if they were attached when it started
+	 * @param operation
+	 * @param start as returned by start()
+	 * @param result
+	 * @return TransactionResult the result
+	 * */
+	private TransactionResult measured(Metrics.Operation operation, long start, TransactionResult result) {
+		Metrics m = metrics;
+		if(m != null && start != 0)
+			m.record(operation, start, result);
+		return result;
+	}
+	
+	/**Appends an applied operation to the journal, if any, and returns its sequence number.
+	 * Records the result of a keyed operation under the same locks, see IdempotencyCache
+	 * @param t
+	 * @param result
+	 * @return long 0 without journal
+	 * */
+	private long log(Transaction t, TransactionResult result) {
+		long sequence = journal == null ? 0 : journal.append(t);
+		if(t.key != 0)
+			idempotency.record(t, result, sequence);
+		return sequence;
+	}
+	
+	/**Waits for a journaled operation to be durable before handing its result back
+	 * @param result
+	 * @param sequence 0 if nothing was journaled
+	 * @param wait false to hand the result back at once
+	 * @return TransactionResult
+	 * */
+	private TransactionResult durable(TransactionResult result, long sequence, boolean wait) {
+		Journal j = journal;
+		if(wait && sequence != 0 && j != null)
+			j.awaitDurable(sequence);
+		return result;
+	}
+	
+	/**Returns true if the amount can be moved: positive
+	 * @param amount in minor units
+	 * @return boolean
+	 * */
+	private static boolean isValidAmount(long amount) {
+		return amount > 0;
+	}
+
+	/** Checkpoint being copied: the accounts it covers are copied as they were when it started,
+	 * either by the checkpoint itself or by the first operation changing them meanwhile
+	 * */
+	private static final class Checkpoint {
+		
+		/** Epoch it closed */
+		final long epoch;
+		
+		/** True if it covers every account, false if only those changed in its epoch */
+		final boolean full;
+		
+		/** Copies taken by operations */
+		final ConcurrentLinkedQueue<Account> copies = new ConcurrentLinkedQueue<Account>();
+		
+		Checkpoint(long epoch, boolean full) {
+			this.epoch = epoch;
+			this.full = full;
+		}
+		
+		/**Copies an account about to change in a later epoch if it is covered and was not copied yet.
+		 * Callers must hold the account's lock
+		 * @param acc
+		 * @return void
+		 * */
+		void preserve(Account acc) {
+			if(acc.saved < epoch && (full || acc.changed == epoch)) {
+				copies.add(acc.copy());
+				acc.saved = epoch;
+			}
+		}
+	}
+
+}
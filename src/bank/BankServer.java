@@ -0,0 +1,412 @@
+package bank;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** BankServer class serves the operations of the Simulator menu over TCP,
+ * so many tellers and ATMs can use the same Bank at once.
+ *
+ * Each connection is a session running on its own thread: a virtual thread when
+ * the JVM has them (Java 21 and later), a platform thread otherwise. At most
+ * maxSessions sessions run at once, further connections are answered BUSY and closed.
+ *
+ * The protocol is one line per request and one line per response, in UTF-8.
+ * Amounts are in units of their currency ("12.50"):
+ *
+ * 		CREATE id firstName lastName [CUR=amount ...]
+ * 		DELETE_BALANCE id CUR
+ * 		DELETE id
+ * 		BALANCE id CUR
+ * 		WITHDRAW id CUR amount
+ * 		DEPOSIT id CUR amount
+ * 		TRANSFER fromID toID CUR amount
+ * 		STATS				latency of every command so far
+ * 		METRICS				the bank's Metrics
+ * 		QUIT
+ *
+ * A money request may start with an idempotency key, a number other than 0 chosen by the client:
+ * "KEY=42 WITHDRAW 123 USD 10". Sending it again, after a timeout or a lost connection,
+ * returns the response of the first one instead of applying it twice, see IdempotencyCache.
+ *
+ * A response is "OK", followed by the balance for money operations,
+ * or "ERR" followed by a TransactionResult.Status or MALFORMED and a message.
+ * The only response of several lines is that of METRICS: "OK" and the number of lines
+ * that follow, in the Prometheus text format.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class BankServer implements Closeable {
+
+	/** Port used when none is given */
+	public static final int DEFAULT_PORT = 7070;
+
+	/** Sessions served at once when no limit is given */
+	public static final int DEFAULT_MAX_SESSIONS = 1000;
+
+	/** Time after which an idle session is closed */
+	static final int IDLE_MILLIS = 5 * 60 * 1000;
+
+	/** Character set of the protocol */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Requests understood */
+	public enum Command {
+		CREATE, DELETE_BALANCE, DELETE, BALANCE, WITHDRAW, DEPOSIT, TRANSFER, STATS, METRICS, QUIT
+	}
+
+	/** Bank the requests are applied to */
+	private final Bank bank;
+
+	/** Socket accepting the connections */
+	private final ServerSocket server;
+
+	/** Permits of the sessions that may still start */
+	private final Semaphore sessions;
+
+	/** Threads of the sessions */
+	private final ExecutorService executor;
+
+	/** Sockets of the running sessions, closed with the server */
+	private final Set<Socket> open = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+	/** Time spent handling each command, in nanoseconds */
+	private final EnumMap<Command, LatencyHistogram> latencies = new EnumMap<Command, LatencyHistogram>(Command.class);
+
+	/** Thread accepting the connections */
+	private Thread acceptor;
+
+	/** Set once the server is closed */
+	private volatile boolean closed;
+
+	/** Constructor that binds the server socket to a local port
+	 * @param bank
+	 * @param port 0 for any free port
+	 * @param maxSessions
+	 * @throws IOException if the port cannot be bound
+	 */
+	BankServer(Bank bank, int port, int maxSessions) throws IOException {
+		this.bank = bank;
+		this.sessions = new Semaphore(maxSessions);
+		this.server = new ServerSocket(port, Math.max(50, maxSessions));
+		this.executor = sessionExecutor();
+		for(Command c : Command.values())
+			latencies.put(c, new LatencyHistogram());
+	}
+
+	/** Returns the port the server listens to
+	 * @return int
+	 */
+	public int port() {
+		return server.getLocalPort();
+	}
+
+	/** Returns the latencies of a command handled so far
+	 * @param command
+	 * @return LatencyHistogram
+	 */
+	public LatencyHistogram latency(Command command) {
+		return latencies.get(command);
+	}
+
+	/** Starts accepting connections in a background thread
+	 * @return void
+	 */
+	public void start() {
+		acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "bank-server");
+		acceptor.start();
+	}
+
+	/** Accepts connections until the server is closed */
+	private void accept() {
+		while(!closed) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch(IOException e) {
+				if(!closed)
+					System.out.println("Unable to accept a connection: " + e.getLocalizedMessage());
+				continue;
+			}
+			if(!sessions.tryAcquire()) {
+				refuse(socket);
+				continue;
+			}
+			open.add(socket);
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							serve(socket);
+						}
+						finally {
+							open.remove(socket);
+							sessions.release();
+						}
+					}
+				});
+			}
+			catch(RejectedExecutionException e) {
+				//Closing
+				open.remove(socket);
+				sessions.release();
+				closeQuietly(socket);
+			}
+		}
+	}
+
+	/** Answers a connection beyond the session limit */
+	private static void refuse(Socket socket) {
+		try {
+			socket.getOutputStream().write("ERR BUSY Too many sessions, try again later.\n".getBytes(UTF8));
+		}
+		catch(IOException e) {
+			//The client went away, nothing to tell it
+		}
+		closeQuietly(socket);
+	}
+
+	/** Serves the requests of one session until QUIT or disconnection
+	 * @param socket
+	 * @return void
+	 */
+	private void serve(Socket socket) {
+		try {
+			socket.setSoTimeout(IDLE_MILLIS);
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8));
+			for(String line = in.readLine(); line != null && !closed; line = in.readLine()) {
+				String response = handle(line);
+				out.write(response);
+				out.write('\n');
+				out.flush();
+				if(response.equals("BYE"))
+					break;
+			}
+		}
+		catch(IOException e) {
+			//Disconnected or idle for too long
+		}
+		finally {
+			closeQuietly(socket);
+		}
+	}
+
+	/** Handles one request line and records its latency
+	 * @param line
+	 * @return String response line
+	 */
+	String handle(String line) {
+		long start = System.nanoTime();
+		String[] words = line.trim().split("\\s+");
+		long key = 0;
+		if(words[0].regionMatches(true, 0, "KEY=", 0, 4) && words.length > 1) {
+			try {
+				key = Long.parseLong(words[0].substring(4));
+			}
+			catch(NumberFormatException e) {
+				return "ERR MALFORMED Invalid key " + words[0].substring(4);
+			}
+			if(key == 0)
+				return "ERR MALFORMED Invalid key 0";
+			words = Arrays.copyOfRange(words, 1, words.length);
+		}
+		Command command;
+		try {
+			command = Command.valueOf(words[0].toUpperCase(Locale.ROOT));
+		}
+		catch(IllegalArgumentException e) {
+			return "ERR MALFORMED Unknown command " + words[0];
+		}
+		String response;
+		try {
+			response = execute(command, words, key);
+		}
+		catch(IllegalArgumentException e) {
+			//Also NumberFormatException from Money.parse()
+			response = "ERR MALFORMED " + e.getMessage();
+		}
+		catch(ArrayIndexOutOfBoundsException e) {
+			response = "ERR MALFORMED Missing arguments for " + command;
+		}
+		latencies.get(command).record(System.nanoTime() - start);
+		return response;
+	}
+
+	/** Applies a parsed request
+	 * @param command
+	 * @param words
+	 * @param key idempotency key, 0 if none
+	 * @return String response line
+	 */
+	private String execute(Command command, String[] words, long key) {
+		switch(command) {
+			case CREATE:
+				List<Balance> balances = new ArrayList<Balance>();
+				for(int i = 4; i < words.length; i++) {
+					int eq = words[i].indexOf('=');
+					if(eq < 0)
+						throw new IllegalArgumentException("Balance " + words[i] + " is not CUR=amount");
+					Currency c = currency(words[i].substring(0, eq));
+					balances.add(new Balance(c, Money.parse(words[i].substring(eq + 1), c)));
+				}
+				return response(bank.apply(Transaction.createAccount(words[1], words[2], words[3], balances).withKey(key)));
+			case DELETE_BALANCE:
+				return response(bank.apply(Transaction.deleteBalance(words[1], currency(words[2])).withKey(key)));
+			case DELETE:
+				return response(bank.apply(Transaction.deleteAccount(words[1]).withKey(key)));
+			case BALANCE:
+				return response(bank.balanceInquiry(words[1], currency(words[2])));
+			case WITHDRAW:
+				Currency c = currency(words[2]);
+				return response(bank.apply(Transaction.withdraw(words[1], c, Money.parse(words[3], c)).withKey(key)));
+			case DEPOSIT:
+				c = currency(words[2]);
+				return response(bank.apply(Transaction.deposit(words[1], c, Money.parse(words[3], c)).withKey(key)));
+			case TRANSFER:
+				c = currency(words[3]);
+				return response(bank.apply(Transaction.transfer(words[1], words[2], c, Money.parse(words[4], c)).withKey(key)));
+			case STATS:
+				StringBuilder stats = new StringBuilder("OK");
+				for(Map.Entry<Command, LatencyHistogram> e : latencies.entrySet())
+					if(e.getValue().count() > 0)
+						stats.append(' ').append(e.getKey()).append(':').append(e.getValue().count())
+							.append(':').append(e.getValue().percentile(0.5)).append(':').append(e.getValue().percentile(0.99));
+				return stats.toString();
+			case METRICS:
+				Metrics metrics = bank.metrics();
+				String dump = metrics == null ? "" : metrics.toString().trim();
+				if(dump.isEmpty())
+					return "OK 0";
+				int lines = 1;
+				for(int i = 0; i < dump.length(); i++)
+					if(dump.charAt(i) == '\n')
+						lines++;
+				return "OK " + lines + "\n" + dump;
+			default:
+				return "BYE";
+		}
+	}
+
+	/** Reads a currency code such as USD
+	 * @param code
+	 * @return Currency
+	 * @throws IllegalArgumentException if unknown
+	 */
+	private static Currency currency(String code) {
+		return Currency.valueOf(code.toUpperCase(Locale.ROOT));
+	}
+
+	/** Writes the response line of a result
+	 * @param result
+	 * @return String
+	 */
+	private static String response(TransactionResult result) {
+		if(!result.isSuccess())
+			return "ERR " + result.status + " " + result;
+		if(result.currency == null)
+			return "OK";
+		return "OK " + Money.format(result.balance, result.currency);
+	}
+
+	/** Returns an executor running every task on a new virtual thread if the JVM has them,
+	 * on a platform thread otherwise. The session limit bounds the number of threads
+	 * @return ExecutorService
+	 */
+	static ExecutorService sessionExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)virtual.invoke(null);
+		}
+		catch(ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "bank-session");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/** Returns true if sessions run on virtual threads
+	 * @return boolean
+	 */
+	public static boolean virtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/** Stops accepting connections and closes every session
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for(Socket socket : open)
+			closeQuietly(socket);
+		executor.shutdownNow();
+		if(acceptor != null) {
+			try {
+				acceptor.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		}
+		catch(IOException e) {
+			//Already closed
+		}
+	}
+
+	/** Serves the bank kept in the current directory, see Simulator.readFromDisk()
+	 * @param args port and largest number of sessions
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int maxSessions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_SESSIONS;
+
+		Journal.SyncPolicy policy = Journal.SyncPolicy.valueOf(System.getProperty("bank.sync", "ALWAYS"));
+		boolean mapped = "mapped".equals(System.getProperty("bank.store"));
+		final BankStore store = new BankStore(new File("."), policy, 10, 60000, mapped);
+		final BankServer server = new BankServer(store.bank, port, maxSessions);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					server.close();
+					store.close();
+				}
+				catch(IOException e) {
+					System.out.println("Unable to close the bank: " + e.getLocalizedMessage());
+				}
+			}
+		});
+		server.start();
+		System.out.println("Serving on port " + server.port() + ", at most " + maxSessions + " sessions"
+				+ (virtualThreads() ? " on virtual threads." : "."));
+	}
+}
@@ -0,0 +1,153 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/** Tests the BankServer protocol over loopback
+ * @author JosephKalash
+ *
+ */
+
+public class BankServerTest {
+
+	private Bank bank;
+	private BankServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		bank = new Bank();
+		server = new BankServer(bank, 0, 2);
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	/** A client session: one line per request and per response */
+	private static class Client implements Closeable {
+		final Socket socket;
+		final BufferedReader in;
+		final Writer out;
+
+		Client(int port) throws IOException {
+			socket = new Socket("localhost", port);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		String send(String request) throws IOException {
+			out.write(request + "\n");
+			out.flush();
+			return in.readLine();
+		}
+
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testOperations() throws IOException {
+		Client client = new Client(server.port());
+		try {
+			assertEquals("OK", client.send("CREATE 123 John Doe USD=100 EUR=50.5"));
+			assertEquals("OK", client.send("create 456 Jane Roe usd=0"));
+			assertEquals("OK 100.00", client.send("BALANCE 123 USD"));
+			assertEquals("OK 90.00", client.send("WITHDRAW 123 USD 10"));
+			assertEquals("OK 92.50", client.send("DEPOSIT 123 USD 2.5"));
+			assertEquals("OK 82.50", client.send("TRANSFER 123 456 USD 10"));
+			assertTrue(client.send("WITHDRAW 456 USD 11").startsWith("ERR INSUFFICIENT_FUNDS"));
+			assertTrue(client.send("DEPOSIT 456 USD 1.234").startsWith("ERR MALFORMED"));
+			assertTrue(client.send("DEPOSIT 456 XYZ 1").startsWith("ERR MALFORMED"));
+			assertTrue(client.send("DEPOSIT 456").startsWith("ERR MALFORMED"));
+			assertTrue(client.send("FOO").startsWith("ERR MALFORMED"));
+			assertEquals("OK 50.50", client.send("DELETE_BALANCE 123 EUR"));
+			assertEquals("OK", client.send("DELETE 456"));
+			assertTrue(client.send("BALANCE 456 USD").startsWith("ERR UNKNOWN_ACCOUNT"));
+			assertTrue(client.send("STATS").startsWith("OK"));
+			//No metrics attached to this bank
+			assertEquals("OK 0", client.send("METRICS"));
+			assertEquals("BYE", client.send("QUIT"));
+		}
+		finally {
+			client.close();
+		}
+		assertEquals(8250, bank.findAccount("123").balance(Currency.USD));
+		//Malformed requests are timed too
+		assertEquals(4, server.latency(BankServer.Command.DEPOSIT).count());
+	}
+
+	/** A request sent again with its key gets the first response and moves nothing */
+	@Test
+	public void testIdempotencyKey() throws IOException {
+		Client client = new Client(server.port());
+		try {
+			assertEquals("OK", client.send("CREATE 123 John Doe USD=100"));
+			assertEquals("OK 90.00", client.send("KEY=7 WITHDRAW 123 USD 10"));
+			assertEquals("OK 90.00", client.send("key=7 WITHDRAW 123 USD 10"));
+			assertTrue(client.send("KEY=7 DEPOSIT 123 USD 10").startsWith("ERR KEY_REUSED"));
+			assertTrue(client.send("KEY=x DEPOSIT 123 USD 10").startsWith("ERR MALFORMED"));
+			assertEquals("OK 80.00", client.send("KEY=8 WITHDRAW 123 USD 10"));
+			assertEquals("BYE", client.send("QUIT"));
+		}
+		finally {
+			client.close();
+		}
+		assertEquals(8000, bank.findAccount("123").balance(Currency.USD));
+	}
+
+	/** METRICS answers the number of lines that follow, then the lines */
+	@Test
+	public void testMetrics() throws IOException {
+		bank.setMetrics(new Metrics());
+		Client client = new Client(server.port());
+		try {
+			assertEquals("OK", client.send("CREATE 123 John Doe USD=100"));
+			String header = client.send("METRICS");
+			assertTrue(header.startsWith("OK "));
+			int lines = Integer.parseInt(header.substring(3));
+			List<String> dump = new ArrayList<String>();
+			for(int i = 0; i < lines; i++)
+				dump.add(client.in.readLine());
+			assertTrue(dump.contains("bank_operations_total{operation=\"create_account\",outcome=\"OK\"} 1"));
+			assertEquals("BYE", client.send("QUIT"));
+		}
+		finally {
+			client.close();
+		}
+	}
+
+	/** Beyond the session limit connections are refused, until a session ends */
+	@Test
+	public void testSessionLimit() throws Exception {
+		Client first = new Client(server.port());
+		Client second = new Client(server.port());
+		assertEquals("OK", first.send("CREATE 123 John Doe"));
+		assertTrue(second.send("BALANCE 123 USD").startsWith("ERR MISSING_CURRENCY"));
+
+		Client third = new Client(server.port());
+		assertTrue(third.in.readLine().startsWith("ERR BUSY"));
+		third.close();
+
+		assertEquals("BYE", first.send("QUIT"));
+		first.close();
+		//The permit comes back once the session thread is done
+		String response = null;
+		for(int attempt = 0; attempt < 50; attempt++) {
+			Client fourth = new Client(server.port());
+			response = fourth.send("BALANCE 123 USD");
+			fourth.close();
+			if(response != null && !response.startsWith("ERR BUSY"))
+				break;
+			Thread.sleep(20);
+		}
+		assertTrue(response.startsWith("ERR MISSING_CURRENCY"));
+		second.close();
+	}
+}
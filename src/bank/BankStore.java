@@ -0,0 +1,273 @@
+package bank;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/** BankStore class keeps a Bank on disk as
+ * a snapshot (bank.data), the deltas written since (bank.delta)
+ * and the Journal of every operation applied since the last delta.
+ * Both are written in the SnapshotFormat, a bank.data still holding
+ * the old Java serialization of Bank is read and converted on the next full snapshot.
+ *
+ * 		1. Opening the store loads the last snapshot, applies the deltas
+ * 		   and replays the journal on top of them
+ * 		2. Every operation is then only appended to the journal
+ * 		3. A background thread periodically appends a delta of the accounts changed
+ * 		   since the previous one and deletes the journal segments it covers
+ * 		4. Once the deltas take more room than the snapshot, a new snapshot replaces them all
+ *
+ * Deltas and snapshots are written online, operations keep running meanwhile, see Bank.
+ * A snapshot replaces the previous one through an AtomicFile, and a delta is forced
+ * to the disk before the journal segments it covers are deleted, so a crash at any point
+ * loses nothing. Both are checked block by block as they are read back, see SnapshotFormat:
+ * a damaged snapshot stops the recovery, a damaged delta is dropped with the ones after it,
+ * and the recovery then fails if the journal no longer holds their operations.
+ *
+ * In mapped mode the accounts live in a MappedAccountStore (accounts.dat) instead:
+ * opening only maps the file and replays the journal, accounts are loaded when used,
+ * and a snapshot only writes the accounts changed since the previous one.
+ * An existing bank.data is imported into the store the first time, then kept as bank.data.imported.
+ *
+ * The store's Metrics time the recovery, every snapshot and every force of the journal,
+ * and are attached to the bank once recovered so its operations are measured too.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class BankStore implements Closeable {
+
+	/** Name of the snapshot file */
+	public static final String SNAPSHOT = "bank.data";
+
+	/** Name of the file the deltas are appended to */
+	public static final String DELTAS = "bank.delta";
+
+	/** Name of the account store file in mapped mode */
+	public static final String ACCOUNTS = "accounts.dat";
+
+	/** Number of accounts in memory above which a mapped mode snapshot drops them */
+	public static final int MAX_LOADED = 1000000;
+
+	/** Bank kept by this store */
+	public final Bank bank;
+
+	/** One bank operation in SAMPLE_EVERY is timed by the metrics, see Metrics */
+	public static final int SAMPLE_EVERY = 16;
+
+	/** Metrics of the bank and of its persistence */
+	public final Metrics metrics = new Metrics(SAMPLE_EVERY);
+
+	/** Directory containing the snapshot and the journal */
+	private final File directory;
+
+	/** Journal attached to the bank */
+	private final Journal journal;
+
+	/** Store of the accounts in mapped mode, null otherwise */
+	private final MappedAccountStore accountStore;
+
+	/** Background thread writing snapshots, null if disabled */
+	private final Thread compactor;
+
+	/** Sequence number of the last journaled operation in the snapshot on disk, guarded by this */
+	private long snapshotSequence;
+
+	/** True when the next snapshot must be a full one, guarded by this */
+	private boolean compact;
+
+	/** Constructor that recovers the bank stored in a directory
+	 * @param directory
+	 * @param policy sync policy of the journal
+	 * @param groupCommitMillis interval between two background journal flushes
+	 * @param snapshotMillis interval between two snapshots, 0 to only snapshot on close
+	 * @throws IOException if the snapshot or the journal cannot be read
+	 */
+	BankStore(File directory, Journal.SyncPolicy policy, long groupCommitMillis, long snapshotMillis) throws IOException {
+		this(directory, policy, groupCommitMillis, snapshotMillis, false);
+	}
+
+	/** Constructor that recovers the bank stored in a directory, in mapped mode or not
+	 * @param directory
+	 * @param policy sync policy of the journal
+	 * @param groupCommitMillis interval between two background journal flushes
+	 * @param snapshotMillis interval between two snapshots, 0 to only snapshot on close
+	 * @param mapped true to keep the accounts in a MappedAccountStore
+	 * @throws IOException if the snapshot or the journal cannot be read
+	 */
+	BankStore(File directory, Journal.SyncPolicy policy, long groupCommitMillis, final long snapshotMillis, boolean mapped) throws IOException {
+		this.directory = directory;
+		long start = System.nanoTime();
+
+		File snapshot = new File(directory, SNAPSHOT);
+		if(mapped) {
+			File accounts = new File(directory, ACCOUNTS);
+			boolean importSnapshot = !accounts.exists() && snapshot.exists();
+			accountStore = MappedAccountStore.open(accounts);
+			if(importSnapshot) {
+				Bank old = SnapshotFormat.readFile(snapshot);
+				accountStore.checkpoint(old.accounts.values(), new ArrayList<Long>(), old.sequence);
+				AtomicFile.rename(snapshot, new File(directory, SNAPSHOT + ".imported"));
+			}
+			bank = new Bank();
+			bank.setStore(accountStore, MAX_LOADED);
+		}
+		else {
+			accountStore = null;
+			bank = snapshot.exists() ? SnapshotFormat.readFile(snapshot) : new Bank();
+			File deltas = new File(directory, DELTAS);
+			if(deltas.exists()) {
+				long end = SnapshotFormat.readDeltas(deltas, bank);
+				//Drop a delta cut by a crash, so the next ones are appended right after the complete ones
+				if(end < deltas.length()) {
+					RandomAccessFile raf = new RandomAccessFile(deltas, "rw");
+					try {
+						raf.setLength(end);
+					}
+					finally {
+						raf.close();
+					}
+				}
+			}
+			bank.trackChanges();
+		}
+		snapshotSequence = bank.sequence;
+
+		long last = Journal.replay(directory, bank.sequence, bank);
+		journal = new Journal(directory, last, policy, groupCommitMillis);
+		bank.setJournal(journal);
+		metrics.record(Metrics.Operation.RECOVERY, start, true);
+		bank.setMetrics(metrics);
+		journal.setMetrics(metrics);
+
+		if(snapshotMillis <= 0) {
+			compactor = null;
+			return;
+		}
+		compactor = new Thread(new Runnable() {
+			public void run() {
+				compactPeriodically(snapshotMillis);
+			}
+		}, "bank-snapshot");
+		compactor.setDaemon(true);
+		compactor.start();
+	}
+
+	/** Writes a new delta or snapshot of the bank if operations were applied since the last one,
+	 * then deletes the journal segments it covers
+	 * @throws IOException
+	 */
+	public synchronized void snapshot() throws IOException {
+		if(journal.lastSequence() == snapshotSequence)
+			return;
+
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			snapshotSequence = writeSnapshot();
+			success = true;
+		}
+		finally {
+			metrics.record(Metrics.Operation.SNAPSHOT, start, success);
+		}
+		journal.deleteSegmentsUpTo(snapshotSequence);
+	}
+
+	/** Writes a delta or a snapshot, or a checkpoint of the account store in mapped mode
+	 * @return long sequence number of the last journaled operation it contains
+	 * @throws IOException
+	 */
+	private long writeSnapshot() throws IOException {
+		if(accountStore != null)
+			return bank.checkpoint();
+
+		File snapshot = new File(directory, SNAPSHOT);
+		File deltas = new File(directory, DELTAS);
+		//Deltas are cheaper to write but slower to load, start over from a snapshot once they outgrow it
+		if(compact || !snapshot.exists() || deltas.length() > snapshot.length()) {
+			//Stays set if it fails: the changes it took are no longer tracked
+			compact = true;
+			long sequence = writeFullSnapshot();
+			compact = false;
+			if(deltas.exists() && !deltas.delete())
+				throw new IOException("Unable to delete " + DELTAS + ".");
+			return sequence;
+		}
+
+		boolean success = false;
+		boolean created = !deltas.exists();
+		FileOutputStream f_out = new FileOutputStream(deltas, true);
+		try {
+			long sequence = bank.writeDelta(f_out.getChannel());
+			f_out.getChannel().force(false);
+			if(created)
+				AtomicFile.syncDirectory(directory);
+			success = true;
+			return sequence;
+		}
+		finally {
+			f_out.close();
+			//The changes it covered are no longer tracked, only a snapshot has them all
+			if(!success)
+				compact = true;
+		}
+	}
+
+	/** Writes a snapshot of every account
+	 * @return long sequence number of the last journaled operation it contains
+	 * @throws IOException
+	 */
+	private long writeFullSnapshot() throws IOException {
+		//A failed write or a crash keeps the old snapshot
+		return AtomicFile.write(new File(directory, SNAPSHOT), new AtomicFile.Content<Long>() {
+			public Long write(FileChannel channel) throws IOException {
+				return bank.writeSnapshot(channel);
+			}
+		});
+	}
+
+	/** Stops the background snapshots, writes a last snapshot and closes the journal
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if(compactor != null) {
+			compactor.interrupt();
+			try {
+				compactor.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			snapshot();
+		}
+		finally {
+			journal.close();
+			if(accountStore != null)
+				accountStore.close();
+		}
+	}
+
+	/** Body of the background thread
+	 * @param snapshotMillis
+	 */
+	private void compactPeriodically(long snapshotMillis) {
+		while(true) {
+			try {
+				Thread.sleep(snapshotMillis);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			try {
+				snapshot();
+			}
+			catch(IOException e) {
+				//Keep the journal: the next snapshot will cover it
+				System.err.println("Unable to write a snapshot: " + e.getLocalizedMessage());
+			}
+		}
+	}
+}
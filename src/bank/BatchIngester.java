@@ -0,0 +1,508 @@
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** BatchIngester class applies a file of transactions to a Bank
+ * and writes the outcome of every record to a result file.
+ *
+ * Records stream through three stages, each in its own thread,
+ * linked by bounded queues of chunks, so memory does not grow with the file:
+ *
+ * 		1. Parse and validate: account IDs are checked by Account.isValidID(),
+ * 		   amounts by Money.parse() and must be positive.
+ * 		   Invalid records are rejected without reaching the bank
+ * 		2. Apply: valid records are applied in file order through Bank.apply(),
+ * 		   which checks the funds and journals them, without waiting for the journal
+ * 		3. Write: once the journal holds a chunk durably, one line per record
+ * 		   to the result file, rejected or not. Waiting once per chunk, while
+ * 		   the next chunks are applied, keeps group commit from throttling the batch
+ *
+ * Two input formats are read:
+ * 		- CSV, one record per line: type,accountID,toID,currency,amount
+ * 		  where type is DEPOSIT, WITHDRAW or TRANSFER, toID is empty except for transfers
+ * 		  and the amount is in units ("12.50"). Blank lines, lines starting with #
+ * 		  and a first line starting with "type," are skipped
+ * 		- Binary: magic "BKBT" (int), version (short), then per record
+ * 		  its length (int) followed by Transaction.encode(), see BinaryWriter
+ *
+ * The result file is CSV: record,status,accountID,currency,amount,balance
+ * where record is the line number in a CSV file and the record index in a binary file,
+ * status a TransactionResult.Status or MALFORMED for records that cannot be read.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class BatchIngester {
+
+	/** First bytes of a binary batch file: "BKBT" */
+	public static final int MAGIC = 0x424B4254;
+
+	/** Version written by BinaryWriter */
+	public static final short VERSION = 1;
+
+	/** Status written for records that cannot be read */
+	public static final String MALFORMED = "MALFORMED";
+
+	/** Largest binary record accepted */
+	public static final int MAX_RECORD = 1 << 16;
+
+	/** Number of records handed from one stage to the next at once */
+	private static final int CHUNK = 1024;
+
+	/** Number of chunks waiting between two stages */
+	private static final int QUEUE_CHUNKS = 16;
+
+	/** Character set of the files */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Input file formats */
+	public enum Format { CSV, BINARY }
+
+	/** Bank the records are applied to */
+	private final Bank bank;
+
+	/** Constructor that takes the bank the records are applied to
+	 * @param bank
+	 */
+	BatchIngester(Bank bank) {
+		this.bank = bank;
+	}
+
+	/** Applies a batch file, detecting its format, and writes the result file
+	 * @param input
+	 * @param results
+	 * @return Report
+	 * @throws IOException
+	 */
+	public Report ingest(File input, File results) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(input), 1 << 16);
+		try {
+			in.mark(4);
+			DataInputStream data = new DataInputStream(in);
+			Format format = input.length() >= 4 && data.readInt() == MAGIC ? Format.BINARY : Format.CSV;
+			in.reset();
+
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(results), UTF8), 1 << 16);
+			try {
+				return ingest(in, format, out);
+			}
+			finally {
+				out.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/** Applies a batch read from a stream and writes the result lines
+	 * @param in
+	 * @param format
+	 * @param results
+	 * @return Report
+	 * @throws IOException if the input cannot be read or the results written
+	 */
+	public Report ingest(InputStream in, Format format, final Writer results) throws IOException {
+		final BlockingQueue<Chunk> toApply = new ArrayBlockingQueue<Chunk>(QUEUE_CHUNKS);
+		final BlockingQueue<Chunk> toWrite = new ArrayBlockingQueue<Chunk>(QUEUE_CHUNKS);
+		final Report report = new Report();
+		long start = System.nanoTime();
+
+		ExecutorService stages = Executors.newFixedThreadPool(2);
+		try {
+			final Future<?> writer = stages.submit(new Callable<Void>() {
+				public Void call() throws IOException, InterruptedException {
+					write(toWrite, results, report, bank);
+					return null;
+				}
+			});
+			final Future<?> applier = stages.submit(new Callable<Void>() {
+				public Void call() throws IOException, InterruptedException, ExecutionException {
+					apply(toApply, toWrite, writer);
+					return null;
+				}
+			});
+
+			if(format == Format.BINARY)
+				parseBinary(new DataInputStream(in), toApply, applier);
+			else
+				parseCsv(new BufferedReader(new InputStreamReader(in, UTF8), 1 << 16), toApply, applier);
+			handOver(toApply, new Chunk(0), applier);
+
+			writer.get();
+			applier.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while applying the batch.");
+		}
+		catch(ExecutionException e) {
+			//A stage failed, possibly because the one after it did
+			Throwable cause = e.getCause();
+			while(cause instanceof ExecutionException)
+				cause = cause.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException("Unable to apply the batch.", cause);
+		}
+		finally {
+			stages.shutdownNow();
+		}
+		report.nanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/** Stage 1 for CSV files
+	 * @param reader
+	 * @param toApply
+	 * @param applier to stop if the next stage failed
+	 * @throws IOException
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	private void parseCsv(BufferedReader reader, BlockingQueue<Chunk> toApply, Future<?> applier)
+			throws IOException, ExecutionException, InterruptedException {
+		Chunk chunk = new Chunk(CHUNK);
+		long number = 0;
+		for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+			number++;
+			String trimmed = line.trim();
+			if(trimmed.isEmpty() || trimmed.startsWith("#") || (number == 1 && trimmed.toLowerCase().startsWith("type,")))
+				continue;
+
+			chunk.records.add(parseCsvLine(number, trimmed));
+			if(chunk.records.size() == CHUNK) {
+				handOver(toApply, chunk, applier);
+				chunk = new Chunk(CHUNK);
+			}
+		}
+		if(!chunk.records.isEmpty())
+			handOver(toApply, chunk, applier);
+	}
+
+	/** Parses and validates a CSV record
+	 * @param number
+	 * @param line
+	 * @return Record
+	 */
+	static Record parseCsvLine(long number, String line) {
+		String[] fields = line.split(",", -1);
+		if(fields.length != 5)
+			return new Record(number, null);
+
+		String accountID = fields[1].trim(), toID = fields[2].trim();
+		Currency currency;
+		long amount;
+		try {
+			currency = Currency.valueOf(fields[3].trim().toUpperCase());
+			amount = Money.parse(fields[4].trim(), currency);
+		}
+		catch(IllegalArgumentException e) {
+			//Unknown currency, or an amount Money cannot parse
+			return new Record(number, null);
+		}
+
+		Transaction t;
+		String type = fields[0].trim().toUpperCase();
+		if(type.equals("DEPOSIT") && toID.isEmpty())
+			t = Transaction.deposit(accountID, currency, amount);
+		else if(type.equals("WITHDRAW") && toID.isEmpty())
+			t = Transaction.withdraw(accountID, currency, amount);
+		else if(type.equals("TRANSFER"))
+			t = Transaction.transfer(accountID, toID, currency, amount);
+		else
+			return new Record(number, null);
+		return validate(new Record(number, t));
+	}
+
+	/** Stage 1 for binary files
+	 * @param in
+	 * @param toApply
+	 * @param applier to stop if the next stage failed
+	 * @throws IOException
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	private void parseBinary(DataInputStream in, BlockingQueue<Chunk> toApply, Future<?> applier)
+			throws IOException, ExecutionException, InterruptedException {
+		if(in.readInt() != MAGIC)
+			throw new IOException("Not a batch file.");
+		short version = in.readShort();
+		if(version != VERSION)
+			throw new IOException("Unsupported batch file version " + version + ".");
+
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD);
+		Chunk chunk = new Chunk(CHUNK);
+		long number = 0;
+		while(true) {
+			int length;
+			try {
+				length = in.readInt();
+			}
+			catch(EOFException e) {
+				break;
+			}
+			number++;
+			if(length < 0 || length > MAX_RECORD)
+				throw new IOException("Corrupt batch file: record " + number + " has length " + length + ".");
+			buffer.clear();
+			in.readFully(buffer.array(), 0, length);
+			buffer.limit(length);
+
+			Record record;
+			try {
+				Transaction t = Transaction.decode(buffer);
+				record = buffer.hasRemaining() ? new Record(number, null) : validate(new Record(number, t));
+			}
+			catch(RuntimeException e) {
+				//Truncated record or unknown type or currency
+				record = new Record(number, null);
+			}
+			chunk.records.add(record);
+			if(chunk.records.size() == CHUNK) {
+				handOver(toApply, chunk, applier);
+				chunk = new Chunk(CHUNK);
+			}
+		}
+		if(!chunk.records.isEmpty())
+			handOver(toApply, chunk, applier);
+	}
+
+	/** Rejects a record whose account IDs or amount the bank would refuse, with the same status
+	 * @param record
+	 * @return Record
+	 */
+	private static Record validate(Record record) {
+		Transaction t = record.transaction;
+		boolean transfer = t.type == Transaction.Type.TRANSFER || t.type == Transaction.Type.EXCHANGE_TRANSFER;
+		if(!Account.isValidID(t.accountID) || (transfer && !Account.isValidID(t.toID))) {
+			record.result = new TransactionResult(TransactionResult.Status.INVALID_ID, t.accountID, t.currency);
+			return record;
+		}
+		switch(t.type) {
+			case WITHDRAW:
+			case DEPOSIT:
+			case TRANSFER:
+			case EXCHANGE_TRANSFER:
+				if(t.amount <= 0 || (t.type == Transaction.Type.EXCHANGE_TRANSFER && t.toAmount <= 0))
+					record.result = new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, t.accountID, t.currency, t.amount, 0);
+				break;
+			default:
+				break;
+		}
+		return record;
+	}
+
+	/** Stage 2: applies the valid records of every chunk, noting the journal sequence number it reached
+	 * @param toApply
+	 * @param toWrite
+	 * @param writer to stop if the next stage failed
+	 * @throws ExecutionException if the writer failed
+	 * @throws InterruptedException
+	 */
+	private void apply(BlockingQueue<Chunk> toApply, BlockingQueue<Chunk> toWrite, Future<?> writer)
+			throws ExecutionException, InterruptedException {
+		while(true) {
+			Chunk chunk = toApply.take();
+			for(Record record : chunk.records)
+				if(record.transaction != null && record.result == null)
+					record.result = bank.apply(record.transaction, false);
+			chunk.sequence = bank.journalSequence();
+			handOver(toWrite, chunk, writer);
+			if(chunk.records.isEmpty())
+				return;
+		}
+	}
+
+	/** Stage 3: waits for every chunk to be durable, then writes its result lines and counts the outcomes
+	 * @param toWrite
+	 * @param results
+	 * @param report
+	 * @param bank
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static void write(BlockingQueue<Chunk> toWrite, Writer results, Report report, Bank bank)
+			throws IOException, InterruptedException {
+		StringBuilder line = new StringBuilder(64);
+		while(true) {
+			Chunk chunk = toWrite.take();
+			if(chunk.records.isEmpty())
+				break;
+			bank.awaitDurable(chunk.sequence);
+			for(Record record : chunk.records) {
+				line.setLength(0);
+				line.append(record.number).append(',');
+				TransactionResult r = record.result;
+				if(r == null) {
+					line.append(MALFORMED).append(",,,,");
+					report.malformed++;
+				}
+				else {
+					line.append(r.status).append(',');
+					line.append(r.accountID == null ? "" : r.accountID).append(',');
+					line.append(r.currency == null ? "" : r.currency.toString()).append(',');
+					if(r.currency != null) {
+						line.append(Money.format(r.amount, r.currency)).append(',');
+						line.append(Money.format(r.balance, r.currency));
+					}
+					else
+						line.append(',');
+					if(r.isSuccess())
+						report.applied++;
+					else
+						report.rejected++;
+				}
+				line.append('\n');
+				results.append(line);
+			}
+		}
+		results.flush();
+	}
+
+	/** Puts a chunk on the queue of the next stage, unless that stage has stopped
+	 * @param queue
+	 * @param chunk
+	 * @param next
+	 * @throws ExecutionException if the next stage failed
+	 * @throws InterruptedException
+	 */
+	private static void handOver(BlockingQueue<Chunk> queue, Chunk chunk, Future<?> next)
+			throws ExecutionException, InterruptedException {
+		while(!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+			if(next.isDone()) {
+				next.get();
+				throw new IllegalStateException("Batch stage stopped early.");
+			}
+		}
+	}
+
+	/** Applies a batch file to the bank kept in the current directory.
+	 * Usage: java BatchIngester input [results], results default to input.results
+	 * The journal sync policy is taken from the bank.sync system property, see Simulator
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: java BatchIngester input [results]");
+			return;
+		}
+		File input = new File(args[0]);
+		File results = new File(args.length > 1 ? args[1] : args[0] + ".results");
+
+		Journal.SyncPolicy policy = Journal.SyncPolicy.valueOf(System.getProperty("bank.sync", "ALWAYS"));
+		boolean mapped = "mapped".equals(System.getProperty("bank.store"));
+		BankStore store = new BankStore(new File("."), policy, 10, 60000, mapped);
+		try {
+			Report report = new BatchIngester(store.bank).ingest(input, results);
+			System.out.println(report);
+			System.out.println("Results written to " + results);
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	/** A record of the batch and its outcome */
+	static class Record {
+		/** Line number or index of the record */
+		final long number;
+
+		/** Transaction read, null if the record is malformed */
+		final Transaction transaction;
+
+		/** Outcome, set when the record is rejected or applied */
+		TransactionResult result;
+
+		Record(long number, Transaction transaction) {
+			this.number = number;
+			this.transaction = transaction;
+		}
+	}
+
+	/** Records handed from one stage to the next, empty to mark the end of the batch */
+	static class Chunk {
+		final List<Record> records;
+
+		/** Journal sequence number reached once the records were applied */
+		long sequence;
+
+		Chunk(int capacity) {
+			records = new ArrayList<Record>(capacity);
+		}
+	}
+
+	/** Counts and throughput of an ingested batch */
+	public static class Report {
+		/** Records applied to the bank */
+		public long applied;
+
+		/** Records refused by validation or by the bank */
+		public long rejected;
+
+		/** Records that could not be read */
+		public long malformed;
+
+		/** Time taken, in nanoseconds */
+		public long nanos;
+
+		/** Returns the number of records read
+		 * @return long
+		 */
+		public long records() {
+			return applied + rejected + malformed;
+		}
+
+		/** Returns the number of records ingested per second
+		 * @return double
+		 */
+		public double recordsPerSecond() {
+			return nanos == 0 ? 0 : records() * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d records: %d applied, %d rejected, %d malformed in %.3f s (%.0f records/s)",
+					records(), applied, rejected, malformed, nanos / 1e9, recordsPerSecond());
+		}
+	}
+
+	/** Writes transactions in the binary batch format */
+	public static class BinaryWriter implements Closeable {
+		private final DataOutputStream out;
+		private final ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD);
+
+		/** Constructor that writes the file header
+		 * @param out
+		 * @throws IOException
+		 */
+		public BinaryWriter(OutputStream out) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+			this.out.writeInt(MAGIC);
+			this.out.writeShort(VERSION);
+		}
+
+		/** Appends a record
+		 * @param t
+		 * @throws IOException
+		 */
+		public void write(Transaction t) throws IOException {
+			buffer.clear();
+			t.encode(buffer);
+			out.writeInt(buffer.position());
+			out.write(buffer.array(), 0, buffer.position());
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+
+/** Tests applying batch files of transactions
+ * @author JosephKalash
+ *
+ */
+
+public class BatchIngesterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+	}
+
+	/** Every CSV record gets a result line, rejected records leave the bank unchanged */
+	@Test
+	public void testCsvResults() throws IOException {
+		Bank bank = sampleBank();
+		File input = write("batch.csv",
+				"type,accountID,toID,currency,amount",
+				"DEPOSIT,123,,USD,12.50",
+				"WITHDRAW,123,,USD,1000",
+				"",
+				"# comment",
+				"TRANSFER,123,456,USD,30",
+				"TRANSFER,123,456,EUR,1",
+				"DEPOSIT,12a,,USD,1",
+				"DEPOSIT,123,,USD,0",
+				"DEPOSIT,123,,USD,1.001",
+				"DEPOSIT,123,,XYZ,1",
+				"REFUND,123,,USD,1");
+		File results = new File(directory, "batch.results");
+
+		BatchIngester.Report report = new BatchIngester(bank).ingest(input, results);
+		assertEquals(2, report.applied);
+		assertEquals(4, report.rejected);
+		assertEquals(3, report.malformed);
+
+		List<String> lines = read(results);
+		assertEquals(9, lines.size());
+		assertEquals("2,OK,123,USD,12.50,112.50", lines.get(0));
+		assertEquals("3,INSUFFICIENT_FUNDS,123,USD,1000.00,112.50", lines.get(1));
+		assertEquals("6,OK,123,USD,30.00,82.50", lines.get(2));
+		assertEquals("7,MISSING_CURRENCY,456,EUR,0.00,0.00", lines.get(3));
+		assertTrue(lines.get(4).startsWith("8,INVALID_ID,12a,"));
+		assertTrue(lines.get(5).startsWith("9,INVALID_AMOUNT,123,"));
+		assertEquals("10,MALFORMED,,,,", lines.get(6));
+		assertEquals("12,MALFORMED,,,,", lines.get(8));
+
+		assertEquals(8250, bank.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(4000, bank.balanceInquiry("456", Currency.USD).balance);
+	}
+
+	/** A binary batch larger than the queues is applied in order and journaled */
+	@Test
+	public void testBinaryBatchIsJournaled() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.GROUP, 1, 0);
+		populate(store.bank);
+
+		File input = new File(directory, "batch.bin");
+		BatchIngester.BinaryWriter writer = new BatchIngester.BinaryWriter(new FileOutputStream(input));
+		int records = 50000;
+		for(int i = 0; i < records; i++) {
+			writer.write(Transaction.deposit("123", Currency.USD, 2));
+			writer.write(Transaction.transfer("123", "456", Currency.USD, 1));
+		}
+		writer.write(Transaction.withdraw("456", Currency.EUR, 1));
+		writer.close();
+
+		BatchIngester.Report report = new BatchIngester(store.bank).ingest(input, new File(directory, "batch.results"));
+		assertEquals(2 * records, report.applied);
+		assertEquals(1, report.rejected);
+		assertEquals(0, report.malformed);
+		assertTrue(report.recordsPerSecond() > 0);
+
+		//Dropping the store stands for a crash: the journal holds the whole batch
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.GROUP, 1, 0).bank;
+		assertEquals(10000 + records, recovered.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(1000 + records, recovered.balanceInquiry("456", Currency.USD).balance);
+	}
+
+	/** Same accounts as UnitTest: 123 holding 100 USD and 50 EUR, 456 holding 10 USD */
+	private static Bank sampleBank() {
+		Bank bank = new Bank();
+		populate(bank);
+		return bank;
+	}
+
+	private static void populate(Bank bank) {
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 10000));
+		balances.add(new Balance(Currency.EUR, 5000));
+		assertTrue(bank.createAccount("123", "John", "Doe", balances).isSuccess());
+		balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 1000));
+		assertTrue(bank.createAccount("456", "Jane", "Roe", balances).isSuccess());
+	}
+
+	private File write(String name, String... lines) throws IOException {
+		File file = new File(directory, name);
+		PrintWriter writer = new PrintWriter(file, "UTF-8");
+		for(String line : lines)
+			writer.println(line);
+		writer.close();
+		return file;
+	}
+
+	private static List<String> read(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		for(String line = reader.readLine(); line != null; line = reader.readLine())
+			lines.add(line);
+		reader.close();
+		return lines;
+	}
+}
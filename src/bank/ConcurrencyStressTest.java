@@ -0,0 +1,107 @@
+package bank;
+
+import static org.junit.Assert.*;
+import static bank.TestBanks.id;
+import org.junit.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Stress tests running Bank operations from many threads at once.
+ * Amounts are whole numbers so that every sum is exact.
+ * @author JosephKalash
+ *
+ */
+
+public class ConcurrencyStressTest {
+
+	private static final int ACCOUNTS = 1000;
+	private static final int THREADS = 8;
+	private static final int TRANSFERS = 4000000;
+	private static final long OPENING = 100000;
+
+	private Bank b;
+
+	/** Creates ACCOUNTS accounts holding OPENING in every currency */
+	@Before
+	public void setUp() {
+		b = new Bank();
+		for(int i = 0; i < ACCOUNTS; i++) {
+			List<Balance> balances = new ArrayList<Balance>();
+			for(Currency c : Currency.values())
+				balances.add(new Balance(c, OPENING));
+			assertTrue(b.createAccount(id(i), "First" + i, "Last" + i, balances).isSuccess());
+		}
+	}
+
+	/** Millions of random transfers, including ones that fail for lack of funds,
+	 * must neither create nor destroy money in any currency */
+	@Test
+	public void testTransfersConserveMoney() throws Exception {
+		runConcurrently(new Worker() {
+			public void run(Random random, int operations) {
+				Currency[] currencies = Currency.values();
+				for(int i = 0; i < operations; i++) {
+					String from = id(random.nextInt(ACCOUNTS));
+					String to = id(random.nextInt(ACCOUNTS));
+					Currency c = currencies[random.nextInt(currencies.length)];
+					b.transfer(from, to, c, 1 + random.nextInt(500));
+				}
+			}
+		}, TRANSFERS);
+
+		for(Currency c : Currency.values()) {
+			long total = 0;
+			for(int i = 0; i < ACCOUNTS; i++) {
+				long balance = b.balanceInquiry(id(i), c).balance;
+				assertTrue("Negative " + c + " balance for account " + id(i), balance >= 0);
+				total += balance;
+			}
+			assertEquals("Total " + c, ACCOUNTS * OPENING, total);
+		}
+	}
+
+	/** Concurrent deposits followed by withdrawals of the same amounts
+	 * must leave every balance unchanged */
+	@Test
+	public void testNoLostUpdates() throws Exception {
+		final int perThread = 200000;
+		runConcurrently(new Worker() {
+			public void run(Random random, int operations) {
+				for(int i = 0; i < operations; i++)
+					assertTrue(b.deposit(id(i % 10), Currency.USD, 3).isSuccess());
+				for(int i = 0; i < operations; i++)
+					assertTrue(b.withdraw(id(i % 10), Currency.USD, 3).isSuccess());
+			}
+		}, THREADS * perThread);
+
+		for(int i = 0; i < 10; i++)
+			assertEquals(OPENING, b.balanceInquiry(id(i), Currency.USD).balance);
+	}
+
+	/** Work done by one thread */
+	private interface Worker {
+		void run(Random random, int operations);
+	}
+
+	/** Runs the worker on THREADS threads, splitting the operations between them
+	 * @param worker
+	 * @param operations
+	 * @throws Exception
+	 */
+	private void runConcurrently(final Worker worker, int operations) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		final int perThread = operations / THREADS;
+		for(int t = 0; t < THREADS; t++) {
+			final long seed = t;
+			futures.add(pool.submit(new Runnable() {
+				public void run() {
+					worker.run(new Random(seed), perThread);
+				}
+			}));
+		}
+		for(Future<?> f : futures)
+			f.get();
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,196 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.*;
+import java.util.*;
+
+/** Fault injection tests of the BankStore files: writes cut at random offsets
+ * and damaged bytes must either recover every durable operation or be reported,
+ * never load a wrong bank.
+ * A crash is simulated by copying the directory as it was at the time of the crash
+ * @author JosephKalash
+ *
+ */
+
+public class CrashRecoveryTest {
+
+	private static final int ACCOUNTS = 300;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.newFolder();
+	}
+
+	/** A snapshot cut anywhere, or with any byte changed after the magic and version, is never loaded */
+	@Test
+	public void testDamagedSnapshotIsRejected() throws IOException {
+		Bank bank = new Bank();
+		populate(bank, new Random(1));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bank.writeSnapshot(Channels.newChannel(bytes));
+		byte[] snapshot = bytes.toByteArray();
+
+		Random random = new Random(2);
+		for(int i = 0; i < 200; i++) {
+			int cut = random.nextInt(snapshot.length);
+			assertRejected(Arrays.copyOf(snapshot, cut));
+
+			byte[] damaged = snapshot.clone();
+			damaged[6 + random.nextInt(snapshot.length - 6)] ^= 1 << random.nextInt(8);
+			assertRejected(damaged);
+		}
+	}
+
+	/** A crash while a snapshot is written leaves its temporary file, the old snapshot is used */
+	@Test
+	public void testCrashWhileWritingSnapshot() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		Random random = new Random(3);
+		populate(store.bank, random);
+		store.snapshot();
+		operate(store.bank, random);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		store.bank.writeSnapshot(Channels.newChannel(bytes));
+		byte[] next = bytes.toByteArray();
+		for(int i = 0; i < 20; i++) {
+			File crash = copy(directory);
+			Files.write(new File(crash, BankStore.SNAPSHOT + ".tmp").toPath(), Arrays.copyOf(next, random.nextInt(next.length)));
+			assertRecovered(store.bank, crash);
+		}
+	}
+
+	/** A crash while a delta is appended, at any offset, loses no operation:
+	 * the journal segments it covers are only deleted once it is durable */
+	@Test
+	public void testCrashWhileAppendingDelta() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		Random random = new Random(4);
+		populate(store.bank, random);
+		store.snapshot();
+		operate(store.bank, random);
+		store.snapshot();
+		operate(store.bank, random);
+
+		//Directory as it is before the next delta, then that delta
+		File before = copy(directory);
+		File deltas = new File(directory, BankStore.DELTAS);
+		long length = deltas.length();
+		store.snapshot();
+		byte[] appended = Arrays.copyOfRange(Files.readAllBytes(deltas.toPath()), (int)length, (int)deltas.length());
+		assertTrue(appended.length > 0);
+
+		for(int i = 0; i < 30; i++) {
+			File crash = copy(before);
+			int cut = i == 0 ? appended.length : random.nextInt(appended.length);
+			FileOutputStream f_out = new FileOutputStream(new File(crash, BankStore.DELTAS), true);
+			f_out.write(appended, 0, cut);
+			f_out.close();
+			assertRecovered(store.bank, crash);
+		}
+	}
+
+	/** A damaged delta whose journal segments are gone cannot be recovered: opening fails instead of
+	 * loading the bank without it */
+	@Test
+	public void testDamagedDeltaIsReported() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		Random random = new Random(5);
+		populate(store.bank, random);
+		store.snapshot();
+		operate(store.bank, random);
+		store.snapshot();
+		operate(store.bank, random);
+		store.snapshot();
+		operate(store.bank, random);
+
+		byte[] deltas = Files.readAllBytes(new File(directory, BankStore.DELTAS).toPath());
+		for(int i = 0; i < 10; i++) {
+			File crash = copy(directory);
+			byte[] damaged = deltas.clone();
+			damaged[6 + random.nextInt(deltas.length - 6)] ^= 1 << random.nextInt(8);
+			Files.write(new File(crash, BankStore.DELTAS).toPath(), damaged);
+			try {
+				new BankStore(crash, Journal.SyncPolicy.ALWAYS, 1, 0).close();
+				fail("Recovered without a damaged delta");
+			}
+			catch(IOException e) {
+				//Or the version of a later delta was hit
+				assertTrue(e.getMessage(), e.getMessage().contains("missing from the journal")
+						|| e.getMessage().startsWith("Unsupported bank delta version"));
+			}
+		}
+		//The undamaged files still recover everything
+		assertRecovered(store.bank, copy(directory));
+	}
+
+	/** Creates ACCOUNTS accounts */
+	private static void populate(Bank bank, Random random) {
+		for(int i = 0; i < ACCOUNTS; i++) {
+			List<Balance> balances = new ArrayList<Balance>();
+			balances.add(new Balance(Currency.USD, random.nextInt(100000)));
+			if(i % 3 == 0)
+				balances.add(new Balance(Currency.EUR, random.nextInt(100000)));
+			assertTrue(bank.createAccount(Integer.toString(1000 + i), "First" + i, "Last" + i, balances).isSuccess());
+		}
+	}
+
+	/** Applies random transfers and deposits, and deletes and creates a few accounts */
+	private static void operate(Bank bank, Random random) {
+		for(int i = 0; i < 200; i++) {
+			bank.transfer(Integer.toString(1000 + random.nextInt(ACCOUNTS)), Integer.toString(1000 + random.nextInt(ACCOUNTS)),
+					Currency.USD, 1 + random.nextInt(1000));
+			bank.deposit(Integer.toString(1000 + random.nextInt(ACCOUNTS)), Currency.EUR, 1 + random.nextInt(1000));
+		}
+		String id = Integer.toString(1000 + random.nextInt(ACCOUNTS));
+		bank.deleteAccountID(id);
+		bank.createAccount(id, "Again", "", Collections.singletonList(new Balance(Currency.LBP, 5)));
+	}
+
+	/** Checks that a snapshot cannot be read */
+	private static void assertRejected(byte[] snapshot) {
+		try {
+			SnapshotFormat.read(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+			fail("Read a damaged snapshot of " + snapshot.length + " bytes");
+		}
+		catch(IOException e) {
+			//Reported
+		}
+	}
+
+	/** Checks that opening a crashed directory recovers the same accounts as the bank */
+	private static void assertRecovered(Bank expected, File crash) throws IOException {
+		BankStore store = new BankStore(crash, Journal.SyncPolicy.ALWAYS, 1, 0);
+		try {
+			Bank actual = store.bank;
+			assertEquals(expected.accounts.size(), actual.accounts.size());
+			for(Account acc : expected.accounts.values()) {
+				Account other = actual.findAccount(acc.accountID);
+				assertNotNull(acc.accountID, other);
+				assertEquals(acc.firstName, other.firstName);
+				assertEquals(acc.currencyMask, other.currencyMask);
+				assertArrayEquals(acc.accountID, acc.amounts, other.amounts);
+			}
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	/** Returns a copy of a directory, deleted after the test */
+	private File copy(File from) throws IOException {
+		File to = folder.newFolder();
+		for(File f : from.listFiles())
+			Files.copy(f.toPath(), new File(to, f.getName()).toPath());
+		return to;
+	}
+}
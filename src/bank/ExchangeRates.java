@@ -0,0 +1,154 @@
+package bank;
+
+import java.math.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** ExchangeRates class holds the rates between every pair of currencies.
+ *
+ * The rates live in an immutable Table indexed by Currency.ordinal() pairs.
+ * An update copies the current table, changes the copy and swaps it in,
+ * so readers never lock and never see a half updated table: an operation
+ * takes the current table once and converts at that version throughout.
+ *
+ * A rate is the number of units of the target currency bought by one unit
+ * of the source currency, as a fixed point long with RATE_DECIMALS decimals.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class ExchangeRates {
+
+	/** Number of decimals of a rate */
+	public static final int RATE_DECIMALS = 8;
+
+	/** A rate of 1, 10 to the power of RATE_DECIMALS */
+	public static final long RATE_SCALE = 100000000L;
+
+	/** Number of currencies */
+	private static final int CURRENCIES = Currency.values().length;
+
+	/** Immutable set of rates of one version */
+	public static final class Table {
+
+		/** Version of the rates, 0 for the initial table and increased by every update */
+		public final long version;
+
+		/** Rates indexed by from * CURRENCIES + to, 0 if unknown */
+		private final long[] rates;
+
+		/** Constructor
+		 * @param version
+		 * @param rates owned by the table
+		 * */
+		private Table(long version, long[] rates) {
+			this.version = version;
+			this.rates = rates;
+		}
+
+		/** Returns the rate from a currency to another
+		 * @param from
+		 * @param to
+		 * @return long RATE_SCALE for the same currency, 0 if unknown
+		 * */
+		public long rate(Currency from, Currency to) {
+			if(from == to)
+				return RATE_SCALE;
+			return rates[from.ordinal() * CURRENCIES + to.ordinal()];
+		}
+
+		/** Converts an amount from a currency to another, rounded down
+		 * to the minor unit of the target currency
+		 * @param amount in minor units of from
+		 * @param from
+		 * @param to
+		 * @return long in minor units of to, -1 if the rate is unknown
+		 * @throws ArithmeticException if the result does not fit in a long
+		 * */
+		public long convert(long amount, Currency from, Currency to) {
+			if(from == to)
+				return amount;
+			long rate = rates[from.ordinal() * CURRENCIES + to.ordinal()];
+			if(rate == 0)
+				return -1;
+
+			//amount / from.minorUnits units, times rate / RATE_SCALE, times to.minorUnits
+			long numerator = rate * to.minorUnits;
+			long denominator = RATE_SCALE * from.minorUnits;
+			long product = amount * numerator;
+			if(product / numerator == amount)
+				return Math.floorDiv(product, denominator);
+
+			//The product needs more than 64 bits, large amounts only
+			BigInteger result = BigInteger.valueOf(amount).multiply(BigInteger.valueOf(numerator))
+					.divide(BigInteger.valueOf(denominator));
+			if(result.bitLength() > 63)
+				throw new ArithmeticException("Amount overflow converting " + amount + " " + from + " to " + to);
+			return result.longValue();
+		}
+	}
+
+	/** Current table, replaced on every update */
+	private final AtomicReference<Table> current;
+
+	/** Constructor with no known rate */
+	public ExchangeRates() {
+		current = new AtomicReference<Table>(new Table(0, new long[CURRENCIES * CURRENCIES]));
+	}
+
+	/** Returns the current table, to convert any number of amounts at the same version
+	 * @return Table
+	 * */
+	public Table current() {
+		return current.get();
+	}
+
+	/** Sets the rate from a currency to another. The reverse rate is left as it is
+	 * @param from
+	 * @param to
+	 * @param rate fixed point with RATE_DECIMALS decimals, 0 to forget the rate
+	 * @return long version of the table holding the new rate
+	 * @throws IllegalArgumentException if the currencies are the same or the rate is out of range
+	 * */
+	public long setRate(Currency from, Currency to, long rate) {
+		if(from == to)
+			throw new IllegalArgumentException("Cannot set the rate of " + from + " to itself.");
+		if(rate < 0 || rate > Long.MAX_VALUE / to.minorUnits)
+			throw new IllegalArgumentException("Rate out of range: " + rate);
+
+		int pair = from.ordinal() * CURRENCIES + to.ordinal();
+		while(true) {
+			Table table = current.get();
+			long[] rates = table.rates.clone();
+			rates[pair] = rate;
+			Table next = new Table(table.version + 1, rates);
+			if(current.compareAndSet(table, next))
+				return next.version;
+		}
+	}
+
+	/** Reads a rate written as a decimal number, such as 1.0825
+	 * @param text
+	 * @return long fixed point with RATE_DECIMALS decimals
+	 * @throws NumberFormatException if the text is not a positive number with at most RATE_DECIMALS decimals
+	 * */
+	public static long parseRate(String text) {
+		try {
+			BigDecimal rate = new BigDecimal(text.trim()).setScale(RATE_DECIMALS);
+			if(rate.signum() <= 0)
+				throw new NumberFormatException("Rate must be positive: " + text);
+			return rate.unscaledValue().longValueExact();
+		}
+		catch(ArithmeticException e) {
+			throw new NumberFormatException("Invalid rate: " + text);
+		}
+	}
+
+	/** Writes a rate as a decimal number
+	 * @param rate
+	 * @return String
+	 * */
+	public static String formatRate(long rate) {
+		return BigDecimal.valueOf(rate, RATE_DECIMALS).stripTrailingZeros().toPlainString();
+	}
+}
@@ -0,0 +1,126 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+
+/** Tests the exchange rate tables and the cross-currency operations of the Bank
+ * @author JosephKalash
+ *
+ */
+
+public class ExchangeRatesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Bank b;
+
+	/** 123 holds 100 USD and 456 holds 1000 JPY and 10 EUR, with rates from USD to EUR and JPY */
+	@Before
+	public void setUp() {
+		b = new Bank();
+		b.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 10000)));
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.JPY, 1000));
+		balances.add(new Balance(Currency.EUR, 1000));
+		b.createAccount("456", "Jane", "Roe", balances);
+
+		b.exchangeRates().setRate(Currency.USD, Currency.EUR, ExchangeRates.parseRate("0.92"));
+		b.exchangeRates().setRate(Currency.USD, Currency.JPY, ExchangeRates.parseRate("149.5"));
+	}
+
+	@Test
+	public void testConvertUsesCurrencyScales() {
+		ExchangeRates.Table rates = b.exchangeRates().current();
+		assertEquals(920, rates.convert(1000, Currency.USD, Currency.EUR));
+		//10.00 USD buy 1495 JPY, which has no minor unit
+		assertEquals(1495, rates.convert(1000, Currency.USD, Currency.JPY));
+		//Rounded down: 0.01 USD buy 1.495 JPY
+		assertEquals(1, rates.convert(1, Currency.USD, Currency.JPY));
+		assertEquals(1000, rates.convert(1000, Currency.USD, Currency.USD));
+		assertEquals(-1, rates.convert(1000, Currency.EUR, Currency.USD));
+
+		//The product of the amount and the rate does not fit in a long
+		assertEquals(Long.MAX_VALUE / 100 * 92, rates.convert(Long.MAX_VALUE / 100 * 100, Currency.USD, Currency.EUR));
+		b.exchangeRates().setRate(Currency.JPY, Currency.USD, ExchangeRates.parseRate("1000"));
+		try {
+			b.exchangeRates().current().convert(Long.MAX_VALUE, Currency.JPY, Currency.USD);
+			fail("Conversion overflow was not detected");
+		}
+		catch(ArithmeticException e) {
+		}
+	}
+
+	@Test
+	public void testUpdatesDoNotChangeTakenTables() {
+		ExchangeRates rates = b.exchangeRates();
+		ExchangeRates.Table before = rates.current();
+		long version = rates.setRate(Currency.USD, Currency.EUR, ExchangeRates.parseRate("0.95"));
+
+		assertEquals(before.version + 1, version);
+		assertEquals(ExchangeRates.parseRate("0.92"), before.rate(Currency.USD, Currency.EUR));
+		assertEquals(ExchangeRates.parseRate("0.95"), rates.current().rate(Currency.USD, Currency.EUR));
+		assertEquals(0, rates.current().rate(Currency.EUR, Currency.USD));
+		assertEquals("0.95", ExchangeRates.formatRate(rates.current().rate(Currency.USD, Currency.EUR)));
+	}
+
+	@Test
+	public void testParseRate() {
+		assertEquals(108250000, ExchangeRates.parseRate("1.0825"));
+		String[] invalid = {"0", "-1", "abc", "1.000000001"};
+		for(String text : invalid) {
+			try {
+				ExchangeRates.parseRate(text);
+				fail(text + " was accepted");
+			}
+			catch(NumberFormatException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testExchangeTransfer() {
+		//Converted at the table taken before the update
+		ExchangeRates.Table start = b.exchangeRates().current();
+		b.exchangeRates().setRate(Currency.USD, Currency.EUR, ExchangeRates.parseRate("2"));
+		TransactionResult result = b.exchangeTransfer("123", "456", Currency.USD, Currency.EUR, 5000, start);
+		assertTrue(result.isSuccess());
+		assertEquals(5000, result.balance);
+		assertEquals(1000 + 4600, b.findAccount("456").balance(Currency.EUR));
+
+		assertEquals(TransactionResult.Status.NO_RATE, b.exchangeTransfer("456", "123", Currency.EUR, Currency.USD, 100).status);
+		assertEquals(TransactionResult.Status.NO_RATE, b.exchangeTransfer("123", "456", Currency.USD, Currency.CAD, 100).status);
+		b.exchangeRates().setRate(Currency.USD, Currency.CAD, ExchangeRates.parseRate("1.37"));
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, b.exchangeTransfer("123", "456", Currency.USD, Currency.CAD, 100).status);
+		assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS, b.exchangeTransfer("123", "456", Currency.USD, Currency.JPY, 5001).status);
+		assertEquals(5000, b.findAccount("123").balance(Currency.USD));
+	}
+
+	@Test
+	public void testExchangeDeposit() {
+		TransactionResult result = b.exchangeDeposit("456", Currency.USD, Currency.JPY, 1000);
+		assertTrue(result.isSuccess());
+		assertEquals(Currency.JPY, result.currency);
+		assertEquals(1000 + 1495, result.balance);
+		assertEquals(TransactionResult.Status.NO_RATE, b.exchangeDeposit("456", Currency.CAD, Currency.JPY, 1000).status);
+	}
+
+	/** The journal records the converted amount, so replay needs no rates */
+	@Test
+	public void testExchangeTransferIsReplayed() throws IOException {
+		File directory = folder.newFolder();
+		Bank bank = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 10000)));
+		bank.createAccount("456", "Jane", "Roe", Collections.singletonList(new Balance(Currency.JPY, 0)));
+		bank.exchangeRates().setRate(Currency.USD, Currency.JPY, ExchangeRates.parseRate("149.5"));
+		assertTrue(bank.exchangeTransfer("123", "456", Currency.USD, Currency.JPY, 2000).isSuccess());
+
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		assertEquals(0, recovered.exchangeRates().current().rate(Currency.USD, Currency.JPY));
+		assertEquals(8000, recovered.findAccount("123").balance(Currency.USD));
+		assertEquals(2990, recovered.findAccount("456").balance(Currency.JPY));
+	}
+}
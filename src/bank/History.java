@@ -0,0 +1,534 @@
+package bank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** History class records what happened to every account: each opening balance,
+ * withdrawal, deposit, transfer and closed balance, with its time and the balance after it.
+ *
+ * The last entries of an account are kept in memory in a ring of longs. When the
+ * ring is full, its oldest half is spilled at once to an append-only file of fixed size
+ * records (history-<n>.log segments), so the shared segment is locked once every
+ * half ring of operations on an account rather than at every one. Each spilled record points to the previous
+ * record of the same account, so the older entries of an account are read by
+ * following that chain from its newest record, without any index of the files.
+ * Memory per account is the ring and a few counters, however active the account.
+ *
+ * Entries are read newest first, one page at a time, filtered by a time range.
+ *
+ * Closing spills the rings and writes the position of every chain in history.index,
+ * read back on open. Entries still in memory are lost on a crash: the history is a
+ * record of activity, the Journal is what makes the balances durable.
+ *
+ * 		record: key (long), seq (long), time (long), type and currency (long),
+ * 		        amount (long), balance (long), counterparty key (long), previous record (long)
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class History implements Closeable {
+
+	/** Name of the file holding the chains of every account */
+	public static final String INDEX = "history.index";
+
+	/** Size of a spilled record */
+	static final int RECORD = 64;
+
+	/** Largest size of a segment, a multiple of RECORD */
+	static final long SEGMENT_BYTES = 1L << 26;
+
+	/** Longs per entry in a ring: time, type and currency, amount, balance, counterparty key */
+	private static final int STRIDE = 5;
+
+	/** Position of no record */
+	private static final long NONE = -1;
+
+	/** One entry of the history of an account */
+	public static class Entry {
+		/** Number of the entry in the history of its account, from 0 */
+		public final long seq;
+
+		/** Time of the operation, in milliseconds since the epoch */
+		public final long time;
+
+		/** Kind of operation */
+		public final Transaction.Type type;
+
+		/** Currency of the balance */
+		public final Currency currency;
+
+		/** Amount added to the balance in minor units, negative if taken from it */
+		public final long amount;
+
+		/** Balance after the operation, in minor units */
+		public final long balance;
+
+		/** Other account of a transfer, null otherwise */
+		public final String counterpartyID;
+
+		Entry(long seq, long time, long meta, long amount, long balance, long counterparty) {
+			this.seq = seq;
+			this.time = time;
+			this.type = Transaction.Type.values()[(int)(meta >> 8)];
+			this.currency = Currency.values()[(int)(meta & 0xFF)];
+			this.amount = amount;
+			this.balance = balance;
+			this.counterpartyID = counterparty == 0 ? null : AccountIndex.id(counterparty);
+		}
+
+		@Override
+		public String toString() {
+			return seq + " " + time + " " + type + " " + currency + "=" + Money.format(amount, currency)
+					+ " balance=" + Money.format(balance, currency) + (counterpartyID == null ? "" : " " + counterpartyID);
+		}
+	}
+
+	/** One page of entries, newest first, and where the next page starts */
+	public static class Page {
+		/** Entries of the page, newest first */
+		public final List<Entry> entries = new ArrayList<Entry>();
+
+		final String accountID;
+		final long from;
+		final long to;
+
+		/** Highest seq of the next page, -1 if none */
+		long nextSeq;
+
+		/** Position of the spilled record with seq nextSeq if known, NONE otherwise */
+		long nextPosition = NONE;
+
+		Page(String accountID, long from, long to, long nextSeq) {
+			this.accountID = accountID;
+			this.from = from;
+			this.to = to;
+			this.nextSeq = nextSeq;
+		}
+
+		/** Returns true if older entries may follow
+		 * @return boolean
+		 */
+		public boolean hasMore() {
+			return nextSeq >= 0;
+		}
+	}
+
+	/** The entries of one account in memory and the chain of its spilled ones */
+	private static class Ring {
+		/** Entries, the one of seq s at (s % capacity) * STRIDE */
+		final long[] data;
+
+		/** Number of entries ever recorded, the seq of the next one */
+		long count;
+
+		/** Number of entries in data */
+		int size;
+
+		/** Position of the newest spilled record */
+		long head = NONE;
+
+		/** Time of the newest entry, so times never go back within an account */
+		long lastTime;
+
+		Ring(int capacity) {
+			data = new long[capacity * STRIDE];
+		}
+	}
+
+	/** Directory of the segments and the index */
+	private final File directory;
+
+	/** Entries kept in memory per account */
+	private final int perAccount;
+
+	/** Time of the entries */
+	private final Clock clock;
+
+	/** Rings by account key */
+	private final ConcurrentHashMap<Long, Ring> rings = new ConcurrentHashMap<Long, Ring>();
+
+	/** Spilled records not written yet, guarded by itself */
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+	/** Segment being appended to, guarded by buffer */
+	private FileChannel segment;
+
+	/** Position of the next spilled record, guarded by buffer */
+	private long end;
+
+	/** Segments open for reading, by number */
+	private final ConcurrentHashMap<Long, FileChannel> readers = new ConcurrentHashMap<Long, FileChannel>();
+
+	/** First failure to write, reported by the next read or close, guarded by buffer */
+	private IOException failure;
+
+	/** Number of entries lost since that failure, guarded by buffer */
+	private long dropped;
+
+	/** Constructor
+	 * @param directory
+	 * @param perAccount entries kept in memory per account
+	 * @param clock
+	 */
+	History(File directory, int perAccount, Clock clock) {
+		if(perAccount < 1)
+			throw new IllegalArgumentException("At least one entry per account must be kept in memory.");
+		this.directory = directory;
+		this.perAccount = perAccount;
+		this.clock = clock;
+	}
+
+	/** Opens the history kept in a directory
+	 * @param directory
+	 * @param perAccount entries kept in memory per account
+	 * @return History
+	 * @throws IOException if the index cannot be read
+	 */
+	public static History open(File directory, int perAccount) throws IOException {
+		History history = new History(directory, perAccount, Clock.systemUTC());
+		history.readIndex();
+		return history;
+	}
+
+	/** Records an operation on a balance. Callers hold the account's lock or, for a hot account,
+	 * one of its cells: operations on different cells record concurrently, the ring's lock
+	 * numbering their entries in the order they are recorded, see HotBalances
+	 * @param acc
+	 * @param type
+	 * @param currency
+	 * @param amount added to the balance, negative if taken from it
+	 * @param balance after the operation
+	 * @param counterpartyID other account of a transfer, null otherwise
+	 * @return void
+	 */
+	void record(Account acc, Transaction.Type type, Currency currency, long amount, long balance, String counterpartyID) {
+		long key = acc.key();
+		Ring ring = rings.get(key);
+		if(ring == null) {
+			Ring created = new Ring(perAccount);
+			ring = rings.putIfAbsent(key, created);
+			if(ring == null)
+				ring = created;
+		}
+
+		synchronized(ring) {
+			if(ring.size == perAccount) {
+				int batch = Math.max(1, perAccount / 2);
+				spill(key, ring, batch);
+				ring.size -= batch;
+			}
+			long time = Math.max(clock.millis(), ring.lastTime);
+			int i = (int)(ring.count % perAccount) * STRIDE;
+			ring.data[i] = time;
+			ring.data[i + 1] = (long)type.ordinal() << 8 | currency.ordinal();
+			ring.data[i + 2] = amount;
+			ring.data[i + 3] = balance;
+			ring.data[i + 4] = counterpartyID == null ? 0 : AccountIndex.key(counterpartyID);
+			ring.lastTime = time;
+			ring.count++;
+			ring.size++;
+		}
+	}
+
+	/** Forgets the history of a deleted account. Its spilled records stay in the segments
+	 * @param accountID
+	 * @return void
+	 */
+	void remove(String accountID) {
+		rings.remove(AccountIndex.key(accountID));
+	}
+
+	/** Returns the newest entries of an account between two times
+	 * @param accountID
+	 * @param from oldest time, inclusive
+	 * @param to newest time, inclusive
+	 * @param limit largest number of entries
+	 * @return Page
+	 * @throws IOException if spilled records cannot be read
+	 */
+	public Page page(String accountID, long from, long to, int limit) throws IOException {
+		return page(new Page(accountID, from, to, Long.MAX_VALUE), limit);
+	}
+
+	/** Returns the entries following a page
+	 * @param previous
+	 * @param limit largest number of entries
+	 * @return Page empty if previous has no more entries
+	 * @throws IOException if spilled records cannot be read
+	 */
+	public Page next(Page previous, int limit) throws IOException {
+		Page page = new Page(previous.accountID, previous.from, previous.to, previous.nextSeq);
+		page.nextPosition = previous.nextPosition;
+		return page(page, limit);
+	}
+
+	/** Fills a page from the ring, then from the chain of spilled records
+	 * @param page nextSeq and nextPosition tell where to start
+	 * @param limit
+	 * @return Page
+	 * @throws IOException
+	 */
+	private Page page(Page page, int limit) throws IOException {
+		long start = page.nextSeq;
+		long hint = page.nextPosition;
+		page.nextSeq = -1;
+		page.nextPosition = NONE;
+		Ring ring = rings.get(AccountIndex.key(page.accountID));
+		if(ring == null || start < 0)
+			return page;
+
+		long position;
+		long seq;
+		synchronized(ring) {
+			seq = Math.min(start, ring.count - 1);
+			long oldest = ring.count - ring.size;
+			for(; seq >= oldest; seq--) {
+				int i = (int)(seq % perAccount) * STRIDE;
+				long time = ring.data[i];
+				if(time < page.from)
+					return page;
+				if(time > page.to)
+					continue;
+				if(page.entries.size() == limit) {
+					page.nextSeq = seq;
+					return page;
+				}
+				page.entries.add(new Entry(seq, time, ring.data[i + 1], ring.data[i + 2], ring.data[i + 3], ring.data[i + 4]));
+			}
+			//The record the previous page stopped at, unless the page started in the ring
+			position = hint != NONE && start <= seq ? hint : ring.head;
+		}
+
+		flush();
+		ByteBuffer record = ByteBuffer.allocate(RECORD);
+		while(position != NONE) {
+			read(position, record);
+			long recordSeq = record.getLong(8);
+			long time = record.getLong(16);
+			long previous = record.getLong(56);
+			if(recordSeq > seq) {
+				//Spilled after the previous page was read
+				position = previous;
+				continue;
+			}
+			if(time < page.from)
+				return page;
+			if(time <= page.to) {
+				if(page.entries.size() == limit) {
+					page.nextSeq = recordSeq;
+					page.nextPosition = position;
+					return page;
+				}
+				page.entries.add(new Entry(recordSeq, time, record.getLong(24), record.getLong(32), record.getLong(40), record.getLong(48)));
+			}
+			position = previous;
+		}
+		return page;
+	}
+
+	/** Writes the oldest entries of a ring to the segments, oldest first. Callers hold the ring's lock
+	 * and remove the entries from the ring, written or dropped
+	 * @param key
+	 * @param ring
+	 * @param count number of entries, at most the size of the ring
+	 * @return void
+	 */
+	private void spill(long key, Ring ring, int count) {
+		long seq = ring.count - ring.size;
+		long last = seq + count;
+		synchronized(buffer) {
+			try {
+				for(; seq < last && failure == null; seq++) {
+					if(segment == null || end % SEGMENT_BYTES == 0) {
+						flushLocked();
+						if(segment != null)
+							segment.close();
+						segment = new FileOutputStream(segmentFile(end / SEGMENT_BYTES), true).getChannel();
+					}
+					if(buffer.remaining() < RECORD)
+						flushLocked();
+					int i = (int)(seq % perAccount) * STRIDE;
+					buffer.putLong(key).putLong(seq);
+					for(int f = 0; f < STRIDE; f++)
+						buffer.putLong(ring.data[i + f]);
+					buffer.putLong(ring.head);
+					ring.head = end;
+					end += RECORD;
+				}
+			}
+			catch(IOException e) {
+				failure = e;
+			}
+			//Nothing more is written once the segments failed, the chain would be broken
+			dropped += last - seq;
+		}
+	}
+
+	/** Number of entries lost because the segments could not be written,
+	 * reported along with the failure by the next read or close
+	 * @return long
+	 */
+	public long dropped() {
+		synchronized(buffer) {
+			return dropped;
+		}
+	}
+
+	/** Writes the spilled records still in the buffer
+	 * @return void
+	 * @throws IOException if a spill or this write failed
+	 */
+	private void flush() throws IOException {
+		synchronized(buffer) {
+			if(failure == null) {
+				try {
+					flushLocked();
+				}
+				catch(IOException e) {
+					failure = e;
+				}
+			}
+			if(failure != null)
+				throw new IOException("Unable to write the history, " + dropped + " entries dropped.", failure);
+		}
+	}
+
+	/** Writes the buffer to the current segment. Callers hold the buffer's lock
+	 * @return void
+	 * @throws IOException
+	 */
+	private void flushLocked() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			segment.write(buffer);
+		buffer.clear();
+	}
+
+	/** Reads the record at a position
+	 * @param position
+	 * @param record
+	 * @return void
+	 * @throws IOException
+	 */
+	private void read(long position, ByteBuffer record) throws IOException {
+		long number = position / SEGMENT_BYTES;
+		FileChannel channel = readers.get(number);
+		if(channel == null) {
+			FileChannel opened = new RandomAccessFile(segmentFile(number), "r").getChannel();
+			channel = readers.putIfAbsent(number, opened);
+			if(channel == null)
+				channel = opened;
+			else
+				opened.close();
+		}
+		record.clear();
+		long offset = position % SEGMENT_BYTES;
+		while(record.hasRemaining())
+			if(channel.read(record, offset + record.position()) < 0)
+				throw new EOFException("History record " + position + " is missing.");
+	}
+
+	private File segmentFile(long number) {
+		return new File(directory, "history-" + number + ".log");
+	}
+
+	/** Spills every ring and writes the index of the chains.
+	 * No operation may be recorded meanwhile
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			for(Map.Entry<Long, Ring> e : rings.entrySet()) {
+				Ring ring = e.getValue();
+				synchronized(ring) {
+					spill(e.getKey(), ring, ring.size);
+					ring.size = 0;
+				}
+			}
+			flush();
+			if(segment != null)
+				segment.force(false);
+			writeIndex();
+		}
+		finally {
+			if(segment != null)
+				segment.close();
+			for(FileChannel channel : readers.values())
+				channel.close();
+		}
+	}
+
+	/** Writes the key, count, head and last time of every ring,
+	 * replacing the index through an AtomicFile
+	 * @return void
+	 * @throws IOException
+	 */
+	private void writeIndex() throws IOException {
+		AtomicFile.write(new File(directory, INDEX), new AtomicFile.Content<Void>() {
+			public Void write(FileChannel channel) throws IOException {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+				out.writeLong(end);
+				out.writeInt(rings.size());
+				for(Map.Entry<Long, Ring> e : rings.entrySet()) {
+					out.writeLong(e.getKey());
+					out.writeLong(e.getValue().count);
+					out.writeLong(e.getValue().head);
+					out.writeLong(e.getValue().lastTime);
+				}
+				out.flush();
+				return null;
+			}
+		});
+	}
+
+	/** Reads the index written by close(), if any. Segments written after it, by a run
+	 * that did not close, are cut back to where the index ends
+	 * @return void
+	 * @throws IOException
+	 */
+	private void readIndex() throws IOException {
+		File index = new File(directory, INDEX);
+		if(!index.exists()) {
+			//Left by a run that never closed, nothing points to them
+			for(long n = 0; segmentFile(n).exists(); n++)
+				segmentFile(n).delete();
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index), 1 << 16));
+		try {
+			end = in.readLong();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				long key = in.readLong();
+				Ring ring = new Ring(perAccount);
+				ring.count = in.readLong();
+				ring.head = in.readLong();
+				ring.lastTime = in.readLong();
+				rings.put(key, ring);
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		//Appending goes on at the end of the index, dropping what an unclosed run wrote after it
+		File last = segmentFile(end / SEGMENT_BYTES);
+		if(last.length() > end % SEGMENT_BYTES) {
+			RandomAccessFile file = new RandomAccessFile(last, "rw");
+			try {
+				file.setLength(end % SEGMENT_BYTES);
+			}
+			finally {
+				file.close();
+			}
+		}
+		for(long n = end / SEGMENT_BYTES + 1; segmentFile(n).exists(); n++)
+			segmentFile(n).delete();
+	}
+}
@@ -0,0 +1,181 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.time.*;
+import java.util.*;
+
+/** Tests the per-account History: rings, spilled records and paging
+ * @author JosephKalash
+ *
+ */
+
+public class HistoryTest {
+
+	/** Entries kept in memory per account, small so that most are spilled */
+	private static final int PER_ACCOUNT = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	/** Time of the next entry, moved forward by the tests */
+	private long now = 1000;
+
+	private final Clock clock = new Clock() {
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+		public Instant instant() {
+			return Instant.ofEpochMilli(now);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+	}
+
+	/** Creates 123 with 100 USD and 456 with 0 USD, then deposits 1 to 20 USD cents in 123 one millisecond apart */
+	private Bank populate(History history) {
+		Bank bank = new Bank();
+		bank.setHistory(history);
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 10000)));
+		bank.createAccount("456", "Jane", "Roe", Collections.singletonList(new Balance(Currency.USD, 0)));
+		for(int i = 1; i <= 20; i++) {
+			now++;
+			assertTrue(bank.deposit("123", Currency.USD, i).isSuccess());
+		}
+		return bank;
+	}
+
+	/** Pages of 3 go through the ring then the spilled records, newest first, each entry once */
+	@Test
+	public void testPagesCoverEveryEntry() throws IOException {
+		History history = new History(directory, PER_ACCOUNT, clock);
+		populate(history);
+
+		List<History.Entry> all = new ArrayList<History.Entry>();
+		History.Page page = history.page("123", Long.MIN_VALUE, Long.MAX_VALUE, 3);
+		all.addAll(page.entries);
+		while(page.hasMore()) {
+			page = history.next(page, 3);
+			assertTrue(page.entries.size() <= 3);
+			all.addAll(page.entries);
+		}
+		assertEquals(21, all.size());
+		for(int i = 0; i < 20; i++) {
+			History.Entry e = all.get(i);
+			assertEquals(20 - i, e.seq);
+			assertEquals(Transaction.Type.DEPOSIT, e.type);
+			assertEquals(20 - i, e.amount);
+		}
+		assertEquals(Transaction.Type.CREATE_ACCOUNT, all.get(20).type);
+		assertEquals(10000, all.get(20).balance);
+		assertEquals(10000 + 210, all.get(0).balance);
+		history.close();
+	}
+
+	@Test
+	public void testTimeRange() throws IOException {
+		History history = new History(directory, PER_ACCOUNT, clock);
+		populate(history);
+
+		//Deposits 5 to 8 were made at 1005 to 1008
+		History.Page page = history.page("123", 1005, 1008, 100);
+		assertEquals(4, page.entries.size());
+		assertEquals(8, page.entries.get(0).amount);
+		assertEquals(5, page.entries.get(3).amount);
+		assertFalse(page.hasMore());
+		history.close();
+	}
+
+	@Test
+	public void testTransfers() throws IOException {
+		History history = new History(directory, PER_ACCOUNT, clock);
+		Bank bank = populate(history);
+		assertTrue(bank.transfer("123", "456", Currency.USD, 300).isSuccess());
+		assertTrue(bank.withdraw("456", Currency.USD, 100).isSuccess());
+
+		List<History.Entry> entries = history.page("456", Long.MIN_VALUE, Long.MAX_VALUE, 10).entries;
+		assertEquals(3, entries.size());
+		assertEquals(-100, entries.get(0).amount);
+		assertEquals(200, entries.get(0).balance);
+		assertEquals(300, entries.get(1).amount);
+		assertEquals("123", entries.get(1).counterpartyID);
+
+		History.Entry sent = history.page("123", Long.MIN_VALUE, Long.MAX_VALUE, 1).entries.get(0);
+		assertEquals(Transaction.Type.TRANSFER, sent.type);
+		assertEquals(-300, sent.amount);
+		assertEquals("456", sent.counterpartyID);
+		history.close();
+	}
+
+	/** Entries recorded between two pages do not shift the next page */
+	@Test
+	public void testPagingWhileRecording() throws IOException {
+		History history = new History(directory, PER_ACCOUNT, clock);
+		Bank bank = populate(history);
+
+		History.Page page = history.page("123", Long.MIN_VALUE, Long.MAX_VALUE, 5);
+		assertEquals(16, page.entries.get(4).seq);
+		for(int i = 0; i < 10; i++)
+			bank.deposit("123", Currency.USD, 1000);
+		page = history.next(page, 5);
+		assertEquals(15, page.entries.get(0).seq);
+		assertEquals(11, page.entries.get(4).seq);
+		history.close();
+	}
+
+	/** Closing spills everything, reopening reads the chains back and goes on appending */
+	@Test
+	public void testReopen() throws IOException {
+		History history = new History(directory, PER_ACCOUNT, clock);
+		Bank bank = populate(history);
+		history.close();
+
+		history = History.open(directory, PER_ACCOUNT);
+		bank.setHistory(history);
+		bank.deposit("123", Currency.USD, 1000);
+		List<History.Entry> entries = history.page("123", Long.MIN_VALUE, Long.MAX_VALUE, 100).entries;
+		assertEquals(22, entries.size());
+		assertEquals(21, entries.get(0).seq);
+		assertEquals(20, entries.get(1).amount);
+		assertEquals(0, entries.get(21).seq);
+		history.close();
+	}
+
+	/** Entries that cannot be spilled are counted and reported by the next read */
+	@Test
+	public void testWriteFailure() throws IOException {
+		File gone = folder.newFolder();
+		History history = new History(gone, PER_ACCOUNT, clock);
+		assertTrue(gone.delete());
+		populate(history);
+		//Rings of 4 spill 2 entries at a time: all but the last 3 of the 21 entries of 123
+		assertEquals(18, history.dropped());
+		try {
+			history.page("123", Long.MIN_VALUE, Long.MAX_VALUE, 10);
+			fail();
+		}
+		catch(IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("18 entries dropped"));
+		}
+	}
+
+	/** Deleting the account forgets its history */
+	@Test
+	public void testDeletedAccount() throws IOException {
+		History history = new History(directory, PER_ACCOUNT, clock);
+		Bank bank = populate(history);
+		assertTrue(bank.deleteAccountID("123").isSuccess());
+		assertTrue(history.page("123", Long.MIN_VALUE, Long.MAX_VALUE, 10).entries.isEmpty());
+		history.close();
+	}
+}
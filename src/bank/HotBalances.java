@@ -0,0 +1,182 @@
+package bank;
+
+/** HotBalances class splits the balances of a hot account, one taking part in a large share
+ * of the operations such as a payroll source or a big merchant, so concurrent operations
+ * on it do not all wait for its lock, see Bank.setHot().
+ *
+ * Every balance is its amount in the Account, the base, plus the amounts of a few cells,
+ * each locked on its own. A thread always uses the same cell:
+ *
+ * 		1. A credit adds to the cell of the thread, without locking the account
+ * 		2. A debit takes from the cell of the thread if it holds enough. Otherwise the account
+ * 		   is locked and every cell is folded into the base, which then pays the debit if it can
+ * 		   and hands a share of what is left to the cell, for the next debits of the thread.
+ * 		   No cell nor base ever goes negative, so neither does the balance:
+ * 		   a debit is never paid by money another thread is taking meanwhile
+ * 		3. An operation is journaled while it holds the cell or the account lock it changed,
+ * 		   so the journal of every cell is in the order the cell saw. Replayed in one balance,
+ * 		   a debit always finds at least what its cell held
+ *
+ * Every cell is a long array padded on both sides, so no two cells share a cache line,
+ * and the array is its own lock. Moving amounts between the base and the cells, as fold(),
+ * refill() and drain() do under the account lock, locks every cell first, lowest index first.
+ * A thread holding any one cell, or the account lock, thus never sees a move half done:
+ * the sum of a balance it reads counts every amount once, and may only miss an operation
+ * running meanwhile on another cell, as with a LongAdder.
+ *
+ * @author JosephKalash
+ *
+ */
+
+final class HotBalances {
+
+	/** Longs on each side of the amounts of a cell: a cache line */
+	private static final int PAD = 8;
+
+	/** Cells, a power of two. Each holds the amounts of every currency from PAD */
+	private final long[][] cells;
+
+	/** Amounts moved between the base and the cells once every cell is locked, see locked() */
+	private abstract static class Move {
+		/** Moves the amounts
+		 * @return long what the move returns, if anything
+		 */
+		abstract long apply();
+	}
+
+	/** Constructor
+	 * @param count number of cells, rounded up to a power of two
+	 */
+	HotBalances(int count) {
+		int n = count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+		cells = new long[n][];
+		for(int i = 0; i < n; i++)
+			cells[i] = new long[PAD + Account.CURRENCIES + PAD];
+	}
+
+	/** Returns the number of cells
+	 * @return int
+	 */
+	int size() {
+		return cells.length;
+	}
+
+	/** Returns the cell of the current thread, locked by synchronizing on it
+	 * @return long[]
+	 */
+	long[] cell() {
+		long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return cells[(int)(id >>> 32) & (cells.length - 1)];
+	}
+
+	/** Returns the index of the amount of a currency in a cell
+	 * @param currency
+	 * @return int
+	 */
+	static int slot(Currency currency) {
+		return PAD + currency.ordinal();
+	}
+
+	/** Returns the sum of a balance, for the results and history of operations. Callers hold
+	 * the account's lock or one of the cells, so no amount is moved meanwhile: the sum may only miss
+	 * operations running on the other cells, whose amounts are read without locking them
+	 * @param acc
+	 * @param currency
+	 * @return long
+	 */
+	long sum(Account acc, Currency currency) {
+		int s = slot(currency);
+		long sum = acc.amounts[currency.ordinal()];
+		for(long[] cell : cells)
+			sum += cell[s];
+		return sum;
+	}
+
+	/** Returns true if a credit may go to a cell without the sum of the balance overflowing.
+	 * Callers hold that cell. The sum read may miss one operation running on each other cell, so credits are kept
+	 * to a quarter of the range over all cells, and the sum to half of it: the balance
+	 * then stays below three quarters of the range. Larger ones take the account lock
+	 * @param acc
+	 * @param currency
+	 * @param amount
+	 * @return boolean
+	 */
+	boolean fits(Account acc, Currency currency, long amount) {
+		return amount <= Long.MAX_VALUE / 4 / cells.length && sum(acc, currency) <= Long.MAX_VALUE / 2;
+	}
+
+	/** Moves the amounts of every cell into the base.
+	 * Callers hold the account's lock, and must have marked it dirty: the base changes
+	 * @param acc
+	 * @return void
+	 */
+	void fold(final Account acc) {
+		locked(0, new Move() {
+			long apply() {
+				for(long[] cell : cells)
+					for(int c = 0; c < Account.CURRENCIES; c++) {
+						long amount = cell[PAD + c];
+						if(amount != 0) {
+							acc.amounts[c] = Money.add(acc.amounts[c], amount);
+							cell[PAD + c] = 0;
+						}
+					}
+				return 0;
+			}
+		});
+	}
+
+	/** Moves a share of the base to the cell of the current thread, so its next debits
+	 * need not lock the account. The balance is unchanged, and nothing goes negative.
+	 * Callers hold the account's lock, and must have marked it dirty
+	 * @param acc
+	 * @param currency
+	 * @return void
+	 */
+	void refill(final Account acc, final Currency currency) {
+		final int c = currency.ordinal();
+		if(acc.amounts[c] / cells.length > 0)
+			locked(0, new Move() {
+				long apply() {
+					long share = acc.amounts[c] / cells.length;
+					cell()[slot(currency)] += share;
+					acc.amounts[c] -= share;
+					return 0;
+				}
+			});
+	}
+
+	/** Empties the cells of a currency and returns what they held.
+	 * Callers hold the account's lock and closed the balance first, so no operation
+	 * adds to a cell once it was emptied
+	 * @param currency
+	 * @return long
+	 */
+	long drain(Currency currency) {
+		final int s = slot(currency);
+		return locked(0, new Move() {
+			long apply() {
+				long sum = 0;
+				for(long[] cell : cells) {
+					sum = Money.add(sum, cell[s]);
+					cell[s] = 0;
+				}
+				return sum;
+			}
+		});
+	}
+
+	/** Applies a move once the cells from the given index on are locked, lowest index first.
+	 * Callers hold the account's lock and the cells below that index
+	 * @param i
+	 * @param move
+	 * @return long what the move returns
+	 */
+	private long locked(int i, Move move) {
+		if(i == cells.length)
+			return move.apply();
+		synchronized(cells[i]) {
+			return locked(i + 1, move);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package bank;
+
+import static org.junit.Assert.*;
+import static bank.TestBanks.id;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/** Tests hot accounts split into HotBalances: no money made nor lost, no overdraft,
+ * and the journal and checkpoints still recover the exact balances
+ * @author JosephKalash
+ *
+ */
+
+public class HotBalancesTest {
+
+	private static final int ACCOUNTS = 100;
+	private static final int THREADS = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Bank bank(long balance) {
+		Bank bank = new Bank();
+		for(int i = 0; i < ACCOUNTS; i++)
+			assertTrue(bank.createAccount(id(i), "First", "Last", Arrays.asList(new Balance(Currency.USD, balance),
+					new Balance(Currency.EUR, balance))).isSuccess());
+		return bank;
+	}
+
+	/** Sums a currency over every account, the exact balances of the hot ones */
+	private static long total(Bank bank, Currency currency) {
+		long sum = 0;
+		for(int i = 0; i < ACCOUNTS; i++)
+			sum += bank.balanceInquiry(id(i), currency).balance;
+		return sum;
+	}
+
+	/** Runs a task on several threads at once */
+	private static void concurrently(final Runnable task) throws InterruptedException {
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(task);
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+	}
+
+	@Test
+	public void testCells() {
+		assertEquals(1, new HotBalances(0).size());
+		assertEquals(4, new HotBalances(3).size());
+		assertEquals(8, new HotBalances(8).size());
+
+		Bank bank = bank(1000);
+		Account acc = bank.findAccount(id(0));
+		HotBalances hot = new HotBalances(4);
+		hot.cell()[HotBalances.slot(Currency.USD)] += 500;
+		assertEquals(1500, hot.sum(acc, Currency.USD));
+		assertEquals(1000, hot.sum(acc, Currency.EUR));
+		assertTrue(hot.fits(acc, Currency.USD, 1));
+		assertFalse(hot.fits(acc, Currency.USD, Long.MAX_VALUE / 2));
+		hot.fold(acc);
+		assertEquals(1500, acc.amounts[Currency.USD.ordinal()]);
+		assertEquals(1500, hot.sum(acc, Currency.USD));
+		hot.cell()[HotBalances.slot(Currency.EUR)] += 7;
+		assertEquals(7, hot.drain(Currency.EUR));
+		assertEquals(1000, hot.sum(acc, Currency.EUR));
+	}
+
+	/** Many threads withdrawing from one hot account never take more than it holds */
+	@Test
+	public void testNoOverdraft() throws InterruptedException {
+		final Bank bank = bank(1000);
+		assertTrue(bank.setHot(id(0), THREADS));
+		final AtomicInteger ok = new AtomicInteger(), insufficient = new AtomicInteger();
+		concurrently(new Runnable() {
+			public void run() {
+				for(int i = 0; i < 400; i++) {
+					TransactionResult r = i % 2 == 0 ? bank.withdraw(id(0), Currency.USD, 3)
+							: bank.transfer(id(0), id(1 + i % (ACCOUNTS - 1)), Currency.USD, 3);
+					if(r.isSuccess())
+						ok.incrementAndGet();
+					else {
+						assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS, r.status);
+						insufficient.incrementAndGet();
+					}
+					assertTrue(r.balance >= 0);
+				}
+			}
+		});
+		assertEquals(333, ok.get());
+		assertEquals(THREADS * 400 - 333, insufficient.get());
+		assertEquals(1, bank.balanceInquiry(id(0), Currency.USD).balance);
+	}
+
+	/** Transfers between hot and plain accounts, deposits and withdrawals conserve every currency */
+	@Test
+	public void testConcurrentTransfers() throws InterruptedException {
+		final Bank bank = bank(100000);
+		assertTrue(bank.setHot(id(0), 4));
+		assertTrue(bank.setHot(id(1), 4));
+		final AtomicLong deposited = new AtomicLong(), withdrawn = new AtomicLong();
+		final AtomicInteger seed = new AtomicInteger();
+		concurrently(new Runnable() {
+			public void run() {
+				Random random = new Random(seed.incrementAndGet());
+				for(int i = 0; i < 20000; i++) {
+					//Nine in ten touch one of the hot accounts
+					String a = id(random.nextInt(10) == 0 ? 2 + random.nextInt(ACCOUNTS - 2) : random.nextInt(2));
+					String b = id(random.nextInt(ACCOUNTS));
+					long amount = 1 + random.nextInt(1000);
+					switch(random.nextInt(5)) {
+						case 0:
+							if(bank.deposit(a, Currency.USD, amount).isSuccess())
+								deposited.addAndGet(amount);
+							break;
+						case 1:
+							if(bank.withdraw(a, Currency.USD, amount).isSuccess())
+								withdrawn.addAndGet(amount);
+							break;
+						case 2:
+							bank.transfer(b, a, Currency.USD, amount);
+							break;
+						case 3:
+							bank.transfer(a, b, Currency.EUR, amount);
+							break;
+						default:
+							bank.transfer(a, b, Currency.USD, amount);
+					}
+				}
+			}
+		});
+		assertEquals(ACCOUNTS * 100000L + deposited.get() - withdrawn.get(), total(bank, Currency.USD));
+		assertEquals(ACCOUNTS * 100000L, total(bank, Currency.EUR));
+		for(int i = 0; i < ACCOUNTS; i++)
+			assertTrue(bank.findAccount(id(i)).amounts[Currency.USD.ordinal()] >= 0);
+	}
+
+	/** Checkpoints taken while hot accounts change, with the journal on top, recover the exact balances */
+	@Test
+	public void testRecovery() throws Exception {
+		File directory = folder.newFolder();
+		final BankStore store = new BankStore(directory, Journal.SyncPolicy.GROUP, 1, 0);
+		for(int i = 0; i < ACCOUNTS; i++)
+			assertTrue(store.bank.createAccount(id(i), "First", "Last",
+					Collections.singletonList(new Balance(Currency.USD, 100000))).isSuccess());
+		assertTrue(store.bank.setHot(id(0), 4));
+		store.snapshot();
+
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicInteger seed = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					Random random = new Random(seed.incrementAndGet());
+					while(!stop.get()) {
+						String other = id(1 + random.nextInt(ACCOUNTS - 1));
+						if(random.nextBoolean())
+							store.bank.transfer(id(0), other, Currency.USD, 1 + random.nextInt(1000));
+						else
+							store.bank.transfer(other, id(0), Currency.USD, 1 + random.nextInt(1000));
+						store.bank.withdraw(id(0), Currency.USD, 1 + random.nextInt(100));
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(int i = 0; i < 50; i++) {
+			store.snapshot();
+			Thread.sleep(1);
+		}
+		stop.set(true);
+		for(Thread t : threads)
+			t.join();
+
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.GROUP, 1, 0).bank;
+		for(int i = 0; i < ACCOUNTS; i++)
+			assertEquals(id(i), store.bank.balanceInquiry(id(i), Currency.USD).balance,
+					recovered.balanceInquiry(id(i), Currency.USD).balance);
+	}
+
+	/** Operations on different cells record their history concurrently: every entry gets its own seq,
+	 * and the balances recorded while cells are folded and refilled count every amount once */
+	@Test
+	public void testHistory() throws Exception {
+		final Bank bank = bank(1000);
+		History history = History.open(folder.newFolder(), 16);
+		bank.setHistory(history);
+		assertTrue(bank.setHot(id(0), THREADS));
+		final AtomicInteger deposits = new AtomicInteger(), withdrawals = new AtomicInteger();
+		concurrently(new Runnable() {
+			public void run() {
+				for(int i = 0; i < 500; i++) {
+					if(i % 3 == 0 && bank.withdraw(id(0), Currency.USD, 10).isSuccess())
+						withdrawals.incrementAndGet();
+					else if(i % 3 != 0 && bank.deposit(id(0), Currency.USD, 10).isSuccess())
+						deposits.incrementAndGet();
+				}
+			}
+		});
+		long most = 1000 + 10L * deposits.get();
+		assertEquals(most - 10L * withdrawals.get(), bank.balanceInquiry(id(0), Currency.USD).balance);
+
+		List<History.Entry> entries = history.page(id(0), Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE).entries;
+		int operations = deposits.get() + withdrawals.get();
+		//Newest first, the accounts were opened before the history was set
+		assertEquals(operations, entries.size());
+		for(int i = 0; i < entries.size(); i++) {
+			History.Entry e = entries.get(i);
+			assertEquals(entries.size() - 1 - i, e.seq);
+			if(e.currency == Currency.USD)
+				assertTrue(e.toString(), e.balance >= 0 && e.balance <= most);
+		}
+		history.close();
+	}
+
+	/** Operations that read the balances from the account fold the cells first */
+	@Test
+	public void testFolding() {
+		Bank bank = bank(1000);
+		assertFalse(bank.setHot("999", 4));
+		assertTrue(bank.setHot(id(0), 4));
+		assertTrue(bank.deposit(id(0), Currency.EUR, 500).isSuccess());
+		assertEquals(1000, bank.findAccount(id(0)).amounts[Currency.EUR.ordinal()]);
+		assertEquals(1500, bank.balanceInquiry(id(0), Currency.EUR).balance);
+		assertEquals(1500, bank.findAccount(id(0)).amounts[Currency.EUR.ordinal()]);
+
+		assertTrue(bank.deposit(id(0), Currency.EUR, 200).isSuccess());
+		TransactionResult deleted = bank.deleteAccountBalance(id(0), Currency.EUR);
+		assertEquals(1700, deleted.balance);
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, bank.deposit(id(0), Currency.EUR, 1).status);
+
+		assertTrue(bank.deposit(id(0), Currency.USD, 1).isSuccess());
+		assertTrue(bank.setHot(id(0), 0));
+		assertNull(bank.findAccount(id(0)).hot);
+		assertEquals(1001, bank.findAccount(id(0)).amounts[Currency.USD.ordinal()]);
+	}
+
+	@Test
+	public void testExclusive() {
+		Bank bank = bank(1000);
+		assertTrue(bank.setHot(id(0), 4));
+		try {
+			bank.enableAggregates();
+			fail();
+		}
+		catch(IllegalStateException e) {
+		}
+		try {
+			bank.enableSearch();
+			fail();
+		}
+		catch(IllegalStateException e) {
+		}
+		bank.setHot(id(0), 0);
+		bank.enableSearch();
+		try {
+			bank.setHot(id(0), 4);
+			fail();
+		}
+		catch(IllegalStateException e) {
+		}
+	}
+}
@@ -0,0 +1,500 @@
+package bank;
+
+import java.time.Clock;
+import java.util.*;
+
+/** IdempotencyCache class remembers the result of every transaction carrying an
+ * idempotency key, see Transaction.withKey(), so a client retrying a transaction
+ * gets the original result back instead of moving the money twice.
+ *
+ * It keeps at most capacity keys, each one for ttl milliseconds after it was added.
+ * The keys are spread over stripes, each one locked on its own and made of:
+ *
+ * 		1. A ring of entries in the order they were added, in one array of longs:
+ * 		   key, time, fingerprint and result, journal sequence, amount, balance.
+ * 		   An entry costs no object and sits in one or two cache lines,
+ * 		   and dropping the oldest one, once expired or full, costs O(1)
+ * 		2. An open addressing table of the ring positions by key, with linear probing
+ *
+ * A result is stored as its status, currency, amount, balance and whether it is about
+ * the sender or the receiver, and rebuilt from the transaction retried. A retry is matched
+ * with the original by a fingerprint of every field but toAmount, which depends on the rates
+ * at the time: a key reused for another transaction gets KEY_REUSED.
+ *
+ * A key is added pending before its transaction runs, so a concurrent retry waits for the result
+ * instead of running it again. The Bank completes it while the accounts are still locked,
+ * as it journals the transaction, so a checkpoint holds the keys of exactly the transactions it contains.
+ * The keys of journaled transactions are written in snapshots and deltas, see SnapshotFormat,
+ * and the journal replay adds those applied since: a restart rebuilds the cache as it was.
+ * Failed transactions changed nothing and are not journaled, they run again when retried after a restart.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class IdempotencyCache {
+
+	/** Keys kept when no capacity is given */
+	public static final int DEFAULT_CAPACITY = 1 << 22;
+
+	/** Time a key is kept when none is given: one day */
+	public static final long DEFAULT_TTL_MILLIS = 24L * 60 * 60 * 1000;
+
+	/** Largest number of stripes */
+	private static final int MAX_STRIPES = 64;
+
+	/** Keys per stripe below which fewer stripes are used */
+	private static final int MIN_STRIPE_CAPACITY = 1024;
+
+	/** Entries of a stripe before it first grows */
+	private static final int INITIAL_ENTRIES = 16;
+
+	/** Longs per entry in a ring: key, time, fingerprint and result, journal sequence, amount, balance */
+	private static final int STRIDE = 6;
+
+	/** Bits of a stored result: status ordinal in the low byte, currency ordinal + 1 (0 if none) in the next one */
+	private static final int CURRENCY_SHIFT = 8;
+
+	/** Bit of a stored result set when it is about the receiver of a transfer */
+	private static final int RECEIVER = 1 << 16;
+
+	/** Bit of a stored result set while its transaction runs */
+	private static final int PENDING = 1 << 30;
+
+	/** Bit of a stored result set once removed from the table, until the ring drops it */
+	private static final int REMOVED = 1 << 29;
+
+	private static final TransactionResult.Status[] STATUSES = TransactionResult.Status.values();
+	private static final Currency[] CURRENCIES = Currency.values();
+
+	/** Stripes, a power of two */
+	private final Stripe[] stripes;
+
+	/** Largest number of entries of a stripe */
+	private final int stripeCapacity;
+
+	/** Time a key is kept, in milliseconds */
+	private final long ttl;
+
+	/** Source of the time of the keys */
+	private final Clock clock;
+
+	/** Default Constructor: DEFAULT_CAPACITY keys kept DEFAULT_TTL_MILLIS */
+	IdempotencyCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS, Clock.systemUTC());
+	}
+
+	/** Constructor
+	 * @param capacity largest number of keys
+	 * @param ttlMillis time a key is kept
+	 * @param clock
+	 */
+	IdempotencyCache(int capacity, long ttlMillis, Clock clock) {
+		if(capacity <= 0 || ttlMillis <= 0)
+			throw new IllegalArgumentException("Capacity and time to live must be positive.");
+		int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, capacity / MIN_STRIPE_CAPACITY)));
+		stripes = new Stripe[count];
+		for(int i = 0; i < count; i++)
+			stripes[i] = new Stripe();
+		stripeCapacity = (capacity + count - 1) / count;
+		ttl = ttlMillis;
+		this.clock = clock;
+	}
+
+	/** Starts a keyed transaction: returns the result of the transaction with the same key,
+	 * waiting for it if it is still running, or adds the key as pending and returns null.
+	 * The caller must then complete() or abandon() it
+	 * @param t
+	 * @return TransactionResult null if the transaction must run
+	 */
+	TransactionResult begin(Transaction t) {
+		int fingerprint = fingerprint(t);
+		long h = hash(t.key);
+		Stripe s = stripe(h);
+		boolean interrupted = false;
+		try {
+			synchronized(s) {
+				while(true) {
+					long now = clock.millis();
+					int pos = s.find(t.key, h);
+					if(pos >= 0 && now - s.time(pos) > ttl) {
+						s.remove(pos);
+						pos = -1;
+					}
+					if(pos < 0) {
+						s.add(t.key, now, 0, fingerprint, PENDING, 0, 0, stripeCapacity, ttl);
+						return null;
+					}
+					if(s.fingerprint(pos) != fingerprint)
+						return new TransactionResult(TransactionResult.Status.KEY_REUSED, t.accountID, t.currency);
+					if((s.bits(pos) & PENDING) == 0)
+						return s.result(pos, t);
+					try {
+						s.wait();
+					}
+					catch(InterruptedException e) {
+						//The original still runs, the retry must not return before it
+						interrupted = true;
+					}
+				}
+			}
+		}
+		finally {
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Records the result of a journaled transaction, added if it is not there yet
+	 * @param t
+	 * @param result
+	 * @param sequence journal sequence number of the transaction, 0 if none
+	 */
+	void record(Transaction t, TransactionResult result, long sequence) {
+		long h = hash(t.key);
+		Stripe s = stripe(h);
+		synchronized(s) {
+			int pos = s.find(t.key, h);
+			if(pos < 0)
+				s.add(t.key, clock.millis(), sequence, fingerprint(t), bits(t, result), result.amount, result.balance, stripeCapacity, ttl);
+			else
+				s.set(pos, sequence, bits(t, result), result.amount, result.balance);
+			s.notifyAll();
+		}
+	}
+
+	/** Records the result of a transaction started by begin(), unless it was journaled
+	 * @param t
+	 * @param result
+	 */
+	void complete(Transaction t, TransactionResult result) {
+		long h = hash(t.key);
+		Stripe s = stripe(h);
+		synchronized(s) {
+			int pos = s.find(t.key, h);
+			if(pos >= 0 && (s.bits(pos) & PENDING) != 0) {
+				s.set(pos, 0, bits(t, result), result.amount, result.balance);
+				s.notifyAll();
+			}
+		}
+	}
+
+	/** Removes the key of a transaction started by begin() that failed with an exception,
+	 * so a retry runs it
+	 * @param t
+	 */
+	void abandon(Transaction t) {
+		long h = hash(t.key);
+		Stripe s = stripe(h);
+		synchronized(s) {
+			int pos = s.find(t.key, h);
+			if(pos >= 0 && (s.bits(pos) & PENDING) != 0) {
+				s.remove(pos);
+				s.notifyAll();
+			}
+		}
+	}
+
+	/** Returns the number of keys, including expired ones not dropped yet
+	 * @return int
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe s : stripes)
+			synchronized(s) {
+				size += s.live;
+			}
+		return size;
+	}
+
+	/** Copies the unexpired keys of the transactions journaled with a sequence number in (after, upTo]
+	 * @param after
+	 * @param upTo
+	 * @return Entries
+	 */
+	Entries entries(long after, long upTo) {
+		Entries entries = new Entries(0);
+		long now = clock.millis();
+		for(Stripe s : stripes) {
+			synchronized(s) {
+				for(int i = 0, pos = s.head; i < s.size; i++, pos = s.next(pos)) {
+					long[] e = s.entries;
+					int at = pos * STRIDE;
+					if((s.bits(pos) & (PENDING | REMOVED)) != 0 || now - e[at + 1] > ttl || e[at + 3] <= after || e[at + 3] > upTo)
+						continue;
+					entries.add(e[at], e[at + 1], e[at + 3], s.fingerprint(pos), s.bits(pos), e[at + 4], e[at + 5]);
+				}
+			}
+		}
+		return entries;
+	}
+
+	/** Adds keys read back from a snapshot or delta, dropping the expired ones
+	 * @param entries
+	 */
+	void restore(Entries entries) {
+		long now = clock.millis();
+		for(int i = 0; i < entries.size; i++) {
+			if(now - entries.times[i] > ttl)
+				continue;
+			long h = hash(entries.keys[i]);
+			Stripe s = stripe(h);
+			synchronized(s) {
+				int pos = s.find(entries.keys[i], h);
+				if(pos >= 0)
+					s.remove(pos);
+				s.add(entries.keys[i], entries.times[i], entries.sequences[i], entries.fingerprints[i], entries.results[i],
+						entries.amounts[i], entries.balances[i], stripeCapacity, ttl);
+			}
+		}
+	}
+
+	/** Returns the fingerprint of every field of a transaction but its key and toAmount,
+	 * the same in every JVM
+	 * @param t
+	 * @return int
+	 */
+	static int fingerprint(Transaction t) {
+		int h = t.type.ordinal();
+		h = 31 * h + Objects.hashCode(t.accountID);
+		h = 31 * h + Objects.hashCode(t.toID);
+		h = 31 * h + (t.currency == null ? -1 : t.currency.ordinal());
+		h = 31 * h + (int)(t.amount ^ (t.amount >>> 32));
+		h = 31 * h + (t.toCurrency == null ? -1 : t.toCurrency.ordinal());
+		h = 31 * h + Objects.hashCode(t.firstName);
+		h = 31 * h + Objects.hashCode(t.lastName);
+		if(t.balances != null)
+			for(Balance b : t.balances)
+				h = 31 * (31 * h + b.currency.ordinal()) + (int)(b.value ^ (b.value >>> 32));
+		return h;
+	}
+
+	/** Returns the stored form of a result
+	 * @param t
+	 * @param result
+	 * @return int
+	 */
+	private static int bits(Transaction t, TransactionResult result) {
+		int bits = result.status.ordinal();
+		if(result.currency != null)
+			bits |= (result.currency.ordinal() + 1) << CURRENCY_SHIFT;
+		if(result.accountID != null && !result.accountID.equals(t.accountID))
+			bits |= RECEIVER;
+		return bits;
+	}
+
+	/** Spreads the bits of a key
+	 * @param key
+	 * @return long
+	 */
+	private static long hash(long key) {
+		return key * 0x9E3779B97F4A7C15L;
+	}
+
+	/** Returns the stripe of a hashed key, chosen by its highest bits
+	 * @param h
+	 * @return Stripe
+	 */
+	private Stripe stripe(long h) {
+		return stripes[(int)(h >>> 58) & (stripes.length - 1)];
+	}
+
+	/** Keys copied out of the cache or read back, as columns */
+	static final class Entries {
+		int size;
+		long[] keys, times, sequences, amounts, balances;
+		int[] fingerprints, results;
+
+		Entries(int capacity) {
+			keys = new long[capacity];
+			times = new long[capacity];
+			sequences = new long[capacity];
+			amounts = new long[capacity];
+			balances = new long[capacity];
+			fingerprints = new int[capacity];
+			results = new int[capacity];
+		}
+
+		/** Appends an entry, growing the columns if needed */
+		void add(long key, long time, long sequence, int fingerprint, int result, long amount, long balance) {
+			if(size == keys.length) {
+				int length = Math.max(INITIAL_ENTRIES, size * 2);
+				keys = Arrays.copyOf(keys, length);
+				times = Arrays.copyOf(times, length);
+				sequences = Arrays.copyOf(sequences, length);
+				amounts = Arrays.copyOf(amounts, length);
+				balances = Arrays.copyOf(balances, length);
+				fingerprints = Arrays.copyOf(fingerprints, length);
+				results = Arrays.copyOf(results, length);
+			}
+			keys[size] = key;
+			times[size] = time;
+			sequences[size] = sequence;
+			fingerprints[size] = fingerprint;
+			results[size] = result;
+			amounts[size] = amount;
+			balances[size] = balance;
+			size++;
+		}
+	}
+
+	/** Ring of entries and their table, guarded by its own monitor.
+	 * The ring is allocated with the first key and grows up to the stripe capacity */
+	private static final class Stripe {
+
+		/** STRIDE longs per entry, see the class comment */
+		long[] entries;
+
+		/** Ring position of the oldest entry */
+		int head;
+
+		/** Entries in the ring, including removed ones */
+		int size;
+
+		/** Entries in the table */
+		int live;
+
+		/** Ring position + 1 of the entries by key, 0 if free */
+		int[] table;
+
+		long key(int pos) {
+			return entries[pos * STRIDE];
+		}
+
+		long time(int pos) {
+			return entries[pos * STRIDE + 1];
+		}
+
+		int fingerprint(int pos) {
+			return (int)(entries[pos * STRIDE + 2] >>> 32);
+		}
+
+		int bits(int pos) {
+			return (int)entries[pos * STRIDE + 2];
+		}
+
+		/** Returns the ring position after the given one */
+		int next(int pos) {
+			return pos + 1 == entries.length / STRIDE ? 0 : pos + 1;
+		}
+
+		/** Returns the ring position of a key
+		 * @return int -1 if absent
+		 */
+		int find(long key, long h) {
+			if(table == null)
+				return -1;
+			int mask = table.length - 1;
+			for(int i = slot(h, mask); ; i = (i + 1) & mask) {
+				int p = table[i];
+				if(p == 0)
+					return -1;
+				if(entries[(p - 1) * STRIDE] == key)
+					return p - 1;
+			}
+		}
+
+		/** Adds an entry, dropping the expired ones first, then the oldest one if full */
+		void add(long key, long time, long sequence, int fingerprint, int result, long amount, long balance, int capacity, long ttl) {
+			while(size > 0 && ((bits(head) & REMOVED) != 0 || time - time(head) > ttl))
+				dropHead();
+			if(entries == null || size == entries.length / STRIDE) {
+				if(entries == null || entries.length / STRIDE < capacity)
+					grow(capacity);
+				else
+					dropHead();
+			}
+			int pos = head + size;
+			if(pos >= entries.length / STRIDE)
+				pos -= entries.length / STRIDE;
+			entries[pos * STRIDE] = key;
+			entries[pos * STRIDE + 1] = time;
+			entries[pos * STRIDE + 2] = (long)fingerprint << 32;
+			set(pos, sequence, result, amount, balance);
+			int mask = table.length - 1;
+			int i = slot(hash(key), mask);
+			while(table[i] != 0)
+				i = (i + 1) & mask;
+			table[i] = pos + 1;
+			size++;
+			live++;
+		}
+
+		/** Sets the result of an entry */
+		void set(int pos, long sequence, int result, long amount, long balance) {
+			int at = pos * STRIDE;
+			entries[at + 2] = (entries[at + 2] & 0xFFFFFFFF00000000L) | (result & 0xFFFFFFFFL);
+			entries[at + 3] = sequence;
+			entries[at + 4] = amount;
+			entries[at + 5] = balance;
+		}
+
+		/** Rebuilds the result of an entry for a retry of its transaction */
+		TransactionResult result(int pos, Transaction t) {
+			int bits = bits(pos);
+			int c = (bits >>> CURRENCY_SHIFT) & 0xFF;
+			return new TransactionResult(STATUSES[bits & 0xFF], (bits & RECEIVER) != 0 ? t.toID : t.accountID,
+					c == 0 ? null : CURRENCIES[c - 1], entries[pos * STRIDE + 4], entries[pos * STRIDE + 5]);
+		}
+
+		/** Removes an entry from the table, the ring drops it once it is the oldest */
+		void remove(int pos) {
+			unlink(pos);
+			entries[pos * STRIDE + 2] |= REMOVED;
+		}
+
+		/** Drops the oldest entry of the ring */
+		private void dropHead() {
+			if((bits(head) & REMOVED) == 0)
+				unlink(head);
+			head = next(head);
+			size--;
+		}
+
+		/** Frees the table slot of an entry, moving back the entries probed past it */
+		private void unlink(int pos) {
+			int mask = table.length - 1;
+			int i = slot(hash(key(pos)), mask);
+			while(table[i] != pos + 1)
+				i = (i + 1) & mask;
+			for(int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+				int home = slot(hash(key(table[j] - 1)), mask);
+				//Stays if its home slot is cyclically in (i, j]
+				if(i <= j ? i < home && home <= j : i < home || home <= j)
+					continue;
+				table[i] = table[j];
+				i = j;
+			}
+			table[i] = 0;
+			live--;
+		}
+
+		/** Doubles the ring up to capacity, compacting it, and rebuilds the table */
+		private void grow(int capacity) {
+			int length = entries == null ? Math.min(INITIAL_ENTRIES, capacity) : (int)Math.min(capacity, entries.length / STRIDE * 2L);
+			long[] old = entries;
+			entries = new long[length * STRIDE];
+			table = new int[Integer.highestOneBit(Math.max(1, length - 1)) << 2];
+			int mask = table.length - 1;
+
+			int count = 0;
+			for(int i = 0, pos = head; i < size; i++, pos = pos + 1 == old.length / STRIDE ? 0 : pos + 1) {
+				if(((int)old[pos * STRIDE + 2] & REMOVED) != 0)
+					continue;
+				System.arraycopy(old, pos * STRIDE, entries, count * STRIDE, STRIDE);
+				int j = slot(hash(key(count)), mask);
+				while(table[j] != 0)
+					j = (j + 1) & mask;
+				table[j] = count + 1;
+				count++;
+			}
+			head = 0;
+			size = count;
+		}
+
+		/** Returns the home slot of a hashed key in a table, from bits not used to pick the stripe */
+		private static int slot(long h, int mask) {
+			return (int)(h >>> 20) & mask;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Tests applying transactions with an idempotency key once, and keeping their keys across restarts
+ * @author JosephKalash
+ *
+ */
+
+public class IdempotencyCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	/** Time of the keys added, moved forward by the tests */
+	private long now = 1000;
+
+	private final Clock clock = new Clock() {
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+		public Instant instant() {
+			return Instant.ofEpochMilli(now);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+	}
+
+	/** Creates 123 with 100 USD and 456 with 50 USD */
+	private static void populate(Bank bank) {
+		assertTrue(bank.createAccount("123", "Joseph", "Kalash", Collections.singletonList(new Balance(Currency.USD, 10000))).isSuccess());
+		assertTrue(bank.createAccount("456", "Jane", "Doe", Collections.singletonList(new Balance(Currency.USD, 5000))).isSuccess());
+	}
+
+	/** A retry gets the original result, failures included, and moves nothing */
+	@Test
+	public void testRetryReturnsOriginalResult() {
+		Bank bank = new Bank();
+		populate(bank);
+		Transaction transfer = Transaction.transfer("123", "456", Currency.USD, 3000).withKey(1);
+		TransactionResult first = bank.apply(transfer);
+		assertTrue(first.isSuccess());
+		for(int i = 0; i < 3; i++) {
+			TransactionResult retry = bank.apply(Transaction.transfer("123", "456", Currency.USD, 3000).withKey(1));
+			assertEquals(first.status, retry.status);
+			assertEquals(first.accountID, retry.accountID);
+			assertEquals(first.currency, retry.currency);
+			assertEquals(first.amount, retry.amount);
+			assertEquals(first.balance, retry.balance);
+		}
+		assertEquals(7000, bank.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(8000, bank.balanceInquiry("456", Currency.USD).balance);
+
+		//Failed on the receiver's side: the result names it
+		Transaction unknown = Transaction.transfer("123", "789", Currency.USD, 100).withKey(2);
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, bank.apply(unknown).status);
+		assertTrue(bank.createAccount("789", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 0))).isSuccess());
+		TransactionResult retry = bank.apply(unknown);
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, retry.status);
+		assertEquals("789", retry.accountID);
+		assertEquals(0, bank.balanceInquiry("789", Currency.USD).balance);
+
+		//Same key, other transaction
+		assertEquals(TransactionResult.Status.KEY_REUSED, bank.apply(Transaction.deposit("123", Currency.USD, 3000).withKey(1)).status);
+		assertEquals(7000, bank.balanceInquiry("123", Currency.USD).balance);
+	}
+
+	/** Concurrent retries of the same transaction apply it once */
+	@Test
+	public void testConcurrentRetriesApplyOnce() throws Exception {
+		final Bank bank = new Bank();
+		populate(bank);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<TransactionResult>> results = new ArrayList<Future<TransactionResult>>();
+		for(int key = 1; key <= 100; key++) {
+			final Transaction t = Transaction.transfer("123", "456", Currency.USD, 1).withKey(key);
+			for(int i = 0; i < 8; i++)
+				results.add(executor.submit(new Callable<TransactionResult>() {
+					public TransactionResult call() {
+						return bank.apply(t);
+					}
+				}));
+		}
+		for(Future<TransactionResult> f : results)
+			assertTrue(f.get().isSuccess());
+		executor.shutdown();
+		assertEquals(10000 - 100, bank.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(5000 + 100, bank.balanceInquiry("456", Currency.USD).balance);
+	}
+
+	/** Keys expire after their time to live, and the oldest ones go first once the cache is full */
+	@Test
+	public void testEviction() {
+		Bank bank = new Bank();
+		populate(bank);
+		IdempotencyCache keys = new IdempotencyCache(10, 60000, clock);
+		bank.setIdempotency(keys);
+		for(int key = 1; key <= 10; key++) {
+			bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(key));
+			now += 1000;
+		}
+		assertEquals(10, keys.size());
+		assertEquals(10010, bank.balanceInquiry("123", Currency.USD).balance);
+
+		//Key 1 is dropped to make room for key 11
+		bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(11));
+		assertEquals(10, keys.size());
+		bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(1));
+		assertEquals(10012, bank.balanceInquiry("123", Currency.USD).balance);
+		bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(11));
+		assertEquals(10012, bank.balanceInquiry("123", Currency.USD).balance);
+
+		//Keys 3 to 9 expired, 10 is just as old as the time to live, and key 2 made room for 1
+		now += 60000 - 1000;
+		for(int key : new int[] {10, 11, 1})
+			bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(key));
+		assertEquals(10012, bank.balanceInquiry("123", Currency.USD).balance);
+		for(int key = 2; key <= 9; key++)
+			bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(key));
+		assertEquals(10012 + 8, bank.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(10, keys.size());
+	}
+
+	/** The keys of the transactions in the snapshot, the deltas and the journal all survive a crash */
+	@Test
+	public void testKeysSurviveRestart() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		populate(store.bank);
+		store.bank.apply(Transaction.deposit("123", Currency.USD, 1).withKey(1));
+		store.bank.apply(Transaction.withdraw("123", Currency.USD, 100000).withKey(2));
+		store.snapshot();
+		store.bank.apply(Transaction.transfer("123", "456", Currency.USD, 2).withKey(3));
+		store.snapshot();
+		assertTrue(new File(directory, BankStore.DELTAS).exists());
+		store.bank.apply(Transaction.deposit("456", Currency.USD, 4).withKey(4));
+
+		//Dropped without closing: a crash
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		assertEquals(10000 + 1 - 2, recovered.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(5000 + 2 + 4, recovered.balanceInquiry("456", Currency.USD).balance);
+		assertTrue(recovered.apply(Transaction.deposit("123", Currency.USD, 1).withKey(1)).isSuccess());
+		assertTrue(recovered.apply(Transaction.transfer("123", "456", Currency.USD, 2).withKey(3)).isSuccess());
+		assertEquals(5006, recovered.apply(Transaction.deposit("456", Currency.USD, 4).withKey(4)).balance);
+		assertEquals(9999, recovered.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(5006, recovered.balanceInquiry("456", Currency.USD).balance);
+
+		//A failure was not journaled, its retry runs again
+		assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS,
+				recovered.apply(Transaction.withdraw("123", Currency.USD, 100000).withKey(2)).status);
+		assertEquals(4, recovered.idempotency().size());
+	}
+
+	/** Keys are kept in the binary form of a transaction */
+	@Test
+	public void testEncodeKey() {
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(256);
+		Transaction.transfer("123", "456", Currency.EUR, 42).withKey(-7).encode(buffer);
+		Transaction.deposit("123", Currency.EUR, 42).encode(buffer);
+		buffer.flip();
+		Transaction keyed = Transaction.decode(buffer);
+		assertEquals(-7, keyed.key);
+		assertEquals("456", keyed.toID);
+		assertEquals(42, keyed.amount);
+		assertEquals(0, Transaction.decode(buffer).key);
+	}
+}
@@ -1,3 +1,5 @@
+package bank;
+
 
 /** Custom exception thrown
  * when user inputs an invalid account ID
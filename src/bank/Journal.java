@@ -0,0 +1,420 @@
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/** Journal class is the write-ahead log of the Bank.
+ *
+ * Every applied Transaction is appended with a sequence number,
+ * so persisting a transaction costs the size of that transaction
+ * instead of the size of the whole bank.
+ *
+ * The log is split in segment files named after their first sequence number.
+ * A new segment is started at every snapshot, so segments fully covered
+ * by a snapshot can simply be deleted.
+ *
+ * Record layout: length of the body (int), CRC32 of the body (int),
+ * body = sequence number (long) followed by Transaction.encode().
+ * A torn record at the end of the log is detected by its length or CRC and dropped.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class Journal implements Closeable {
+
+	/** When appended transactions are forced to the disk */
+	public enum SyncPolicy {
+		/** Written by the background thread, never forced: an OS crash may lose recent transactions */
+		NONE,
+		/** Forced by the background thread every group commit interval, callers wait for it */
+		GROUP,
+		/** Forced before the caller returns, concurrent callers share one force */
+		ALWAYS
+	};
+
+	/** Size of a record header: body length and CRC */
+	private static final int HEADER = 8;
+
+	/** Prefix and suffix of segment file names */
+	private static final String PREFIX = "journal-", SUFFIX = ".log";
+
+	/** Directory containing the segments */
+	private final File directory;
+
+	/** Policy used to force appended transactions */
+	private final SyncPolicy policy;
+
+	/** Milliseconds between two runs of the background thread */
+	private final long groupCommitMillis;
+
+	/** Segment being appended to */
+	private FileChannel channel;
+
+	/** Encoded records not yet written to the channel, guarded by this */
+	private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+
+	/** Buffer being written by the flushing thread, guarded by flushLock */
+	private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+
+	/** Last sequence number handed out, guarded by this */
+	private long lastSequence;
+
+	/** Last sequence number written to the channel, guarded by this */
+	private long writtenSequence;
+
+	/** Last sequence number forced to the disk, guarded by this */
+	private long durableSequence;
+
+	/** Error that stopped the journal, guarded by this */
+	private IOException failure;
+
+	/** Serializes flushes, rotations and closing */
+	private final Object flushLock = new Object();
+
+	/** Checksum of the record being encoded, guarded by this */
+	private final CRC32 crc = new CRC32();
+
+	/** Background thread writing and forcing pending records */
+	private final Thread flusher;
+
+	/** Set once the journal is closed */
+	private volatile boolean closed;
+
+	/** Metrics the forces are timed in, null if none */
+	private volatile Metrics metrics;
+
+	/** Constructor that starts a new segment after the given sequence number
+	 * @param directory
+	 * @param lastSequence last sequence number already in the bank
+	 * @param policy
+	 * @param groupCommitMillis
+	 * @throws IOException
+	 */
+	Journal(File directory, long lastSequence, SyncPolicy policy, long groupCommitMillis) throws IOException {
+		this.directory = directory;
+		this.policy = policy;
+		this.groupCommitMillis = groupCommitMillis;
+		this.lastSequence = this.writtenSequence = this.durableSequence = lastSequence;
+		this.channel = openSegment(lastSequence + 1);
+
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flushPeriodically();
+			}
+		}, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/** Appends a transaction and returns its sequence number.
+	 * The transaction is only buffered, see awaitDurable()
+	 * @param t
+	 * @return long
+	 */
+	public synchronized long append(Transaction t) {
+		if(closed)
+			throw new JournalException("Journal is closed.", failure);
+
+		long sequence = lastSequence + 1;
+		int start = pending.position();
+		while(true) {
+			try {
+				if(pending.capacity() - start < HEADER + 8)
+					throw new BufferOverflowException();
+				pending.position(start + HEADER);
+				pending.putLong(sequence);
+				t.encode(pending);
+				break;
+			}
+			catch(BufferOverflowException e) {
+				pending.position(start);
+				ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+		}
+
+		int end = pending.position();
+		int length = end - start - HEADER;
+		crc.reset();
+		crc.update(pending.array(), start + HEADER, length);
+		pending.putInt(start, length);
+		pending.putInt(start + 4, (int)crc.getValue());
+
+		lastSequence = sequence;
+		return sequence;
+	}
+
+	/** Returns once the transaction with the given sequence number
+	 * is as durable as the sync policy promises
+	 * @param sequence
+	 * @throws JournalException if the journal could not be written
+	 */
+	public void awaitDurable(long sequence) {
+		switch(policy) {
+			case NONE:
+				return;
+			case ALWAYS:
+				flush(sequence, true);
+				return;
+			case GROUP:
+				synchronized(this) {
+					while(durableSequence < sequence && failure == null) {
+						try {
+							wait();
+						}
+						catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new JournalException("Interrupted while waiting for the journal.", e);
+						}
+					}
+					if(durableSequence < sequence)
+						throw new JournalException("Unable to write the journal.", failure);
+				}
+				return;
+		}
+	}
+
+	/** Last sequence number handed out
+	 * @return long
+	 */
+	public synchronized long lastSequence() {
+		return lastSequence;
+	}
+
+	/** Forces every appended transaction to disk and starts a new segment,
+	 * returning the last sequence number of the closed segment.
+	 * Callers must make sure no transaction is appended concurrently
+	 * when they need the returned number to match their state
+	 * @return long
+	 * @throws IOException
+	 */
+	public long rotate() throws IOException {
+		synchronized(flushLock) {
+			long last = lastSequence();
+			flush(last, true);
+			channel.close();
+			channel = openSegment(last + 1);
+			return last;
+		}
+	}
+
+	/** Deletes the segments that only hold transactions up to the given sequence number
+	 * @param sequence
+	 */
+	public void deleteSegmentsUpTo(long sequence) {
+		synchronized(flushLock) {
+			List<File> segments = segments(directory);
+			for(int i = 0; i + 1 < segments.size(); i++)
+				if(firstSequence(segments.get(i + 1)) - 1 <= sequence)
+					segments.get(i).delete();
+		}
+	}
+
+	/** Writes and forces everything still pending and stops the journal
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized(flushLock) {
+			if(closed)
+				return;
+			flush(lastSequence(), true);
+			closed = true;
+			flusher.interrupt();
+			channel.close();
+		}
+		synchronized(this) {
+			if(failure != null)
+				throw failure;
+		}
+	}
+
+	/** Writes pending records to the channel unless the given sequence number
+	 * was already written (or forced when force is set)
+	 * @param sequence
+	 * @param force
+	 */
+	private void flush(long sequence, boolean force) {
+		synchronized(flushLock) {
+			long upTo;
+			synchronized(this) {
+				if(failure != null)
+					throw new JournalException("Unable to write the journal.", failure);
+				if((force ? durableSequence : writtenSequence) >= sequence || closed)
+					return;
+
+				//Swap buffers so appends continue while this thread writes
+				ByteBuffer full = pending;
+				pending = writing;
+				writing = full;
+				upTo = lastSequence;
+			}
+
+			try {
+				writing.flip();
+				while(writing.hasRemaining())
+					channel.write(writing);
+				writing.clear();
+				if(force)
+					forceSegment();
+			}
+			catch(IOException e) {
+				synchronized(this) {
+					failure = e;
+					notifyAll();
+				}
+				throw new JournalException("Unable to write the journal.", e);
+			}
+
+			synchronized(this) {
+				writtenSequence = upTo;
+				if(force)
+					durableSequence = upTo;
+				notifyAll();
+			}
+		}
+	}
+
+	/** Forces the current segment to the disk, timing it in the metrics if any
+	 * @throws IOException
+	 */
+	private void forceSegment() throws IOException {
+		Metrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		boolean success = false;
+		try {
+			channel.force(false);
+			success = true;
+		}
+		finally {
+			if(m != null)
+				m.record(Metrics.Operation.JOURNAL_SYNC, start, success);
+		}
+	}
+
+	/** Attaches the metrics every force to the disk is timed in
+	 * @param metrics null to stop measuring
+	 * @return void
+	 */
+	void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/** Body of the background thread */
+	private void flushPeriodically() {
+		while(!closed) {
+			try {
+				Thread.sleep(groupCommitMillis);
+				flush(lastSequence(), policy != SyncPolicy.NONE);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			catch(JournalException e) {
+				//Kept in failure and reported to the next caller
+				return;
+			}
+		}
+	}
+
+	/** Opens a new segment file starting at the given sequence number
+	 * @param firstSequence
+	 * @return FileChannel
+	 * @throws IOException
+	 */
+	private FileChannel openSegment(long firstSequence) throws IOException {
+		File file = new File(directory, String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+		FileChannel opened = new RandomAccessFile(file, "rw").getChannel();
+		//Forcing the records is not enough while the segment itself could vanish in a crash
+		AtomicFile.syncDirectory(directory);
+		return opened;
+	}
+
+	/** Replays every journaled transaction with a sequence number above the given one,
+	 * returning the last sequence number found.
+	 * A torn record at the end of the log is cut off.
+	 * Fails if the transactions do not follow the given sequence number without a gap.
+	 * @param directory
+	 * @param afterSequence last sequence number already in the bank
+	 * @param bank
+	 * @return long
+	 * @throws IOException
+	 */
+	public static long replay(File directory, long afterSequence, Bank bank) throws IOException {
+		long last = afterSequence;
+		CRC32 crc = new CRC32();
+		for(File segment : segments(directory)) {
+			RandomAccessFile file = new RandomAccessFile(segment, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				ByteBuffer data = ByteBuffer.allocate((int)channel.size());
+				while(data.hasRemaining() && channel.read(data) >= 0);
+				data.flip();
+
+				int valid = 0;
+				while(data.remaining() >= HEADER) {
+					int length = data.getInt();
+					int checksum = data.getInt();
+					if(length < 8 || length > data.remaining())
+						break;
+					crc.reset();
+					crc.update(data.array(), data.position(), length);
+					if((int)crc.getValue() != checksum)
+						break;
+
+					ByteBuffer body = (ByteBuffer)data.slice().limit(length);
+					data.position(data.position() + length);
+					valid = data.position();
+
+					long sequence = body.getLong();
+					if(sequence <= last)
+						continue;
+					//Replaying across a gap would leave balances no sequence of operations leads to
+					if(sequence != last + 1)
+						throw new IOException("Operations " + (last + 1) + " to " + (sequence - 1) + " are missing from the journal.");
+					bank.replay(Transaction.decode(body), sequence);
+					last = sequence;
+				}
+
+				//Drop whatever follows the last valid record
+				if(valid < channel.size())
+					channel.truncate(valid);
+			}
+			finally {
+				file.close();
+			}
+		}
+		return last;
+	}
+
+	/** Returns the segment files of a directory in sequence order
+	 * @param directory
+	 * @return List<File>
+	 */
+	static List<File> segments(File directory) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		List<File> segments = new ArrayList<File>();
+		if(files != null)
+			segments.addAll(Arrays.asList(files));
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/** First sequence number of a segment, taken from its name
+	 * @param segment
+	 * @return long
+	 */
+	private static long firstSequence(File segment) {
+		String name = segment.getName();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
@@ -0,0 +1,24 @@
+package bank;
+
+
+/** Custom exception thrown
+ * when the journal cannot make a transaction durable
+ * @author JosephKalash
+ */
+
+public class JournalException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/** Constructor with message string and cause
+	 * 
+	 * @param message
+	 * @param cause
+	 */
+	JournalException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,203 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Tests recovering a BankStore from its snapshot and journal
+ * @author JosephKalash
+ *
+ */
+
+public class JournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+	}
+
+	/** Operations applied without any snapshot are replayed from the journal alone.
+	 * Dropping a store without closing it stands for a crash */
+	@Test
+	public void testReplayWithoutSnapshot() throws IOException {
+		Journal.SyncPolicy[] durable = {Journal.SyncPolicy.GROUP, Journal.SyncPolicy.ALWAYS};
+		for(Journal.SyncPolicy policy : durable) {
+			populate(new BankStore(directory, policy, 1, 0).bank);
+
+			assertFalse(new File(directory, BankStore.SNAPSHOT).exists());
+			assertPopulated(new BankStore(directory, policy, 1, 0).bank);
+			directory = folder.newFolder();
+		}
+	}
+
+	/** A snapshot covers the journal it replaces, later operations are replayed on top of it */
+	@Test
+	public void testSnapshotThenReplay() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		populate(store.bank);
+		store.snapshot();
+		assertEquals(1, Journal.segments(directory).size());
+		assertTrue(store.bank.deposit("123", Currency.USD, 500).isSuccess());
+
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		assertEquals(7500, recovered.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(4000, recovered.balanceInquiry("456", Currency.USD).balance);
+	}
+
+	/** Closing writes a snapshot, so reopening replays nothing */
+	@Test
+	public void testCloseWritesSnapshot() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.NONE, 1, 0);
+		populate(store.bank);
+		store.close();
+
+		assertTrue(new File(directory, BankStore.SNAPSHOT).exists());
+		for(File segment : Journal.segments(directory))
+			assertEquals(0, segment.length());
+		BankStore reopened = new BankStore(directory, Journal.SyncPolicy.NONE, 1, 0);
+		assertPopulated(reopened.bank);
+		reopened.close();
+	}
+
+	/** A record cut in the middle by a crash is dropped along with what follows */
+	@Test
+	public void testTornRecordIsDropped() throws IOException {
+		populate(new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank);
+
+		File segment = Journal.segments(directory).get(0);
+		long length = segment.length();
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(length - 3);
+		file.close();
+
+		//The last transfer is lost, everything before it is recovered
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		assertEquals(10000, recovered.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(1000, recovered.balanceInquiry("456", Currency.USD).balance);
+		assertTrue(segment.length() < length - 3);
+	}
+
+	/** Deltas go on top of the snapshot, and the journal on top of the deltas */
+	@Test
+	public void testDeltasThenReplay() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		populate(store.bank);
+		store.snapshot();
+		assertTrue(store.bank.deposit("123", Currency.USD, 500).isSuccess());
+		assertTrue(store.bank.deleteAccountID("456").isSuccess());
+		store.snapshot();
+		assertTrue(new File(directory, BankStore.DELTAS).length() > 0);
+		assertTrue(store.bank.createAccount("456", "Jane", "Again", new ArrayList<Balance>()).isSuccess());
+
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		assertEquals(7500, recovered.balanceInquiry("123", Currency.USD).balance);
+		assertEquals("Again", recovered.findAccount("456").lastName);
+		assertFalse(recovered.findAccount("456").containsBalanceWithCurrency(Currency.USD));
+	}
+
+	/** Deltas and snapshots written while operations run hold every account as it was
+	 * when they started, so replaying the journal on top of them recovers the exact balances */
+	@Test
+	public void testOnlineSnapshots() throws Exception {
+		final BankStore store = new BankStore(directory, Journal.SyncPolicy.GROUP, 1, 0);
+		final int accounts = 200;
+		for(int i = 0; i < accounts; i++)
+			assertTrue(store.bank.createAccount(Integer.toString(1000 + i), "First", "Last",
+					Collections.singletonList(new Balance(Currency.USD, 100000))).isSuccess());
+		store.snapshot();
+
+		final AtomicBoolean stop = new AtomicBoolean();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < 4; t++) {
+			final Random random = new Random(t);
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					for(int i = 0; !stop.get(); i++) {
+						store.bank.transfer(Integer.toString(1000 + random.nextInt(accounts)),
+								Integer.toString(1000 + random.nextInt(accounts)), Currency.USD, 1 + random.nextInt(1000));
+						store.bank.deposit(Integer.toString(1000 + random.nextInt(accounts)), Currency.USD, 1);
+						//Accounts created and deleted meanwhile
+						String id = Integer.toString(10000 + thread * 1000 + i % 1000);
+						if(random.nextBoolean())
+							store.bank.createAccount(id, "Short", "Lived", Collections.singletonList(new Balance(Currency.EUR, i)));
+						else
+							store.bank.deleteAccountID(id);
+					}
+				}
+			}));
+		}
+		for(Thread t : threads)
+			t.start();
+		for(int i = 0; i < 100; i++) {
+			store.snapshot();
+			Thread.sleep(1);
+		}
+		stop.set(true);
+		for(Thread t : threads)
+			t.join();
+
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.GROUP, 1, 0).bank;
+		assertEquals(store.bank.accounts.size(), recovered.accounts.size());
+		for(Account acc : store.bank.accounts.values()) {
+			Account other = recovered.findAccount(acc.accountID);
+			assertNotNull(acc.accountID, other);
+			assertEquals(acc.currencyMask, other.currencyMask);
+			assertArrayEquals(acc.accountID, acc.amounts, other.amounts);
+		}
+	}
+
+	/** Records written before the SCALED bit hold hundredths of a unit, converted when read */
+	@Test
+	public void testLegacyRecords() {
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(256);
+		Transaction.exchangeTransfer("123", "456", Currency.USD, 1999, Currency.JPY, 215050).encode(buffer);
+		buffer.put(0, (byte)(buffer.get(0) & ~0x40));
+		buffer.flip();
+		Transaction t = Transaction.decode(buffer);
+		assertEquals(Transaction.Type.EXCHANGE_TRANSFER, t.type);
+		assertEquals(1999, t.amount);
+		assertEquals(2151, t.toAmount);
+
+		buffer.clear();
+		Transaction.deposit("123", Currency.JPY, 2151).encode(buffer);
+		buffer.flip();
+		assertEquals(2151, Transaction.decode(buffer).amount);
+	}
+
+	/** Applies the same operations on every test bank, ending with a transfer
+	 * @param bank
+	 */
+	private void populate(Bank bank) {
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 10000));
+		balances.add(new Balance(Currency.EUR, 5000));
+		assertTrue(bank.createAccount("123", "John", "Doe", balances).isSuccess());
+		balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 1000));
+		assertTrue(bank.createAccount("456", "Jane", "Roe", balances).isSuccess());
+		assertTrue(bank.createAccount("789", "Gone", "Soon", new ArrayList<Balance>()).isSuccess());
+		assertTrue(bank.deleteAccountID("789").isSuccess());
+		assertTrue(bank.deleteAccountBalance("123", Currency.EUR).isSuccess());
+		assertTrue(bank.transfer("123", "456", Currency.USD, 3000).isSuccess());
+	}
+
+	/** Checks the state left by populate()
+	 * @param bank
+	 */
+	private void assertPopulated(Bank bank) {
+		assertEquals(7000, bank.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(4000, bank.balanceInquiry("456", Currency.USD).balance);
+		assertFalse(bank.findAccount("123").containsBalanceWithCurrency(Currency.EUR));
+		assertNull(bank.findAccount("789"));
+		assertEquals("Jane", bank.findAccount("456").firstName);
+	}
+}
@@ -0,0 +1,154 @@
+package bank;
+
+import java.util.concurrent.atomic.*;
+
+/** LatencyHistogram class counts durations in buckets of logarithmic size,
+ * 8 per power of two, so any percentile is known within 12.5% whatever the range,
+ * in a fixed amount of memory. Recording is lock-free and allocates nothing,
+ * so every request of a busy server can be recorded.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class LatencyHistogram {
+
+	/** Values below this one have a bucket each */
+	private static final int LINEAR = 16;
+
+	/** Buckets per power of two above LINEAR, as a power of two */
+	private static final int SUB_BITS = 3;
+
+	/** Number of buckets, enough for any positive long */
+	private static final int BUCKETS = LINEAR + (63 - 4) * (1 << SUB_BITS);
+
+	/** Count of the values of every bucket */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/** Number of values recorded, striped so concurrent recorders do not share a cache line */
+	private final LongAdder count = new LongAdder();
+
+	/** Sum of the values recorded */
+	private final LongAdder sum = new LongAdder();
+
+	/** Largest value recorded */
+	private final AtomicLong max = new AtomicLong();
+
+	/** Records a value, negative values as 0
+	 * @param value such as a duration in nanoseconds
+	 * @return void
+	 */
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		long m = max.get();
+		while(value > m && !max.compareAndSet(m, value))
+			m = max.get();
+	}
+
+	/** Returns the number of values recorded
+	 * @return long
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/** Returns the sum of the values recorded
+	 * @return long
+	 */
+	public long sum() {
+		return sum.sum();
+	}
+
+	/** Returns the mean of the values recorded
+	 * @return double 0 if none
+	 */
+	public double mean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double)sum.sum() / n;
+	}
+
+	/** Returns the largest value recorded
+	 * @return long
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/** Returns the value below which the given fraction of the values fall,
+	 * as the highest value of its bucket
+	 * @param fraction such as 0.99
+	 * @return long 0 if no value was recorded
+	 */
+	public long percentile(double fraction) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++)
+			n += snapshot[i] = counts.get(i);
+		if(n == 0)
+			return 0;
+		long rank = (long)Math.ceil(fraction * n);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= Math.max(rank, 1))
+				return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+
+	/** Adds the values of another histogram to this one
+	 * @param other
+	 * @return void
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if(c != 0)
+				counts.addAndGet(i, c);
+		}
+		count.add(other.count.sum());
+		sum.add(other.sum.sum());
+		long m = max.get();
+		long o = other.max.get();
+		while(o > m && !max.compareAndSet(m, o))
+			m = max.get();
+	}
+
+	/** Returns the bucket of a value
+	 * @param value
+	 * @return int
+	 */
+	static int bucket(long value) {
+		if(value < LINEAR)
+			return (int)value;
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int)(value >>> (msb - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return LINEAR + (msb - 4) * (1 << SUB_BITS) + sub;
+	}
+
+	/** Returns the highest value of a bucket
+	 * @param bucket
+	 * @return long
+	 */
+	static long highest(int bucket) {
+		if(bucket < LINEAR)
+			return bucket;
+		int msb = (bucket - LINEAR) / (1 << SUB_BITS) + 4;
+		long sub = (bucket - LINEAR) % (1 << SUB_BITS);
+		long low = ((1L << SUB_BITS) + sub) << (msb - SUB_BITS);
+		return low + (1L << (msb - SUB_BITS)) - 1;
+	}
+
+	/** Prints the count, mean, median, 99th percentile and maximum, taking the values as nanoseconds
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+				count(), mean() / 1e3, percentile(0.5) / 1e3, percentile(0.99) / 1e3, max() / 1e3);
+	}
+}
@@ -0,0 +1,580 @@
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.*;
+
+/** MappedAccountStore class keeps accounts on disk in fixed-size records
+ * of a memory-mapped file, so a bank can hold more accounts than fit in the heap
+ * and opening it does not read any account.
+ *
+ * The record area is itself the on-disk index: it is an open addressing
+ * hash table keyed by AccountIndex.key(), with linear probing.
+ * Only the pages of the accounts that are looked up are ever read.
+ *
+ * 		1. Header page: magic "BKMS" (int), version (short), capacity (long),
+ * 		   account count (long), journal sequence number of the last checkpoint (long)
+ * 		2. Records of RECORD_SIZE bytes: key (long, 0 for an empty slot), currency mask (byte),
+ * 		   first and last name (UTF-8 length byte then up to NAME_BYTES bytes each),
+ * 		   then the balance in minor units (long) per currency
+ *
+ * Stores written by older versions, with balances as doubles in units (version 1)
+ * or hundredths of a unit whatever the currency (version 2), are converted when opened.
+ *
+ * A checkpoint first writes the new records to a pending file and forces it,
+ * then copies them in place: a crash in the middle is completed from the pending file
+ * when the store is opened again.
+ *
+ * Records are written only by checkpoint(), which callers must not run concurrently
+ * with reads.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class MappedAccountStore implements Closeable {
+
+	/** First bytes of the file: "BKMS" */
+	private static final int MAGIC = 0x424B4D53;
+
+	/** Last bytes of a complete pending file without checksum, as written by older versions: "BKMP" */
+	private static final int PENDING_MAGIC = 0x424B4D50;
+
+	/** Last bytes of a complete pending file with checksum: "BKMQ" */
+	private static final int CHECKED_PENDING_MAGIC = 0x424B4D51;
+
+	/** Version written by this class */
+	private static final short VERSION = 3;
+
+	/** Version whose balances are hundredths of a unit in every currency, converted when opened */
+	private static final short VERSION_HUNDREDTHS = 2;
+
+	/** Version whose balances are doubles in units, converted when opened */
+	private static final short VERSION_DOUBLES = 1;
+
+	/** Size of the header, records start on the next page */
+	private static final int HEADER = 4096;
+
+	/** Size of a record, a divisor of the page size so no record spans two pages */
+	public static final int RECORD_SIZE = 256;
+
+	/** Maximum number of UTF-8 bytes kept of a name */
+	public static final int NAME_BYTES = 94;
+
+	/** Offsets inside a record */
+	private static final int KEY = 0, MASK = 8, FIRST_NAME = 9, LAST_NAME = FIRST_NAME + 1 + NAME_BYTES, VALUES = 208;
+
+	/** Number of records per mapped region (256 MB) */
+	private static final int REGION_RECORDS = 1 << 20;
+
+	/** Capacity of a new store */
+	private static final long INITIAL_CAPACITY = 1024;
+
+	/** Character set of the names */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** File holding the records */
+	private final File file;
+
+	/** Channel of the file */
+	private RandomAccessFile raf;
+
+	/** Header mapping */
+	private MappedByteBuffer header;
+
+	/** Record regions, mapped when the file is opened: mapping only reserves address space */
+	private MappedByteBuffer[] regions;
+
+	/** Number of record slots, a power of two */
+	private long capacity;
+
+	/** Version of the file, older ones are converted once any interrupted checkpoint is completed */
+	private short version;
+
+	/** Number of accounts stored */
+	private long count;
+
+	/** Journal sequence number of the last checkpoint */
+	private long sequence;
+
+	/** Constructor that opens an existing file
+	 * @param file
+	 * @throws IOException
+	 */
+	private MappedAccountStore(File file) throws IOException {
+		this.file = file;
+		map();
+	}
+
+	/** Opens the store kept in a file, creating an empty one if the file does not exist,
+	 * and completes a checkpoint interrupted by a crash
+	 * @param file
+	 * @return MappedAccountStore
+	 * @throws IOException
+	 */
+	public static MappedAccountStore open(File file) throws IOException {
+		if(!file.exists())
+			create(file, INITIAL_CAPACITY, 0);
+
+		MappedAccountStore store = new MappedAccountStore(file);
+		//A pending file holds balances in the units of the version that wrote it
+		store.recoverPending();
+		store.convert();
+		return store;
+	}
+
+	/** Returns the account with the given key, read from its record, or null
+	 * @param key
+	 * @return Account
+	 */
+	public Account read(long key) {
+		long slot = find(key);
+		if(slot < 0)
+			return null;
+
+		ByteBuffer r = record(slot);
+		Account acc = new Account();
+		acc.accountID = Long.toString(key).substring(1);
+		acc.firstName = getName(r, FIRST_NAME);
+		acc.lastName = getName(r, LAST_NAME);
+		acc.currencyMask = r.get(MASK);
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			acc.amounts[c] = r.getLong(VALUES + 8 * c);
+		return acc;
+	}
+
+	/** Returns true if an account with the given key is stored
+	 * @param key
+	 * @return boolean
+	 */
+	public boolean contains(long key) {
+		return find(key) >= 0;
+	}
+
+	/** Number of accounts stored
+	 * @return long
+	 */
+	public long size() {
+		return count;
+	}
+
+	/** Journal sequence number of the last checkpoint
+	 * @return long
+	 */
+	public long sequence() {
+		return sequence;
+	}
+
+	/** Writes the changed and deleted accounts as of the given journal sequence number
+	 * @param changed accounts to write, added or replacing the stored ones
+	 * @param deleted keys of the accounts to remove
+	 * @param sequence
+	 * @throws IOException
+	 */
+	public void checkpoint(Collection<Account> changed, Collection<Long> deleted, long sequence) throws IOException {
+		File pending = pendingFile();
+		writePending(pending, changed, deleted, sequence);
+		applyPending(pending);
+	}
+
+	/** Forces every record to the disk and closes the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		header.force();
+		for(MappedByteBuffer region : regions)
+			if(region != null)
+				region.force();
+		raf.close();
+	}
+
+	/** Creates an empty store file
+	 * @param file
+	 * @param capacity
+	 * @param sequence
+	 * @throws IOException
+	 */
+	private static void create(File file, long capacity, long sequence) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(HEADER + capacity * RECORD_SIZE);
+			raf.writeInt(MAGIC);
+			raf.writeShort(VERSION);
+			raf.writeLong(capacity);
+			raf.writeLong(0);
+			raf.writeLong(sequence);
+			raf.getFD().sync();
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/** Maps the header of the file and reads it
+	 * @throws IOException
+	 */
+	private void map() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+		version = header.getShort(4);
+		if(header.getInt(0) != MAGIC || version < VERSION_DOUBLES || version > VERSION)
+			throw new IOException(file + " is not an account store.");
+		capacity = header.getLong(6);
+		count = header.getLong(14);
+		sequence = header.getLong(22);
+		if(Long.bitCount(capacity) != 1 || raf.length() < HEADER + capacity * RECORD_SIZE)
+			throw new IOException(file + " is truncated.");
+		regions = new MappedByteBuffer[(int)((capacity + REGION_RECORDS - 1) / REGION_RECORDS)];
+		for(int r = 0; r < regions.length; r++) {
+			long first = (long)r * REGION_RECORDS;
+			long records = Math.min(REGION_RECORDS, capacity - first);
+			regions[r] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER + first * RECORD_SIZE, records * RECORD_SIZE);
+		}
+	}
+
+	/** Rewrites the balances of an older store as minor units:
+	 * doubles in units for version 1, hundredths of a unit for version 2
+	 * @throws IOException
+	 */
+	private void convert() throws IOException {
+		if(version == VERSION)
+			return;
+		for(long slot = 0; slot < capacity; slot++) {
+			if(keyAt(slot) == 0)
+				continue;
+			ByteBuffer r = record(slot);
+			for(int c = 0; c < Account.CURRENCIES; c++) {
+				Currency currency = Currency.values()[c];
+				r.putLong(VALUES + 8 * c, version == VERSION_DOUBLES ? Money.fromUnits(r.getDouble(VALUES + 8 * c), currency)
+						: Money.fromHundredths(r.getLong(VALUES + 8 * c), currency));
+			}
+		}
+		for(MappedByteBuffer region : regions)
+			region.force();
+		header.putShort(4, VERSION);
+		header.force();
+		version = VERSION;
+	}
+
+	/** Returns a view of a record, positioned nowhere: use absolute offsets
+	 * @param slot
+	 * @return ByteBuffer
+	 */
+	private ByteBuffer record(long slot) {
+		int offset = (int)(slot % REGION_RECORDS) * RECORD_SIZE;
+		ByteBuffer view = regions[(int)(slot / REGION_RECORDS)].duplicate();
+		view.position(offset);
+		view.limit(offset + RECORD_SIZE);
+		return view.slice();
+	}
+
+	/** Key stored in a slot, read without creating a view
+	 * @param slot
+	 * @return long
+	 */
+	private long keyAt(long slot) {
+		return regions[(int)(slot / REGION_RECORDS)].getLong((int)(slot % REGION_RECORDS) * RECORD_SIZE + KEY);
+	}
+
+	/** Home slot of a key
+	 * @param key
+	 * @return long
+	 */
+	private long home(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (h ^ (h >>> 32)) & (capacity - 1);
+	}
+
+	/** Slot holding the given key, or -1
+	 * @param key
+	 * @return long
+	 */
+	private long find(long key) {
+		if(key <= 0)
+			return -1;
+		for(long slot = home(key); ; slot = (slot + 1) & (capacity - 1)) {
+			long k = keyAt(slot);
+			if(k == key)
+				return slot;
+			if(k == 0)
+				return -1;
+		}
+	}
+
+	/** Writes an account into its slot, adding it if it is not stored yet
+	 * @param acc
+	 */
+	private void put(Account acc) {
+		long key = acc.key();
+		long slot = home(key);
+		while(keyAt(slot) != 0 && keyAt(slot) != key)
+			slot = (slot + 1) & (capacity - 1);
+		if(keyAt(slot) == 0)
+			count++;
+
+		ByteBuffer r = record(slot);
+		r.putLong(KEY, key);
+		putName(r, FIRST_NAME, acc.firstName);
+		putName(r, LAST_NAME, acc.lastName);
+		for(int c = 0; c < Account.CURRENCIES; c++)
+			r.putLong(VALUES + 8 * c, acc.amounts[c]);
+		r.put(MASK, (byte)acc.currencyMask);
+	}
+
+	/** Removes the account with the given key, shifting back the rest of its probe chain
+	 * @param key
+	 */
+	private void remove(long key) {
+		long gap = find(key);
+		if(gap < 0)
+			return;
+
+		long mask = capacity - 1;
+		for(long j = (gap + 1) & mask; keyAt(j) != 0; j = (j + 1) & mask) {
+			long home = home(keyAt(j));
+			if(((j - home) & mask) >= ((j - gap) & mask)) {
+				copy(j, gap);
+				gap = j;
+			}
+		}
+		record(gap).putLong(KEY, 0L);
+		count--;
+	}
+
+	/** Copies a record to another slot
+	 * @param from
+	 * @param to
+	 */
+	private void copy(long from, long to) {
+		ByteBuffer source = record(from);
+		ByteBuffer target = record(to);
+		for(int i = 0; i < RECORD_SIZE; i += 8)
+			target.putLong(i, source.getLong(i));
+	}
+
+	/** Doubles the capacity until the given number of accounts fits,
+	 * by rebuilding the records in a new file and swapping it in
+	 * @param accounts
+	 * @throws IOException
+	 */
+	private void growFor(long accounts) throws IOException {
+		long newCapacity = capacity;
+		while(accounts > newCapacity * 7 / 10)
+			newCapacity <<= 1;
+		if(newCapacity == capacity)
+			return;
+
+		File grown = new File(file.getPath() + ".grow");
+		create(grown, newCapacity, sequence);
+		MappedAccountStore target = new MappedAccountStore(grown);
+		for(long slot = 0; slot < capacity; slot++) {
+			long key = keyAt(slot);
+			if(key == 0)
+				continue;
+			long to = target.home(key);
+			while(target.keyAt(to) != 0)
+				to = (to + 1) & (target.capacity - 1);
+			ByteBuffer source = record(slot);
+			ByteBuffer r = target.record(to);
+			for(int i = 0; i < RECORD_SIZE; i += 8)
+				r.putLong(i, source.getLong(i));
+			target.count++;
+		}
+		//The records are copied as they are, in the units of this version
+		target.header.putShort(4, version);
+		target.writeHeader();
+		target.close();
+
+		raf.close();
+		AtomicFile.rename(grown, file);
+		map();
+	}
+
+	/** Writes count and sequence to the header and forces every record and the header
+	 */
+	private void writeHeader() {
+		for(MappedByteBuffer region : regions)
+			if(region != null)
+				region.force();
+		header.putLong(14, count);
+		header.putLong(22, sequence);
+		header.force();
+	}
+
+	/** Name of the pending checkpoint file
+	 * @return File
+	 */
+	private File pendingFile() {
+		return new File(file.getPath() + ".pending");
+	}
+
+	/** Writes a checkpoint to the pending file and forces it.
+	 * Layout: count of records (int), records, count of deletions (int), keys (long),
+	 * sequence (long), CRC32 of all the above (int), then CHECKED_PENDING_MAGIC written last
+	 * so a torn or damaged file is recognized
+	 * @param pending
+	 * @param changed
+	 * @param deleted
+	 * @param sequence
+	 * @throws IOException
+	 */
+	private static void writePending(File pending, Collection<Account> changed, Collection<Long> deleted, long sequence) throws IOException {
+		FileOutputStream f_out = new FileOutputStream(pending);
+		CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(f_out, 1 << 16), new CRC32());
+		DataOutputStream out = new DataOutputStream(checked);
+		try {
+			out.writeInt(changed.size());
+			for(Account acc : changed) {
+				out.writeLong(acc.key());
+				writeName(out, acc.firstName);
+				writeName(out, acc.lastName);
+				out.writeByte(acc.currencyMask);
+				for(int c = 0; c < Account.CURRENCIES; c++)
+					out.writeLong(acc.amounts[c]);
+			}
+			out.writeInt(deleted.size());
+			for(Long key : deleted)
+				out.writeLong(key);
+			out.writeLong(sequence);
+			out.writeInt((int)checked.getChecksum().getValue());
+			out.writeInt(CHECKED_PENDING_MAGIC);
+			out.flush();
+			f_out.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/** Applies a complete pending file in place, then deletes it.
+	 * Applying the same file twice gives the same records
+	 * @param pending
+	 * @throws IOException
+	 */
+	private void applyPending(File pending) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pending), 1 << 16));
+		try {
+			int changed = in.readInt();
+			growFor(count + changed);
+			for(int i = 0; i < changed; i++) {
+				Account acc = new Account();
+				acc.accountID = Long.toString(in.readLong()).substring(1);
+				acc.firstName = readName(in);
+				acc.lastName = readName(in);
+				acc.currencyMask = in.readByte();
+				for(int c = 0; c < Account.CURRENCIES; c++)
+					acc.amounts[c] = in.readLong();
+				put(acc);
+			}
+			int deleted = in.readInt();
+			for(int i = 0; i < deleted; i++)
+				remove(in.readLong());
+			sequence = in.readLong();
+		}
+		finally {
+			in.close();
+		}
+		writeHeader();
+		if(!pending.delete())
+			throw new IOException("Unable to delete " + pending + ".");
+	}
+
+	/** Completes a checkpoint interrupted after its pending file was written,
+	 * or drops a pending file that was itself interrupted
+	 * @throws IOException
+	 */
+	private void recoverPending() throws IOException {
+		File pending = pendingFile();
+		if(!pending.exists())
+			return;
+
+		boolean complete = false;
+		RandomAccessFile p = new RandomAccessFile(pending, "r");
+		try {
+			long length = p.length();
+			if(length >= 8) {
+				p.seek(length - 8);
+				int checksum = p.readInt();
+				int magic = p.readInt();
+				complete = magic == PENDING_MAGIC
+						|| magic == CHECKED_PENDING_MAGIC && checksum == checksum(pending, length - 8);
+			}
+		}
+		finally {
+			p.close();
+		}
+
+		if(complete)
+			applyPending(pending);
+		else
+			pending.delete();
+	}
+
+	/** Returns the CRC32 of the first bytes of a file
+	 * @param file
+	 * @param length number of bytes
+	 * @return int
+	 * @throws IOException
+	 */
+	private static int checksum(File file, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new CheckedInputStream(new FileInputStream(file), crc);
+		try {
+			byte[] chunk = new byte[1 << 16];
+			for(long left = length; left > 0; ) {
+				int n = in.read(chunk, 0, (int)Math.min(chunk.length, left));
+				if(n < 0)
+					throw new EOFException();
+				left -= n;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return (int)crc.getValue();
+	}
+
+	/** Writes a name truncated to NAME_BYTES bytes */
+	private static void writeName(DataOutputStream out, String name) throws IOException {
+		byte[] bytes = truncate(name);
+		out.writeByte(bytes.length);
+		out.write(bytes);
+	}
+
+	/** Reads a name written by writeName() */
+	private static String readName(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readUnsignedByte()];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/** Writes a name into a record */
+	private static void putName(ByteBuffer r, int offset, String name) {
+		byte[] bytes = truncate(name);
+		r.put(offset, (byte)bytes.length);
+		for(int i = 0; i < bytes.length; i++)
+			r.put(offset + 1 + i, bytes[i]);
+	}
+
+	/** Reads a name from a record */
+	private static String getName(ByteBuffer r, int offset) {
+		byte[] bytes = new byte[r.get(offset) & 0xFF];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = r.get(offset + 1 + i);
+		return new String(bytes, UTF8);
+	}
+
+	/** UTF-8 bytes of a name, cut to at most NAME_BYTES bytes on a character boundary */
+	private static byte[] truncate(String name) {
+		byte[] bytes = (name == null ? "" : name).getBytes(UTF8);
+		if(bytes.length <= NAME_BYTES)
+			return bytes;
+		int length = NAME_BYTES;
+		while((bytes[length] & 0xC0) == 0x80)
+			length--;
+		return Arrays.copyOf(bytes, length);
+	}
+}
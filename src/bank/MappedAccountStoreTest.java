@@ -0,0 +1,111 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+
+/** Tests a BankStore keeping its accounts in a MappedAccountStore
+ * @author JosephKalash
+ *
+ */
+
+public class MappedAccountStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+	}
+
+	/** Accounts are written by the checkpoint and only loaded when used after reopening */
+	@Test
+	public void testLazyLoading() throws IOException {
+		BankStore store = open();
+		populate(store.bank, 5000);
+		assertTrue(store.bank.transfer("1000", "1001", Currency.USD, 2500).isSuccess());
+		assertTrue(store.bank.deleteAccountID("1002").isSuccess());
+		store.close();
+
+		store = open();
+		assertEquals(0, store.bank.accounts.size());
+		assertEquals(7500, store.bank.balanceInquiry("1000", Currency.USD).balance);
+		assertEquals(12500, store.bank.balanceInquiry("1001", Currency.USD).balance);
+		assertNull(store.bank.findAccount("1002"));
+		assertEquals("First4999", store.bank.findAccount("5999").firstName);
+		assertEquals(TransactionResult.Status.ACCOUNT_EXISTS,
+				store.bank.createAccount("1003", "A", "B", new ArrayList<Balance>()).status);
+		store.close();
+	}
+
+	/** Operations after the last checkpoint are replayed from the journal on loaded accounts */
+	@Test
+	public void testReplayAfterCheckpoint() throws IOException {
+		BankStore store = open();
+		populate(store.bank, 10);
+		store.snapshot();
+		assertTrue(store.bank.withdraw("1005", Currency.USD, 6000).isSuccess());
+		assertTrue(store.bank.deleteAccountID("1006").isSuccess());
+		assertTrue(store.bank.createAccount("1006", "New", "Owner", new ArrayList<Balance>()).isSuccess());
+		//Dropped without closing: no checkpoint of the last operations
+
+		store = open();
+		assertEquals(4000, store.bank.balanceInquiry("1005", Currency.USD).balance);
+		assertEquals("New", store.bank.findAccount("1006").firstName);
+		assertFalse(store.bank.findAccount("1006").containsBalanceWithCurrency(Currency.USD));
+		store.close();
+	}
+
+	/** An existing bank.data is imported the first time the mapped mode is used */
+	@Test
+	public void testImportSnapshot() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		populate(store.bank, 100);
+		store.close();
+
+		store = open();
+		assertFalse(new File(directory, BankStore.SNAPSHOT).exists());
+		assertEquals(10000, store.bank.balanceInquiry("1099", Currency.USD).balance);
+		store.close();
+	}
+
+	/** A version 2 store held hundredths of a unit in every currency, converted once when opened */
+	@Test
+	public void testConvertVersion2() throws IOException {
+		BankStore store = open();
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 1999));
+		balances.add(new Balance(Currency.JPY, 150000));
+		assertTrue(store.bank.createAccount("1000", "Taro", "Yamada", balances).isSuccess());
+		store.close();
+		RandomAccessFile raf = new RandomAccessFile(new File(directory, BankStore.ACCOUNTS), "rw");
+		raf.seek(4);
+		raf.writeShort(2);
+		raf.close();
+
+		for(int i = 0; i < 2; i++) {
+			store = open();
+			assertEquals(1999, store.bank.balanceInquiry("1000", Currency.USD).balance);
+			assertEquals(1500, store.bank.balanceInquiry("1000", Currency.JPY).balance);
+			store.close();
+		}
+	}
+
+	private BankStore open() throws IOException {
+		return new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0, true);
+	}
+
+	/** Creates accounts 1000 and up, each holding 100 USD */
+	private static void populate(Bank bank, int count) {
+		for(int i = 0; i < count; i++) {
+			List<Balance> balances = new ArrayList<Balance>();
+			balances.add(new Balance(Currency.USD, 10000));
+			assertTrue(bank.createAccount(Integer.toString(1000 + i), "First" + i, "Last" + i, balances).isSuccess());
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package bank;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+
+/** Metrics class counts the operations of a Bank by outcome and records how long they take,
+ * along with the persistence operations of its BankStore and Journal.
+ *
+ * Every outcome of every operation has its own counter and LatencyHistogram.
+ * Both are lock-free and allocate nothing once the outcome was seen.
+ * A histogram is only created the first time its outcome happens, as most operations only ever see a few.
+ *
+ * Reading the clock twice costs more than the rest of a fast operation, so bank operations
+ * can be timed one in sampleEvery, picked at random: the counters stay exact and the quantiles
+ * come from the sample. This is what lets metrics stay attached to a production bank,
+ * see MetricsBenchmark. Persistence operations are rare and slow, and always timed.
+ *
+ * The outcome of a bank operation is its TransactionResult.Status, that of a
+ * persistence operation is OK or ERROR when it threw an IOException.
+ * write() exports everything in the Prometheus text format.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class Metrics {
+
+	/** Operations measured */
+	public enum Operation {
+		CREATE_ACCOUNT,
+		DELETE_BALANCE,
+		DELETE_ACCOUNT,
+		BALANCE_INQUIRY,
+		WITHDRAW,
+		DEPOSIT,
+		TRANSFER,
+		EXCHANGE_TRANSFER,
+		EXCHANGE_DEPOSIT,
+		/** Adjusting a balance, by an end-of-day Sweep or its replay */
+		ADJUST,
+		/** Writing a snapshot or checkpoint, see BankStore.snapshot() */
+		SNAPSHOT,
+		/** Loading the snapshot and replaying the journal */
+		RECOVERY,
+		/** Forcing journal records to the disk */
+		JOURNAL_SYNC
+	};
+
+	/** Statuses of the bank operations */
+	private static final TransactionResult.Status[] STATUSES = TransactionResult.Status.values();
+
+	/** Outcome index of a persistence operation that failed, after every status */
+	private static final int ERROR = STATUSES.length;
+
+	/** Number of outcomes of an operation */
+	private static final int OUTCOMES = ERROR + 1;
+
+	/** Operations, in ordinal order */
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	/** Start time of an operation that is counted but not timed */
+	static final long UNTIMED = Long.MIN_VALUE;
+
+	/** One bank operation in sampleEvery is timed */
+	private final int sampleEvery;
+
+	/** Number of operations of every outcome of every operation, indexed by operation * OUTCOMES + outcome */
+	private final LongAdder[] counts = new LongAdder[OPERATIONS.length * OUTCOMES];
+
+	/** Latency of every outcome of every operation in nanoseconds, indexed by operation * OUTCOMES + outcome */
+	private final AtomicReferenceArray<LatencyHistogram> latencies =
+			new AtomicReferenceArray<LatencyHistogram>(OPERATIONS.length * OUTCOMES);
+
+	/** Constructor of metrics timing every operation */
+	public Metrics() {
+		this(1);
+	}
+
+	/** Constructor of metrics timing one bank operation in sampleEvery
+	 * @param sampleEvery 1 to time them all
+	 */
+	public Metrics(int sampleEvery) {
+		if(sampleEvery < 1)
+			throw new IllegalArgumentException("Invalid sampling " + sampleEvery);
+		this.sampleEvery = sampleEvery;
+		for(int i = 0; i < counts.length; i++)
+			counts[i] = new LongAdder();
+	}
+
+	/** Returns the start time of a bank operation to pass to record() once it is done,
+	 * or UNTIMED if this one is not part of the sample
+	 * @return long
+	 */
+	public long start() {
+		if(sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0)
+			return UNTIMED;
+		return System.nanoTime();
+	}
+
+	/** Returns the operation of a transaction type
+	 * @param type
+	 * @return Operation
+	 */
+	static Operation of(Transaction.Type type) {
+		switch(type) {
+			case CREATE_ACCOUNT: return Operation.CREATE_ACCOUNT;
+			case DELETE_BALANCE: return Operation.DELETE_BALANCE;
+			case DELETE_ACCOUNT: return Operation.DELETE_ACCOUNT;
+			case WITHDRAW: return Operation.WITHDRAW;
+			case DEPOSIT: return Operation.DEPOSIT;
+			case TRANSFER: return Operation.TRANSFER;
+			case EXCHANGE_TRANSFER: return Operation.EXCHANGE_TRANSFER;
+			case ADJUST: return Operation.ADJUST;
+			default: throw new IllegalArgumentException("Unknown transaction type " + type);
+		}
+	}
+
+	/** Records a bank operation started at the given time
+	 * @param operation
+	 * @param start as returned by start()
+	 * @param result
+	 * @return TransactionResult the result, so the caller can return it
+	 */
+	public TransactionResult record(Operation operation, long start, TransactionResult result) {
+		record(operation.ordinal() * OUTCOMES + result.status.ordinal(), start);
+		return result;
+	}
+
+	/** Records a persistence operation started at the given time
+	 * @param operation
+	 * @param start as returned by System.nanoTime()
+	 * @param success false if it threw an IOException
+	 * @return void
+	 */
+	public void record(Operation operation, long start, boolean success) {
+		record(operation.ordinal() * OUTCOMES + (success ? TransactionResult.Status.OK.ordinal() : ERROR), start);
+	}
+
+	/** Counts an outcome and records its latency unless untimed
+	 * @param i index in counts
+	 * @param start
+	 * @return void
+	 */
+	private void record(int i, long start) {
+		counts[i].increment();
+		if(start != UNTIMED)
+			histogram(i).record(System.nanoTime() - start);
+	}
+
+	/** Returns the number of operations that ended with the given status
+	 * @param operation
+	 * @param status
+	 * @return long
+	 */
+	public long count(Operation operation, TransactionResult.Status status) {
+		return counts[operation.ordinal() * OUTCOMES + status.ordinal()].sum();
+	}
+
+	/** Returns the number of operations that did not succeed, whatever the reason
+	 * @param operation
+	 * @return long
+	 */
+	public long failures(Operation operation) {
+		long failures = 0;
+		for(int outcome = 0; outcome < OUTCOMES; outcome++)
+			if(outcome != TransactionResult.Status.OK.ordinal())
+				failures += counts[operation.ordinal() * OUTCOMES + outcome].sum();
+		return failures;
+	}
+
+	/** Returns the latencies of the timed operations with the given status so far
+	 * @param operation
+	 * @param status
+	 * @return LatencyHistogram empty if none
+	 */
+	public LatencyHistogram latency(Operation operation, TransactionResult.Status status) {
+		LatencyHistogram h = latencies.get(operation.ordinal() * OUTCOMES + status.ordinal());
+		return h == null ? new LatencyHistogram() : h;
+	}
+
+	/** Returns the latencies of the timed operations so far, whatever their outcome
+	 * @param operation
+	 * @return LatencyHistogram a copy
+	 */
+	public LatencyHistogram latency(Operation operation) {
+		LatencyHistogram all = new LatencyHistogram();
+		for(int outcome = 0; outcome < OUTCOMES; outcome++) {
+			LatencyHistogram h = latencies.get(operation.ordinal() * OUTCOMES + outcome);
+			if(h != null)
+				all.add(h);
+		}
+		return all;
+	}
+
+	/** Writes the counters and latency quantiles of every outcome seen, in the Prometheus text format:
+	 *
+	 * 		bank_operations_total{operation="withdraw",outcome="INSUFFICIENT_FUNDS"} 12
+	 * 		bank_operation_seconds{operation="withdraw",outcome="OK",quantile="0.99"} 0.000031
+	 *
+	 * The counter counts every operation, the summary only the timed ones
+	 *
+	 * @param out
+	 * @return void
+	 * @throws IOException
+	 */
+	public void write(Appendable out) throws IOException {
+		out.append("# TYPE bank_operations_total counter\n");
+		for(int i = 0; i < counts.length; i++) {
+			long n = counts[i].sum();
+			if(n != 0)
+				out.append("bank_operations_total").append(labels(i, null)).append(' ')
+					.append(Long.toString(n)).append('\n');
+		}
+		out.append("# TYPE bank_operation_seconds summary\n");
+		for(int i = 0; i < latencies.length(); i++) {
+			LatencyHistogram h = latencies.get(i);
+			if(h == null)
+				continue;
+			for(String q : new String[] {"0.5", "0.99", "0.999"})
+				out.append("bank_operation_seconds").append(labels(i, q)).append(' ')
+					.append(seconds(h.percentile(Double.parseDouble(q)))).append('\n');
+			out.append("bank_operation_seconds_sum").append(labels(i, null)).append(' ').append(seconds(h.sum())).append('\n');
+			out.append("bank_operation_seconds_count").append(labels(i, null)).append(' ').append(Long.toString(h.count())).append('\n');
+			out.append("bank_operation_seconds_max").append(labels(i, null)).append(' ').append(seconds(h.max())).append('\n');
+		}
+	}
+
+	/** Prints the metrics, see write()
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			write(sb);
+		}
+		catch(IOException e) {
+			//StringBuilder does not throw
+		}
+		return sb.toString();
+	}
+
+	/** Returns the histogram of an outcome, creating it the first time
+	 * @param i index in latencies
+	 * @return LatencyHistogram
+	 */
+	private LatencyHistogram histogram(int i) {
+		LatencyHistogram h = latencies.get(i);
+		if(h == null) {
+			latencies.compareAndSet(i, null, new LatencyHistogram());
+			h = latencies.get(i);
+		}
+		return h;
+	}
+
+	/** Returns the labels of an outcome
+	 * @param i index in latencies
+	 * @param quantile null if none
+	 * @return String
+	 */
+	private static String labels(int i, String quantile) {
+		int outcome = i % OUTCOMES;
+		return "{operation=\"" + OPERATIONS[i / OUTCOMES].name().toLowerCase(Locale.ROOT)
+				+ "\",outcome=\"" + (outcome == ERROR ? "ERROR" : STATUSES[outcome].name())
+				+ (quantile == null ? "\"}" : "\",quantile=\"" + quantile + "\"}");
+	}
+
+	/** Formats nanoseconds as seconds
+	 * @param nanos
+	 * @return String
+	 */
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+	}
+}
@@ -0,0 +1,102 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+
+/** Tests the Metrics of a Bank and of its BankStore
+ * @author JosephKalash
+ *
+ */
+
+public class MetricsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testOutcomes() {
+		Bank bank = new Bank();
+		Metrics metrics = new Metrics();
+		bank.setMetrics(metrics);
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 1000)));
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 1000)));
+		bank.deposit("123", Currency.USD, 500);
+		bank.withdraw("123", Currency.USD, 5000);
+		bank.withdraw("123", Currency.EUR, 1);
+		bank.transfer("123", "456", Currency.USD, 1);
+		bank.balanceInquiry("123", Currency.USD);
+		//Operations read back from a journal or a batch are measured too
+		bank.apply(Transaction.deposit("123", Currency.USD, 1));
+
+		assertEquals(1, metrics.count(Metrics.Operation.CREATE_ACCOUNT, TransactionResult.Status.OK));
+		assertEquals(1, metrics.count(Metrics.Operation.CREATE_ACCOUNT, TransactionResult.Status.ACCOUNT_EXISTS));
+		assertEquals(2, metrics.count(Metrics.Operation.DEPOSIT, TransactionResult.Status.OK));
+		assertEquals(0, metrics.failures(Metrics.Operation.DEPOSIT));
+		assertEquals(1, metrics.count(Metrics.Operation.WITHDRAW, TransactionResult.Status.INSUFFICIENT_FUNDS));
+		assertEquals(1, metrics.count(Metrics.Operation.WITHDRAW, TransactionResult.Status.MISSING_CURRENCY));
+		assertEquals(2, metrics.failures(Metrics.Operation.WITHDRAW));
+		assertEquals(1, metrics.count(Metrics.Operation.TRANSFER, TransactionResult.Status.UNKNOWN_ACCOUNT));
+		assertEquals(1, metrics.latency(Metrics.Operation.BALANCE_INQUIRY).count());
+		assertTrue(metrics.latency(Metrics.Operation.DEPOSIT).max() > 0);
+
+		String dump = metrics.toString();
+		assertTrue(dump.contains("bank_operations_total{operation=\"withdraw\",outcome=\"INSUFFICIENT_FUNDS\"} 1\n"));
+		assertTrue(dump.contains("bank_operation_seconds_count{operation=\"deposit\",outcome=\"OK\"} 2\n"));
+		assertTrue(dump.contains("bank_operation_seconds{operation=\"deposit\",outcome=\"OK\",quantile=\"0.99\"} "));
+		assertFalse(dump.contains("operation=\"delete_account\""));
+	}
+
+	/** Sampled metrics count every operation but only time some */
+	@Test
+	public void testSampling() {
+		Bank bank = new Bank();
+		Metrics metrics = new Metrics(100);
+		bank.setMetrics(metrics);
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 1000)));
+		for(int i = 0; i < 10000; i++)
+			bank.deposit("123", Currency.USD, 1);
+		assertEquals(10000, metrics.count(Metrics.Operation.DEPOSIT, TransactionResult.Status.OK));
+		long timed = metrics.latency(Metrics.Operation.DEPOSIT).count();
+		assertTrue(timed > 0 && timed < 1000);
+		assertTrue(metrics.toString().contains("bank_operations_total{operation=\"deposit\",outcome=\"OK\"} 10000\n"));
+	}
+
+	/** A bank without metrics measures nothing, even once they are attached midway */
+	@Test
+	public void testDetached() {
+		Bank bank = new Bank();
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 1000)));
+		assertNull(bank.metrics());
+		Metrics metrics = new Metrics();
+		bank.setMetrics(metrics);
+		bank.deposit("123", Currency.USD, 500);
+		bank.setMetrics(null);
+		bank.deposit("123", Currency.USD, 500);
+		assertEquals(0, metrics.latency(Metrics.Operation.CREATE_ACCOUNT).count());
+		assertEquals(1, metrics.latency(Metrics.Operation.DEPOSIT).count());
+	}
+
+	/** The store times its recovery, snapshots and journal forces */
+	@Test
+	public void testPersistence() throws IOException {
+		File directory = folder.newFolder();
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		Metrics metrics = store.metrics;
+		assertSame(metrics, store.bank.metrics());
+		assertEquals(1, metrics.count(Metrics.Operation.RECOVERY, TransactionResult.Status.OK));
+
+		store.bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 1000)));
+		store.bank.deposit("123", Currency.USD, 500);
+		assertTrue(metrics.count(Metrics.Operation.JOURNAL_SYNC, TransactionResult.Status.OK) >= 1);
+		assertEquals(0, metrics.failures(Metrics.Operation.JOURNAL_SYNC));
+
+		store.snapshot();
+		//Nothing changed since, so nothing is written
+		store.snapshot();
+		assertEquals(1, metrics.count(Metrics.Operation.SNAPSHOT, TransactionResult.Status.OK));
+		store.close();
+	}
+}
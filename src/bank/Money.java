@@ -0,0 +1,202 @@
+package bank;
+
+import java.nio.*;
+
+/** Money class holds the arithmetic on amounts of money.
+ *
+ * An amount is a long counting minor units of its currency: cents of a US Dollar,
+ * Yen of a Japanese Yen, see Currency.scale. Amounts are exact, every operation
+ * either gives the exact result or throws, and none of them allocates,
+ * so they can run on every deposit, withdrawal and transfer.
+ *
+ * Parsing and formatting work on the decimal text of the amount in units,
+ * never going through a double.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public final class Money {
+
+	/** Only static methods */
+	private Money() {
+	}
+
+	/** Adds two amounts of the same currency
+	 * @param a
+	 * @param b
+	 * @return long
+	 * @throws ArithmeticException if the sum does not fit in a long
+	 */
+	public static long add(long a, long b) {
+		long sum = a + b;
+		//Overflow if both operands have the sign the sum does not have
+		if(((a ^ sum) & (b ^ sum)) < 0)
+			throw new ArithmeticException("Amount overflow: " + a + " + " + b);
+		return sum;
+	}
+
+	/** Subtracts an amount from another of the same currency
+	 * @param a
+	 * @param b
+	 * @return long
+	 * @throws ArithmeticException if the difference does not fit in a long
+	 */
+	public static long subtract(long a, long b) {
+		long difference = a - b;
+		//Overflow if the operands have different signs and the difference has the sign of b
+		if(((a ^ b) & (a ^ difference)) < 0)
+			throw new ArithmeticException("Amount overflow: " + a + " - " + b);
+		return difference;
+	}
+
+	/** Converts an amount in units to minor units, rounding to the nearest minor unit.
+	 * Only meant to read the amounts stored as doubles by older versions
+	 * @param units
+	 * @param currency
+	 * @return long
+	 * @throws ArithmeticException if the amount is not a number or does not fit in a long
+	 */
+	public static long fromUnits(double units, Currency currency) {
+		double minor = Math.rint(units * currency.minorUnits);
+		if(Double.isNaN(minor) || minor >= 0x1p63 || minor < -0x1p63)
+			throw new ArithmeticException("Amount out of range: " + units);
+		return (long)minor;
+	}
+
+	/** Converts an amount counted in hundredths of a unit to minor units, rounding half up.
+	 * Only meant to read the amounts stored by older versions, which gave every currency
+	 * a hundred minor units, before Currency.scale
+	 * @param hundredths
+	 * @param currency
+	 * @return long
+	 * @throws ArithmeticException if the amount does not fit in a long
+	 */
+	public static long fromHundredths(long hundredths, Currency currency) {
+		if(currency.minorUnits >= 100)
+			return Math.multiplyExact(hundredths, currency.minorUnits / 100);
+		long divisor = 100 / currency.minorUnits;
+		long quotient = Math.floorDiv(hundredths, divisor);
+		return 2 * Math.floorMod(hundredths, divisor) >= divisor ? quotient + 1 : quotient;
+	}
+
+	/** Converts an amount in minor units to units, as a double.
+	 * Only meant to write the amounts in the format of older versions
+	 * @param minor
+	 * @param currency
+	 * @return double
+	 */
+	public static double toUnits(long minor, Currency currency) {
+		return (double)minor / currency.minorUnits;
+	}
+
+	/** Parses a decimal amount in units, such as "12.5" USD, to minor units (1250).
+	 * The amount may not have more decimals than the currency has minor unit digits
+	 * @param text
+	 * @param currency
+	 * @return long
+	 * @throws NumberFormatException if the text is not such an amount or does not fit in a long
+	 */
+	public static long parse(String text, Currency currency) {
+		int length = text.length();
+		int i = 0;
+		boolean negative = false;
+		if(i < length && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+			negative = text.charAt(i++) == '-';
+
+		//Accumulate negatively so that Long.MIN_VALUE parses too
+		long value = 0;
+		int digits = 0, decimals = -1;
+		for(; i < length; i++) {
+			char ch = text.charAt(i);
+			if(ch == '.' && decimals < 0) {
+				decimals = 0;
+				continue;
+			}
+			if(ch < '0' || ch > '9')
+				throw new NumberFormatException("Invalid amount: " + text);
+			if(decimals >= 0 && ++decimals > currency.scale)
+				throw new NumberFormatException(currency + " amounts have at most " + currency.scale + " decimals: " + text);
+			value = digit(value, ch - '0', text);
+			digits++;
+		}
+		if(digits == 0)
+			throw new NumberFormatException("Invalid amount: " + text);
+
+		//Pad the missing decimals
+		for(int d = Math.max(decimals, 0); d < currency.scale; d++)
+			value = digit(value, 0, text);
+
+		if(negative)
+			return value;
+		if(value == Long.MIN_VALUE)
+			throw new NumberFormatException("Amount out of range: " + text);
+		return -value;
+	}
+
+	/** Formats an amount in minor units as a decimal amount in units, with all the currency decimals
+	 * @param minor
+	 * @param currency
+	 * @return String
+	 */
+	public static String format(long minor, Currency currency) {
+		String digits = Long.toString(minor);
+		if(currency.scale == 0)
+			return digits;
+
+		int sign = minor < 0 ? 1 : 0;
+		StringBuilder sb = new StringBuilder(digits.length() + currency.scale + 2);
+		sb.append(digits, 0, sign);
+		//At least one digit before the point
+		for(int pad = digits.length() - sign; pad <= currency.scale; pad++)
+			sb.append('0');
+		sb.append(digits, sign, digits.length());
+		sb.insert(sb.length() - currency.scale, '.');
+		return sb.toString();
+	}
+
+	/** Writes an amount in minor units as ASCII text, the same as format(), without allocating
+	 * @param minor
+	 * @param currency
+	 * @param out
+	 * @return void
+	 * @throws BufferOverflowException if out is too small
+	 */
+	public static void format(long minor, Currency currency, ByteBuffer out) {
+		//Digits of the negative value, which holds Long.MIN_VALUE
+		long value = minor < 0 ? minor : -minor;
+		int digits = 1;
+		for(long rest = value / 10; rest != 0; rest /= 10)
+			digits++;
+		int width = Math.max(digits, currency.scale + 1);
+		int length = width + (minor < 0 ? 1 : 0) + (currency.scale > 0 ? 1 : 0);
+		if(out.remaining() < length)
+			throw new BufferOverflowException();
+
+		//Written from the last digit back
+		int end = out.position() + length;
+		int p = end;
+		for(int i = 0; i < width; i++) {
+			if(i == currency.scale && i > 0)
+				out.put(--p, (byte)'.');
+			out.put(--p, (byte)('0' - value % 10));
+			value /= 10;
+		}
+		if(minor < 0)
+			out.put(--p, (byte)'-');
+		out.position(end);
+	}
+
+	/** Appends a decimal digit to a negative accumulated value
+	 * @param value
+	 * @param digit
+	 * @param text to report an overflow
+	 * @return long
+	 * @throws NumberFormatException on overflow
+	 */
+	private static long digit(long value, int digit, String text) {
+		if(value < (Long.MIN_VALUE + digit) / 10)
+			throw new NumberFormatException("Amount out of range: " + text);
+		return value * 10 - digit;
+	}
+}
@@ -0,0 +1,115 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+
+/** Tests the fixed-point Money arithmetic
+ * @author JosephKalash
+ *
+ */
+
+public class MoneyTest {
+
+	@Test
+	public void testParseUsesCurrencyScale() {
+		assertEquals(1250, Money.parse("12.5", Currency.USD));
+		assertEquals(1205, Money.parse("12.05", Currency.EUR));
+		assertEquals(1200, Money.parse("12", Currency.CAD));
+		assertEquals(1200, Money.parse("12.", Currency.CAD));
+		assertEquals(5, Money.parse(".05", Currency.USD));
+		assertEquals(-5, Money.parse("-0.05", Currency.USD));
+		assertEquals(1500, Money.parse("1500", Currency.JPY));
+		assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07", Currency.USD));
+		assertEquals(Long.MIN_VALUE, Money.parse("-92233720368547758.08", Currency.USD));
+	}
+
+	@Test
+	public void testParseRejectsInvalidAmounts() {
+		String[][] invalid = {{"1.234", "USD"}, {"1.5", "JPY"}, {"", "USD"}, {"-", "USD"}, {".", "USD"},
+				{"1.2.3", "USD"}, {"1e3", "USD"}, {"12 ", "USD"}, {"92233720368547758.08", "USD"}};
+		for(String[] amount : invalid) {
+			try {
+				Money.parse(amount[0], Currency.valueOf(amount[1]));
+				fail(amount[0] + " " + amount[1]);
+			}
+			catch(NumberFormatException e) {
+				//Expected
+			}
+		}
+	}
+
+	@Test
+	public void testFormat() {
+		assertEquals("12.50", Money.format(1250, Currency.USD));
+		assertEquals("0.05", Money.format(5, Currency.USD));
+		assertEquals("-0.05", Money.format(-5, Currency.USD));
+		assertEquals("1500", Money.format(1500, Currency.JPY));
+		assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE, Currency.USD));
+		assertEquals(Long.MIN_VALUE, Money.parse(Money.format(Long.MIN_VALUE, Currency.EUR), Currency.EUR));
+	}
+
+	@Test
+	public void testFormatToBuffer() {
+		long[] amounts = {0, 5, -5, 1250, 100, Long.MAX_VALUE, Long.MIN_VALUE};
+		ByteBuffer out = ByteBuffer.allocate(32);
+		for(Currency c : Currency.values())
+			for(long amount : amounts) {
+				out.clear();
+				Money.format(amount, c, out);
+				assertEquals(Money.format(amount, c), new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+			}
+	}
+
+	@Test
+	public void testOverflowIsDetected() {
+		assertEquals(Long.MAX_VALUE, Money.add(Long.MAX_VALUE - 1, 1));
+		assertEquals(Long.MIN_VALUE, Money.subtract(Long.MIN_VALUE + 1, 1));
+		try {
+			Money.add(Long.MAX_VALUE, 1);
+			fail();
+		}
+		catch(ArithmeticException e) {
+			//Expected
+		}
+		try {
+			Money.subtract(Long.MIN_VALUE, 1);
+			fail();
+		}
+		catch(ArithmeticException e) {
+			//Expected
+		}
+		try {
+			Money.subtract(0, Long.MIN_VALUE);
+			fail();
+		}
+		catch(ArithmeticException e) {
+			//Expected
+		}
+	}
+
+	/** Ten cents added a million times is exactly 100000, where doubles drift */
+	@Test
+	public void testNoDrift() {
+		long cents = 0;
+		double units = 0;
+		for(int i = 0; i < 1000000; i++) {
+			cents = Money.add(cents, Money.parse("0.10", Currency.USD));
+			units += 0.10;
+		}
+		assertEquals("100000.00", Money.format(cents, Currency.USD));
+		assertTrue(units != 100000.0);
+	}
+
+	@Test
+	public void testLegacyUnitsConversion() {
+		assertEquals(1999, Money.fromUnits(19.99, Currency.USD));
+		assertEquals(20, Money.fromUnits(19.6, Currency.JPY));
+		assertEquals(19.99, Money.toUnits(1999, Currency.USD), 0);
+		assertEquals(1999, Money.fromHundredths(1999, Currency.USD));
+		assertEquals(20, Money.fromHundredths(1950, Currency.JPY));
+		assertEquals(19, Money.fromHundredths(1949, Currency.JPY));
+		assertEquals(-1, Money.fromHundredths(-150, Currency.JPY));
+	}
+}
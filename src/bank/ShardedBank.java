@@ -0,0 +1,610 @@
+package bank;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** ShardedBank class partitions the accounts over shards by a hash of their ID.
+ * Every shard is owned by a single worker thread that applies the operations
+ * posted to its queue one after the other, so a shard's accounts need no lock
+ * and shards never contend with each other: throughput grows with the number of cores.
+ *
+ * Operations are submitted asynchronously and complete a CompletableFuture once applied,
+ * the blocking methods mirroring those of Bank wait for it.
+ *
+ * A transfer between two shards runs in two phases, so that no money is created or lost:
+ * 		1. The sender's shard takes the amount from the sender, counts it as in flight,
+ * 		   and posts the credit to the receiver's shard
+ * 		2. The receiver's shard credits the receiver, or refuses (unknown account, missing currency, overflow),
+ * 		   and posts the outcome back: the sender's shard settles the amount in flight,
+ * 		   giving it back to the sender if the credit was refused
+ * An amount in flight still counts against the sender's balance limit,
+ * so giving it back never overflows, and the sender's balance and account
+ * cannot be deleted until it is settled (TRANSFER_PENDING), so it is given back
+ * to the same account. A task that throws completes its future exceptionally,
+ * a transfer being settled all the same.
+ *
+ * Unlike Bank, a ShardedBank keeps its accounts in memory only, without journal,
+ * history, search indexes or metrics.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class ShardedBank implements Closeable {
+
+	/** Operations a worker applies before checking its queue again */
+	private static final int BATCH = 1024;
+
+	/** Shards, indexed by shardOf() */
+	private final Shard[] shards;
+
+	/** Transfers between shards not settled yet */
+	private final AtomicLong transfers = new AtomicLong();
+
+	/** Set once the bank is closed */
+	private volatile boolean closed;
+
+	/** Constructor that starts the worker of every shard
+	 * @param shards number of shards, usually the number of cores
+	 */
+	ShardedBank(int shards) {
+		if(shards < 1)
+			throw new IllegalArgumentException("Invalid number of shards " + shards);
+		this.shards = new Shard[shards];
+		for(int i = 0; i < shards; i++)
+			this.shards[i] = new Shard(i);
+	}
+
+	/** Returns the number of shards
+	 * @return int
+	 */
+	public int shards() {
+		return shards.length;
+	}
+
+	/** Returns the shard an account belongs to. Invalid IDs go to shard 0, which refuses them
+	 * @param accountID
+	 * @return int
+	 */
+	int shardOf(String accountID) {
+		long key = AccountIndex.key(accountID);
+		if(key < 0)
+			return 0;
+		//Another mix than AccountIndex's, so a shard's keys still spread over its whole table
+		return (int)((key * 0xC2B2AE3D27D4EB4FL) >>> 33) % shards.length;
+	}
+
+	/** Runs a computation on the worker of an account's shard, with every account of the shard at hand
+	 * @param accountID
+	 * @param computation
+	 * @return CompletableFuture<T>
+	 */
+	<T> CompletableFuture<T> call(String accountID, Callable<T> computation) {
+		checkOpen();
+		return shards[shardOf(accountID)].call(computation);
+	}
+
+	/** Applies a transaction in the shard of its account
+	 * @param t
+	 * @return CompletableFuture<TransactionResult> completed once applied
+	 */
+	public CompletableFuture<TransactionResult> submit(final Transaction t) {
+		checkOpen();
+		final CompletableFuture<TransactionResult> result = new CompletableFuture<TransactionResult>();
+		final Shard shard = shards[shardOf(t.accountID)];
+		shard.post(new Runnable() {
+			public void run() {
+				try {
+					TransactionResult r = shard.apply(t, result);
+					//A transfer to another shard completes once settled
+					if(r != null)
+						result.complete(r);
+				}
+				catch(RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/** Returns the balance of an account in a currency, see Bank.balanceInquiry()
+	 * @param accountID
+	 * @param currency
+	 * @return CompletableFuture<TransactionResult>
+	 */
+	public CompletableFuture<TransactionResult> submitInquiry(final String accountID, final Currency currency) {
+		checkOpen();
+		final CompletableFuture<TransactionResult> result = new CompletableFuture<TransactionResult>();
+		final Shard shard = shards[shardOf(accountID)];
+		shard.post(new Runnable() {
+			public void run() {
+				try {
+					result.complete(shard.inquiry(accountID, currency));
+				}
+				catch(RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**1. Creating new account with the given opening balances
+	 * @param accountID
+	 * @param firstName
+	 * @param lastName
+	 * @param balances
+	 * @return TransactionResult
+	 * */
+	public TransactionResult createAccount(String accountID, String firstName, String lastName, List<Balance> balances) {
+		return submit(Transaction.createAccount(accountID, firstName, lastName, balances)).join();
+	}
+
+	/**2. Deleting the balance in a given currency of an account
+	 * @param accountID
+	 * @param currency
+	 * @return TransactionResult
+	 * */
+	public TransactionResult deleteAccountBalance(String accountID, Currency currency) {
+		return submit(Transaction.deleteBalance(accountID, currency)).join();
+	}
+
+	/**3. Deleting account ID
+	 * @param accountID
+	 * @return TransactionResult
+	 * */
+	public TransactionResult deleteAccountID(String accountID) {
+		return submit(Transaction.deleteAccount(accountID)).join();
+	}
+
+	/**4. Balance inquiry
+	 * @param accountID
+	 * @param currency
+	 * @return TransactionResult
+	 * */
+	public TransactionResult balanceInquiry(String accountID, Currency currency) {
+		return submitInquiry(accountID, currency).join();
+	}
+
+	/**5. Withdrawal
+	 * @param accountID
+	 * @param currency
+	 * @param amount in minor units
+	 * @return TransactionResult
+	 * */
+	public TransactionResult withdraw(String accountID, Currency currency, long amount) {
+		return submit(Transaction.withdraw(accountID, currency, amount)).join();
+	}
+
+	/**6. Deposit
+	 * @param accountID
+	 * @param currency
+	 * @param amount in minor units
+	 * @return TransactionResult
+	 * */
+	public TransactionResult deposit(String accountID, Currency currency, long amount) {
+		return submit(Transaction.deposit(accountID, currency, amount)).join();
+	}
+
+	/**7. Transfer between the balances in a given currency of two accounts.
+	 * The result describes the sender's balance, or the receiver for receiver-side failures.
+	 * @param fromID
+	 * @param toID
+	 * @param currency
+	 * @param amount in minor units
+	 * @return TransactionResult
+	 * */
+	public TransactionResult transfer(String fromID, String toID, Currency currency, long amount) {
+		return submit(Transaction.transfer(fromID, toID, currency, amount)).join();
+	}
+
+	/** Returns the number of accounts
+	 * @return int
+	 */
+	public int size() {
+		checkOpen();
+		List<CompletableFuture<Long>> parts = new ArrayList<CompletableFuture<Long>>();
+		for(final Shard shard : shards)
+			parts.add(shard.call(new Callable<Long>() {
+				public Long call() {
+					return (long)shard.index.size();
+				}
+			}));
+		long size = 0;
+		for(CompletableFuture<Long> part : parts)
+			size += part.join();
+		return (int)size;
+	}
+
+	/** Returns the total of the balances in a currency, including the amounts in flight.
+	 * It stays the same across transfers, but is only exact while no transfer between shards is running
+	 * @param currency
+	 * @return long in minor units
+	 * @throws ArithmeticException if the total does not fit in a long, wrapped in a CompletionException if a shard's does not
+	 */
+	public long total(final Currency currency) {
+		checkOpen();
+		List<CompletableFuture<Long>> parts = new ArrayList<CompletableFuture<Long>>();
+		for(final Shard shard : shards)
+			parts.add(shard.call(new Callable<Long>() {
+				public Long call() {
+					int c = currency.ordinal();
+					long total = shard.inFlight[c];
+					for(Account acc : shard.index.accounts())
+						total = Money.add(total, acc.amounts[c]);
+					return total;
+				}
+			}));
+		long total = 0;
+		for(CompletableFuture<Long> part : parts)
+			total = Money.add(total, part.join());
+		return total;
+	}
+
+	/** Applies the operations already submitted, then stops the workers.
+	 * No operation may be submitted meanwhile
+	 */
+	@Override
+	public synchronized void close() {
+		if(closed)
+			return;
+		closed = true;
+		try {
+			//Every operation submitted so far is started once each shard ran a last task...
+			List<CompletableFuture<Boolean>> drained = new ArrayList<CompletableFuture<Boolean>>();
+			for(Shard shard : shards)
+				drained.add(shard.call(new Callable<Boolean>() {
+					public Boolean call() {
+						return true;
+					}
+				}));
+			for(CompletableFuture<Boolean> d : drained)
+				d.join();
+			//...then the transfers between shards they started settle
+			while(transfers.get() > 0)
+				wait();
+
+			for(Shard shard : shards)
+				shard.post(shard.stop);
+			for(Shard shard : shards)
+				shard.worker.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Throws IllegalStateException once the bank is closed */
+	private void checkOpen() {
+		if(closed)
+			throw new IllegalStateException("The bank is closed.");
+	}
+
+	/** Counts a transfer between shards that settled, waking up close() after the last one */
+	private void settled() {
+		if(transfers.decrementAndGet() == 0 && closed) {
+			synchronized(this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/** Accounts of one shard and the worker thread owning them.
+	 * Every field and every account of the shard is only used by the worker */
+	private final class Shard implements Runnable {
+
+		/** Accounts of the shard */
+		final AccountIndex index = new AccountIndex();
+
+		/** Amounts taken from senders of this shard by transfers to another shard not settled yet */
+		final long[] inFlight = new long[Account.CURRENCIES];
+
+		/** Operations waiting for the worker */
+		final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+
+		/** Task stopping the worker */
+		final Runnable stop = new Runnable() {
+			public void run() {
+				running = false;
+			}
+		};
+
+		/** Thread applying the operations */
+		final Thread worker;
+
+		/** Cleared by the stop task */
+		boolean running = true;
+
+		Shard(int number) {
+			worker = new Thread(this, "bank-shard-" + number);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		/** Queues a task for the worker
+		 * @param task
+		 * @return void
+		 */
+		void post(Runnable task) {
+			queue.add(task);
+		}
+
+		/** Runs a computation on the worker
+		 * @param computation
+		 * @return CompletableFuture<T>
+		 */
+		<T> CompletableFuture<T> call(final Callable<T> computation) {
+			final CompletableFuture<T> result = new CompletableFuture<T>();
+			post(new Runnable() {
+				public void run() {
+					try {
+						result.complete(computation.call());
+					}
+					catch(Exception e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+			return result;
+		}
+
+		/** Body of the worker: takes the tasks in batches until stopped */
+		@Override
+		public void run() {
+			List<Runnable> batch = new ArrayList<Runnable>(BATCH);
+			while(running) {
+				try {
+					batch.add(queue.take());
+				}
+				catch(InterruptedException e) {
+					return;
+				}
+				queue.drainTo(batch, BATCH - 1);
+				for(int i = 0; i < batch.size() && running; i++)
+					batch.get(i).run();
+				batch.clear();
+			}
+		}
+
+		/** Applies a transaction of an account of this shard
+		 * @param t
+		 * @param result completed later by a transfer to another shard
+		 * @return TransactionResult null if result is completed later
+		 */
+		TransactionResult apply(Transaction t, CompletableFuture<TransactionResult> result) {
+			switch(t.type) {
+				case CREATE_ACCOUNT: return create(t.accountID, t.firstName, t.lastName, t.balances);
+				case DELETE_BALANCE: return deleteBalance(t.accountID, t.currency);
+				case DELETE_ACCOUNT: return delete(t.accountID);
+				case WITHDRAW: return withdraw(t.accountID, t.currency, t.amount);
+				case DEPOSIT: return deposit(t.accountID, t.currency, t.amount);
+				case TRANSFER: return transfer(t.accountID, t.toID, t.currency, t.amount, t.currency, t.amount, result);
+				case EXCHANGE_TRANSFER: return transfer(t.accountID, t.toID, t.currency, t.amount, t.toCurrency, t.toAmount, result);
+				default: throw new IllegalArgumentException("Unknown transaction type " + t.type);
+			}
+		}
+
+		/** See Bank.createAccount() */
+		TransactionResult create(String accountID, String firstName, String lastName, List<Balance> balances) {
+			Account acc = new Account();
+			acc.accountID = accountID;
+			try {
+				acc.checkID();
+			}
+			catch(IllegalIDException e) {
+				return new TransactionResult(TransactionResult.Status.INVALID_ID, accountID, null);
+			}
+			for(Balance b : balances)
+				if(b.currency == null || b.value < 0)
+					return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, b.currency, b.value, 0);
+			if(index.get(accountID) != null)
+				return new TransactionResult(TransactionResult.Status.ACCOUNT_EXISTS, accountID, null);
+
+			acc.firstName = firstName;
+			acc.lastName = lastName;
+			for(Balance b : balances)
+				if(!acc.containsBalanceWithCurrency(b.currency))
+					acc.openBalance(b.currency, b.value);
+			index.put(acc);
+			return new TransactionResult(TransactionResult.Status.OK, accountID, null);
+		}
+
+		/** See Bank.deleteAccountBalance() */
+		TransactionResult deleteBalance(String accountID, Currency currency) {
+			Account acc = index.get(accountID);
+			if(acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			if(!acc.containsBalanceWithCurrency(currency))
+				return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+			if(acc.sending != null && acc.sending[currency.ordinal()] != 0)
+				return new TransactionResult(TransactionResult.Status.TRANSFER_PENDING, accountID, currency);
+			long value = acc.balance(currency);
+			acc.closeBalance(currency);
+			return new TransactionResult(TransactionResult.Status.OK, accountID, currency, 0, value);
+		}
+
+		/** See Bank.deleteAccountID() */
+		TransactionResult delete(String accountID) {
+			Account acc = index.get(accountID);
+			if(acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, null);
+			if(acc.sending != null)
+				for(long amount : acc.sending)
+					if(amount != 0)
+						return new TransactionResult(TransactionResult.Status.TRANSFER_PENDING, accountID, null);
+			index.remove(accountID);
+			return new TransactionResult(TransactionResult.Status.OK, accountID, null);
+		}
+
+		/** See Bank.balanceInquiry() */
+		TransactionResult inquiry(String accountID, Currency currency) {
+			Account acc = index.get(accountID);
+			if(acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			if(!acc.containsBalanceWithCurrency(currency))
+				return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+			return new TransactionResult(TransactionResult.Status.OK, accountID, currency, 0, acc.balance(currency));
+		}
+
+		/** See Bank.withdraw() */
+		TransactionResult withdraw(String accountID, Currency currency, long amount) {
+			if(amount <= 0)
+				return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, currency, amount, 0);
+			Account acc = index.get(accountID);
+			if(acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			if(!acc.containsBalanceWithCurrency(currency))
+				return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+			int c = currency.ordinal();
+			if(amount > acc.amounts[c])
+				return new TransactionResult(TransactionResult.Status.INSUFFICIENT_FUNDS, accountID, currency, amount, acc.amounts[c]);
+			acc.amounts[c] -= amount;
+			return new TransactionResult(TransactionResult.Status.OK, accountID, currency, amount, acc.amounts[c]);
+		}
+
+		/** See Bank.deposit() */
+		TransactionResult deposit(String accountID, Currency currency, long amount) {
+			if(amount <= 0)
+				return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, accountID, currency, amount, 0);
+			Account acc = index.get(accountID);
+			if(acc == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, accountID, currency);
+			if(!acc.containsBalanceWithCurrency(currency))
+				return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, accountID, currency);
+			int c = currency.ordinal();
+			if(!fits(acc, c, amount))
+				return new TransactionResult(TransactionResult.Status.OVERFLOW, accountID, currency, amount, acc.amounts[c]);
+			acc.amounts[c] += amount;
+			return new TransactionResult(TransactionResult.Status.OK, accountID, currency, amount, acc.amounts[c]);
+		}
+
+		/** Applies a transfer whose sender is in this shard, in a single step if the receiver is too,
+		 * see Bank.transfer(). Both currencies and amounts are the same for a plain transfer
+		 * @param result completed once settled if the receiver is in another shard
+		 * @return TransactionResult null if the receiver is in another shard and result is completed later
+		 */
+		TransactionResult transfer(final String fromID, final String toID, final Currency currency, final long amount,
+				final Currency toCurrency, final long toAmount, final CompletableFuture<TransactionResult> result) {
+			if(amount <= 0 || toAmount <= 0)
+				return new TransactionResult(TransactionResult.Status.INVALID_AMOUNT, fromID, currency, amount, 0);
+			Account from = index.get(fromID);
+			if(from == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, fromID, currency);
+			if(!from.containsBalanceWithCurrency(currency))
+				return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, fromID, currency);
+			final int c = currency.ordinal();
+			if(from.amounts[c] < amount)
+				return new TransactionResult(TransactionResult.Status.INSUFFICIENT_FUNDS, fromID, currency, amount, from.amounts[c]);
+
+			final Shard other = shards[shardOf(toID)];
+			if(other == this) {
+				TransactionResult refused = refuseCredit(index.get(toID), toID, toCurrency, toAmount);
+				if(refused != null)
+					return refused;
+				from.amounts[c] -= amount;
+				index.get(toID).amounts[toCurrency.ordinal()] += toAmount;
+				return new TransactionResult(TransactionResult.Status.OK, fromID, currency, amount, from.amounts[c]);
+			}
+
+			//Phase 1: the amount leaves the sender and is in flight until the receiver's shard answers
+			from.amounts[c] -= amount;
+			if(from.sending == null)
+				from.sending = new long[Account.CURRENCIES];
+			from.sending[c] += amount;
+			inFlight[c] += amount;
+			transfers.incrementAndGet();
+			final TransactionResult sent = new TransactionResult(TransactionResult.Status.OK, fromID, currency, amount, from.amounts[c]);
+			other.post(new Runnable() {
+				public void run() {
+					//Phase 2: credit the receiver, then settle in the sender's shard whatever happened
+					TransactionResult refused = null;
+					RuntimeException failure = null;
+					try {
+						refused = other.credit(toID, toCurrency, toAmount);
+					}
+					catch(RuntimeException e) {
+						failure = e;
+					}
+					final TransactionResult outcome = refused;
+					final RuntimeException error = failure;
+					post(new Runnable() {
+						public void run() {
+							try {
+								//Still the same account: it cannot be deleted while sending
+								Account sender = index.get(fromID);
+								sender.sending[c] -= amount;
+								inFlight[c] -= amount;
+								//Given back unless credited
+								if(outcome != null || error != null)
+									sender.amounts[c] += amount;
+							}
+							catch(RuntimeException e) {
+								result.completeExceptionally(e);
+							}
+							finally {
+								settled();
+							}
+							if(error != null)
+								result.completeExceptionally(error);
+							else
+								result.complete(outcome == null ? sent : outcome);
+						}
+					});
+				}
+			});
+			return null;
+		}
+
+		/** Credits the receiver of a transfer from another shard
+		 * @param toID
+		 * @param toCurrency
+		 * @param toAmount
+		 * @return TransactionResult null if credited, the receiver-side failure otherwise
+		 */
+		TransactionResult credit(String toID, Currency toCurrency, long toAmount) {
+			Account to = index.get(toID);
+			TransactionResult refused = refuseCredit(to, toID, toCurrency, toAmount);
+			if(refused == null)
+				to.amounts[toCurrency.ordinal()] += toAmount;
+			return refused;
+		}
+
+		/** Checks the receiver of a transfer, see Bank.transferLocked()
+		 * @param to null if it does not exist
+		 * @param toID
+		 * @param toCurrency
+		 * @param toAmount
+		 * @return TransactionResult null if it can be credited, the receiver-side failure otherwise
+		 */
+		TransactionResult refuseCredit(Account to, String toID, Currency toCurrency, long toAmount) {
+			if(to == null)
+				return new TransactionResult(TransactionResult.Status.UNKNOWN_ACCOUNT, toID, toCurrency);
+			if(!to.containsBalanceWithCurrency(toCurrency))
+				return new TransactionResult(TransactionResult.Status.MISSING_CURRENCY, toID, toCurrency);
+			int tc = toCurrency.ordinal();
+			if(!fits(to, tc, toAmount))
+				return new TransactionResult(TransactionResult.Status.OVERFLOW, toID, toCurrency, toAmount, to.amounts[tc]);
+			return null;
+		}
+	}
+
+	/** Returns true if a balance can receive an amount, counting what it is sending
+	 * as still part of it so that it can be given back
+	 * @param acc
+	 * @param c currency ordinal
+	 * @param amount
+	 * @return boolean
+	 */
+	private static boolean fits(Account acc, int c, long amount) {
+		try {
+			Money.add(Money.add(acc.amounts[c], acc.sending == null ? 0 : acc.sending[c]), amount);
+			return true;
+		}
+		catch(ArithmeticException e) {
+			return false;
+		}
+	}
+}
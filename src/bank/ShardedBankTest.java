@@ -0,0 +1,184 @@
+package bank;
+
+import static org.junit.Assert.*;
+import static bank.TestBanks.id;
+import org.junit.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Tests the ShardedBank: single-shard operations, transfers between shards and money conservation
+ * @author JosephKalash
+ *
+ */
+
+public class ShardedBankTest {
+
+	private static final int SHARDS = 4;
+	private static final int ACCOUNTS = 1000;
+	private static final long OPENING = 100000;
+
+	private ShardedBank b;
+
+	/** Creates ACCOUNTS accounts holding OPENING USD */
+	@Before
+	public void setUp() {
+		b = new ShardedBank(SHARDS);
+		for(int i = 0; i < ACCOUNTS; i++)
+			assertTrue(b.createAccount(id(i), "First" + i, "Last" + i,
+					Collections.singletonList(new Balance(Currency.USD, OPENING))).isSuccess());
+	}
+
+	@After
+	public void tearDown() {
+		b.close();
+	}
+
+	/** Returns the ID of an account in another shard than the given one */
+	private String elsewhere(String accountID) {
+		for(int i = 0; ; i++)
+			if(b.shardOf(id(i)) != b.shardOf(accountID))
+				return id(i);
+	}
+
+	/** Returns the ID of another account in the same shard as the given one */
+	private String sameShard(String accountID) {
+		for(int i = 0; ; i++)
+			if(!id(i).equals(accountID) && b.shardOf(id(i)) == b.shardOf(accountID))
+				return id(i);
+	}
+
+	@Test
+	public void testOperations() {
+		assertEquals(ACCOUNTS, b.size());
+		assertEquals(TransactionResult.Status.ACCOUNT_EXISTS, b.createAccount(id(0), "A", "B", new ArrayList<Balance>()).status);
+		assertEquals(TransactionResult.Status.INVALID_ID, b.createAccount("1x", "A", "B", new ArrayList<Balance>()).status);
+		assertEquals(OPENING + 50, b.deposit(id(0), Currency.USD, 50).balance);
+		assertEquals(OPENING, b.withdraw(id(0), Currency.USD, 50).balance);
+		assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS, b.withdraw(id(0), Currency.USD, OPENING + 1).status);
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, b.deposit(id(0), Currency.EUR, 1).status);
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, b.balanceInquiry("99999", Currency.USD).status);
+		assertEquals(TransactionResult.Status.INVALID_AMOUNT, b.deposit(id(0), Currency.USD, 0).status);
+		assertEquals(OPENING, b.deleteAccountBalance(id(1), Currency.USD).balance);
+		assertEquals(TransactionResult.Status.OK, b.deleteAccountID(id(1)).status);
+		assertEquals(ACCOUNTS - 1, b.size());
+	}
+
+	@Test
+	public void testTransfers() {
+		String from = id(0);
+		String near = sameShard(from);
+		String far = elsewhere(from);
+
+		TransactionResult r = b.transfer(from, near, Currency.USD, 100);
+		assertTrue(r.isSuccess());
+		assertEquals(OPENING - 100, r.balance);
+		r = b.transfer(from, far, Currency.USD, 200);
+		assertTrue(r.isSuccess());
+		assertEquals(OPENING - 300, r.balance);
+		//The receiver is credited by the time the transfer completes
+		assertEquals(OPENING + 200, b.balanceInquiry(far, Currency.USD).balance);
+		assertEquals(OPENING + 100, b.balanceInquiry(near, Currency.USD).balance);
+		assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS, b.transfer(from, far, Currency.USD, OPENING).status);
+	}
+
+	/** A credit refused by the receiver's shard gives the amount back to the sender */
+	@Test
+	public void testRefusedCredit() {
+		String from = id(0);
+		String far = elsewhere(from);
+		b.deleteAccountBalance(far, Currency.USD);
+		TransactionResult r = b.transfer(from, far, Currency.USD, 100);
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, r.status);
+		assertEquals(far, r.accountID);
+
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, b.transfer(from, "99999", Currency.USD, 100).status);
+		assertEquals(OPENING, b.balanceInquiry(from, Currency.USD).balance);
+
+		//The receiver cannot hold the amount
+		b.createAccount("99999", "Rich", "Guy", Collections.singletonList(new Balance(Currency.USD, Long.MAX_VALUE - 50)));
+		assertEquals(TransactionResult.Status.OVERFLOW, b.transfer(from, "99999", Currency.USD, 100).status);
+		assertEquals(OPENING, b.balanceInquiry(from, Currency.USD).balance);
+	}
+
+	/** The sender's balance and account cannot be deleted while a transfer from it is in flight,
+	 * so a refused credit is given back to that same account */
+	@Test
+	public void testDeleteDuringTransfer() {
+		String from = id(0);
+		String far = elsewhere(from);
+		b.deleteAccountBalance(far, Currency.USD);
+		//Holds the receiver's shard so that the credit stays in flight
+		final CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<Boolean> held = b.call(far, new Callable<Boolean>() {
+			public Boolean call() throws InterruptedException {
+				return release.await(10, TimeUnit.SECONDS);
+			}
+		});
+		CompletableFuture<TransactionResult> transfer = b.submit(Transaction.transfer(from, far, Currency.USD, 100));
+		CompletableFuture<TransactionResult> deleteBalance = b.submit(Transaction.deleteBalance(from, Currency.USD));
+		CompletableFuture<TransactionResult> deleteAccount = b.submit(Transaction.deleteAccount(from));
+
+		assertEquals(TransactionResult.Status.TRANSFER_PENDING, deleteBalance.join().status);
+		assertEquals(TransactionResult.Status.TRANSFER_PENDING, deleteAccount.join().status);
+		assertFalse(transfer.isDone());
+		release.countDown();
+		assertTrue(held.join());
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, transfer.join().status);
+		TransactionResult deleted = b.deleteAccountBalance(from, Currency.USD);
+		assertTrue(deleted.isSuccess());
+		assertEquals(OPENING, deleted.balance);
+		assertTrue(b.deleteAccountID(from).isSuccess());
+	}
+
+	/** Many threads submitting random transfers asynchronously, most between shards,
+	 * some refused, must neither create nor destroy money */
+	@Test
+	public void testTransfersConserveMoney() throws Exception {
+		final int threads = 4;
+		final int transfers = 50000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		for(int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			done.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					List<CompletableFuture<TransactionResult>> results = new ArrayList<CompletableFuture<TransactionResult>>();
+					for(int i = 0; i < transfers; i++) {
+						//One in 100 goes to an unknown account and is given back
+						String to = random.nextInt(100) == 0 ? "99999" : id(random.nextInt(ACCOUNTS));
+						results.add(b.submit(Transaction.transfer(id(random.nextInt(ACCOUNTS)), to,
+								Currency.USD, 1 + random.nextInt(2 * (int)OPENING))));
+					}
+					for(CompletableFuture<TransactionResult> r : results)
+						r.join();
+					return null;
+				}
+			}));
+		}
+		for(Future<?> f : done)
+			f.get();
+		executor.shutdown();
+
+		assertEquals(ACCOUNTS * OPENING, b.total(Currency.USD));
+		for(int i = 0; i < ACCOUNTS; i++)
+			assertTrue(b.balanceInquiry(id(i), Currency.USD).balance >= 0);
+	}
+
+	/** Closing waits for the transfers already submitted */
+	@Test
+	public void testClose() {
+		List<CompletableFuture<TransactionResult>> results = new ArrayList<CompletableFuture<TransactionResult>>();
+		for(int i = 0; i < 10000; i++)
+			results.add(b.submit(Transaction.transfer(id(i % ACCOUNTS), id((i * 7) % ACCOUNTS), Currency.USD, 1)));
+		b.close();
+		for(CompletableFuture<TransactionResult> r : results)
+			assertTrue(r.isDone());
+		try {
+			b.deposit(id(0), Currency.USD, 1);
+			fail();
+		}
+		catch(IllegalStateException e) {
+			//Closed
+		}
+	}
+}
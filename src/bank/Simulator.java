@@ -0,0 +1,502 @@
+package bank;
+
+import java.util.*;
+import java.io.*;
+
+/** Simulator that shows
+ * the multiple functionalities provided with the Bank class
+ * 
+ * Consists of a simple menu that reads the user's input
+ * and calls the headless Bank operations
+ * @author JosephKalash
+ *
+ */
+
+public class Simulator {
+
+	/** Bank object that we will be testing */ 
+	private static Bank bank;
+	
+	/** Store keeping the bank on disk, null until readFromDisk() */
+	private static BankStore store;
+	
+	/** Default constructor */
+	Simulator() {
+		bank = new Bank();
+	}
+	
+	/** Methods that displays menu.
+	 * Loops until user explicitly Quits
+	 * @throws Exception
+	 */
+	public static void displayMenu() throws Exception {
+		Scanner sc;
+		Integer choice;
+		do {
+			sc = new Scanner (System.in);
+			choice = menuOption(sc);
+		}
+		while(choice != 8);
+		
+		sc.close();
+	}
+	
+	/** Displays the menu once and performs the option chosen
+	 * @param sc
+	 * @return Integer option chosen
+	 * @throws Exception
+	 */
+	private static Integer menuOption(Scanner sc) throws Exception {
+		System.out.println("Select a menu option:");
+		System.out.println("\t\t1. Creating a new account");
+		System.out.println("\t\t2. Delete account balances");
+		System.out.println("\t\t3. Delete an account id");
+		System.out.println("\t\t4. Balance inquiry");
+		System.out.println("\t\t5. Withdrawal");
+		System.out.println("\t\t6. Deposit");
+		System.out.println("\t\t7. Transfer");
+		System.out.println("\t\t8. Quit");
+		
+		
+		Integer choice = sc.nextInt();
+		
+		switch(choice) {
+			case 1: createAccount(); break;
+			case 2: deleteAccountBalance(); break;
+			case 3: deleteAccountID(); break;
+			case 4: balanceInquiry(); break;
+			case 5: withdraw(); break;
+			case 6: deposit(); break;
+			case 7: transfer(); break;
+			case 8: quit(); break;
+			default:break;
+		}
+		
+		//Every operation was journaled as it was applied, only close the store when leaving
+		if(choice == 8) {
+			try {
+				saveToDisk();
+			}
+			catch(Exception e) {
+				System.out.println("Unable to save changes to disk.");
+				System.out.println("Reason: " + e.getLocalizedMessage());
+			}
+		}
+		
+		System.out.println("\n\n");
+		return choice;
+	}
+	
+	/**Helper functions needed to talk to the user:
+	 * 		1. Read expression from the console
+	 * 		2. Request account ID from user
+	 * 		3. Request a list of numbers from user
+	 * 		4. Print different balances of a given account
+	 */
+	
+	/**Read an entire line from the console and returns it to caller
+	 * @return String
+	 * */
+	public static String readExpression() {
+		
+		//  open up standard input
+		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+		String expression = null;
+		
+		//  read the expression from the command-line
+		try {
+			expression = br.readLine();
+		} catch (IOException ioe) {
+			System.out.println("IO error trying to read expression!");
+			        System.exit(1);
+		}
+				
+		return expression;
+	}
+	
+	/**Returns an Account for a given ID entered by user
+	 * @return Account
+	 * */
+	private static Account requestAccount() {
+		Account _acc = new Account();
+		
+		Account found = null;
+		do {
+			System.out.print("Enter an account ID: ");
+			
+			_acc.accountID = readExpression();
+			//Check ID validity
+			try {
+				_acc.checkID();
+			}
+			catch(IllegalIDException e) {
+				System.out.println("Invalid Account ID!");
+				continue;
+			}
+			
+			//Look the account up
+			found = bank.findAccount(_acc.accountID);
+			
+			if(found == null)
+				System.out.println("Account not found.\n");
+			
+		}while(found == null);
+		
+		return found;
+	}
+	
+	/**Returns a list of integers entered by the user through the console
+	 * @return List<Integer>
+	 * */
+	private static List<Integer> requestNumbers() {
+
+		List<Integer> list = new ArrayList<Integer>();
+		String in = readExpression();
+
+		String[] nums = in.split(" ");
+		for(int i=0; i< nums.length; i++)
+			list.add(new Integer(nums[i]));
+		return list;
+	}
+	
+	/**Returns an amount in units entered by the user through the console, in minor units of the currency
+	 * @param currency
+	 * @return long
+	 * */
+	private static long requestAmount(Currency currency) {
+		while(true) {
+			try {
+				return Money.parse(readExpression().trim(), currency);
+			}
+			catch(NumberFormatException e) {
+				System.out.println(e.getMessage() + ", please try again:");
+			}
+		}
+	}
+	
+	/**Prints all the balances available for a given account 
+	 * @param acc
+	 * @return void
+	 * */
+	private static void printAvailableBalances(Account acc) {
+		System.out.println("Your accounts are:");
+		for(Balance b : acc.balances())
+			System.out.print(b.currencyString()+"\t\t");
+	}
+	
+	/** Menu options, each one a console front for the corresponding Bank operation:
+	 * 1. Creating new account
+	 * 2. Deleting account balance
+	 * 3. Deleting account ID
+	 * 4. Balance inquiry
+	 * 5. Withdrawal
+	 * 6. Deposit
+	 * 7. Transfer
+	 * 8. Quit
+	 */
+	
+	/**1. Creating new account 
+	 * */
+	public static void createAccount() {
+		
+		Account _acc = new Account();
+		
+		System.out.println("Process: Creating a new account");
+		
+		boolean unique = false;
+		
+		do {
+			
+			System.out.print("Enter an account ID: ");
+			_acc.accountID = readExpression();
+			
+			//Check ID validity
+			try {
+				_acc.checkID();
+			}
+			catch(IllegalIDException e) {
+				System.out.println("Invalid Account ID!");
+				continue;
+			}
+			
+			//Make sure the Account ID is unique
+			if(bank.findAccount(_acc.accountID) != null)
+				System.out.println("Sorry, Account ID " + _acc.accountID + " already exists!");
+			else
+				unique = true;
+			
+		} while(!unique);
+		
+		System.out.print("Enter your first name: ");
+		String fName = readExpression();
+		System.out.print("Enter your last name: ");
+		String lName = readExpression();
+		
+		System.out.println("\nChoose from the following menu the different currencies you want for your accounts:");
+		System.out.println("1. Lebanese Lira (LBP)\t\t2. Euro (EUR)\t\t3. United States Dollar (USD)");
+		System.out.println("4. Canadian Dollar (CAD)\t\t5.Japanese Yen (JPY)\t\t6. Chinese Yuan (CNY)");
+		
+		List<Integer> balancesToCreate = requestNumbers();
+		List<Balance> balances = new ArrayList<Balance>();
+		
+		for(Integer b: balancesToCreate) {
+			Balance bal = new Balance(b);
+			System.out.print("Enter the balance number for " + bal.currencyForInt(b) + ": ");
+			bal.value = requestAmount(bal.currency);
+			balances.add(bal);
+		}
+		
+		TransactionResult result = bank.createAccount(_acc.accountID, fName, lName, balances);
+		if(result.isSuccess())
+			System.out.println("Account ID " + _acc.accountID + " is created!");
+		else
+			System.out.println(result);
+	}
+	
+	/**2. Deleting account balance 
+	 * */
+	public static void deleteAccountBalance() {
+		
+		System.out.println("Process: Delete account balances");
+		Account _acc = requestAccount();
+		
+		printAvailableBalances(_acc);
+		
+		System.out.println("\nEnter the accounts you want to delete:");
+		List<Integer> balancesToDelete = requestNumbers();
+		
+		//Delete requested balances
+		Balance b = new Balance(1);
+		for(Integer del: balancesToDelete)
+			if(bank.deleteAccountBalance(_acc.accountID, Currency.fromOption(del)).isSuccess())
+				System.out.print(b.currencyForInt(del) + " ");
+		System.out.print("were deleted from Account ID " + _acc.accountID);
+		
+	}
+	
+	/**3. Deleting account ID 
+	 * */
+	public static void deleteAccountID() {
+		
+		//Remove the account
+		System.out.println("Process: Delete Account ID");
+		Account _acc = requestAccount();
+		bank.deleteAccountID(_acc.accountID);
+		
+		System.out.println("Account "+ _acc.accountID + " was deleted.");
+	}
+
+	/**4. Balance inquiry 
+	 * */
+	public static void balanceInquiry() {
+		
+		System.out.println("Process: Balance Inquiry");
+		Account _acc = requestAccount();
+		
+		printAvailableBalances(_acc);
+		
+		System.out.println("\nEnter the accounts you want to view:");
+		List<Integer> balancesToView = requestNumbers();
+		
+		System.out.print("Your balance: ");
+		Balance b = new Balance(1);
+		StringBuilder printInquiry = new StringBuilder();
+		for(Integer i : balancesToView) {
+			TransactionResult result = bank.balanceInquiry(_acc.accountID, Currency.fromOption(i));
+			if(result.isSuccess())
+				printInquiry.append(b.currencyForInt(i)).append('=').append(Money.format(result.balance, result.currency)).append(' ');
+		}
+		System.out.println(printInquiry);
+		
+		//Ask for a receipt
+		System.out.println("Do you want a receipt?");
+		String desire = readExpression();
+		if (!desire.toLowerCase().equals("yes") && !desire.toLowerCase().equals("y"))
+			return;
+		
+		String fileName="Account_"+_acc.accountID+"_Info.txt";
+		try {
+			PrintWriter writer = new PrintWriter(fileName, "UTF-8");
+			writer.println(fileName);
+			writer.println("Account ID: "+_acc.accountID);
+			writer.println("First Name: "+_acc.firstName+"\t\tLast Name: "+_acc.lastName);
+			writer.println("Your balance:");
+			writer.println(printInquiry);
+			System.out.println(fileName +" saved!");
+			writer.close();
+		}
+		catch(Exception e) {
+			System.out.println("Something went wrong. Please try again later.");
+		}
+		
+	}
+
+	/**5. Withdrawal 
+	 * */
+	public static void withdraw() {
+		System.out.println("Process: Withdrawal");
+		boolean success = false;
+		while(!success) {
+			//Request an account ID
+			Account _acc = requestAccount();
+			
+			//Print balances of the given account
+			printAvailableBalances(_acc);
+			
+			//Request accounts to withdraw from
+			System.out.println("\nEnter the accounts you want to withdraw from:");
+			List<Integer> balancesToWithdraw = requestNumbers();
+			Balance b = new Balance(1);
+			
+			for(Integer i: balancesToWithdraw) {
+				Currency currency = Currency.fromOption(i);
+				if(!_acc.containsBalanceWithCurrency(currency))
+					continue;
+				
+				System.out.println("Enter the amount of money to withdraw from " + b.currencyForInt(i)+ ":");
+				long amount = requestAmount(currency);
+				TransactionResult result = bank.withdraw(_acc.accountID, currency, amount);
+				if(result.status == TransactionResult.Status.INSUFFICIENT_FUNDS) {
+					System.out.println("Not enough money to withdraw for Account ID "+_acc.accountID + " from the "+ b.currencyForInt(i) + " account!");
+				}
+				else if(!result.isSuccess()) {
+					System.out.println(result);
+				}
+				else {
+					success = true;
+					System.out.println(Money.format(amount, currency) + " was withdrawn from "+b.currencyForInt(i)+" account of Account ID "+_acc.accountID+"!");
+				}
+			}
+		}
+	}
+
+	/**6. Deposit 
+	 * */
+	public static void deposit() {
+		System.out.println("Process: Deposit");
+		Account _acc = requestAccount();
+		printAvailableBalances(_acc);
+		
+		System.out.println("\nEnter the accounts you want to deposit to: ");
+		List<Integer> balancesToDeposit = requestNumbers();
+		Balance b = new Balance(1);
+		
+		for(Integer i: balancesToDeposit) {
+			Currency currency = Currency.fromOption(i);
+			if(!_acc.containsBalanceWithCurrency(currency))
+				continue;
+			
+			System.out.println("Enter the amount of money to deposit to "+b.currencyForInt(i));
+			long amount = requestAmount(currency);
+			TransactionResult result = bank.deposit(_acc.accountID, currency, amount);
+			if(result.isSuccess())
+				System.out.println(Money.format(amount, currency) + " was deposited into "+b.currencyForInt(i) + " account of Account ID "+ _acc.accountID);
+			else
+				System.out.println(result);
+		}
+	}
+
+	/**7. Transfer 
+	 * */
+	public static void transfer() {
+		
+		boolean success = false;
+		while(!success) {
+			System.out.println("Process: Transfer");
+			Account _acc = requestAccount();
+			
+			printAvailableBalances(_acc);
+			System.out.println("\nEnter the account you want to transfer from: ");
+			Integer balanceFrom = requestNumbers().get(0);
+			Currency currency = Currency.fromOption(balanceFrom);
+			if(!_acc.containsBalanceWithCurrency(currency)) {
+				System.out.println("Sorry, Account ID "+ _acc.accountID+ " does not have this account.");
+				continue;
+			}
+			
+			System.out.println("Enter the amount of money to transfer: ");
+			long amount = requestAmount(currency);
+			
+			System.out.println("Enter the Account ID to transfer to: ");
+			Integer accountTo = requestNumbers().get(0);
+			
+			Balance b = new Balance(1);
+			TransactionResult result = bank.transfer(_acc.accountID, accountTo.toString(), currency, amount);
+			switch(result.status) {
+				case OK:
+					success = true;
+					System.out.println(Money.format(amount, currency) +" "+ b.currencyForInt(balanceFrom) +  " were successfully transferred from Account " + _acc.accountID + " to Account " + accountTo);
+					break;
+				case INSUFFICIENT_FUNDS:
+					System.out.println("Not enough money to withdraw " + Money.format(amount, currency) + " from " + b.currencyForInt(balanceFrom) + " account of Account ID " + _acc.accountID+"!");
+					break;
+				case MISSING_CURRENCY:
+					System.out.println("Sorry, Account ID "+ result.accountID+ " does not have a " + b.currencyForInt(balanceFrom) + " account.");
+					break;
+				default:
+					System.out.println(result);
+					break;
+			}
+		}
+	}
+
+	/** 8. Quit 
+	 * */
+	public static void quit() {
+		System.out.println("Thank you for banking with us!");
+	}
+	
+	/** Method that writes a last snapshot of the bank
+	 * to disk and closes its journal
+	 * @throws Exception
+	 */
+	public static void saveToDisk() throws Exception {
+		
+		//If no store, return
+		if(store == null)
+			return;
+		
+		store.close();
+		store = null;
+	}
+	
+	/** Method that reads the bank from disk:
+	 * the last snapshot in bank.data followed by the journal of later operations.
+	 * The journal sync policy is taken from the bank.sync system property:
+	 * NONE, GROUP or ALWAYS (default).
+	 * Setting the bank.store system property to mapped keeps the accounts
+	 * in a memory-mapped accounts.dat, loaded only when used
+	 * @throws Exception
+	 */
+	public static void readFromDisk() throws Exception {
+		
+		Journal.SyncPolicy policy = Journal.SyncPolicy.valueOf(System.getProperty("bank.sync", "ALWAYS"));
+		boolean mapped = "mapped".equals(System.getProperty("bank.store"));
+		store = new BankStore(new File("."), policy, 10, 60000, mapped);
+		bank = store.bank;
+	}
+	
+	public static void main(String[] s) {
+		try {
+			
+			//Read the bank from disk, a new bank is created when there is no data yet
+			try{
+				readFromDisk();
+			}
+			catch(Exception e) {
+				//Starting over would drop the journaled operations
+				System.out.println("Unable to read the bank from disk.");
+				System.out.println("Reason: " + e.getLocalizedMessage());
+				return;
+			}
+			
+			System.out.println("Bank Simulator:");
+			displayMenu();
+		}
+		
+		catch (Exception e) {
+			System.out.println(e.getLocalizedMessage());
+		}
+	
+	}
+}
@@ -0,0 +1,593 @@
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/** SnapshotFormat class reads and writes the binary snapshot of a Bank.
+ *
+ * The snapshot is columnar: each property of every account is stored
+ * one after the other, so each column is a flat run of primitives.
+ * All numbers are big-endian.
+ *
+ * After magic "BKSN" (int) and version (short), the data is cut in blocks of at most BLOCK_SIZE bytes,
+ * each one preceded by its length (int) and CRC32 (int). Every block is checked as it is read,
+ * so a snapshot cut short or damaged is reported instead of loaded.
+ * Without the blocks, the data is:
+ *
+ * 		1. Header: journal sequence number (long), account count (int)
+ * 		2. Account ID keys, see AccountIndex.key() (long per account)
+ * 		3. First names: UTF-8 length (short) then bytes, per account
+ * 		4. Last names: same layout
+ * 		5. Currency masks: bit i set when the account has a balance in Currency.values()[i] (byte per account)
+ * 		6. One column per currency: the value in minor units (long) of every account whose mask has that currency
+ * 		7. Idempotency keys of the operations the snapshot contains, see IdempotencyCache: count (int),
+ * 		   then one column each of keys (long), times (long), journal sequence numbers (long),
+ * 		   fingerprints (int), results (int), amounts (long) and balances (long)
+ *
+ * Version 1 snapshots stored the values as doubles in units, version 2 in hundredths of a unit
+ * whatever the scale of the currency, versions 1 and 2 had no blocks and versions 1 to 3
+ * no idempotency keys. All of them are still read, converting the values to minor units.
+ *
+ * A delta holds the accounts changed and deleted since a checkpoint, see Bank.writeDelta().
+ * Deltas are appended one after the other to a delta file, each one is magic "BKDL" (int),
+ * version (short), then blocks holding:
+ *
+ * 		1. Header: journal sequence number (long), changed account count (int), deleted account count (int)
+ * 		2. Keys of the deleted accounts (long per account)
+ * 		3. The changed accounts, in the same columns as a snapshot (2. to 6. above)
+ * 		4. Idempotency keys of the operations since the previous delta, as in a snapshot (7. above)
+ *
+ * A delta ends with its last block. One cut by a crash or damaged is dropped along with what follows.
+ *
+ * A delta removes the deleted accounts then replaces the changed ones, in this order,
+ * so an account deleted then created again between two deltas is in both lists.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class SnapshotFormat {
+
+	/** First bytes of a snapshot: "BKSN" */
+	public static final int MAGIC = 0x424B534E;
+
+	/** Version written by this class */
+	public static final short VERSION = 4;
+
+	/** First bytes of a delta: "BKDL" */
+	public static final int DELTA_MAGIC = 0x424B444C;
+
+	/** Version without idempotency keys */
+	private static final short VERSION_UNKEYED = 3;
+
+	/** Version without blocks, whose values are hundredths of a unit in every currency */
+	private static final short VERSION_UNCHECKED = 2;
+
+	/** Version whose values are doubles in units, without blocks */
+	private static final short VERSION_DOUBLES = 1;
+
+	/** Maximum number of data bytes in a block */
+	public static final int BLOCK_SIZE = 1 << 17;
+
+	/** Size of the magic and version */
+	private static final int PRELUDE = 6;
+
+	/** Size of a block header: length and CRC32 */
+	private static final int BLOCK_HEADER = 8;
+
+	/** First two bytes of a Java serialization stream, used to detect the old bank.data format */
+	private static final short JAVA_SERIALIZATION_MAGIC = (short)0xACED;
+
+	/** Size of the buffer between the channel and the columns */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Character set of the names */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Writes a snapshot of the given accounts to a channel.
+	 * Callers must make sure the accounts do not change while they are written
+	 * @param accounts
+	 * @param keys idempotency keys of the operations the accounts contain
+	 * @param sequence sequence number of the last journaled operation the accounts contain
+	 * @param channel
+	 * @throws IOException
+	 */
+	public static void write(Collection<Account> accounts, IdempotencyCache.Entries keys, long sequence, WritableByteChannel channel) throws IOException {
+		Output out = new Output(channel, MAGIC);
+
+		out.ensure(12);
+		out.buffer.putLong(sequence);
+		out.buffer.putInt(accounts.size());
+		writeColumns(out, accounts);
+		writeKeys(out, keys);
+		out.flush();
+	}
+
+	/** Writes a delta of the accounts changed and deleted since a checkpoint to a channel.
+	 * Callers must make sure the accounts do not change while they are written
+	 * @param changed
+	 * @param deleted keys of the deleted accounts, see AccountIndex.key()
+	 * @param keys idempotency keys of the operations the delta contains
+	 * @param sequence sequence number of the last journaled operation the delta contains
+	 * @param channel
+	 * @throws IOException
+	 */
+	public static void writeDelta(Collection<Account> changed, Collection<Long> deleted, IdempotencyCache.Entries keys,
+			long sequence, WritableByteChannel channel) throws IOException {
+		Output out = new Output(channel, DELTA_MAGIC);
+
+		out.ensure(16);
+		out.buffer.putLong(sequence);
+		out.buffer.putInt(changed.size());
+		out.buffer.putInt(deleted.size());
+		for(Long key : deleted) {
+			out.ensure(8);
+			out.buffer.putLong(key);
+		}
+		writeColumns(out, changed);
+		writeKeys(out, keys);
+		out.flush();
+	}
+
+	/** Writes the columns of the accounts, sections 2. to 6. of a snapshot
+	 * @param out
+	 * @param accounts
+	 * @throws IOException
+	 */
+	private static void writeColumns(Output out, Collection<Account> accounts) throws IOException {
+		for(Account acc : accounts) {
+			out.ensure(8);
+			out.buffer.putLong(acc.key());
+		}
+		for(Account acc : accounts)
+			out.putString(acc.firstName);
+		for(Account acc : accounts)
+			out.putString(acc.lastName);
+		for(Account acc : accounts) {
+			out.ensure(1);
+			out.buffer.put((byte)acc.currencyMask);
+		}
+		for(Currency c : Currency.values()) {
+			int bit = 1 << c.ordinal();
+			for(Account acc : accounts) {
+				if((acc.currencyMask & bit) == 0)
+					continue;
+				out.ensure(8);
+				out.buffer.putLong(acc.amounts[c.ordinal()]);
+			}
+		}
+	}
+
+	/** Writes the idempotency keys, section 7. of a snapshot
+	 * @param out
+	 * @param keys
+	 * @throws IOException
+	 */
+	private static void writeKeys(Output out, IdempotencyCache.Entries keys) throws IOException {
+		out.ensure(4);
+		out.buffer.putInt(keys.size);
+		for(long[] column : new long[][] {keys.keys, keys.times, keys.sequences}) {
+			for(int i = 0; i < keys.size; i++) {
+				out.ensure(8);
+				out.buffer.putLong(column[i]);
+			}
+		}
+		for(int[] column : new int[][] {keys.fingerprints, keys.results}) {
+			for(int i = 0; i < keys.size; i++) {
+				out.ensure(4);
+				out.buffer.putInt(column[i]);
+			}
+		}
+		for(long[] column : new long[][] {keys.amounts, keys.balances}) {
+			for(int i = 0; i < keys.size; i++) {
+				out.ensure(8);
+				out.buffer.putLong(column[i]);
+			}
+		}
+	}
+
+	/** Reads the idempotency keys written by writeKeys()
+	 * @param in
+	 * @return IdempotencyCache.Entries
+	 * @throws IOException
+	 */
+	private static IdempotencyCache.Entries readKeys(Input in) throws IOException {
+		in.ensure(4);
+		int count = in.buffer.getInt();
+		if(count < 0)
+			throw new IOException("Corrupt bank snapshot.");
+		IdempotencyCache.Entries keys = new IdempotencyCache.Entries(count);
+		keys.size = count;
+		for(long[] column : new long[][] {keys.keys, keys.times, keys.sequences}) {
+			for(int i = 0; i < count; i++) {
+				in.ensure(8);
+				column[i] = in.buffer.getLong();
+			}
+		}
+		for(int[] column : new int[][] {keys.fingerprints, keys.results}) {
+			for(int i = 0; i < count; i++) {
+				in.ensure(4);
+				column[i] = in.buffer.getInt();
+			}
+		}
+		for(long[] column : new long[][] {keys.amounts, keys.balances}) {
+			for(int i = 0; i < count; i++) {
+				in.ensure(8);
+				column[i] = in.buffer.getLong();
+			}
+		}
+		return keys;
+	}
+
+	/** Reads a snapshot written by write() into a new bank
+	 * @param channel
+	 * @return Bank
+	 * @throws IOException if the channel does not hold a complete and intact snapshot
+	 */
+	public static Bank read(ReadableByteChannel channel) throws IOException {
+		ByteBuffer prelude = readPrelude(channel);
+		if(prelude.getInt() != MAGIC)
+			throw new IOException("Not a bank snapshot.");
+		short version = prelude.getShort();
+		if(version < VERSION_DOUBLES || version > VERSION)
+			throw new IOException("Unsupported bank snapshot version " + version + ".");
+		Input in = new Input(channel, version >= VERSION_UNKEYED);
+
+		in.ensure(12);
+		long sequence = in.buffer.getLong();
+		int count = in.buffer.getInt();
+		if(count < 0)
+			throw new IOException("Corrupt bank snapshot.");
+
+		Account[] accounts = readColumns(in, count, version);
+		Bank bank = new Bank(count);
+		for(Account acc : accounts)
+			bank.addAccount(acc);
+		if(version > VERSION_UNKEYED)
+			bank.idempotency().restore(readKeys(in));
+		bank.sequence = sequence;
+		return bank;
+	}
+
+	/** Applies the deltas of a delta file to a bank, skipping those already contained in it.
+	 * Reading stops at the first delta that is incomplete or damaged: a delta is only relied upon
+	 * once it is forced to the disk, so the journal still holds its operations
+	 * @param file
+	 * @param bank
+	 * @return long length of the file up to the end of the last intact delta
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long readDeltas(File file, Bank bank) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long end = 0;
+			while(true) {
+				List<Long> deleted = new ArrayList<Long>();
+				Account[] changed;
+				IdempotencyCache.Entries keys = null;
+				long sequence;
+				try {
+					ByteBuffer prelude = readPrelude(channel);
+					if(prelude.getInt() != DELTA_MAGIC)
+						return end;
+					short version = prelude.getShort();
+					if(version != VERSION && version != VERSION_UNKEYED)
+						throw new IOException("Unsupported bank delta version " + version + ".");
+
+					Input in = new Input(channel, true);
+					in.ensure(16);
+					sequence = in.buffer.getLong();
+					int count = in.buffer.getInt();
+					int deletedCount = in.buffer.getInt();
+					if(count < 0 || deletedCount < 0)
+						return end;
+					for(int i = 0; i < deletedCount; i++) {
+						in.ensure(8);
+						deleted.add(in.buffer.getLong());
+					}
+					changed = readColumns(in, count, version);
+					if(version > VERSION_UNKEYED)
+						keys = readKeys(in);
+					//The last block must end with the delta
+					if(in.buffer.hasRemaining())
+						return end;
+				}
+				catch(CorruptBlockException e) {
+					return end;
+				}
+				catch(EOFException e) {
+					return end;
+				}
+				end = channel.position();
+
+				//Written before the snapshot was, which already contains it.
+				//One with the same sequence number holds the same state, and is applied
+				if(sequence < bank.sequence)
+					continue;
+				for(Long key : deleted) {
+					Account old = bank.findAccount(Long.toString(key).substring(1));
+					if(old != null)
+						bank.removeAccount(old);
+				}
+				for(Account acc : changed) {
+					Account old = bank.findAccount(acc.accountID);
+					if(old != null)
+						bank.removeAccount(old);
+					bank.addAccount(acc);
+				}
+				if(keys != null)
+					bank.idempotency().restore(keys);
+				bank.sequence = sequence;
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/** Reads the columns of count accounts, sections 2. to 6. of a snapshot
+	 * @param in
+	 * @param count
+	 * @param version
+	 * @return Account[]
+	 * @throws IOException
+	 */
+	private static Account[] readColumns(Input in, int count, short version) throws IOException {
+		Account[] accounts = new Account[count];
+		for(int i = 0; i < count; i++) {
+			in.ensure(8);
+			Account acc = new Account();
+			String key = Long.toString(in.buffer.getLong());
+			acc.accountID = key.substring(1);
+			accounts[i] = acc;
+		}
+		for(int i = 0; i < count; i++)
+			accounts[i].firstName = in.getString();
+		for(int i = 0; i < count; i++)
+			accounts[i].lastName = in.getString();
+
+		for(int i = 0; i < count; i++) {
+			in.ensure(1);
+			accounts[i].currencyMask = in.buffer.get();
+		}
+		for(Currency c : Currency.values()) {
+			int bit = 1 << c.ordinal();
+			for(int i = 0; i < count; i++) {
+				if((accounts[i].currencyMask & bit) == 0)
+					continue;
+				in.ensure(8);
+				if(version == VERSION_DOUBLES)
+					accounts[i].amounts[c.ordinal()] = Money.fromUnits(in.buffer.getDouble(), c);
+				else if(version == VERSION_UNCHECKED)
+					accounts[i].amounts[c.ordinal()] = Money.fromHundredths(in.buffer.getLong(), c);
+				else
+					accounts[i].amounts[c.ordinal()] = in.buffer.getLong();
+			}
+		}
+		return accounts;
+	}
+
+	/** Reads a bank from a file in either this format or the old Java serialization of Bank
+	 * @param file
+	 * @return Bank
+	 * @throws IOException
+	 */
+	public static Bank readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if(raf.length() >= 2 && raf.readShort() == JAVA_SERIALIZATION_MAGIC)
+				return readSerialized(file);
+			raf.seek(0);
+			return read(raf.getChannel());
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/** Reads a bank written with Java serialization, the format bank.data used to have,
+	 * including files written when the classes were in the default package
+	 * @param file
+	 * @return Bank
+	 * @throws IOException
+	 */
+	public static Bank readSerialized(File file) throws IOException {
+		ObjectInputStream obj_in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+				//Files written before the classes moved to this package name them without it
+				String name = desc.getName();
+				if(name.indexOf('.') < 0 && !name.startsWith("[")) {
+					try {
+						return Class.forName(SnapshotFormat.class.getPackage().getName() + "." + name);
+					}
+					catch(ClassNotFoundException e) {
+						//Not one of ours
+					}
+				}
+				return super.resolveClass(desc);
+			}
+		};
+		try {
+			Object obj = obj_in.readObject();
+			if (!(obj instanceof Bank))
+				throw new IOException(file + " does not contain a bank.");
+			return (Bank) obj;
+		}
+		catch(ClassNotFoundException e) {
+			throw new IOException(file + " does not contain a bank.", e);
+		}
+		finally {
+			obj_in.close();
+		}
+	}
+
+	/** Converts a bank.data file written with Java serialization to this format.
+	 * Usage: java SnapshotFormat [source] [destination], both default to bank.data
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		File source = new File(args.length > 0 ? args[0] : BankStore.SNAPSHOT);
+		File destination = new File(args.length > 1 ? args[1] : source.getPath());
+
+		final Bank bank = readFile(source);
+		AtomicFile.write(destination, new AtomicFile.Content<Long>() {
+			public Long write(FileChannel channel) throws IOException {
+				return bank.writeSnapshot(channel);
+			}
+		});
+		System.out.println(bank.accounts.size() + " accounts written to " + destination);
+	}
+
+	/** Reads the magic and version at the start of a snapshot or delta
+	 * @param channel
+	 * @return ByteBuffer holding them
+	 * @throws IOException
+	 */
+	private static ByteBuffer readPrelude(ReadableByteChannel channel) throws IOException {
+		ByteBuffer prelude = ByteBuffer.allocate(PRELUDE);
+		readFully(channel, prelude);
+		prelude.flip();
+		return prelude;
+	}
+
+	/** Fills a buffer from a channel
+	 * @param channel
+	 * @param buffer
+	 * @throws EOFException if the channel ends first
+	 */
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining())
+			if(channel.read(buffer) < 0)
+				throw new EOFException("Truncated bank snapshot.");
+	}
+
+	/** Thrown when a block does not match its length or checksum */
+	static class CorruptBlockException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		CorruptBlockException(String message) {
+			super(message);
+		}
+	}
+
+	/** Buffer in front of a channel being written, cutting the data in blocks */
+	private static class Output {
+		final WritableByteChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_HEADER + BLOCK_SIZE);
+		final CRC32 crc = new CRC32();
+
+		/** Writes the magic and version, then leaves room for the header of the first block */
+		Output(WritableByteChannel channel, int magic) throws IOException {
+			this.channel = channel;
+			buffer.putInt(magic);
+			buffer.putShort(VERSION);
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+			buffer.position(BLOCK_HEADER);
+		}
+
+		/** Makes room for the given number of bytes */
+		void ensure(int bytes) throws IOException {
+			if(buffer.remaining() < bytes)
+				flush();
+		}
+
+		/** Writes a string as its UTF-8 length followed by its bytes */
+		void putString(String s) throws IOException {
+			byte[] bytes = (s == null ? "" : s).getBytes(UTF8);
+			if(bytes.length > 0xFFFF)
+				throw new IOException("Name too long for a bank snapshot.");
+			ensure(2 + bytes.length);
+			buffer.putShort((short)bytes.length);
+			buffer.put(bytes);
+		}
+
+		/** Writes everything buffered to the channel as one block */
+		void flush() throws IOException {
+			int length = buffer.position() - BLOCK_HEADER;
+			if(length == 0)
+				return;
+			ByteBuffer data = buffer.duplicate();
+			data.flip().position(BLOCK_HEADER);
+			crc.reset();
+			crc.update(data);
+			buffer.putInt(0, length);
+			buffer.putInt(4, (int)crc.getValue());
+
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+			buffer.position(BLOCK_HEADER);
+		}
+	}
+
+	/** Buffer in front of a channel being read. With blocks, it checks every block
+	 * and never reads past the last block needed */
+	private static class Input {
+		final ReadableByteChannel channel;
+		final boolean blocks;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+		final CRC32 crc = new CRC32();
+
+		Input(ReadableByteChannel channel, boolean blocks) {
+			this.channel = channel;
+			this.blocks = blocks;
+			buffer.flip();
+		}
+
+		/** Makes sure the given number of bytes can be read from the buffer */
+		void ensure(int bytes) throws IOException {
+			if(buffer.remaining() >= bytes)
+				return;
+			buffer.compact();
+			while(buffer.position() < bytes) {
+				if(blocks)
+					readBlock();
+				else if(channel.read(buffer) < 0)
+					throw new EOFException("Truncated bank snapshot.");
+			}
+			buffer.flip();
+		}
+
+		/** Appends the data of the next block to the buffer, after checking it */
+		void readBlock() throws IOException {
+			header.clear();
+			readFully(channel, header);
+			int length = header.getInt(0);
+			if(length <= 0 || length > BLOCK_SIZE)
+				throw new CorruptBlockException("Corrupt bank snapshot: invalid block length " + length + ".");
+
+			int start = buffer.position();
+			buffer.limit(start + length);
+			readFully(channel, buffer);
+			ByteBuffer data = buffer.duplicate();
+			data.position(start);
+			crc.reset();
+			crc.update(data);
+			buffer.limit(buffer.capacity());
+			if((int)crc.getValue() != header.getInt(4))
+				throw new CorruptBlockException("Corrupt bank snapshot: block checksum mismatch.");
+		}
+
+		/** Reads a string written by Output.putString() */
+		String getString() throws IOException {
+			ensure(2);
+			int length = buffer.getShort() & 0xFFFF;
+			ensure(length);
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, UTF8);
+		}
+	}
+}
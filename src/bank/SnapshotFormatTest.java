@@ -0,0 +1,204 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/** Tests writing and reading bank snapshots
+ * @author JosephKalash
+ *
+ */
+
+public class SnapshotFormatTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = folder.newFile("bank.data");
+	}
+
+	/** Every account property survives a snapshot round trip */
+	@Test
+	public void testRoundTrip() throws IOException {
+		Bank bank = sampleBank();
+		write(bank);
+
+		Bank read = SnapshotFormat.readFile(file);
+		assertSameAccounts(bank, read);
+	}
+
+	/** A bank.data written with Java serialization is read and converted */
+	@Test
+	public void testConvertSerializedBank() throws IOException {
+		Bank bank = sampleBank();
+		ObjectOutputStream obj_out = new ObjectOutputStream(new FileOutputStream(file));
+		obj_out.writeObject(bank);
+		obj_out.close();
+
+		SnapshotFormat.main(new String[] {file.getPath()});
+
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		assertEquals(SnapshotFormat.MAGIC, in.readInt());
+		in.close();
+		assertSameAccounts(bank, SnapshotFormat.readFile(file));
+	}
+
+	/** A snapshot cut short is reported instead of loading part of the bank */
+	@Test(expected = EOFException.class)
+	public void testTruncatedSnapshot() throws IOException {
+		write(sampleBank());
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 1);
+		raf.close();
+
+		SnapshotFormat.readFile(file);
+	}
+
+	/** Version 2 snapshots held hundredths of a unit in every currency, Yen included */
+	@Test
+	public void testVersion2() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(SnapshotFormat.MAGIC);
+		out.writeShort(2);
+		out.writeLong(0);
+		out.writeInt(1);
+		out.writeLong(AccountIndex.key("42"));
+		out.writeShort(4);
+		out.writeBytes("Taro");
+		out.writeShort(0);
+		out.writeByte(1 << Currency.USD.ordinal() | 1 << Currency.JPY.ordinal());
+		out.writeLong(1999);
+		out.writeLong(150050);
+		out.close();
+
+		Bank read = SnapshotFormat.readFile(file);
+		assertEquals("Taro", read.findAccount("42").firstName);
+		assertEquals(1999, read.balanceInquiry("42", Currency.USD).balance);
+		assertEquals(1501, read.balanceInquiry("42", Currency.JPY).balance);
+	}
+
+	/** A snapshot followed by deltas holds the changed, created and deleted accounts,
+	 * including one deleted then created again */
+	@Test
+	public void testDeltas() throws IOException {
+		Bank bank = sampleBank();
+		bank.trackChanges();
+		write(bank);
+		File deltas = folder.newFile("bank.delta");
+		bank.deposit("123456789012345678", Currency.USD, 99);
+		bank.deleteAccountID("00");
+		bank.transfer("01", "02", Currency.values()[1], 1);
+		appendDelta(bank, deltas);
+		long first = deltas.length();
+
+		bank.createAccount("00", "Back", "Again", Collections.singletonList(new Balance(Currency.EUR, 7)));
+		bank.deleteAccountID("03");
+		bank.createAccount("999", "New", "", new ArrayList<Balance>());
+		appendDelta(bank, deltas);
+		//Nothing changed
+		appendDelta(bank, deltas);
+
+		Bank read = SnapshotFormat.readFile(file);
+		assertEquals(deltas.length(), SnapshotFormat.readDeltas(deltas, read));
+		assertSameAccounts(bank, read);
+		assertEquals("Back", read.findAccount("00").firstName);
+
+		//A delta cut short is ignored along with what follows
+		RandomAccessFile raf = new RandomAccessFile(deltas, "rw");
+		raf.setLength(first + 30);
+		raf.close();
+		read = SnapshotFormat.readFile(file);
+		assertEquals(first, SnapshotFormat.readDeltas(deltas, read));
+		assertNull(read.findAccount("00"));
+		assertNotNull(read.findAccount("03"));
+	}
+
+	/** A snapshot holds every account as it was when it started, even those changed
+	 * while it copies the accounts: holding the lock of one account stops it there,
+	 * while every account is changed */
+	@Test
+	public void testOnlineSnapshot() throws Exception {
+		final Bank bank = sampleBank();
+		Bank before = SnapshotFormat.read(channelOf(bank));
+		Account held = bank.findAccount("0500");
+		Thread writer;
+		synchronized(held) {
+			writer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						write(bank);
+					}
+					catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+			writer.start();
+			while(writer.getState() != Thread.State.BLOCKED)
+				Thread.sleep(1);
+			for(Account acc : before.accounts.values())
+				for(Currency c : Currency.values())
+					bank.deposit(acc.accountID, c, 1);
+			bank.deleteAccountID("01");
+		}
+		writer.join();
+		assertSameAccounts(before, SnapshotFormat.readFile(file));
+	}
+
+	/** Bank with accounts of every shape: no balance, all balances, non ASCII names, leading zeros */
+	private static Bank sampleBank() {
+		Bank bank = new Bank();
+		bank.createAccount("00", "", "", new ArrayList<Balance>());
+		List<Balance> all = new ArrayList<Balance>();
+		for(Currency c : Currency.values())
+			all.add(new Balance(c, c.ordinal() * 1050L));
+		bank.createAccount("123456789012345678", "José", "كلش", all);
+		for(int i = 0; i < 1000; i++) {
+			List<Balance> some = new ArrayList<Balance>();
+			some.add(new Balance(Currency.values()[i % 6], i));
+			bank.createAccount("0" + i, "First" + i, "Last" + i, some);
+		}
+		return bank;
+	}
+
+	/** Writes a bank snapshot to the test file */
+	private void write(Bank bank) throws IOException {
+		FileOutputStream f_out = new FileOutputStream(file);
+		bank.writeSnapshot(f_out.getChannel());
+		f_out.close();
+	}
+
+	/** Returns a snapshot of a bank in memory */
+	private static ReadableByteChannel channelOf(Bank bank) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bank.writeSnapshot(Channels.newChannel(bytes));
+		return Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	/** Appends a delta of a bank to a file */
+	private static void appendDelta(Bank bank, File deltas) throws IOException {
+		FileOutputStream f_out = new FileOutputStream(deltas, true);
+		bank.writeDelta(f_out.getChannel());
+		f_out.close();
+	}
+
+	/** Checks that two banks hold the same accounts and balances */
+	private static void assertSameAccounts(Bank expected, Bank actual) {
+		assertEquals(expected.accounts.size(), actual.accounts.size());
+		for(Account acc : expected.accounts.values()) {
+			Account other = actual.findAccount(acc.accountID);
+			assertNotNull(acc.accountID, other);
+			assertEquals(acc.firstName, other.firstName);
+			assertEquals(acc.lastName, other.lastName);
+			assertEquals(acc.currencyMask, other.currencyMask);
+			assertArrayEquals(acc.amounts, other.amounts);
+		}
+	}
+}
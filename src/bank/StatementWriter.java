@@ -0,0 +1,292 @@
+package bank;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** StatementWriter class writes the statement of every account of a Bank
+ * into a few large text files, one per part, instead of one file per account.
+ *
+ * The accounts are split in as many parts as there are threads. Each thread
+ * encodes its statements straight into its own reusable direct buffer and
+ * writes it to its file through a FileChannel whenever it fills up,
+ * so writing a statement allocates nothing.
+ *
+ * A statement reads:
+ *
+ * 		Statement <period>
+ * 		Account ID: <id>
+ * 		First Name: <first>		Last Name: <last>
+ * 		Your balance:
+ * 		<currency>=<amount>			one line per balance, in currency order
+ * 		<blank line>
+ *
+ * Every statement shows the balances of one moment of its account, while
+ * operations go on. Accounts of a MappedAccountStore that are not in memory
+ * are not written.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class StatementWriter {
+
+	/** Size of the buffer of each thread */
+	static final int BUFFER = 1 << 20;
+
+	/** Bank the statements are written for */
+	private final Bank bank;
+
+	/** Constructor that takes the bank the statements are written for
+	 * @param bank
+	 */
+	StatementWriter(Bank bank) {
+		this.bank = bank;
+	}
+
+	/** Writes the statements of all accounts in the directory,
+	 * to the files statements-<period>-<part>.txt
+	 * @param directory
+	 * @param period printed on every statement, such as 2026-10
+	 * @param parts number of files and threads
+	 * @return Report
+	 * @throws IOException
+	 */
+	public Report write(File directory, final String period, int parts) throws IOException {
+		long start = System.nanoTime();
+		//Hashtable copies its values under its own lock, without the bank's
+		final Account[] all = bank.accounts.values().toArray(new Account[0]);
+		parts = Math.max(1, Math.min(parts, all.length));
+
+		final Report report = new Report();
+		ExecutorService threads = Executors.newFixedThreadPool(parts);
+		try {
+			List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+			for(int part = 0; part < parts; part++) {
+				final int from = (int)((long)all.length * part / parts);
+				final int to = (int)((long)all.length * (part + 1) / parts);
+				final File file = new File(directory, "statements-" + period + "-" + part + ".txt");
+				report.files.add(file);
+				results.add(threads.submit(new Callable<long[]>() {
+					public long[] call() throws IOException {
+						return writePart(bank, all, from, to, period, file);
+					}
+				}));
+			}
+			for(Future<long[]> result : results) {
+				long[] written = result.get();
+				report.statements += written[0];
+				report.bytes += written[1];
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing the statements.");
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IOException("Unable to write the statements.", e.getCause());
+		}
+		finally {
+			threads.shutdownNow();
+		}
+		report.nanos = System.nanoTime() - start;
+		return report;
+	}
+
+	/** Writes the statements of a range of accounts to one file
+	 * @param bank
+	 * @param accounts
+	 * @param from first index
+	 * @param to index after the last
+	 * @param period
+	 * @param file
+	 * @return long[] number of statements and of bytes written
+	 * @throws IOException
+	 */
+	static long[] writePart(Bank bank, Account[] accounts, int from, int to, String period, File file) throws IOException {
+		FileOutputStream f_out = new FileOutputStream(file);
+		try {
+			FileChannel channel = f_out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+			long[] amounts = new long[Account.CURRENCIES];
+			long bytes = 0;
+			for(int i = from; i < to; i++) {
+				Account acc = accounts[i];
+				int mask = bank.copyBalances(acc, amounts);
+
+				int size = maxSize(acc, period);
+				if(buffer.remaining() < size) {
+					bytes += flush(buffer, channel);
+					//Only for statements with names longer than the whole buffer
+					if(buffer.capacity() < size)
+						buffer = ByteBuffer.allocateDirect(size);
+				}
+				statement(acc, mask, amounts, period, buffer);
+			}
+			bytes += flush(buffer, channel);
+			return new long[] {to - from, bytes};
+		}
+		finally {
+			f_out.close();
+		}
+	}
+
+	/** Encodes the statement of an account
+	 * @param acc
+	 * @param mask currencies of the balances to print
+	 * @param amounts balances indexed by Currency.ordinal()
+	 * @param period
+	 * @param out
+	 * @return void
+	 */
+	static void statement(Account acc, int mask, long[] amounts, String period, ByteBuffer out) {
+		putAscii(out, "Statement ");
+		putUtf8(out, period);
+		putAscii(out, "\nAccount ID: ");
+		putAscii(out, acc.accountID);
+		putAscii(out, "\nFirst Name: ");
+		putUtf8(out, acc.firstName);
+		putAscii(out, "\t\tLast Name: ");
+		putUtf8(out, acc.lastName);
+		putAscii(out, "\nYour balance:\n");
+		Currency[] currencies = Currency.values();
+		for(int c = 0; c < currencies.length; c++)
+			if((mask & (1 << c)) != 0) {
+				putAscii(out, currencies[c].name());
+				out.put((byte)'=');
+				Money.format(amounts[c], currencies[c], out);
+				out.put((byte)'\n');
+			}
+		out.put((byte)'\n');
+	}
+
+	/** Returns an upper bound of the size of the statement of an account
+	 * @param acc
+	 * @param period
+	 * @return int
+	 */
+	private static int maxSize(Account acc, String period) {
+		//UTF-8 takes at most 3 bytes per char, the fixed text and balance lines at most 128 bytes each
+		int names = length(period) + length(acc.accountID) + length(acc.firstName) + length(acc.lastName);
+		return 3 * names + 128 * (1 + Account.CURRENCIES);
+	}
+
+	private static int length(String s) {
+		return s == null ? 0 : s.length();
+	}
+
+	/** Writes the buffer to the channel and clears it
+	 * @param buffer
+	 * @param channel
+	 * @return int number of bytes written
+	 * @throws IOException
+	 */
+	private static int flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		int bytes = buffer.remaining();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		return bytes;
+	}
+
+	/** Writes a string known to be ASCII
+	 * @param out
+	 * @param s
+	 * @return void
+	 */
+	private static void putAscii(ByteBuffer out, String s) {
+		for(int i = 0; i < s.length(); i++)
+			out.put((byte)s.charAt(i));
+	}
+
+	/** Writes a string as UTF-8 without going through a byte array, null as an empty string
+	 * @param out
+	 * @param s
+	 * @return void
+	 */
+	static void putUtf8(ByteBuffer out, String s) {
+		if(s == null)
+			return;
+		for(int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			if(ch < 0x80)
+				out.put((byte)ch);
+			else if(ch < 0x800) {
+				out.put((byte)(0xC0 | ch >> 6));
+				out.put((byte)(0x80 | ch & 0x3F));
+			}
+			else if(Character.isHighSurrogate(ch) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(ch, s.charAt(++i));
+				out.put((byte)(0xF0 | cp >> 18));
+				out.put((byte)(0x80 | cp >> 12 & 0x3F));
+				out.put((byte)(0x80 | cp >> 6 & 0x3F));
+				out.put((byte)(0x80 | cp & 0x3F));
+			}
+			else if(Character.isSurrogate(ch))
+				out.put((byte)'?');
+			else {
+				out.put((byte)(0xE0 | ch >> 12));
+				out.put((byte)(0x80 | ch >> 6 & 0x3F));
+				out.put((byte)(0x80 | ch & 0x3F));
+			}
+		}
+	}
+
+	/** Writes the statements of the bank in the current directory
+	 * @param args period and number of parts
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: java StatementWriter period [parts]");
+			return;
+		}
+		int parts = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		BankStore store = new BankStore(new File("."), Journal.SyncPolicy.ALWAYS, 10, 60000);
+		try {
+			Report report = new StatementWriter(store.bank).write(new File("."), args[0], parts);
+			System.out.println(report);
+			for(File f : report.files)
+				System.out.println("Statements written to " + f);
+		}
+		finally {
+			store.close();
+		}
+	}
+
+	/** Outcome of writing the statements */
+	public static class Report {
+		/** Statements written */
+		public long statements;
+
+		/** Bytes written */
+		public long bytes;
+
+		/** Time taken, in nanoseconds */
+		public long nanos;
+
+		/** Files written, one per part */
+		public final List<File> files = new ArrayList<File>();
+
+		/** Returns the number of statements written per second
+		 * @return double
+		 */
+		public double statementsPerSecond() {
+			return nanos == 0 ? 0 : statements * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d statements, %d bytes in %d files, %.3f s (%.0f statements/s)",
+					statements, bytes, files.size(), nanos / 1e9, statementsPerSecond());
+		}
+	}
+}
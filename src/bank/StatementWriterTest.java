@@ -0,0 +1,100 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/** Tests the bulk statements written by StatementWriter
+ * @author JosephKalash
+ *
+ */
+
+public class StatementWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+	}
+
+	/** Every account gets exactly one statement, whatever the number of parts */
+	@Test
+	public void testEveryAccountOnce() throws IOException {
+		Bank bank = new Bank();
+		for(int i = 0; i < 1000; i++)
+			bank.createAccount(Integer.toString(100 + i), "First" + i, "Last", Collections.singletonList(new Balance(Currency.USD, i)));
+
+		StatementWriter.Report report = new StatementWriter(bank).write(directory, "2026-10", 3);
+		assertEquals(1000, report.statements);
+		assertEquals(3, report.files.size());
+
+		Set<String> ids = new HashSet<String>();
+		long bytes = 0;
+		for(File f : report.files) {
+			bytes += f.length();
+			for(String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8))
+				if(line.startsWith("Account ID: "))
+					assertTrue(ids.add(line.substring("Account ID: ".length())));
+		}
+		assertEquals(1000, ids.size());
+		assertEquals(report.bytes, bytes);
+	}
+
+	@Test
+	public void testStatement() throws IOException {
+		Bank bank = new Bank();
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.JPY, 1500));
+		balances.add(new Balance(Currency.USD, 1250));
+		bank.createAccount("123", "Zoë", "Doe", balances);
+
+		StatementWriter.Report report = new StatementWriter(bank).write(directory, "2026-10", 4);
+		assertEquals(1, report.files.size());
+		String text = new String(Files.readAllBytes(report.files.get(0).toPath()), StandardCharsets.UTF_8);
+		assertEquals("Statement 2026-10\nAccount ID: 123\nFirst Name: Zoë\t\tLast Name: Doe\nYour balance:\nUSD=12.50\nJPY=1500\n\n", text);
+	}
+
+	/** A hot account's statement includes the money held in its cells */
+	@Test
+	public void testHotAccount() throws Exception {
+		final Bank bank = new Bank();
+		bank.createAccount("123", "John", "Doe", Collections.singletonList(new Balance(Currency.USD, 1000)));
+		assertTrue(bank.setHot("123", 4));
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					assertTrue(bank.deposit("123", Currency.USD, 500).isSuccess());
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread t : threads)
+			t.join();
+		assertEquals(1000, bank.findAccount("123").amounts[Currency.USD.ordinal()]);
+
+		StatementWriter.Report report = new StatementWriter(bank).write(directory, "2026-10", 1);
+		String text = new String(Files.readAllBytes(report.files.get(0).toPath()), StandardCharsets.UTF_8);
+		assertTrue(text, text.contains("\nUSD=50.00\n"));
+	}
+
+	@Test
+	public void testUtf8() {
+		String[] names = {"Joseph", "Zoë", "Kalash كلش", "😀 smile"};
+		ByteBuffer out = ByteBuffer.allocate(64);
+		for(String name : names) {
+			out.clear();
+			StatementWriter.putUtf8(out, name);
+			assertEquals(name, new String(out.array(), 0, out.position(), StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package bank;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Sweep class adjusts every balance of every account of a Bank by the amount a Function returns for it,
+ * such as the end-of-day interest and fees, see interestAndFees().
+ *
+ * The accounts in the bank when the sweep starts are split in halves with fork-join
+ * until LEAF accounts are left, so idle threads steal the larger halves:
+ *
+ * 		1. Each account is adjusted under its own lock, see Bank.sweep(), so operations keep
+ * 		   running meanwhile and a transfer sees the account either before or after its adjustments
+ * 		2. Each change is journaled as an ADJUST transaction holding the amount, not the rate,
+ * 		   so replaying the journal gives the same balances. The sweep waits for the last one to be durable
+ * 		3. An adjustment that would overflow a balance or leave it negative is rejected and counted
+ * 		4. Accounts created during the sweep are not adjusted, accounts deleted before their turn are skipped
+ *
+ * A sweep is not idempotent: running it twice for the same day adjusts the balances twice.
+ * Accounts kept in a MappedAccountStore cannot be swept, nor a ShardedBank.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class Sweep {
+
+	/** Largest number of accounts adjusted by one task without splitting it */
+	static final int LEAF = 1024;
+
+	/** Days in a year, the daily rate is the yearly one divided by it */
+	public static final int DAYS_PER_YEAR = 365;
+
+	/** Adjustment of one balance, called under the lock of its account: it must be fast and must not use the bank */
+	public interface Function {
+
+		/** Returns the amount to add to a balance
+		 * @param accountID
+		 * @param currency
+		 * @param balance in minor units
+		 * @return long in minor units, negative to take from the balance, 0 to leave it
+		 */
+		long adjust(String accountID, Currency currency, long balance);
+	}
+
+	/** Outcome of a sweep */
+	public static final class Report {
+
+		/** Accounts gone through */
+		public final int accounts;
+
+		/** Balances adjusted */
+		public final long adjusted;
+
+		/** Adjustments rejected, as they would have overflowed a balance or left it negative */
+		public final long rejected;
+
+		/** Time taken, including the wait for the journal */
+		public final long nanos;
+
+		Report(int accounts, long adjusted, long rejected, long nanos) {
+			this.accounts = accounts;
+			this.adjusted = adjusted;
+			this.rejected = rejected;
+			this.nanos = nanos;
+		}
+
+		/** Returns the number of accounts gone through per second
+		 * @return double
+		 */
+		public double accountsPerSecond() {
+			return nanos == 0 ? 0 : accounts * 1e9 / nanos;
+		}
+
+		/** Prints the report
+		 * @return String
+		 */
+		@Override
+		public String toString() {
+			return accounts + " accounts, " + adjusted + " balances adjusted, " + rejected + " rejected in "
+					+ nanos / 1000000 + " ms (" + Math.round(accountsPerSecond()) + " accounts/s)";
+		}
+	}
+
+	/** Bank swept */
+	private final Bank bank;
+
+	/** Pool the tasks run in */
+	private final ForkJoinPool pool;
+
+	/** Constructor that sweeps in the common fork-join pool
+	 * @param bank
+	 */
+	Sweep(Bank bank) {
+		this(bank, ForkJoinPool.commonPool());
+	}
+
+	/** Constructor
+	 * @param bank
+	 * @param pool its parallelism is the number of accounts adjusted at once
+	 */
+	Sweep(Bank bank, ForkJoinPool pool) {
+		this.bank = bank;
+		this.pool = pool;
+	}
+
+	/** Adjusts every balance of every account, returning once the changes are durable
+	 * @param function
+	 * @return Report
+	 * @throws IllegalStateException if the accounts are kept in a store
+	 */
+	public Report run(Function function) {
+		long start = System.nanoTime();
+		Account[] accounts = bank.sweepAccounts();
+		long[] tally = pool.invoke(new Task(accounts, 0, accounts.length, function));
+		bank.awaitDurable(tally[2]);
+		return new Report(accounts.length, tally[0], tally[1], System.nanoTime() - start);
+	}
+
+	/** Returns the daily interest and maintenance fee of a balance:
+	 * a positive balance earns its currency's yearly rate divided by DAYS_PER_YEAR, see dailyInterest(),
+	 * then pays its currency's daily fee, or what is left if it has less
+	 * @param yearlyRates yearly interest rate of each currency in ExchangeRates.RATE_SCALE units,
+	 * ExchangeRates.parseRate("0.02") for 2%, none if absent
+	 * @param dailyFees fee of each currency in minor units, none if absent
+	 * @return Function
+	 */
+	public static Function interestAndFees(Map<Currency, Long> yearlyRates, Map<Currency, Long> dailyFees) {
+		final long[] rates = new long[Account.CURRENCIES];
+		final long[] fees = new long[Account.CURRENCIES];
+		for(Map.Entry<Currency, Long> e : yearlyRates.entrySet())
+			rates[e.getKey().ordinal()] = e.getValue();
+		for(Map.Entry<Currency, Long> e : dailyFees.entrySet()) {
+			if(e.getValue() < 0)
+				throw new IllegalArgumentException("Negative fee for " + e.getKey());
+			fees[e.getKey().ordinal()] = e.getValue();
+		}
+		return new Function() {
+			public long adjust(String accountID, Currency currency, long balance) {
+				int c = currency.ordinal();
+				long interest = balance > 0 ? dailyInterest(balance, rates[c]) : 0;
+				return interest - Math.min(fees[c], Math.max(0, balance + interest));
+			}
+		};
+	}
+
+	/** Returns the interest a balance earns in a day at a yearly rate, rounded half up
+	 * to the minor unit. Exact: the rate is fixed-point, and the product falls back
+	 * to BigInteger when it needs more than 64 bits, as in ExchangeRates
+	 * @param balance in minor units
+	 * @param yearlyRate in ExchangeRates.RATE_SCALE units
+	 * @return long in minor units
+	 * @throws ArithmeticException if the interest does not fit in a long
+	 */
+	static long dailyInterest(long balance, long yearlyRate) {
+		long denominator = ExchangeRates.RATE_SCALE * DAYS_PER_YEAR;
+		long product = balance * yearlyRate;
+		if(yearlyRate == 0 || product / yearlyRate == balance) {
+			long interest = Math.floorDiv(product, denominator);
+			//Half a minor unit or more rounds up
+			return 2 * Math.floorMod(product, denominator) >= denominator ? interest + 1 : interest;
+		}
+
+		//The product needs more than 64 bits, large balances only
+		BigInteger d = BigInteger.valueOf(denominator);
+		BigInteger[] qr = BigInteger.valueOf(balance).multiply(BigInteger.valueOf(yearlyRate)).divideAndRemainder(d);
+		BigInteger interest = qr[0], remainder = qr[1];
+		if(remainder.signum() < 0) {
+			interest = interest.subtract(BigInteger.ONE);
+			remainder = remainder.add(d);
+		}
+		if(remainder.shiftLeft(1).compareTo(d) >= 0)
+			interest = interest.add(BigInteger.ONE);
+		if(interest.bitLength() > 63)
+			throw new ArithmeticException("Interest overflow on " + balance);
+		return interest.longValue();
+	}
+
+	/** Adjusts a range of the accounts, splitting it in halves down to LEAF accounts.
+	 * Returns the balances adjusted, rejected, and the sequence number of the last change journaled */
+	private final class Task extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Account[] accounts;
+		private final int from, to;
+		private final Function function;
+
+		Task(Account[] accounts, int from, int to, Function function) {
+			this.accounts = accounts;
+			this.from = from;
+			this.to = to;
+			this.function = function;
+		}
+
+		@Override
+		protected long[] compute() {
+			if(to - from > LEAF) {
+				int middle = (from + to) >>> 1;
+				Task right = new Task(accounts, middle, to, function);
+				right.fork();
+				long[] tally = new Task(accounts, from, middle, function).compute();
+				long[] other = right.join();
+				tally[0] += other[0];
+				tally[1] += other[1];
+				tally[2] = Math.max(tally[2], other[2]);
+				return tally;
+			}
+			long[] tally = new long[3];
+			for(int i = from; i < to; i++)
+				tally[2] = Math.max(tally[2], bank.sweep(accounts[i], function, tally));
+			return tally;
+		}
+	}
+}
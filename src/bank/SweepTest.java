@@ -0,0 +1,166 @@
+package bank;
+
+import static org.junit.Assert.*;
+import static bank.TestBanks.id;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** Tests the end-of-day Sweep: per-currency interest and fees, concurrent operations and journal replay
+ * @author JosephKalash
+ *
+ */
+
+public class SweepTest {
+
+	private static final int ACCOUNTS = 5000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot();
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	/** 3.65% a year on USD, 10 JPY a day on JPY */
+	private static Sweep.Function rates() {
+		Map<Currency, Long> rates = new EnumMap<Currency, Long>(Currency.class);
+		rates.put(Currency.USD, ExchangeRates.parseRate("0.0365"));
+		Map<Currency, Long> fees = new EnumMap<Currency, Long>(Currency.class);
+		fees.put(Currency.JPY, 10L);
+		return Sweep.interestAndFees(rates, fees);
+	}
+
+	@Test
+	public void testInterestAndFees() {
+		Sweep.Function f = rates();
+		assertEquals(100, f.adjust("123", Currency.USD, 1000000));
+		assertEquals(1, f.adjust("123", Currency.USD, 5001));
+		assertEquals(0, f.adjust("123", Currency.USD, 4999));
+		//Exactly half a cent: 0.0365 / 365 as a double is just below 0.0001, which rounded these down
+		assertEquals(1, f.adjust("123", Currency.USD, 5000));
+		assertEquals(2, f.adjust("123", Currency.USD, 15000));
+		assertEquals(0, f.adjust("123", Currency.USD, 0));
+		assertEquals(-10, f.adjust("123", Currency.JPY, 500));
+		assertEquals(-3, f.adjust("123", Currency.JPY, 3));
+		assertEquals(0, f.adjust("123", Currency.EUR, 500));
+	}
+
+	/** Interest beyond 64 bits of product, and negative rates, still round half up */
+	@Test
+	public void testDailyInterest() {
+		long rate = ExchangeRates.parseRate("0.0365");
+		assertEquals(Long.MAX_VALUE / 10000 + 1, Sweep.dailyInterest(Long.MAX_VALUE, rate));
+		assertEquals(-1, Sweep.dailyInterest(15000, -rate));
+		assertEquals(-2, Sweep.dailyInterest(15001, -rate));
+		assertEquals(0, Sweep.dailyInterest(Long.MAX_VALUE, 0));
+		try {
+			Sweep.dailyInterest(Long.MAX_VALUE, Long.MAX_VALUE);
+			fail();
+		}
+		catch(ArithmeticException e) {
+		}
+	}
+
+	/** Every balance of every account is adjusted by its own currency's rate */
+	@Test
+	public void testSweep() {
+		Bank bank = new Bank();
+		for(int i = 0; i < ACCOUNTS; i++)
+			bank.createAccount(id(i), "First", "Last", Arrays.asList(new Balance(Currency.USD, 1000000 + i),
+					new Balance(Currency.JPY, i % 20), new Balance(Currency.EUR, 700)));
+
+		Sweep.Report report = new Sweep(bank, pool).run(rates());
+		assertEquals(ACCOUNTS, report.accounts);
+		//Empty JPY balances pay no fee
+		assertEquals(2 * ACCOUNTS - ACCOUNTS / 20, report.adjusted);
+		assertEquals(0, report.rejected);
+		for(int i = 0; i < ACCOUNTS; i++) {
+			assertEquals(1000100 + i, bank.balanceInquiry(id(i), Currency.USD).balance);
+			assertEquals(Math.max(0, i % 20 - 10), bank.balanceInquiry(id(i), Currency.JPY).balance);
+			assertEquals(700, bank.balanceInquiry(id(i), Currency.EUR).balance);
+		}
+	}
+
+	/** A function taking more than a balance holds is rejected, the other balances still change */
+	@Test
+	public void testRejected() {
+		Bank bank = new Bank();
+		bank.createAccount("123", "Joseph", "Kalash", Arrays.asList(new Balance(Currency.USD, 100), new Balance(Currency.EUR, 100)));
+		Sweep.Report report = new Sweep(bank, pool).run(new Sweep.Function() {
+			public long adjust(String accountID, Currency currency, long balance) {
+				return currency == Currency.USD ? -101 : -1;
+			}
+		});
+		assertEquals(1, report.adjusted);
+		assertEquals(1, report.rejected);
+		assertEquals(100, bank.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(99, bank.balanceInquiry("123", Currency.EUR).balance);
+	}
+
+	/** Transfers running during the sweep are neither lost nor adjusted twice */
+	@Test
+	public void testConcurrentTransfers() throws Exception {
+		final Bank bank = new Bank();
+		for(int i = 0; i < ACCOUNTS; i++)
+			bank.createAccount(id(i), "First", "Last", Collections.singletonList(new Balance(Currency.USD, 1000000)));
+
+		//Adds 1 to every balance, whatever it is, so the total only grows by the number of accounts
+		final Sweep.Function one = new Sweep.Function() {
+			public long adjust(String accountID, Currency currency, long balance) {
+				return 1;
+			}
+		};
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread transfers = new Thread(new Runnable() {
+			public void run() {
+				Random random = new Random(42);
+				while(running.get())
+					assertTrue(bank.transfer(id(random.nextInt(ACCOUNTS)), id(random.nextInt(ACCOUNTS)), Currency.USD, 1 + random.nextInt(1000)).isSuccess());
+			}
+		});
+		transfers.start();
+		for(int day = 0; day < 5; day++)
+			assertEquals(ACCOUNTS, new Sweep(bank, pool).run(one).adjusted);
+		running.set(false);
+		transfers.join();
+
+		long total = 0;
+		for(int i = 0; i < ACCOUNTS; i++)
+			total += bank.balanceInquiry(id(i), Currency.USD).balance;
+		assertEquals(ACCOUNTS * (1000000L + 5), total);
+	}
+
+	/** The adjustments are journaled and replayed after a crash */
+	@Test
+	public void testJournaled() throws IOException {
+		BankStore store = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0);
+		for(int i = 0; i < 100; i++)
+			store.bank.createAccount(id(i), "First", "Last", Arrays.asList(new Balance(Currency.USD, 1000000 * (i + 1)), new Balance(Currency.JPY, 15)));
+		new Sweep(store.bank, pool).run(rates());
+		store.snapshot();
+		new Sweep(store.bank, pool).run(rates());
+
+		//Dropped without closing: a crash
+		Bank recovered = new BankStore(directory, Journal.SyncPolicy.ALWAYS, 1, 0).bank;
+		assertEquals(1000000 + 100 + 100, recovered.balanceInquiry(id(0), Currency.USD).balance);
+		for(int i = 0; i < 100; i++)
+			for(Currency c : new Currency[] {Currency.USD, Currency.JPY})
+				assertEquals(store.bank.balanceInquiry(id(i), c).balance, recovered.balanceInquiry(id(i), c).balance);
+		assertEquals(0, recovered.balanceInquiry(id(0), Currency.JPY).balance);
+	}
+}
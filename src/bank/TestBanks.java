@@ -0,0 +1,20 @@
+package bank;
+
+/** Helpers shared by the tests, next to the Banks helpers of the benchmarks
+ * @author JosephKalash
+ *
+ */
+
+final class TestBanks {
+
+	private TestBanks() {
+	}
+
+	/** Returns the ID of the i-th account of a test bank, as Banks.id() of the benchmarks
+	 * @param i
+	 * @return String
+	 * */
+	static String id(int i) {
+		return Integer.toString(100 + i);
+	}
+}
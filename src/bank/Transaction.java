@@ -0,0 +1,300 @@
+package bank;
+
+import java.util.*;
+import java.nio.*;
+import java.nio.charset.Charset;
+
+/** Transaction class describes one operation applied to the Bank,
+ * with everything needed to apply it again:
+ * it is the record written to the Journal and replayed at startup.
+ *
+ * A transaction may carry an idempotency key chosen by the client, see withKey():
+ * the Bank then applies it once however many times it is retried, see IdempotencyCache.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class Transaction {
+
+	/** Kinds of operations, in the order of the menu */
+	public enum Type {
+		CREATE_ACCOUNT,
+		DELETE_BALANCE,
+		DELETE_ACCOUNT,
+		WITHDRAW,
+		DEPOSIT,
+		TRANSFER,
+		EXCHANGE_TRANSFER,
+		/** Signed change of a balance by an end-of-day sweep, see Sweep */
+		ADJUST
+	};
+
+	/** Character set of the names and IDs in the binary form */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Bit of the type byte set when the idempotency key follows it in the binary form */
+	private static final int KEYED = 0x80;
+
+	/** Bit of the type byte set when the amounts are minor units of their currency, see Currency.scale.
+	 * Older versions wrote every amount in hundredths of a unit and never set it */
+	private static final int SCALED = 0x40;
+
+	/** Kind of operation */
+	public final Type type;
+
+	/** Account the operation applies to, the sender for a transfer */
+	public final String accountID;
+
+	/** Receiver of a transfer, null otherwise */
+	public final String toID;
+
+	/** Currency of the operation, null for account creation and deletion */
+	public final Currency currency;
+
+	/** Amount moved in minor units, 0 if none, negative for an adjustment taking from the balance */
+	public final long amount;
+
+	/** Currency the receiver of an exchange transfer is paid in, null otherwise */
+	public final Currency toCurrency;
+
+	/** Amount the receiver of an exchange transfer is paid, in minor units of toCurrency */
+	public final long toAmount;
+
+	/** First name of a created account */
+	public final String firstName;
+
+	/** Last name of a created account */
+	public final String lastName;
+
+	/** Opening balances of a created account */
+	public final List<Balance> balances;
+
+	/** Idempotency key, 0 if none */
+	public final long key;
+
+	/** Constructor with all fields, see the static factories
+	 * @param type
+	 * @param accountID
+	 * @param toID
+	 * @param currency
+	 * @param amount
+	 * @param toCurrency
+	 * @param toAmount
+	 * @param firstName
+	 * @param lastName
+	 * @param balances
+	 * @param key
+	 * */
+	Transaction(Type type, String accountID, String toID, Currency currency, long amount,
+			Currency toCurrency, long toAmount, String firstName, String lastName, List<Balance> balances, long key) {
+		this.type = type;
+		this.accountID = accountID;
+		this.toID = toID;
+		this.currency = currency;
+		this.amount = amount;
+		this.toCurrency = toCurrency;
+		this.toAmount = toAmount;
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.balances = balances;
+		this.key = key;
+	}
+
+	/** Static factories, one per kind of operation */
+
+	public static Transaction createAccount(String accountID, String firstName, String lastName, List<Balance> balances) {
+		return new Transaction(Type.CREATE_ACCOUNT, accountID, null, null, 0, null, 0, firstName, lastName, balances, 0);
+	}
+
+	public static Transaction deleteBalance(String accountID, Currency currency) {
+		return new Transaction(Type.DELETE_BALANCE, accountID, null, currency, 0, null, 0, null, null, null, 0);
+	}
+
+	public static Transaction deleteAccount(String accountID) {
+		return new Transaction(Type.DELETE_ACCOUNT, accountID, null, null, 0, null, 0, null, null, null, 0);
+	}
+
+	public static Transaction withdraw(String accountID, Currency currency, long amount) {
+		return new Transaction(Type.WITHDRAW, accountID, null, currency, amount, null, 0, null, null, null, 0);
+	}
+
+	public static Transaction deposit(String accountID, Currency currency, long amount) {
+		return new Transaction(Type.DEPOSIT, accountID, null, currency, amount, null, 0, null, null, null, 0);
+	}
+
+	public static Transaction transfer(String fromID, String toID, Currency currency, long amount) {
+		return new Transaction(Type.TRANSFER, fromID, toID, currency, amount, null, 0, null, null, null, 0);
+	}
+
+	public static Transaction exchangeTransfer(String fromID, String toID, Currency currency, long amount, Currency toCurrency, long toAmount) {
+		return new Transaction(Type.EXCHANGE_TRANSFER, fromID, toID, currency, amount, toCurrency, toAmount, null, null, null, 0);
+	}
+
+	public static Transaction adjust(String accountID, Currency currency, long amount) {
+		return new Transaction(Type.ADJUST, accountID, null, currency, amount, null, 0, null, null, null, 0);
+	}
+
+	/** Returns the same transaction with an idempotency key
+	 * @param key any value but 0, unique to the transaction
+	 * @return Transaction this if it already has that key
+	 * */
+	public Transaction withKey(long key) {
+		if(key == this.key)
+			return this;
+		return new Transaction(type, accountID, toID, currency, amount, toCurrency, toAmount, firstName, lastName, balances, key);
+	}
+
+	/** Writes the binary form of the transaction:
+	 * type with its SCALED bit set, idempotency key if any (the type has its KEYED bit set),
+	 * account ID, then the fields used by that type
+	 * @param out
+	 * @throws BufferOverflowException if out is too small
+	 * */
+	public void encode(ByteBuffer out) {
+		if(key == 0)
+			out.put((byte)(type.ordinal() | SCALED));
+		else {
+			out.put((byte)(type.ordinal() | SCALED | KEYED));
+			out.putLong(key);
+		}
+		putString(out, accountID);
+		switch(type) {
+			case CREATE_ACCOUNT:
+				putString(out, firstName);
+				putString(out, lastName);
+				out.put((byte)balances.size());
+				for(Balance b : balances) {
+					out.put((byte)b.currency.ordinal());
+					out.putLong(b.value);
+				}
+				break;
+			case EXCHANGE_TRANSFER:
+				putString(out, toID);
+				out.put((byte)currency.ordinal());
+				out.putLong(amount);
+				out.put((byte)toCurrency.ordinal());
+				out.putLong(toAmount);
+				break;
+			case TRANSFER:
+				putString(out, toID);
+				//Fall through: a transfer also has a currency and an amount
+			case WITHDRAW:
+			case DEPOSIT:
+			case ADJUST:
+				out.put((byte)currency.ordinal());
+				out.putLong(amount);
+				break;
+			case DELETE_BALANCE:
+				out.put((byte)currency.ordinal());
+				break;
+			case DELETE_ACCOUNT:
+				break;
+		}
+	}
+
+	/** Reads a transaction written by encode(), or by an older version in hundredths of a unit
+	 * @param in
+	 * @return Transaction
+	 * @throws BufferUnderflowException if in holds an incomplete transaction
+	 * */
+	public static Transaction decode(ByteBuffer in) {
+		int kind = in.get() & 0xFF;
+		long key = (kind & KEYED) == 0 ? 0 : in.getLong();
+		return decode(in, Type.values()[kind & ~(KEYED | SCALED)], (kind & SCALED) != 0).withKey(key);
+	}
+
+	/** Reads the fields that follow the type and key
+	 * @param in
+	 * @param type
+	 * @param scaled false if the amounts are in hundredths of a unit
+	 * @return Transaction without key
+	 * */
+	private static Transaction decode(ByteBuffer in, Type type, boolean scaled) {
+		String accountID = getString(in);
+		switch(type) {
+			case CREATE_ACCOUNT:
+				String firstName = getString(in);
+				String lastName = getString(in);
+				int count = in.get();
+				List<Balance> balances = new ArrayList<Balance>(count);
+				for(int i = 0; i < count; i++) {
+					Currency c = Currency.values()[in.get()];
+					balances.add(new Balance(c, getAmount(in, c, scaled)));
+				}
+				return createAccount(accountID, firstName, lastName, balances);
+			case TRANSFER:
+				String toID = getString(in);
+				Currency c = Currency.values()[in.get()];
+				return transfer(accountID, toID, c, getAmount(in, c, scaled));
+			case EXCHANGE_TRANSFER:
+				toID = getString(in);
+				c = Currency.values()[in.get()];
+				long amount = getAmount(in, c, scaled);
+				Currency toCurrency = Currency.values()[in.get()];
+				return exchangeTransfer(accountID, toID, c, amount, toCurrency, getAmount(in, toCurrency, scaled));
+			case WITHDRAW:
+				c = Currency.values()[in.get()];
+				return withdraw(accountID, c, getAmount(in, c, scaled));
+			case DEPOSIT:
+				c = Currency.values()[in.get()];
+				return deposit(accountID, c, getAmount(in, c, scaled));
+			case ADJUST:
+				c = Currency.values()[in.get()];
+				return adjust(accountID, c, getAmount(in, c, scaled));
+			case DELETE_BALANCE:
+				return deleteBalance(accountID, Currency.values()[in.get()]);
+			default:
+				return deleteAccount(accountID);
+		}
+	}
+
+	/** Reads an amount, converted to minor units if it is in hundredths of a unit
+	 * @param in
+	 * @param currency
+	 * @param scaled
+	 * @return long
+	 * */
+	private static long getAmount(ByteBuffer in, Currency currency, boolean scaled) {
+		long amount = in.getLong();
+		return scaled ? amount : Money.fromHundredths(amount, currency);
+	}
+
+	/** Writes a string as its UTF-8 length followed by its bytes
+	 * @param out
+	 * @param s
+	 * */
+	static void putString(ByteBuffer out, String s) {
+		byte[] bytes = (s == null ? "" : s).getBytes(UTF8);
+		out.putShort((short)bytes.length);
+		out.put(bytes);
+	}
+
+	/** Reads a string written by putString()
+	 * @param in
+	 * @return String
+	 * */
+	static String getString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getShort() & 0xFFFF];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/** Prints the transaction
+	 * @return String
+	 * */
+	@Override
+	public String toString() {
+		switch(type) {
+			case CREATE_ACCOUNT: return type + " " + accountID + " " + firstName + " " + lastName + " " + balances;
+			case TRANSFER: return type + " " + accountID + " -> " + toID + " " + currency + "=" + Money.format(amount, currency);
+			case EXCHANGE_TRANSFER: return type + " " + accountID + " -> " + toID + " " + currency + "=" + Money.format(amount, currency)
+					+ " -> " + toCurrency + "=" + Money.format(toAmount, toCurrency);
+			case WITHDRAW:
+			case DEPOSIT:
+			case ADJUST: return type + " " + accountID + " " + currency + "=" + Money.format(amount, currency);
+			case DELETE_BALANCE: return type + " " + accountID + " " + currency;
+			default: return type + " " + accountID;
+		}
+	}
+}
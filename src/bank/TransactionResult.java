@@ -0,0 +1,97 @@
+package bank;
+
+
+/** TransactionResult class describes the outcome
+ * of a single operation performed on the Bank:
+ * its status, the account and currency involved,
+ * the amount moved and the resulting balance.
+ *
+ * @author JosephKalash
+ *
+ */
+
+public class TransactionResult {
+
+	/** Possible outcomes of a bank operation */
+	public enum Status {
+		OK,
+		INVALID_ID,
+		ACCOUNT_EXISTS,
+		UNKNOWN_ACCOUNT,
+		MISSING_CURRENCY,
+		INSUFFICIENT_FUNDS,
+		INVALID_AMOUNT,
+		OVERFLOW,
+		NO_RATE,
+		KEY_REUSED,
+		/** The balance or account cannot be deleted while a transfer from it is settling, see ShardedBank */
+		TRANSFER_PENDING
+	};
+
+	/** Outcome of the operation */
+	public final Status status;
+
+	/** Account ID the operation was about */
+	public final String accountID;
+
+	/** Currency of the balance involved, null if none */
+	public final Currency currency;
+
+	/** Amount that was requested, in minor units */
+	public final long amount;
+
+	/** Balance of the account in that currency after the operation, in minor units */
+	public final long balance;
+
+	/** Constructor with all result fields
+	 * @param status
+	 * @param accountID
+	 * @param currency
+	 * @param amount
+	 * @param balance
+	 * */
+	TransactionResult(Status status, String accountID, Currency currency, long amount, long balance) {
+		this.status = status;
+		this.accountID = accountID;
+		this.currency = currency;
+		this.amount = amount;
+		this.balance = balance;
+	}
+
+	/** Constructor for a result without balance information
+	 * @param status
+	 * @param accountID
+	 * @param currency
+	 * */
+	TransactionResult(Status status, String accountID, Currency currency) {
+		this(status, accountID, currency, 0, 0);
+	}
+
+	/** Returns true if the operation was applied
+	 * @return boolean
+	 * */
+	public boolean isSuccess() {
+		return status == Status.OK;
+	}
+
+	/** Prints the outcome of the operation
+	 * @return String
+	 * */
+	@Override
+	public String toString() {
+		switch(status) {
+			case OK: return "OK";
+			case INVALID_ID: return "Invalid Account ID " + accountID + "!";
+			case ACCOUNT_EXISTS: return "Account ID " + accountID + " already exists!";
+			case UNKNOWN_ACCOUNT: return "Account " + accountID + " does not exist!";
+			case MISSING_CURRENCY: return "Account ID " + accountID + " does not have a " + currency + " account.";
+			case INSUFFICIENT_FUNDS: return "Not enough money in the " + currency + " account of Account ID " + accountID + "!";
+			case INVALID_AMOUNT: return "Invalid amount " + (currency == null ? Long.toString(amount) : Money.format(amount, currency)) + ".";
+			case OVERFLOW: return "The " + currency + " account of Account ID " + accountID + " cannot hold " + Money.format(amount, currency) + " more.";
+			case NO_RATE: return "No exchange rate to " + currency + " is available.";
+			case KEY_REUSED: return "The idempotency key was already used by another transaction.";
+			case TRANSFER_PENDING: return "Account ID " + accountID + " has a transfer in progress, try again once it is settled.";
+			default: return "";
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package bank;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import java.util.*;
+
+public class UnitTest {
+
+	private Bank b;
+
+	/** Creates a bank with two accounts:
+	 * 123 holding 100 USD and 50 EUR, 456 holding 10 USD
+	 */
+	@Before
+	public void setUp() {
+		b = new Bank();
+
+		List<Balance> balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 10000));
+		balances.add(new Balance(Currency.EUR, 5000));
+		assertTrue(b.createAccount("123", "John", "Doe", balances).isSuccess());
+
+		balances = new ArrayList<Balance>();
+		balances.add(new Balance(Currency.USD, 1000));
+		assertTrue(b.createAccount("456", "Jane", "Roe", balances).isSuccess());
+	}
+
+	@Test
+	public void testCreateAccount() {
+		Account acc = b.findAccount("123");
+		assertNotNull(acc);
+		assertEquals("John", acc.firstName);
+		assertEquals(10000, acc.balance(Currency.USD));
+
+		List<Balance> none = new ArrayList<Balance>();
+		assertEquals(TransactionResult.Status.ACCOUNT_EXISTS, b.createAccount("123", "A", "B", none).status);
+		assertEquals(TransactionResult.Status.INVALID_ID, b.createAccount("1a", "A", "B", none).status);
+		assertEquals(TransactionResult.Status.INVALID_ID, b.createAccount("1", "A", "B", none).status);
+		assertTrue(b.createAccount("0123", "A", "B", none).isSuccess());
+		assertNotSame(b.findAccount("123"), b.findAccount("0123"));
+	}
+
+	@Test
+	public void testDeleteAccountBalance() {
+		assertTrue(b.deleteAccountBalance("123", Currency.EUR).isSuccess());
+		assertFalse(b.findAccount("123").containsBalanceWithCurrency(Currency.EUR));
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, b.deleteAccountBalance("123", Currency.EUR).status);
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, b.deleteAccountBalance("789", Currency.EUR).status);
+	}
+
+	@Test
+	public void testDeleteAccountID() {
+		assertTrue(b.deleteAccountID("456").isSuccess());
+		assertNull(b.findAccount("456"));
+		assertEquals(1, b.accounts.size());
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, b.deleteAccountID("456").status);
+	}
+
+	@Test
+	public void testBalanceInquiry() {
+		TransactionResult result = b.balanceInquiry("123", Currency.EUR);
+		assertTrue(result.isSuccess());
+		assertEquals(5000, result.balance);
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, b.balanceInquiry("456", Currency.EUR).status);
+	}
+
+	@Test
+	public void testWithdraw() {
+		TransactionResult result = b.withdraw("123", Currency.USD, 4000);
+		assertTrue(result.isSuccess());
+		assertEquals(6000, result.balance);
+
+		assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS, b.withdraw("123", Currency.USD, 6100).status);
+		assertEquals(TransactionResult.Status.INVALID_AMOUNT, b.withdraw("123", Currency.USD, -100).status);
+		assertEquals(6000, b.balanceInquiry("123", Currency.USD).balance);
+	}
+
+	@Test
+	public void testDeposit() {
+		TransactionResult result = b.deposit("456", Currency.USD, 1500);
+		assertTrue(result.isSuccess());
+		assertEquals(2500, result.balance);
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, b.deposit("456", Currency.JPY, 1500).status);
+	}
+
+	@Test
+	public void testTransfer() {
+		assertTrue(b.transfer("123", "456", Currency.USD, 3000).isSuccess());
+		assertEquals(7000, b.balanceInquiry("123", Currency.USD).balance);
+		assertEquals(4000, b.balanceInquiry("456", Currency.USD).balance);
+
+		assertEquals(TransactionResult.Status.INSUFFICIENT_FUNDS, b.transfer("456", "123", Currency.USD, 4100).status);
+
+		TransactionResult missing = b.transfer("123", "456", Currency.EUR, 100);
+		assertEquals(TransactionResult.Status.MISSING_CURRENCY, missing.status);
+		assertEquals("456", missing.accountID);
+		assertEquals(5000, b.balanceInquiry("123", Currency.EUR).balance);
+
+		assertEquals(TransactionResult.Status.UNKNOWN_ACCOUNT, b.transfer("123", "789", Currency.USD, 100).status);
+	}
+
+	@Test
+	public void testOverflowIsRefused() {
+		assertTrue(b.deposit("456", Currency.USD, Long.MAX_VALUE - 1000).isSuccess());
+		TransactionResult result = b.deposit("456", Currency.USD, 1);
+		assertEquals(TransactionResult.Status.OVERFLOW, result.status);
+		assertEquals(Long.MAX_VALUE, b.balanceInquiry("456", Currency.USD).balance);
+
+		result = b.transfer("123", "456", Currency.USD, 100);
+		assertEquals(TransactionResult.Status.OVERFLOW, result.status);
+		assertEquals("456", result.accountID);
+		assertEquals(10000, b.balanceInquiry("123", Currency.USD).balance);
+	}
+
+	@Test
+	public void testTransferToSelf() {
+		assertTrue(b.transfer("123", "123", Currency.USD, 3000).isSuccess());
+		assertEquals(10000, b.balanceInquiry("123", Currency.USD).balance);
+	}
+
+	@Test
+	public void testQuit() {
+		assertEquals(2, b.accounts.size());
+	}
+
+}